@@ -685,6 +685,38 @@ public class RepositoryServiceDbData
         return new File(documentUri, aUser + ".ser");
     }
 
+    @Override
+    public Map<Integer, Long> getSentenceHashes(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        synchronized (lock) {
+            File casFile = getCasFile(aDocument, aUser);
+            return SentenceHashes.read(getSentenceHashFile(casFile), casFile);
+        }
+    }
+
+    private File getSentenceHashFile(File aCasFile)
+    {
+        return new File(aCasFile.getParentFile(), FilenameUtils.getBaseName(aCasFile.getName())
+                + ".hashes");
+    }
+
+    /**
+     * Update the sentence content hashes of a CAS that has just been written.
+     */
+    private void writeSentenceHashes(JCas aJcas, File aCasFile)
+    {
+        File hashFile = getSentenceHashFile(aCasFile);
+        try {
+            SentenceHashes.write(hashFile, aCasFile, SentenceHashes.compute(aJcas.getCas()));
+        }
+        catch (IOException e) {
+            // The hashes are only an optimization - without them, all sentences count as changed
+            log.warn("Unable to write sentence hashes to [" + hashFile + "]", e);
+            FileUtils.deleteQuietly(hashFile);
+        }
+    }
+
     @Override
     public File getProjectLogFile(Project aProject)
     {
@@ -1009,6 +1041,66 @@ public class RepositoryServiceDbData
                 .setParameter("document", aDocument).getResultList();
     }
 
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public Map<Long, Map<String, AnnotationDocumentState>> getAnnotationDocumentStates(
+            Project aProject, List<Long> aDocumentIds)
+    {
+        Map<Long, Map<String, AnnotationDocumentState>> states = new HashMap<Long, Map<String, AnnotationDocumentState>>();
+
+        // Get all annotators in the project
+        List<String> users = getAllAnnotators(aProject);
+        // Bail out already. HQL doesn't seem to like queries with an empty
+        // parameter right of "in"
+        if (users.isEmpty() || aDocumentIds.isEmpty()) {
+            return states;
+        }
+
+        List<Object[]> rows = entityManager
+                .createQuery(
+                        "SELECT document.id, user, state FROM AnnotationDocument WHERE "
+                                + "project = :project AND document.id in (:documents) "
+                                + "AND user in (:users)", Object[].class)
+                .setParameter("project", aProject).setParameter("documents", aDocumentIds)
+                .setParameter("users", users).getResultList();
+        for (Object[] row : rows) {
+            Map<String, AnnotationDocumentState> documentStates = states.get(row[0]);
+            if (documentStates == null) {
+                documentStates = new HashMap<String, AnnotationDocumentState>();
+                states.put((Long) row[0], documentStates);
+            }
+            documentStates.put((String) row[1], (AnnotationDocumentState) row[2]);
+        }
+        return states;
+    }
+
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public long countNonTrainingSourceDocuments(Project aProject)
+    {
+        return entityManager
+                .createQuery(
+                        "SELECT COUNT(*) FROM SourceDocument WHERE project = :project "
+                                + "AND trainingDocument = false AND format <> :format",
+                        Long.class).setParameter("project", aProject)
+                .setParameter("format", WebAnnoConst.TAB_SEP).getSingleResult();
+    }
+
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public List<Object[]> listNonTrainingSourceDocumentStates(Project aProject,
+            boolean aAscending, int aFirst, int aCount)
+    {
+        return entityManager
+                .createQuery(
+                        "SELECT id, name, state FROM SourceDocument WHERE project = :project "
+                                + "AND trainingDocument = false AND format <> :format "
+                                + "ORDER BY name " + (aAscending ? "ASC" : "DESC"),
+                        Object[].class).setParameter("project", aProject)
+                .setParameter("format", WebAnnoConst.TAB_SEP).setFirstResult(aFirst)
+                .setMaxResults(aCount).getResultList();
+    }
+
     @Override
     public int numberOfExpectedAnnotationDocuments(Project aProject)
     {
@@ -1640,6 +1732,7 @@ public class RepositoryServiceDbData
 
                 File targetPath = getAnnotationFolder(aDocument);
                 writeSerializedCas(aJcas, new File(targetPath, aUserName+".ser"));
+                writeSentenceHashes(aJcas, new File(targetPath, aUserName + ".ser"));
 
                 createLog(aDocument.getProject()).info(
                         "Updated annotation document [" + aDocument.getName() + "] " + "with ID ["
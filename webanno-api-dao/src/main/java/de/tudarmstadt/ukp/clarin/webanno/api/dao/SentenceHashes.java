@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CommonArrayFS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Content hashes of the sentences of a CAS. The hash of a sentence covers the type, offsets and
+ * feature values of all annotations starting within the sentence. The hashes are written next to
+ * the serialized CAS whenever the CAS is saved, so that other components can detect which
+ * sentences changed without comparing the CAS contents.
+ */
+public class SentenceHashes
+{
+    private static final String ENCODING = "UTF-8";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SentenceHashes()
+    {
+        // No instances
+    }
+
+    /**
+     * Compute the content hashes of all sentences in the given CAS.
+     *
+     * @param aCas
+     *            the CAS.
+     * @return the hashes by sentence begin offset.
+     */
+    public static Map<Integer, Long> compute(CAS aCas)
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        Type sentenceType = CasUtil.getType(aCas, Sentence.class);
+        Type documentType = ts.getType(CAS.TYPE_NAME_DOCUMENT_ANNOTATION);
+
+        List<AnnotationFS> sentences = new ArrayList<AnnotationFS>(
+                CasUtil.select(aCas, sentenceType));
+        long[] hashes = new long[sentences.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = FNV_OFFSET;
+        }
+
+        // Sentences and annotations are both sorted by begin offset, so a single pass suffices
+        int current = 0;
+        for (AnnotationFS fs : aCas.getAnnotationIndex()) {
+            Type type = fs.getType();
+            if (ts.subsumes(sentenceType, type) || ts.subsumes(documentType, type)) {
+                continue;
+            }
+
+            while (current + 1 < sentences.size()
+                    && sentences.get(current + 1).getBegin() <= fs.getBegin()) {
+                current++;
+            }
+            if (current >= sentences.size()) {
+                break;
+            }
+
+            hashes[current] = hash(hashes[current], fs);
+        }
+
+        Map<Integer, Long> result = new HashMap<Integer, Long>();
+        for (int i = 0; i < hashes.length; i++) {
+            result.put(sentences.get(i).getBegin(), hashes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Write the hashes for the given CAS file.
+     *
+     * @param aHashFile
+     *            the file to write the hashes to.
+     * @param aCasFile
+     *            the serialized CAS the hashes were computed from.
+     * @param aHashes
+     *            the hashes.
+     * @throws IOException
+     *             if the hashes cannot be written.
+     */
+    public static void write(File aHashFile, File aCasFile, Map<Integer, Long> aHashes)
+        throws IOException
+    {
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(aHashFile),
+                    ENCODING));
+            out.write(getVersion(aCasFile));
+            out.write('\n');
+            for (Map.Entry<Integer, Long> e : aHashes.entrySet()) {
+                out.write(e.getKey() + "\t" + e.getValue() + "\n");
+            }
+        }
+        finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Read the hashes for the given CAS file.
+     *
+     * @param aHashFile
+     *            the file to read the hashes from.
+     * @param aCasFile
+     *            the serialized CAS.
+     * @return the hashes by sentence begin offset or {@code null} if there are no hashes or if
+     *         they were not computed from the current version of the CAS.
+     * @throws IOException
+     *             if the hashes cannot be read.
+     */
+    public static Map<Integer, Long> read(File aHashFile, File aCasFile)
+        throws IOException
+    {
+        if (!aHashFile.exists() || !aCasFile.exists()) {
+            return null;
+        }
+
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(aHashFile),
+                    ENCODING));
+            if (!getVersion(aCasFile).equals(in.readLine())) {
+                return null;
+            }
+
+            Map<Integer, Long> hashes = new HashMap<Integer, Long>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                hashes.put(Integer.valueOf(line.substring(0, tab)),
+                        Long.valueOf(line.substring(tab + 1)));
+            }
+            return hashes;
+        }
+        catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // Corrupt file - treat as missing
+            FileUtils.deleteQuietly(aHashFile);
+            return null;
+        }
+        finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * The version of a serialized CAS. It changes whenever the CAS is written.
+     *
+     * @param aCasFile
+     *            the serialized CAS.
+     * @return the version.
+     */
+    public static String getVersion(File aCasFile)
+    {
+        return aCasFile.lastModified() + ":" + aCasFile.length();
+    }
+
+    private static long hash(long aHash, FeatureStructure aFS)
+    {
+        return hash(aHash, aFS, new HashMap<Integer, Integer>());
+    }
+
+    /**
+     * Hash a feature structure and the non-annotation feature structures it references. A
+     * feature structure which has already been hashed, e.g. in a cycle or in a graph with shared
+     * nodes, is represented by a back-reference to the order in which it was visited. This keeps
+     * the hash independent of the addresses in the CAS.
+     *
+     * @param aVisited
+     *            the order of the visited feature structures by their address.
+     */
+    private static long hash(long aHash, FeatureStructure aFS, Map<Integer, Integer> aVisited)
+    {
+        int address = aFS.getCAS().getLowLevelCAS().ll_getFSRef(aFS);
+        Integer visit = aVisited.get(address);
+        if (visit != null) {
+            return hash((aHash ^ 0xfd) * FNV_PRIME, visit);
+        }
+        aVisited.put(address, aVisited.size());
+
+        long h = hash(aHash, aFS.getType().getName());
+        for (Feature feature : aFS.getType().getFeatures()) {
+            if (CAS.FEATURE_FULL_NAME_SOFA.equals(feature.getName())) {
+                continue;
+            }
+
+            if (feature.getRange().isPrimitive()) {
+                h = hash(h, aFS.getFeatureValueAsString(feature));
+                continue;
+            }
+
+            FeatureStructure value = aFS.getFeatureValue(feature);
+            if (value instanceof AnnotationFS) {
+                // Referenced annotations are represented by their offsets
+                h = hash(h, ((AnnotationFS) value).getBegin());
+                h = hash(h, ((AnnotationFS) value).getEnd());
+            }
+            else if (value instanceof ArrayFS) {
+                ArrayFS array = (ArrayFS) value;
+                for (int i = 0; i < array.size(); i++) {
+                    FeatureStructure element = array.get(i);
+                    if (element instanceof AnnotationFS) {
+                        h = hash(h, ((AnnotationFS) element).getBegin());
+                        h = hash(h, ((AnnotationFS) element).getEnd());
+                    }
+                    else if (element != null) {
+                        h = hash(h, element, aVisited);
+                    }
+                }
+            }
+            else if (value instanceof CommonArrayFS) {
+                for (String element : ((CommonArrayFS) value).toStringArray()) {
+                    h = hash(h, element);
+                }
+            }
+            else if (value != null) {
+                h = hash(h, value, aVisited);
+            }
+        }
+        return h;
+    }
+
+    private static long hash(long aHash, String aValue)
+    {
+        long h = aHash;
+        if (aValue == null) {
+            return (h ^ 0xff) * FNV_PRIME;
+        }
+        for (int i = 0; i < aValue.length(); i++) {
+            h = (h ^ aValue.charAt(i)) * FNV_PRIME;
+        }
+        // Terminate the value so that adjacent values cannot be confused
+        return (h ^ 0xfe) * FNV_PRIME;
+    }
+
+    private static long hash(long aHash, int aValue)
+    {
+        return (aHash ^ aValue) * FNV_PRIME;
+    }
+}
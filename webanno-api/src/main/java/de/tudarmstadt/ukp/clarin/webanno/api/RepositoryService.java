@@ -401,6 +401,23 @@ public interface RepositoryService
      */
     File getCasFile(SourceDocument document, String user);
 
+    /**
+     * Get the content hashes of the sentences in the annotation CAS of the given user. The hashes
+     * are updated whenever the CAS is saved, so a changed hash indicates that the annotations in
+     * the sentence have changed.
+     *
+     * @param document
+     *            the source document.
+     * @param user
+     *            the username.
+     * @return the hashes by sentence begin offset or {@code null} if no hashes are available for
+     *         the current version of the CAS.
+     * @throws IOException
+     *             if the hashes cannot be read.
+     */
+    Map<Integer, Long> getSentenceHashes(SourceDocument document, String user)
+        throws IOException;
+
     /**
      * Get the annotation document.
      * 
@@ -458,6 +475,51 @@ public interface RepositoryService
      */
     List<AnnotationDocument> listAnnotationDocuments(SourceDocument document);
 
+    /**
+     * Get the states of the annotation documents of the given source documents with a single
+     * query. Only the states are read, the annotation documents themselves are not loaded. As in
+     * {@link #listAnnotationDocuments(SourceDocument)}, only the annotation documents of the
+     * annotators in the project are considered.
+     *
+     * @param aProject
+     *            the project.
+     * @param aDocumentIds
+     *            the ids of source documents in the project.
+     * @return the states by source document id and user name. Source documents without
+     *         annotation documents are not contained.
+     */
+    Map<Long, Map<String, AnnotationDocumentState>> getAnnotationDocumentStates(Project aProject,
+            List<Long> aDocumentIds);
+
+    /**
+     * Count the source documents of a project which are annotated by the users, i.e. the
+     * documents of {@link #listSourceDocuments(Project)} which are not training documents.
+     *
+     * @param aProject
+     *            the project.
+     * @return the number of documents.
+     */
+    long countNonTrainingSourceDocuments(Project aProject);
+
+    /**
+     * Get the id, name and state of a page of the documents counted by
+     * {@link #countNonTrainingSourceDocuments(Project)}, ordered by name. Only these columns are
+     * read, the source documents themselves are not loaded.
+     *
+     * @param aProject
+     *            the project.
+     * @param aAscending
+     *            whether the documents are in ascending order of their names.
+     * @param aFirst
+     *            the index of the first document of the page.
+     * @param aCount
+     *            the maximum number of documents of the page.
+     * @return for each document an array of its id ({@link Long}), name ({@link String}) and
+     *         state ({@link SourceDocumentState}).
+     */
+    List<Object[]> listNonTrainingSourceDocumentStates(Project aProject, boolean aAscending,
+            int aFirst, int aCount);
+
     /**
      * Number of expected annotation documents in this project (numUser X document - Ignored)
      * 
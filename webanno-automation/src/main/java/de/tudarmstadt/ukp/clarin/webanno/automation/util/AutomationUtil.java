@@ -64,9 +64,11 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.AutomationTypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.IntervalIndex;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CorrectionCasSnapshot;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.BratAnnotatorUtility;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -138,6 +140,7 @@ public class AutomationUtil
             }
         }
         aRepository.writeCorrectionCas(jCas, aModel.getDocument(), user);
+        CorrectionCasSnapshot.invalidate(aModel.getDocument());
     }
 
     public static void deleteAnnotation(BratAnnotatorModel aModel, RepositoryService aRepository,
@@ -187,6 +190,7 @@ public class AutomationUtil
             }
         }
         aRepository.writeCorrectionCas(jCas, aModel.getDocument(), user);
+        CorrectionCasSnapshot.invalidate(aModel.getDocument());
     }
 
     // generates training document that will be used to predict the training document
@@ -1374,7 +1378,7 @@ public class AutomationUtil
                     newAnnotation = aJcas.getCas().createAnnotation(type, begin, end);
                     newAnnotation.setFeatureValueFromString(feature, prevNe.replace("B-", ""));
                     prevNe = "O";
-                    aJcas.getCas().addFsToIndexes(newAnnotation);
+                    IntervalIndex.addFs(aJcas.getCas(), newAnnotation);
                 }
                 else if (!value.equals("O") && prevNe.equals("O")) {
                     begin = token.getBegin();
@@ -1392,7 +1396,7 @@ public class AutomationUtil
                         prevNe = value;
                         begin = token.getBegin();
                         end = token.getEnd();
-                        aJcas.getCas().addFsToIndexes(newAnnotation);
+                        IntervalIndex.addFs(aJcas.getCas(), newAnnotation);
 
                     }
                     else if (value.replace("B-", "").replace("I-", "")
@@ -1409,7 +1413,7 @@ public class AutomationUtil
                         prevNe = value;
                         begin = token.getBegin();
                         end = token.getEnd();
-                        aJcas.getCas().addFsToIndexes(newAnnotation);
+                        IntervalIndex.addFs(aJcas.getCas(), newAnnotation);
 
                     }
                 }
@@ -1435,7 +1439,7 @@ public class AutomationUtil
                 if (attachFeature != null) {
                     token.setFeatureValue(attachFeature, newAnnotation);
                 }
-                aJcas.getCas().addFsToIndexes(newAnnotation);
+                IntervalIndex.addFs(aJcas.getCas(), newAnnotation);
             }
         }
     }
@@ -1506,6 +1510,8 @@ public class AutomationUtil
                 automate(jCas, layerFeature, annotations);
                 LOG.info("Predictions found are written to the CAS");
                 aRepository.writeCorrectionCas(jCas, document, user);
+                // All users of the document have to see the new suggestions
+                CorrectionCasSnapshot.invalidate(document);
                 document.setProcessed(true);
                 status.setAnnoDocs(status.getAnnoDocs() - 1);
             }
@@ -1521,7 +1527,7 @@ public class AutomationUtil
 
         }
         for (AnnotationFS annotation : annotationsToRemove) {
-            aJCas.removeFsFromIndexes(annotation);
+            IntervalIndex.removeFs(aJCas.getCas(), annotation);
         }
     }
 }
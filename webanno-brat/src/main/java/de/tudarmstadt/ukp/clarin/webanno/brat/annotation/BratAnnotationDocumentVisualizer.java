@@ -39,6 +39,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ColoringStrategy;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SpanAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.WindowSnapshot;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -136,7 +137,8 @@ public class BratAnnotationDocumentVisualizer
         response.setText(jCas.getDocumentText());
 
         BratAnnotatorModel bratAnnotatorModel = new BratAnnotatorModel();
-        SpanAdapter.renderTokenAndSentence(jCas, response, bratAnnotatorModel);
+        WindowSnapshot window = new WindowSnapshot(jCas, bratAnnotatorModel);
+        SpanAdapter.renderTokenAndSentence(window, response);
 
         int i = 0;
         for (AnnotationLayer layer : bratAnnotatorModel.getAnnotationLayers()) {
@@ -156,7 +158,7 @@ public class BratAnnotationDocumentVisualizer
                     bratAnnotatorModel.getPreferences(), i);
 
             getAdapter(annotationService, layer)
-                    .render(jCas, features, response, bratAnnotatorModel, coloringStrategy);
+                    .render(window, features, response, bratAnnotatorModel, coloringStrategy);
             i++;
         }
 
@@ -60,6 +60,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.component.AnnotationDet
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasController;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.CollectionInformationCache;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Argument;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
@@ -124,6 +125,9 @@ public class BratAnnotator
     @SpringBean(name = "annotationService")
     private AnnotationService annotationService;
 
+    @SpringBean(name = "renderCache")
+    private RenderCache renderCache;
+
     private WebMarkupContainer vis;
     private AbstractAjaxBehavior controller;
     private String collection = "";
@@ -207,10 +211,17 @@ public class BratAnnotator
                 // Get action
                 String action = request.getParameterValue(PARAM_ACTION).toString();
 
+                // Page turns can be served from the render cache without loading the CAS
+                String cachedJson = null;
+                if (action.equals(GetDocumentResponse.COMMAND)
+                        && getModelObject().getProject() != null) {
+                    cachedJson = renderCache.get(getModelObject());
+                }
+
                 // Load the CAS if necessary
                 boolean requiresCasLoading = action.equals(SpanAnnotationResponse.COMMAND)
                         || action.equals(ArcAnnotationResponse.COMMAND)
-                        || action.equals(GetDocumentResponse.COMMAND);
+                        || (action.equals(GetDocumentResponse.COMMAND) && cachedJson == null);
                 JCas jCas = null;
                 if (requiresCasLoading) {
                     // Make sure we load the CAS only once here in case of an annotation action.
@@ -369,7 +380,10 @@ public class BratAnnotator
                         }
                     }
                     else if (action.equals(GetDocumentResponse.COMMAND)) {
-                        if (getModelObject().getProject() != null) {
+                        if (cachedJson != null) {
+                            // Already rendered - the cached JSON is sent below
+                        }
+                        else if (getModelObject().getProject() != null) {
                             result = controller
                                     .getDocumentResponse(getModelObject(), 0, jCas, true);
                         }
@@ -391,11 +405,26 @@ public class BratAnnotator
                 }
 
                 // Serialize updated document to JSON
-                if (result == null) {
+                if (result == null && cachedJson == null) {
                     LOG.warn("AJAX-RPC: Action [" + action + "] produced no result!");
                 }
                 else {
-                    String json = toJson(result);
+                    String json;
+                    if (cachedJson != null) {
+                        json = cachedJson;
+                    }
+                    else {
+                        json = toJson(result);
+                    }
+
+                    // Remember the rendered window and render the adjacent windows in the
+                    // background so that turning pages does not have to wait for the CAS
+                    if (result instanceof GetDocumentResponse && jCas != null
+                            && getModelObject().getProject() != null) {
+                        renderCache.put(getModelObject(), json);
+                        renderCache.prefetch(getModelObject(), jCas);
+                    }
+
                     // Since we cannot pass the JSON directly to Brat, we attach it to the HTML
                     // element into which BRAT renders the SVG. In our modified ajax.js, we pick it
                     // up from there and then pass it on to BRAT to do the rendering.
@@ -502,10 +531,8 @@ public class BratAnnotator
 
     private String bratInitCommand()
     {
-        GetCollectionInformationResponse response = new GetCollectionInformationResponse();
-        response.setEntityTypes(BratAjaxCasController.buildEntityTypes(getModelObject()
-                .getAnnotationLayers(), annotationService));
-        String json = toJson(response);
+        String json = toJson(CollectionInformationCache.getCollectionInformation(
+                getModelObject().getAnnotationLayers(), annotationService));
         return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('collectionLoaded', [" + json
                 + "]);";
     }
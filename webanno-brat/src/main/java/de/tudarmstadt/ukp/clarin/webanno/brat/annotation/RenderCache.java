@@ -0,0 +1,508 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.annotation;
+
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getNextPageFirstSentenceAddress;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getPreviousDisplayWindowSentenceBeginAddress;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectByAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectSentenceAt;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.jcas.JCas;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasController;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.CollectionInformationCache;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Cache of rendered display windows. After a window has been rendered, the next and the previous
+ * window are rendered speculatively on a low-priority background thread, so that turning pages can
+ * be served from memory.
+ * <p>
+ * Entries are keyed by the document, the user, the first sentence of the window, the display
+ * preferences, the script direction and the schema version of the project and the version of the
+ * CAS file. Any change to the CAS or the layer configuration thus leads to a cache miss. The
+ * number of entries is bounded per user and at most one prefetch per user is pending at any time.
+ * <p>
+ * The background thread does not touch the entities of the UI. A prefetch only passes their ids
+ * and names, and the entities are loaded again in a transaction of the background thread.
+ * <p>
+ * The statistics of the cache are available via JMX (see {@link RenderCacheMBean}).
+ */
+public class RenderCache
+    implements RenderCacheMBean
+{
+    private static final Log LOG = LogFactory.getLog(RenderCache.class);
+
+    @Resource(name = "documentRepository")
+    private RepositoryService repository;
+
+    @Resource(name = "annotationService")
+    private AnnotationService annotationService;
+
+    @Resource(name = "userRepository")
+    private UserDao userRepository;
+
+    @Resource(name = "transactionManager")
+    private PlatformTransactionManager transactionManager;
+
+    private int maxEntriesPerUser = 4;
+    private int prefetchThreads = 1;
+    private int prefetchQueueSize = 64;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<String, Map<String, CacheEntry>> entriesByUser = new HashMap<String, Map<String, CacheEntry>>();
+    private final Map<String, Future<?>> pendingPrefetches = new HashMap<String, Future<?>>();
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong wastedPrefetches = new AtomicLong();
+
+    /**
+     * Get the rendered window for the current state of the given model.
+     *
+     * @param aModel
+     *            the annotator model.
+     * @return the JSON of the {@link GetDocumentResponse} or {@code null} if the window is not in
+     *         the cache.
+     */
+    public String get(BratAnnotatorModel aModel)
+    {
+        lookups.incrementAndGet();
+
+        String key = getKey(aModel, aModel.getSentenceBeginOffset(), getCasVersion(aModel));
+        CacheEntry entry;
+        synchronized (entriesByUser) {
+            entry = getEntries(getUser(aModel)).get(key);
+        }
+
+        if (entry == null) {
+            return null;
+        }
+
+        hits.incrementAndGet();
+        if (entry.prefetched && !entry.used) {
+            prefetchHits.incrementAndGet();
+        }
+        entry.used = true;
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Render cache hit - " + getStatistics());
+        }
+
+        return entry.json;
+    }
+
+    /**
+     * Remember the rendered window for the current state of the given model.
+     *
+     * @param aModel
+     *            the annotator model.
+     * @param aJson
+     *            the JSON of the {@link GetDocumentResponse}.
+     */
+    public void put(BratAnnotatorModel aModel, String aJson)
+    {
+        put(getUser(aModel), getKey(aModel, aModel.getSentenceBeginOffset(),
+                getCasVersion(aModel)), aJson, false);
+    }
+
+    /**
+     * Render the windows before and after the current window of the model in the background. The
+     * given CAS must not be modified anymore by the caller.
+     *
+     * @param aModel
+     *            the annotator model.
+     * @param aJCas
+     *            the CAS the current window has been rendered from.
+     */
+    public void prefetch(BratAnnotatorModel aModel, final JCas aJCas)
+    {
+        if (executor == null || aModel.getDocument() == null) {
+            return;
+        }
+
+        // The model is modified by the UI while the prefetch is running and its entities belong to
+        // the persistence context of the UI, so only their ids are passed to the background thread
+        final PrefetchRequest request = new PrefetchRequest(aModel);
+        final String user = getUser(aModel);
+        final String casVersion = getCasVersion(aModel);
+
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+                definition.setName("renderPrefetch");
+                definition.setReadOnly(true);
+                TransactionStatus status = transactionManager.getTransaction(definition);
+                try {
+                    prefetch(request.load(repository, annotationService, userRepository), user,
+                            aJCas, casVersion);
+                }
+                catch (Exception e) {
+                    LOG.warn("Unable to prefetch windows of document [" + request.documentName
+                            + "]", e);
+                }
+                finally {
+                    transactionManager.commit(status);
+                }
+            }
+        };
+
+        synchronized (pendingPrefetches) {
+            // A pending prefetch for an older window of the same user is obsolete
+            Future<?> pending = pendingPrefetches.get(user);
+            if (pending != null) {
+                pending.cancel(true);
+            }
+            pendingPrefetches.put(user, executor.submit(task));
+        }
+    }
+
+    /**
+     * Render the windows before and after the current window of the model. This runs on the
+     * background thread with a model which has been loaded there.
+     */
+    private void prefetch(BratAnnotatorModel aModel, String aUser, JCas aJCas, String aCasVersion)
+        throws Exception
+    {
+        int windowSize = aModel.getPreferences().getWindowSize();
+        int currentAddress = getAddr(selectSentenceAt(aJCas, aModel.getSentenceBeginOffset(),
+                aModel.getSentenceEndOffset()));
+
+        int[] addresses = {
+                getNextPageFirstSentenceAddress(aJCas, currentAddress, windowSize),
+                getPreviousDisplayWindowSentenceBeginAddress(aJCas, currentAddress, windowSize) };
+
+        for (int address : addresses) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (address == currentAddress) {
+                continue;
+            }
+
+            Sentence sentence = selectByAddr(aJCas, Sentence.class, address);
+            String key = getKey(aModel, sentence.getBegin(), aCasVersion);
+            synchronized (entriesByUser) {
+                if (getEntries(aUser).containsKey(key)) {
+                    continue;
+                }
+            }
+
+            aModel.setSentenceAddress(address);
+            aModel.setSentenceBeginOffset(sentence.getBegin());
+            aModel.setSentenceEndOffset(sentence.getEnd());
+
+            GetDocumentResponse response = new GetDocumentResponse();
+            BratAjaxCasController.render(response, aModel, aJCas, annotationService);
+            put(aUser, key, JSONUtil.toJsonString(response), true);
+            prefetches.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long getLookupCount()
+    {
+        return lookups.get();
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        // Both counters are read separately, so do not report a negative value
+        return Math.max(lookups.get() - hits.get(), 0);
+    }
+
+    @Override
+    public double getHitRate()
+    {
+        long l = lookups.get();
+        return l == 0 ? 0.0 : (double) hits.get() / l;
+    }
+
+    @Override
+    public long getPrefetchCount()
+    {
+        return prefetches.get();
+    }
+
+    @Override
+    public long getPrefetchHitCount()
+    {
+        return prefetchHits.get();
+    }
+
+    @Override
+    public long getWastedPrefetchCount()
+    {
+        return wastedPrefetches.get();
+    }
+
+    @Override
+    public String getStatistics()
+    {
+        return String.format("lookups: %d, hits: %d, misses: %d, hit rate: %.2f, prefetched: %d, "
+                + "prefetch hits: %d, wasted prefetches: %d", getLookupCount(), getHitCount(),
+                getMissCount(), getHitRate(), getPrefetchCount(), getPrefetchHitCount(),
+                getWastedPrefetchCount());
+    }
+
+    public void init()
+    {
+        executor = new ThreadPoolExecutor(prefetchThreads, prefetchThreads, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(prefetchQueueSize),
+                new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable aRunnable)
+                    {
+                        Thread thread = new Thread(aRunnable, "render-prefetch-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    public void destroy()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        LOG.info("Render cache statistics - " + getStatistics());
+    }
+
+    public void setMaxEntriesPerUser(int aMaxEntriesPerUser)
+    {
+        maxEntriesPerUser = aMaxEntriesPerUser;
+    }
+
+    public void setPrefetchThreads(int aPrefetchThreads)
+    {
+        prefetchThreads = aPrefetchThreads;
+    }
+
+    public void setPrefetchQueueSize(int aPrefetchQueueSize)
+    {
+        prefetchQueueSize = aPrefetchQueueSize;
+    }
+
+    private void put(String aUser, String aKey, String aJson, boolean aPrefetched)
+    {
+        synchronized (entriesByUser) {
+            CacheEntry old = getEntries(aUser).put(aKey, new CacheEntry(aJson, aPrefetched));
+            if (old != null) {
+                countIfWasted(old);
+            }
+        }
+    }
+
+    private Map<String, CacheEntry> getEntries(String aUser)
+    {
+        Map<String, CacheEntry> entries = entriesByUser.get(aUser);
+        if (entries == null) {
+            entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Entry<String, CacheEntry> aEldest)
+                {
+                    if (size() > maxEntriesPerUser) {
+                        countIfWasted(aEldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            entriesByUser.put(aUser, entries);
+        }
+        return entries;
+    }
+
+    private void countIfWasted(CacheEntry aEntry)
+    {
+        if (aEntry.prefetched && !aEntry.used) {
+            wastedPrefetches.incrementAndGet();
+        }
+    }
+
+    private static String getUser(BratAnnotatorModel aModel)
+    {
+        return aModel.getUser().getUsername();
+    }
+
+    private static String getCasUser(BratAnnotatorModel aModel)
+    {
+        if (Mode.CURATION.equals(aModel.getMode())) {
+            return WebAnnoConst.CURATION_USER;
+        }
+        else {
+            return aModel.getUser().getUsername();
+        }
+    }
+
+    /**
+     * The version of a CAS is derived from its file, so there is no need to load the CAS in order
+     * to check if a cached window is still valid.
+     */
+    private String getCasVersion(BratAnnotatorModel aModel)
+    {
+        SourceDocument document = aModel.getDocument();
+        File casFile = repository.getCasFile(document, getCasUser(aModel));
+        return casFile.lastModified() + ":" + casFile.length();
+    }
+
+    private static String getKey(BratAnnotatorModel aModel, int aWindowBegin, String aCasVersion)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(aModel.getMode()).append('|');
+        key.append(aModel.getDocument().getId()).append('|');
+        key.append(getCasUser(aModel)).append('|');
+        key.append(aWindowBegin).append('|');
+        key.append(aModel.getPreferences().getWindowSize()).append('|');
+        key.append(aModel.getPreferences().isStaticColor()).append('|');
+        key.append(aModel.getProject().getScriptDirection()).append('|');
+        key.append(CollectionInformationCache.getSchemaVersion(aModel.getProject())).append('|');
+        // The order of the layers affects the coloring
+        for (AnnotationLayer layer : aModel.getAnnotationLayers()) {
+            key.append(layer.getId()).append(',');
+        }
+        key.append('|').append(aCasVersion);
+        return key.toString();
+    }
+
+    /**
+     * The state of the annotator model needed to render the adjacent windows, with the entities
+     * replaced by their ids and names.
+     */
+    private static class PrefetchRequest
+    {
+        final Mode mode;
+        final long projectId;
+        final String documentName;
+        final String username;
+        final List<Long> layerIds = new ArrayList<Long>();
+        final AnnotationPreference preferences;
+        final int sentenceAddress;
+        final int sentenceBeginOffset;
+        final int sentenceEndOffset;
+
+        PrefetchRequest(BratAnnotatorModel aModel)
+        {
+            mode = aModel.getMode();
+            projectId = aModel.getProject().getId();
+            documentName = aModel.getDocument().getName();
+            username = aModel.getUser().getUsername();
+            // The order of the layers affects the coloring
+            for (AnnotationLayer layer : aModel.getAnnotationLayers()) {
+                layerIds.add(layer.getId());
+            }
+            preferences = (AnnotationPreference) SerializationUtils.clone(aModel.getPreferences());
+            sentenceAddress = aModel.getSentenceAddress();
+            sentenceBeginOffset = aModel.getSentenceBeginOffset();
+            sentenceEndOffset = aModel.getSentenceEndOffset();
+        }
+
+        /**
+         * Create a model with entities loaded in the current transaction.
+         */
+        BratAnnotatorModel load(RepositoryService aRepository,
+                AnnotationService aAnnotationService, UserDao aUserRepository)
+        {
+            Project project = aRepository.getProject(projectId);
+            List<AnnotationLayer> layers = new ArrayList<AnnotationLayer>();
+            for (long layerId : layerIds) {
+                layers.add(aAnnotationService.getLayer(layerId));
+            }
+
+            BratAnnotatorModel model = new BratAnnotatorModel();
+            model.setProject(project);
+            model.setDocument(aRepository.getSourceDocument(project, documentName));
+            model.setUser(aUserRepository.get(username));
+            model.setMode(mode);
+            model.setAnnotationLayers(layers);
+            model.setPreferences(preferences);
+            model.setSentenceAddress(sentenceAddress);
+            model.setSentenceBeginOffset(sentenceBeginOffset);
+            model.setSentenceEndOffset(sentenceEndOffset);
+            return model;
+        }
+    }
+
+    private static class CacheEntry
+    {
+        final String json;
+        final boolean prefetched;
+        volatile boolean used;
+
+        CacheEntry(String aJson, boolean aPrefetched)
+        {
+            json = aJson;
+            prefetched = aPrefetched;
+        }
+    }
+}
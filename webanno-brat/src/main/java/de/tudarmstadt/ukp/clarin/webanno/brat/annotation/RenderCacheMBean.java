@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.annotation;
+
+/**
+ * Statistics of the {@link RenderCache}, which is exported to JMX so the effect of the cache can
+ * be observed in a running instance, e.g. with jconsole.
+ */
+public interface RenderCacheMBean
+{
+    /**
+     * @return the number of lookups of rendered windows.
+     */
+    long getLookupCount();
+
+    /**
+     * @return the number of lookups that were served from the cache.
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups that were not served from the cache.
+     */
+    long getMissCount();
+
+    /**
+     * @return the fraction of lookups that were served from the cache.
+     */
+    double getHitRate();
+
+    /**
+     * @return the number of windows rendered in the background.
+     */
+    long getPrefetchCount();
+
+    /**
+     * @return the number of windows rendered in the background which were served at least once.
+     */
+    long getPrefetchHitCount();
+
+    /**
+     * @return the number of windows rendered in the background which were dropped from the cache
+     *         without ever having been served.
+     */
+    long getWastedPrefetchCount();
+
+    /**
+     * @return all statistics in a single line.
+     */
+    String getStatistics();
+}
@@ -88,6 +88,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ArcAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ChainAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.IntervalIndex;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil;
@@ -535,7 +536,7 @@ public class AnnotationDetailEditorPanel
                 }
 
                 for (AnnotationFS attachedFs : toBeDeleted) {
-                    jCas.getCas().removeFsFromIndexes(attachedFs);
+                    IntervalIndex.removeFs(jCas.getCas(), attachedFs);
                 }
             }
         }
@@ -649,7 +650,7 @@ public class AnnotationDetailEditorPanel
 
         AnnotationFS idFs = selectByAddr(jCas, aBModel.getSelection().getAnnotation().getId());
 
-        jCas.removeFsFromIndexes(idFs);
+        IntervalIndex.removeFs(jCas.getCas(), idFs);
 
         AnnotationFS originFs = selectByAddr(jCas, aBModel.getSelection().getOrigin());
         AnnotationFS targetFs = selectByAddr(jCas, aBModel.getSelection().getTarget());
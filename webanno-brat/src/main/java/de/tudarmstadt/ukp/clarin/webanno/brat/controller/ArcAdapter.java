@@ -27,8 +27,6 @@ import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.setFeatureFS;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.util.CasUtil.getType;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
-import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -140,11 +138,11 @@ public class ArcAdapter
     }
 
     /**
-     * Add arc annotations from the CAS, which is controlled by the window size, to the brat
-     * response {@link GetDocumentResponse}
+     * Add arc annotations from the current display window to the brat response
+     * {@link GetDocumentResponse}
      *
-     * @param aJcas
-     *            The JCAS object containing annotations
+     * @param aWindow
+     *            The annotations of the display window
      * @param aResponse
      *            A brat response containing annotations in brat protocol
      * @param aBratAnnotatorModel
@@ -153,34 +151,26 @@ public class ArcAdapter
      *            the coloring strategy to render this layer
      */
     @Override
-    public void render(JCas aJcas, List<AnnotationFeature> aFeatures,
+    public void render(WindowSnapshot aWindow, List<AnnotationFeature> aFeatures,
             GetDocumentResponse aResponse, BratAnnotatorModel aBratAnnotatorModel,
             ColoringStrategy aColoringStrategy)
     {
-        // The first sentence address in the display window!
-        Sentence firstSentence = selectSentenceAt(aJcas,
-                aBratAnnotatorModel.getSentenceBeginOffset(),
-                aBratAnnotatorModel.getSentenceEndOffset());
-
-        int lastAddressInPage = getLastSentenceAddressInDisplayWindow(aJcas,
-                getAddr(firstSentence), aBratAnnotatorModel.getPreferences().getWindowSize());
+        CAS cas = aWindow.getJCas().getCas();
 
-        // the last sentence address in the display window
-        Sentence lastSentenceInPage = (Sentence) selectByAddr(aJcas,
-                FeatureStructure.class, lastAddressInPage);
-
-        Type type = getType(aJcas.getCas(), annotationTypeName);
+        Type type = getType(cas, annotationTypeName);
         Feature dependentFeature = type.getFeatureByBaseName(targetFeatureName);
         Feature governorFeature = type.getFeatureByBaseName(sourceFeatureName);
 
-        Type spanType = getType(aJcas.getCas(), attachType);
+        Type spanType = getType(cas, attachType);
         Feature arcSpanFeature = spanType.getFeatureByBaseName(attachFeatureName);
 
+        LabelRenderer labelRenderer = new LabelRenderer(this, aFeatures);
+        String bratTypeName = labelRenderer.getBratTypeName();
+
         FeatureStructure dependentFs;
         FeatureStructure governorFs;
 
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        for (AnnotationFS fs : aWindow.select(type)) {
             if (attachFeatureName != null) {
                 dependentFs = fs.getFeatureValue(dependentFeature).getFeatureValue(arcSpanFeature);
                 governorFs = fs.getFeatureValue(governorFeature).getFeatureValue(arcSpanFeature);
@@ -198,8 +188,7 @@ public class ArcAdapter
                 
             List<Argument> argumentList = getArgument(governorFs, dependentFs);
 
-            String bratLabelText = TypeUtil.getBratLabelText(this, fs, aFeatures);
-            String bratTypeName = TypeUtil.getBratTypeName(this);
+            String bratLabelText = labelRenderer.getLabelText(fs);
             String color = aColoringStrategy.getColor(fs, bratLabelText);
 
             aResponse.addRelation(new Relation(getAddr(fs),
@@ -267,11 +256,12 @@ public class ArcAdapter
         AnnotationFS governorFs = null;
         
         // List all sentence in this display window
-        List<Sentence> sentences = selectCovered(aJCas, Sentence.class, aBegin, aEnd);
+        List<Sentence> sentences = IntervalIndex.selectCovered(aJCas, Sentence.class, aBegin,
+                aEnd);
         for (Sentence sentence : sentences) {
 
-            for (AnnotationFS fs : selectCovered(aJCas.getCas(), type, sentence.getBegin(),
-                    sentence.getEnd())) {
+            for (AnnotationFS fs : IntervalIndex.selectCovered(aJCas.getCas(), type,
+                    sentence.getBegin(), sentence.getEnd())) {
 
                 if (attachFeatureName != null) {
                     Feature arcSpanFeature = spanType.getFeatureByBaseName(attachFeatureName);
@@ -308,10 +298,10 @@ public class ArcAdapter
 
         // for POS annotation, since custom span layers do not have attach feature
         if (attachFeatureName != null) {
-            dependentFs = selectCovered(aJCas.getCas(), spanType, dependentFs.getBegin(),
-                    dependentFs.getEnd()).get(0);
-            governorFs = selectCovered(aJCas.getCas(), spanType, governorFs.getBegin(),
-                    governorFs.getEnd()).get(0);
+            dependentFs = IntervalIndex.selectCovered(aJCas.getCas(), spanType,
+                    dependentFs.getBegin(), dependentFs.getEnd()).get(0);
+            governorFs = IntervalIndex.selectCovered(aJCas.getCas(), spanType,
+                    governorFs.getBegin(), governorFs.getEnd()).get(0);
         }
 
         // if span A has (start,end)= (20, 26) and B has (start,end)= (30, 36)
@@ -345,7 +335,7 @@ public class ArcAdapter
         }
         // END HACK - ISSUE 953 - Special treatment for ROOT in DKPro Core dependency layer
 
-        aJCas.addFsToIndexes(newAnnotation);
+        IntervalIndex.addFs(aJCas.getCas(), newAnnotation);
         return newAnnotation;
     }
 
@@ -353,7 +343,7 @@ public class ArcAdapter
     public void delete(JCas aJCas, int aAddress)
     {
         FeatureStructure fs = selectByAddr(aJCas, FeatureStructure.class, aAddress);
-        aJCas.removeFsFromIndexes(fs);
+        IntervalIndex.removeFs(aJCas.getCas(), fs);
     }
 
     @Override
@@ -368,7 +358,7 @@ public class ArcAdapter
 
         Set<AnnotationFS> fsToDelete = new HashSet<AnnotationFS>();
 
-        for (AnnotationFS fs : selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
+        for (AnnotationFS fs : IntervalIndex.selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
 
             if (attachFeatureName != null) {
                 FeatureStructure dependentFs = fs.getFeatureValue(targetFeature).getFeatureValue(
@@ -394,7 +384,7 @@ public class ArcAdapter
             }
         }
         for (AnnotationFS fs : fsToDelete) {
-            aJCas.removeFsFromIndexes(fs);
+            IntervalIndex.removeFs(aJCas.getCas(), fs);
         }
     }
 
@@ -121,9 +121,8 @@ public class BratAjaxCasController
     public GetCollectionInformationResponse getCollectionInformation(
             List<AnnotationLayer> aAnnotationLayers)
     {
-        GetCollectionInformationResponse info = new GetCollectionInformationResponse();
-        info.setEntityTypes(buildEntityTypes(aAnnotationLayers, annotationService));
-        return info;
+        return CollectionInformationCache.getCollectionInformation(aAnnotationLayers,
+                annotationService);
     }
 
     /**
@@ -187,8 +186,11 @@ public class BratAjaxCasController
     {
         aResponse.setRtlMode(ScriptDirection.RTL.equals(aBModel.getProject().getScriptDirection()));
         
+        // Scan the display window once and share the result among all layers
+        WindowSnapshot window = new WindowSnapshot(aJCas, aBModel);
+
         // Render invisible baseline annotations (sentence, tokens)
-        SpanAdapter.renderTokenAndSentence(aJCas, aResponse, aBModel);
+        SpanAdapter.renderTokenAndSentence(window, aResponse);
 
         // Render visible (custom) layers
         int i = 0;
@@ -214,7 +216,7 @@ public class BratAjaxCasController
             }
             features.removeAll(invisibleFeatures);
             TypeAdapter adapter = getAdapter(aAnnotationService, layer);
-            adapter.render(aJCas, features, aResponse, aBModel, coloringStrategy);
+            adapter.render(window, features, aResponse, aBModel, coloringStrategy);
             i++;
         }
     }
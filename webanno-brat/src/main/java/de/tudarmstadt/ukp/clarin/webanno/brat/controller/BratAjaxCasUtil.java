@@ -17,9 +17,7 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.select;
-import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.selectFollowing;
 
 import java.util.ArrayList;
@@ -36,7 +34,6 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.cas.text.AnnotationIndex;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.Annotation;
@@ -143,35 +140,13 @@ public class BratAjaxCasUtil
     private static <T extends Annotation> T selectSingleAt(JCas aJcas, final Class<T> type,
             int aBegin, int aEnd)
     {
-        List<T> covered = selectCovered(aJcas, type, aBegin, aEnd);
-        if (covered.isEmpty()) {
-            return null;
-        }
-        else {
-            T first = covered.get(0);
-            if (first.getBegin() == aBegin && first.getEnd() == aEnd) {
-                return first;
-            }
-            else {
-                return null;
-            }
-        }
+        List<T> at = IntervalIndex.selectAt(aJcas, type, aBegin, aEnd);
+        return at.isEmpty() ? null : at.get(0);
     }
 
     public static List<AnnotationFS> selectAt(CAS aJcas, final Type type, int aBegin, int aEnd)
     {
-        List<AnnotationFS> covered = CasUtil.selectCovered(aJcas, type, aBegin, aEnd);
-
-        // Remove all that do not have the exact same offset
-        Iterator<AnnotationFS> i = covered.iterator();
-        while (i.hasNext()) {
-            AnnotationFS cur = i.next();
-            if (!(cur.getBegin() == aBegin && cur.getEnd() == aEnd)) {
-                i.remove();
-            }
-        }
-
-        return covered;
+        return IntervalIndex.selectAt(aJcas, type, aBegin, aEnd);
     }
 
     /**
@@ -189,12 +164,8 @@ public class BratAjaxCasUtil
      */
     public static AnnotationFS selectSingleFsAt(JCas aJcas, Type aType, int aBegin, int aEnd)
     {
-        for (AnnotationFS anFS : selectCovered(aJcas.getCas(), aType, aBegin, aEnd)) {
-            if (anFS.getBegin() == aBegin && anFS.getEnd() == aEnd) {
-                return anFS;
-            }
-        }
-        return null;
+        List<AnnotationFS> at = IntervalIndex.selectAt(aJcas.getCas(), aType, aBegin, aEnd);
+        return at.isEmpty() ? null : at.get(0);
     }
 
     /**
@@ -236,20 +207,7 @@ public class BratAjaxCasUtil
     public static <T extends Annotation> List<T> selectOverlapping(JCas aJCas,
             final Class<T> aType, int aBegin, int aEnd)
     {
-
-        List<T> annotations = new ArrayList<T>();
-        for (T t : select(aJCas, aType)) {
-            if (t.getBegin() >= aEnd) {
-                break;
-            }
-            // not yet there
-            if (t.getEnd() <= aBegin) {
-                continue;
-            }
-            annotations.add(t);
-        }
-
-        return annotations;
+        return IntervalIndex.selectOverlapping(aJCas, aType, aBegin, aEnd);
     }
 
     /**
@@ -330,9 +288,30 @@ public class BratAjaxCasUtil
      */
     public static int getLastSentenceAddressInDisplayWindow(JCas aJcas, int aFirstSentenceAddress,
             int aWindowSize)
+    {
+        return getAddr(getLastSentenceInDisplayWindow(aJcas,
+                selectByAddr(aJcas, Sentence.class, aFirstSentenceAddress), aWindowSize));
+    }
+
+    /**
+     * Get the last sentence in the current display window
+     *
+     * @param aJcas
+     *            the JCas.
+     * @param aFirstSentence
+     *            the first sentence in the display window
+     * @param aWindowSize
+     *            the window size
+     * @return The last sentence in the current display window.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static Sentence getLastSentenceInDisplayWindow(JCas aJcas, Sentence aFirstSentence,
+            int aWindowSize)
     {
         int count = 0;
-        FSIterator<Sentence> si = seekByAddress(aJcas, Sentence.class, aFirstSentenceAddress);
+        AnnotationIndex<Sentence> idx = (AnnotationIndex) aJcas.getAnnotationIndex(JCasUtil
+                .getAnnotationType(aJcas, Sentence.class));
+        FSIterator<Sentence> si = idx.iterator(aFirstSentence);
         Sentence s = si.get();
         while (count < aWindowSize) {
             si.moveToNext();
@@ -345,7 +324,7 @@ public class BratAjaxCasUtil
             count++;
         }
 
-        return getAddr(s);
+        return s;
     }
 
     /**
@@ -46,7 +46,6 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
-import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 /**
@@ -106,11 +105,11 @@ public class ChainAdapter
 }
 
     /**
-     * Add annotations from the CAS, which is controlled by the window size, to the brat response
+     * Add annotations from the current display window to the brat response
      * {@link GetDocumentResponse}
      *
-     * @param aJcas
-     *            The JCAS object containing annotations
+     * @param aWindow
+     *            The annotations of the display window
      * @param aResponse
      *            A brat response containing annotations in brat protocol
      * @param aBratAnnotatorModel
@@ -119,17 +118,15 @@ public class ChainAdapter
      *            the coloring strategy to render this layer (ignored)
      */
     @Override
-    public void render(JCas aJcas, List<AnnotationFeature> aFeatures,
+    public void render(WindowSnapshot aWindow, List<AnnotationFeature> aFeatures,
             GetDocumentResponse aResponse, BratAnnotatorModel aBratAnnotatorModel,
             ColoringStrategy aColoringStrategy)
     {
+        JCas aJcas = aWindow.getJCas();
+
         // Get begin and end offsets of window content
-        int windowBegin = BratAjaxCasUtil.selectByAddr(aJcas,
-                Sentence.class, aBratAnnotatorModel.getSentenceAddress()).getBegin();
-        int windowEnd = BratAjaxCasUtil.selectByAddr(aJcas, Sentence.class,
-                BratAjaxCasUtil.getLastSentenceAddressInDisplayWindow(aJcas,
-                        aBratAnnotatorModel.getSentenceAddress(),
-                        aBratAnnotatorModel.getPreferences().getWindowSize())).getEnd();
+        int windowBegin = aWindow.getWindowBegin();
+        int windowEnd = aWindow.getWindowEnd();
 
         // Find the features for the arc and span labels - it is possible that we do not find a
         // feature for arc/span labels because they may have been disabled.
@@ -146,6 +143,15 @@ public class ChainAdapter
         // At this point arc and span feature labels must have been found! If not, the later code
         // will crash.
 
+        // Compile the label renderers once for all links and arcs
+        LabelRenderer spanLabelRenderer = new LabelRenderer(this,
+                (spanLabelFeature != null) ? asList(spanLabelFeature)
+                        : Collections.<AnnotationFeature> emptyList());
+        LabelRenderer arcLabelRenderer = new LabelRenderer(this,
+                (linkedListBehavior && arcLabelFeature != null) ? asList(arcLabelFeature)
+                        : Collections.<AnnotationFeature> emptyList());
+        String bratTypeName = spanLabelRenderer.getBratTypeName();
+
         Type chainType = getAnnotationType(aJcas.getCas());
         Feature chainFirst = chainType.getFeatureByBaseName(chainFirstFeatureName);
 
@@ -181,13 +187,9 @@ public class ChainAdapter
                     continue; // Go to next link
                 }
 
-                String bratTypeName = TypeUtil.getBratTypeName(this);
-
                 // Render span
                 {
-                    String bratLabelText = TypeUtil.getBratLabelText(this, linkFs,
-                            (spanLabelFeature != null) ? asList(spanLabelFeature)
-                                    : Collections.EMPTY_LIST);
+                    String bratLabelText = spanLabelRenderer.getLabelText(linkFs);
                     Offsets offsets = new Offsets(linkFs.getBegin() - windowBegin,
                             linkFs.getEnd() - windowBegin);
 
@@ -198,18 +200,8 @@ public class ChainAdapter
                 // Render arc (we do this on prevLinkFs because then we easily know that the current
                 // and last link are within the window ;)
                 if (prevLinkFs != null) {
-                    String bratLabelText = null;
-
-                    if (linkedListBehavior && arcLabelFeature != null) {
-                        // Render arc label
-                        bratLabelText = TypeUtil.getBratLabelText(this, prevLinkFs,
-                                asList(arcLabelFeature));
-                    }
-                    else {
-                        // Render only chain type
-                        bratLabelText = TypeUtil.getBratLabelText(this, prevLinkFs,
-                                Collections.EMPTY_LIST);
-                    }
+                    // Render arc label or only chain type if there is no arc label
+                    String bratLabelText = arcLabelRenderer.getLabelText(prevLinkFs);
 
                     List<Argument> argumentList = asList(
                             new Argument("Arg1", BratAjaxCasUtil.getAddr(prevLinkFs)),
@@ -427,7 +419,7 @@ public class ChainAdapter
         if (prevLinkFs == null) {
             // case 1: first element removed
             setFirstLink(oldChainFs, followingLinkToDelete);
-            aJCas.removeFsFromIndexes(linkToDelete);
+            IntervalIndex.removeFs(aJCas.getCas(), linkToDelete);
 
             // removed last element form chain?
             if (followingLinkToDelete == null) {
@@ -437,7 +429,7 @@ public class ChainAdapter
         else if (followingLinkToDelete == null) {
             // case 3: removing the last link (but not leaving the chain empty)
             setNextLink(prevLinkFs, null);
-            aJCas.removeFsFromIndexes(linkToDelete);
+            IntervalIndex.removeFs(aJCas.getCas(), linkToDelete);
         }
         else if (prevLinkFs != null && followingLinkToDelete != null) {
             // case 2: removing a middle link
@@ -606,7 +598,7 @@ public class ChainAdapter
         Type linkType = CasUtil.getType(aJCas.getCas(), baseName);
         AnnotationFS newLink = aJCas.getCas().createAnnotation(linkType, aBegin, aEnd);
         BratAjaxCasUtil.setFeature(newLink, aFeature, aLabelValue);
-        aJCas.getCas().addFsToIndexes(newLink);
+        IntervalIndex.addFs(aJCas.getCas(), newLink);
         return newLink;
     }
 
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.codehaus.jackson.JsonGenerator;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+/**
+ * Caches the brat collection information (the entity and relation type configuration) per
+ * project, set of visible layers and schema version. The schema version of a project is bumped
+ * via {@link #invalidate(Project)} whenever its layers, features or tags change, which implicitly
+ * drops all entries built from the old schema.
+ */
+public final class CollectionInformationCache
+{
+    private static final int MAX_ENTRIES = 256;
+
+    private static final Map<Long, Long> schemaVersions = new HashMap<Long, Long>();
+
+    private static final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(16,
+            0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<String, CacheEntry> aEldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private CollectionInformationCache()
+    {
+        // No instances
+    }
+
+    /**
+     * Get the collection information for the given layers. The returned response is shared and
+     * must not be modified.
+     *
+     * @param aAnnotationLayers
+     *            the visible layers.
+     * @param aAnnotationService
+     *            the annotation service.
+     * @return the response.
+     */
+    public static GetCollectionInformationResponse getCollectionInformation(
+            List<AnnotationLayer> aAnnotationLayers, AnnotationService aAnnotationService)
+    {
+        return get(aAnnotationLayers, aAnnotationService).info;
+    }
+
+    /**
+     * Get the JSON representation of the collection information for the given layers.
+     *
+     * @param aAnnotationLayers
+     *            the visible layers.
+     * @param aAnnotationService
+     *            the annotation service.
+     * @return the JSON string.
+     * @throws IOException
+     *             if the response cannot be serialized.
+     */
+    public static String getCollectionInformationJson(List<AnnotationLayer> aAnnotationLayers,
+            AnnotationService aAnnotationService)
+        throws IOException
+    {
+        CacheEntry entry = get(aAnnotationLayers, aAnnotationService);
+        String json = entry.json;
+        if (json == null) {
+            json = toJson(entry.info);
+            entry.json = json;
+        }
+        return json;
+    }
+
+    /**
+     * Drop all cached collection information of the given project. To be called when the layers,
+     * features or tags of the project have changed.
+     *
+     * @param aProject
+     *            the project.
+     */
+    public static synchronized void invalidate(Project aProject)
+    {
+        if (aProject == null) {
+            return;
+        }
+
+        Long version = schemaVersions.get(aProject.getId());
+        schemaVersions.put(aProject.getId(), version == null ? 1 : version + 1);
+
+        // Entries of the old schema version can no longer be hit, so drop them right away
+        String prefix = aProject.getId() + "/";
+        Iterator<String> i = cache.keySet().iterator();
+        while (i.hasNext()) {
+            if (i.next().startsWith(prefix)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the schema version of the given project. The version changes whenever the project is
+     * {@link #invalidate(Project) invalidated}, so it can be used by other caches to detect changes
+     * to the layers, features or tags of the project.
+     *
+     * @param aProject
+     *            the project.
+     * @return the schema version.
+     */
+    public static synchronized long getSchemaVersion(Project aProject)
+    {
+        Long version = schemaVersions.get(aProject.getId());
+        return version == null ? 0 : version;
+    }
+
+    private static synchronized CacheEntry get(List<AnnotationLayer> aAnnotationLayers,
+            AnnotationService aAnnotationService)
+    {
+        String key = getKey(aAnnotationLayers);
+        CacheEntry entry = cache.get(key);
+        if (entry == null) {
+            GetCollectionInformationResponse info = new GetCollectionInformationResponse();
+            info.setEntityTypes(BratAjaxCasController.buildEntityTypes(aAnnotationLayers,
+                    aAnnotationService));
+            entry = new CacheEntry(info);
+            cache.put(key, entry);
+        }
+        return entry;
+    }
+
+    private static String getKey(List<AnnotationLayer> aAnnotationLayers)
+    {
+        // The type configuration does not depend on the order of the layers
+        long[] layerIds = new long[aAnnotationLayers.size()];
+        long projectId = -1;
+        for (int i = 0; i < layerIds.length; i++) {
+            AnnotationLayer layer = aAnnotationLayers.get(i);
+            layerIds[i] = layer.getId();
+            if (layer.getProject() != null) {
+                projectId = layer.getProject().getId();
+            }
+        }
+        Arrays.sort(layerIds);
+
+        Long version = schemaVersions.get(projectId);
+        return projectId + "/" + (version == null ? 0 : version) + "/"
+                + Arrays.toString(layerIds);
+    }
+
+    private static String toJson(GetCollectionInformationResponse aInfo)
+        throws IOException
+    {
+        StringWriter out = new StringWriter();
+        JsonGenerator jsonGenerator = JSONUtil.getJsonConverter().getObjectMapper()
+                .getJsonFactory().createJsonGenerator(out);
+        jsonGenerator.writeObject(aInfo);
+        return out.toString();
+    }
+
+    private static class CacheEntry
+    {
+        final GetCollectionInformationResponse info;
+        volatile String json;
+
+        CacheEntry(GetCollectionInformationResponse aInfo)
+        {
+            info = aInfo;
+        }
+    }
+}
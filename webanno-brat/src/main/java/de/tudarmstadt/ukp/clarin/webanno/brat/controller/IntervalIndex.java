@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getAddr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+
+/**
+ * Offset index over the annotations of one type (including sub-types) in a CAS. It answers
+ * covered, overlapping and at-offset queries without iterating over the annotation index from its
+ * start.
+ * <p>
+ * The index is built lazily on first use and then maintained incrementally when annotations are
+ * added or removed through {@link #addFs(CAS, FeatureStructure)} and
+ * {@link #removeFs(CAS, FeatureStructure)}. Code which changes the annotations of a CAS in any
+ * other way, e.g. by resetting it, must call {@link #invalidate(CAS)} afterwards. As a safety
+ * net, an index whose size no longer matches the size of the CAS annotation index is rebuilt, but
+ * that does not notice an annotation which has been removed and another one which has been added.
+ * Only annotation addresses and offsets are stored, so the index does not keep the CAS alive.
+ */
+public class IntervalIndex
+{
+    private static final Map<CAS, Map<Type, IntervalIndex>> INDEXES = new WeakHashMap<CAS, Map<Type, IntervalIndex>>();
+
+    private final Type type;
+
+    /**
+     * Annotations by begin offset. Annotations with the same begin offset are sorted by descending
+     * end offset, then by ascending address, so that the order is the same as in the CAS
+     * annotation index.
+     */
+    private final TreeMap<Integer, List<Span>> spans = new TreeMap<Integer, List<Span>>();
+
+    /**
+     * Upper bound of the length of the annotations in the index. This bounds the range of begin
+     * offsets that needs to be looked at for an overlap query. It is not reduced on removal.
+     */
+    private int maxLength;
+
+    private int size;
+
+    private IntervalIndex(Type aType)
+    {
+        type = aType;
+    }
+
+    /**
+     * Add the given feature structure to the CAS indexes and to all interval indexes built for
+     * the CAS.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aFS
+     *            the feature structure.
+     */
+    public static void addFs(CAS aCas, FeatureStructure aFS)
+    {
+        aCas.addFsToIndexes(aFS);
+
+        if (aFS instanceof AnnotationFS) {
+            for (IntervalIndex index : getIndexes(aCas, aFS.getType())) {
+                index.add((AnnotationFS) aFS);
+            }
+        }
+    }
+
+    /**
+     * Remove the given feature structure from the CAS indexes and from all interval indexes built
+     * for the CAS.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aFS
+     *            the feature structure.
+     */
+    public static void removeFs(CAS aCas, FeatureStructure aFS)
+    {
+        aCas.removeFsFromIndexes(aFS);
+
+        if (aFS instanceof AnnotationFS) {
+            for (IntervalIndex index : getIndexes(aCas, aFS.getType())) {
+                index.remove((AnnotationFS) aFS);
+            }
+        }
+    }
+
+    /**
+     * Drop all indexes built for the given CAS, e.g. after its annotations have been changed
+     * without going through {@link #addFs} and {@link #removeFs}. They are built again on the
+     * next query.
+     *
+     * @param aCas
+     *            the CAS.
+     */
+    public static void invalidate(CAS aCas)
+    {
+        synchronized (INDEXES) {
+            INDEXES.remove(aCas);
+        }
+    }
+
+    /**
+     * Get the annotations of the given type which lie within the given offsets.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the type.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations in index order.
+     * @see CasUtil#selectCovered(CAS, Type, int, int)
+     */
+    public static List<AnnotationFS> selectCovered(CAS aCas, Type aType, int aBegin, int aEnd)
+    {
+        IntervalIndex index = get(aCas, aType);
+        List<AnnotationFS> result = new ArrayList<AnnotationFS>();
+        if (aBegin > aEnd) {
+            return result;
+        }
+        LowLevelCAS llCas = aCas.getLowLevelCAS();
+        for (List<Span> bucket : index.spans.subMap(aBegin, true, aEnd, true).values()) {
+            for (Span span : bucket) {
+                if (span.end <= aEnd) {
+                    result.add((AnnotationFS) llCas.ll_getFSForRef(span.addr));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the annotations of the given type which overlap with the given offsets, i.e. which
+     * begin before the end offset and end after the begin offset.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the type.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations in index order.
+     */
+    public static List<AnnotationFS> selectOverlapping(CAS aCas, Type aType, int aBegin, int aEnd)
+    {
+        IntervalIndex index = get(aCas, aType);
+        List<AnnotationFS> result = new ArrayList<AnnotationFS>();
+        // Annotations beginning before this offset are too short to reach the begin offset
+        long from = (long) aBegin - index.maxLength;
+        if (from >= aEnd) {
+            return result;
+        }
+        LowLevelCAS llCas = aCas.getLowLevelCAS();
+        NavigableMap<Integer, List<Span>> candidates = index.spans.subMap(
+                (int) Math.max(from, Integer.MIN_VALUE), true, aEnd, false);
+        for (List<Span> bucket : candidates.values()) {
+            for (Span span : bucket) {
+                if (span.end > aBegin) {
+                    result.add((AnnotationFS) llCas.ll_getFSForRef(span.addr));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the annotations of the given type which have exactly the given offsets.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the type.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations in index order.
+     */
+    public static List<AnnotationFS> selectAt(CAS aCas, Type aType, int aBegin, int aEnd)
+    {
+        IntervalIndex index = get(aCas, aType);
+        List<AnnotationFS> result = new ArrayList<AnnotationFS>();
+        List<Span> bucket = index.spans.get(aBegin);
+        if (bucket != null) {
+            LowLevelCAS llCas = aCas.getLowLevelCAS();
+            for (Span span : bucket) {
+                if (span.end == aEnd) {
+                    result.add((AnnotationFS) llCas.ll_getFSForRef(span.addr));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see #selectCovered(CAS, Type, int, int)
+     */
+    public static <T extends Annotation> List<T> selectCovered(JCas aJCas, Class<T> aType,
+            int aBegin, int aEnd)
+    {
+        return cast(aType, selectCovered(aJCas.getCas(), CasUtil.getType(aJCas.getCas(), aType),
+                aBegin, aEnd));
+    }
+
+    /**
+     * @see #selectOverlapping(CAS, Type, int, int)
+     */
+    public static <T extends Annotation> List<T> selectOverlapping(JCas aJCas, Class<T> aType,
+            int aBegin, int aEnd)
+    {
+        return cast(aType, selectOverlapping(aJCas.getCas(), CasUtil.getType(aJCas.getCas(),
+                aType), aBegin, aEnd));
+    }
+
+    /**
+     * @see #selectAt(CAS, Type, int, int)
+     */
+    public static <T extends Annotation> List<T> selectAt(JCas aJCas, Class<T> aType, int aBegin,
+            int aEnd)
+    {
+        return cast(aType, selectAt(aJCas.getCas(), CasUtil.getType(aJCas.getCas(), aType),
+                aBegin, aEnd));
+    }
+
+    private static <T> List<T> cast(Class<T> aType, List<AnnotationFS> aAnnotations)
+    {
+        List<T> result = new ArrayList<T>(aAnnotations.size());
+        for (AnnotationFS fs : aAnnotations) {
+            result.add(aType.cast(fs));
+        }
+        return result;
+    }
+
+    /**
+     * Get the index for the given type, building it if necessary.
+     */
+    private static IntervalIndex get(CAS aCas, Type aType)
+    {
+        synchronized (INDEXES) {
+            Map<Type, IntervalIndex> indexes = INDEXES.get(aCas);
+            if (indexes == null) {
+                indexes = new HashMap<Type, IntervalIndex>();
+                INDEXES.put(aCas, indexes);
+            }
+
+            IntervalIndex index = indexes.get(aType);
+            if (index == null || index.size != aCas.getAnnotationIndex(aType).size()) {
+                index = new IntervalIndex(aType);
+                for (AnnotationFS fs : aCas.getAnnotationIndex(aType)) {
+                    index.add(fs);
+                }
+                indexes.put(aType, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Get the already built indexes covering the given type.
+     */
+    private static List<IntervalIndex> getIndexes(CAS aCas, Type aType)
+    {
+        List<IntervalIndex> result = new ArrayList<IntervalIndex>();
+        synchronized (INDEXES) {
+            Map<Type, IntervalIndex> indexes = INDEXES.get(aCas);
+            if (indexes != null) {
+                for (IntervalIndex index : indexes.values()) {
+                    if (aCas.getTypeSystem().subsumes(index.type, aType)) {
+                        result.add(index);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void add(AnnotationFS aFS)
+    {
+        Span span = new Span(aFS.getEnd(), getAddr(aFS));
+        List<Span> bucket = spans.get(aFS.getBegin());
+        if (bucket == null) {
+            bucket = new ArrayList<Span>(1);
+            spans.put(aFS.getBegin(), bucket);
+        }
+
+        int i = 0;
+        while (i < bucket.size() && bucket.get(i).compareTo(span) < 0) {
+            i++;
+        }
+        bucket.add(i, span);
+
+        maxLength = Math.max(maxLength, aFS.getEnd() - aFS.getBegin());
+        size++;
+    }
+
+    private void remove(AnnotationFS aFS)
+    {
+        List<Span> bucket = spans.get(aFS.getBegin());
+        if (bucket == null) {
+            return;
+        }
+
+        int addr = getAddr(aFS);
+        for (int i = 0; i < bucket.size(); i++) {
+            if (bucket.get(i).addr == addr) {
+                bucket.remove(i);
+                size--;
+                break;
+            }
+        }
+
+        if (bucket.isEmpty()) {
+            spans.remove(aFS.getBegin());
+        }
+    }
+
+    private static class Span
+        implements Comparable<Span>
+    {
+        final int end;
+        final int addr;
+
+        Span(int aEnd, int aAddr)
+        {
+            end = aEnd;
+            addr = aAddr;
+        }
+
+        @Override
+        public int compareTo(Span aOther)
+        {
+            if (end != aOther.end) {
+                return end > aOther.end ? -1 : 1;
+            }
+            return addr < aOther.addr ? -1 : (addr == aOther.addr ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.MultiValueMode;
+
+/**
+ * Renders the brat label text for the annotations of one layer. The label features are filtered
+ * once when the renderer is created and the {@link Feature} handles are resolved once per CAS
+ * {@link Type}. Labels are built in a reused buffer and repeated labels share the same string
+ * instance. A renderer is meant to be used for a single rendering run and is not thread-safe.
+ *
+ * @see TypeUtil#getBratLabelText(TypeAdapter, AnnotationFS, List)
+ */
+public class LabelRenderer
+{
+    private final String[] featureNames;
+    private final String bratTypeName;
+    private final String emptyLabel;
+
+    private final Map<Type, Feature[]> featuresByType = new IdentityHashMap<Type, Feature[]>();
+    private final Map<String, String> labels = new HashMap<String, String>();
+    private final StringBuilder buffer = new StringBuilder();
+
+    private Type lastType;
+    private Feature[] lastFeatures;
+
+    /**
+     * @param aAdapter
+     *            the adapter of the layer being rendered.
+     * @param aFeatures
+     *            the features to include in the label.
+     */
+    public LabelRenderer(TypeAdapter aAdapter, List<AnnotationFeature> aFeatures)
+    {
+        List<String> names = new ArrayList<String>();
+        for (AnnotationFeature feature : aFeatures) {
+            if (!feature.isEnabled() || !feature.isVisible()
+                    || !MultiValueMode.NONE.equals(feature.getMultiValueMode())) {
+                continue;
+            }
+            names.add(feature.getName());
+        }
+        featureNames = names.toArray(new String[names.size()]);
+        bratTypeName = TypeUtil.getBratTypeName(aAdapter);
+        // If there are no label features at all, then use the layer UI name
+        emptyLabel = "(" + aAdapter.getLayer().getUiName() + ")";
+    }
+
+    /**
+     * @return the brat type name of the layer.
+     */
+    public String getBratTypeName()
+    {
+        return bratTypeName;
+    }
+
+    /**
+     * Construct the label text used in the brat user interface.
+     *
+     * @param aFs
+     *            the annotation.
+     * @return the label.
+     */
+    public String getLabelText(AnnotationFS aFs)
+    {
+        Feature[] features = getFeatures(aFs.getType());
+
+        if (features.length == 1) {
+            String value = aFs.getFeatureValueAsString(features[0]);
+            return (value == null || value.isEmpty()) ? emptyLabel : intern(value);
+        }
+
+        buffer.setLength(0);
+        for (int i = 0; i < features.length; i++) {
+            // Empty values at the start do not leave a separator behind
+            if (buffer.length() > 0) {
+                buffer.append(TypeAdapter.FEATURE_SEPARATOR);
+            }
+            String value = aFs.getFeatureValueAsString(features[i]);
+            if (value != null) {
+                buffer.append(value);
+            }
+        }
+
+        if (buffer.length() > 0) {
+            return intern(buffer.toString());
+        }
+        else {
+            return emptyLabel;
+        }
+    }
+
+    private Feature[] getFeatures(Type aType)
+    {
+        // Almost all annotations of a layer have the same type, so check the last one first
+        if (aType == lastType) {
+            return lastFeatures;
+        }
+
+        Feature[] features = featuresByType.get(aType);
+        if (features == null) {
+            features = new Feature[featureNames.length];
+            for (int i = 0; i < featureNames.length; i++) {
+                features[i] = aType.getFeatureByBaseName(featureNames[i]);
+            }
+            featuresByType.put(aType, features);
+        }
+
+        lastType = aType;
+        lastFeatures = features;
+        return features;
+    }
+
+    private String intern(String aLabel)
+    {
+        String label = labels.get(aLabel);
+        if (label == null) {
+            labels.put(aLabel, aLabel);
+            label = aLabel;
+        }
+        return label;
+    }
+}
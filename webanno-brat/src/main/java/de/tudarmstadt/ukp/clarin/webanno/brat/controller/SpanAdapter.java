@@ -20,16 +20,12 @@ package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getFeature;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getFirstSentenceNumber;
-import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getLastSentenceAddressInDisplayWindow;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.isSameSentence;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectByAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectOverlapping;
-import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectSentenceAt;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.setFeature;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.util.CasUtil.getType;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
-import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -166,11 +162,11 @@ public class SpanAdapter
     }
 
     /**
-     * Add annotations from the CAS, which is controlled by the window size, to the brat response
+     * Add annotations from the current display window to the brat response
      * {@link GetDocumentResponse}
      *
-     * @param aJcas
-     *            The JCAS object containing annotations
+     * @param aWindow
+     *            The annotations of the display window
      * @param aResponse
      *            A brat response containing annotations in brat protocol
      * @param aBratAnnotatorModel
@@ -179,49 +175,24 @@ public class SpanAdapter
      *            the coloring strategy to render this layer
      */
     @Override
-    public void render(JCas aJcas, List<AnnotationFeature> aFeatures,
+    public void render(WindowSnapshot aWindow, List<AnnotationFeature> aFeatures,
             GetDocumentResponse aResponse, BratAnnotatorModel aBratAnnotatorModel,
             ColoringStrategy aColoringStrategy)
     {
-        // The first sentence address in the display window!
-        Sentence firstSentence = selectSentenceAt(aJcas,
-                aBratAnnotatorModel.getSentenceBeginOffset(),
-                aBratAnnotatorModel.getSentenceEndOffset());
-
-        int lastAddressInPage = getLastSentenceAddressInDisplayWindow(aJcas,
-                getAddr(firstSentence), aBratAnnotatorModel.getPreferences().getWindowSize());
-
-        // the last sentence address in the display window
-        Sentence lastSentenceInPage = (Sentence) selectByAddr(aJcas, FeatureStructure.class,
-                lastAddressInPage);
-
-        Type type = getType(aJcas.getCas(), getAnnotationTypeName());
-        int aFirstSentenceOffset = firstSentence.getBegin();
+        Type type = getType(aWindow.getJCas().getCas(), getAnnotationTypeName());
+        int aFirstSentenceOffset = aWindow.getWindowBegin();
+        LabelRenderer labelRenderer = new LabelRenderer(this, aFeatures);
+        String bratTypeName = labelRenderer.getBratTypeName();
 
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
-            String bratTypeName = TypeUtil.getBratTypeName(this);
-            String bratLabelText = TypeUtil.getBratLabelText(this, fs, aFeatures);
+        for (AnnotationFS fs : aWindow.select(type)) {
+            String bratLabelText = labelRenderer.getLabelText(fs);
             String color = aColoringStrategy.getColor(fs, bratLabelText);
 
-            Sentence beginSent = null, endSent = null;
             // check if annotation spans multiple sentence
-            for (Sentence sentence : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                    lastSentenceInPage.getEnd())) {
-                if (sentence.getBegin() <= fs.getBegin() && fs.getBegin() <= sentence.getEnd()) {
-                    beginSent = sentence;
-                    break;
-                }
-            }
-            for (Sentence sentence : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                    lastSentenceInPage.getEnd())) {
-                if (sentence.getBegin() <= fs.getEnd() && fs.getEnd() <= sentence.getEnd()) {
-                    endSent = sentence;
-                    break;
-                }
-            }
+            Sentence beginSent = aWindow.getSentenceAt(fs.getBegin());
+            Sentence endSent = aWindow.getSentenceAt(fs.getEnd());
 
-            List<Sentence> sentences = selectCovered(aJcas, Sentence.class, beginSent.getBegin(),
+            List<Sentence> sentences = aWindow.getSentences(beginSent.getBegin(),
                     endSent.getEnd());
             List<Offsets> offsets = new ArrayList<Offsets>();
             if (sentences.size() > 1) {
@@ -283,26 +254,22 @@ public class SpanAdapter
     public static void renderTokenAndSentence(JCas aJcas, GetDocumentResponse aResponse,
             BratAnnotatorModel aBratAnnotatorModel)
     {
-        // The first sentence address in the display window!
-        Sentence firstSentence = selectSentenceAt(aJcas,
-                aBratAnnotatorModel.getSentenceBeginOffset(),
-                aBratAnnotatorModel.getSentenceEndOffset());
-
-        int lastAddressInPage = getLastSentenceAddressInDisplayWindow(aJcas,
-                getAddr(firstSentence), aBratAnnotatorModel.getPreferences().getWindowSize());
+        renderTokenAndSentence(new WindowSnapshot(aJcas, aBratAnnotatorModel), aResponse);
+    }
 
-        // the last sentence address in the display window
-        Sentence lastSentenceInPage = (Sentence) selectByAddr(aJcas, FeatureStructure.class,
-                lastAddressInPage);
+    public static void renderTokenAndSentence(WindowSnapshot aWindow,
+            GetDocumentResponse aResponse)
+    {
+        JCas jcas = aWindow.getJCas();
+        Sentence firstSentence = aWindow.getFirstSentence();
 
-        int sentenceNumber = getFirstSentenceNumber(aJcas, getAddr(firstSentence));
+        int sentenceNumber = getFirstSentenceNumber(jcas, getAddr(firstSentence));
         aResponse.setSentenceNumberOffset(sentenceNumber);
 
-        int aFirstSentenceOffset = firstSentence.getBegin();
+        int aFirstSentenceOffset = aWindow.getWindowBegin();
 
         // Render token + texts
-        for (AnnotationFS fs : selectCovered(aJcas, Token.class, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        for (AnnotationFS fs : aWindow.select(CasUtil.getType(jcas.getCas(), Token.class))) {
             // attache type such as POS adds non existing token element for ellipsis annotation
             if (fs.getBegin() == fs.getEnd()) {
                 continue;
@@ -310,12 +277,11 @@ public class SpanAdapter
             aResponse.addToken(fs.getBegin() - aFirstSentenceOffset, fs.getEnd()
                     - aFirstSentenceOffset);
         }
-        aResponse.setText(aJcas.getDocumentText().substring(aFirstSentenceOffset,
-                lastSentenceInPage.getEnd()));
+        aResponse.setText(jcas.getDocumentText().substring(aFirstSentenceOffset,
+                aWindow.getWindowEnd()));
 
         // Render Sentence
-        for (AnnotationFS fs : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        for (AnnotationFS fs : aWindow.getSentences()) {
             aResponse.addSentence(fs.getBegin() - aFirstSentenceOffset, fs.getEnd()
                     - aFirstSentenceOffset);
         }
@@ -376,12 +342,10 @@ public class SpanAdapter
             Object aValue)
     {
         Type type = CasUtil.getType(aCas, getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aCas, type, aBegin, aEnd)) {
-            if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
-                if (!allowStacking) {
-                    setFeature(fs, aFeature, aValue);
-                    return getAddr(fs);
-                }
+        if (!allowStacking) {
+            for (AnnotationFS fs : IntervalIndex.selectAt(aCas, type, aBegin, aEnd)) {
+                setFeature(fs, aFeature, aValue);
+                return getAddr(fs);
             }
         }
         AnnotationFS newAnnotation = aCas.createAnnotation(type, aBegin, aEnd);
@@ -392,15 +356,16 @@ public class SpanAdapter
             Feature attachFeature = theType.getFeatureByBaseName(getAttachFeatureName());
             // if the attache type feature structure is not in place
             // (for custom annotation), create it
-            if (CasUtil.selectCovered(aCas, theType, aBegin, aEnd).size() == 0) {
+            List<AnnotationFS> attachFses = IntervalIndex.selectCovered(aCas, theType, aBegin,
+                    aEnd);
+            if (attachFses.isEmpty()) {
                 AnnotationFS attachTypeAnnotation = aCas.createAnnotation(theType, aBegin, aEnd);
-                aCas.addFsToIndexes(attachTypeAnnotation);
-
+                IntervalIndex.addFs(aCas, attachTypeAnnotation);
+                attachFses = IntervalIndex.selectCovered(aCas, theType, aBegin, aEnd);
             }
-            CasUtil.selectCovered(aCas, theType, aBegin, aEnd).get(0)
-                    .setFeatureValue(attachFeature, newAnnotation);
+            attachFses.get(0).setFeatureValue(attachFeature, newAnnotation);
         }
-        aCas.addFsToIndexes(newAnnotation);
+        IntervalIndex.addFs(aCas, newAnnotation);
         return getAddr(newAnnotation);
     }
 
@@ -408,7 +373,7 @@ public class SpanAdapter
     public void delete(JCas aJCas, int aAddress)
     {
         FeatureStructure fs = selectByAddr(aJCas, FeatureStructure.class, aAddress);
-        aJCas.removeFsFromIndexes(fs);
+        IntervalIndex.removeFs(aJCas.getCas(), fs);
 
         // delete associated attachFeature
         if (getAttachTypeName() == null) {
@@ -419,7 +384,7 @@ public class SpanAdapter
         if (attachFeature == null) {
             return;
         }
-        CasUtil.selectCovered(aJCas.getCas(), theType, ((AnnotationFS) fs).getBegin(),
+        IntervalIndex.selectCovered(aJCas.getCas(), theType, ((AnnotationFS) fs).getBegin(),
                 ((AnnotationFS) fs).getEnd()).get(0).setFeatureValue(attachFeature, null);
 
     }
@@ -428,12 +393,9 @@ public class SpanAdapter
     public void delete(JCas aJCas, AnnotationFeature aFeature, int aBegin, int aEnd, Object aValue)
     {
         Type type = CasUtil.getType(aJCas.getCas(), getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
-
-            if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
-                if (ObjectUtils.equals(getFeature(fs, aFeature), aValue)) {
-                    delete(aJCas, getAddr(fs));
-                }
+        for (AnnotationFS fs : IntervalIndex.selectAt(aJCas.getCas(), type, aBegin, aEnd)) {
+            if (ObjectUtils.equals(getFeature(fs, aFeature), aValue)) {
+                delete(aJCas, getAddr(fs));
             }
         }
     }
@@ -488,10 +450,11 @@ public class SpanAdapter
         Type type = getType(aJcas.getCas(), getAnnotationTypeName());
         List<String> annotations = new ArrayList<String>();
 
-        for (Token token : selectCovered(aJcas, Token.class, begin, end)) {
-            if (selectCovered(aJcas.getCas(), type, token.getBegin(), token.getEnd()).size() > 0) {
-                AnnotationFS anno = selectCovered(aJcas.getCas(), type, token.getBegin(),
-                        token.getEnd()).get(0);
+        for (Token token : IntervalIndex.selectCovered(aJcas, Token.class, begin, end)) {
+            List<AnnotationFS> covered = IntervalIndex.selectCovered(aJcas.getCas(), type,
+                    token.getBegin(), token.getEnd());
+            if (covered.size() > 0) {
+                AnnotationFS anno = covered.get(0);
                 Feature labelFeature = anno.getType().getFeatureByBaseName(aFeature.getName());
                 annotations.add(anno.getFeatureValueAsString(labelFeature));
             }
@@ -507,12 +470,12 @@ public class SpanAdapter
     {
         Map<Integer, String> multAnno = new HashMap<Integer, String>();
         Type type = getType(sentence.getCAS(), getAnnotationTypeName());
-        for (AnnotationFS fs : selectCovered(sentence.getCAS(), type, sentence.getBegin(),
-                sentence.getEnd())) {
+        for (AnnotationFS fs : IntervalIndex.selectCovered(sentence.getCAS(), type,
+                sentence.getBegin(), sentence.getEnd())) {
             boolean isBegin = true;
             Feature labelFeature = fs.getType().getFeatureByBaseName(aFeature.getName());
-            for (Token token : selectCovered(sentence.getCAS().getJCas(), Token.class,
-                    fs.getBegin(), fs.getEnd())) {
+            for (Token token : IntervalIndex.selectCovered(sentence.getCAS().getJCas(),
+                    Token.class, fs.getBegin(), fs.getEnd())) {
                 if (multAnno.get(getAddr(token)) == null) {
                     if (isBegin) {
                         multAnno.put(getAddr(token),
@@ -50,11 +50,11 @@ public interface TypeAdapter
     void updateFeature(JCas aJcas, AnnotationFeature feature, int address, Object value);
 
     /**
-     * Add annotations from the CAS, which is controlled by the window size, to the brat response
+     * Add annotations from the current display window to the brat response
      * {@link GetDocumentResponse}
      *
-     * @param aJcas
-     *            The JCAS object containing annotations
+     * @param aWindow
+     *            The annotations of the display window, shared by all layers being rendered
      * @param features the features.
      * @param aResponse
      *            A brat response containing annotations in brat protocol
@@ -63,7 +63,7 @@ public interface TypeAdapter
      * @param aColoringStrategy
      *            the  coloring strategy to render this layer
      */
-    void render(JCas aJcas, List<AnnotationFeature> features, GetDocumentResponse aResponse,
+    void render(WindowSnapshot aWindow, List<AnnotationFeature> features, GetDocumentResponse aResponse,
             BratAnnotatorModel aBratAnnotatorModel, ColoringStrategy aColoringStrategy);
 
     /**
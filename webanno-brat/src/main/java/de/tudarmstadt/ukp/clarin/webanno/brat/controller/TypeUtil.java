@@ -19,9 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 
 import java.util.List;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 
@@ -29,7 +27,6 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
-import de.tudarmstadt.ukp.clarin.webanno.model.MultiValueMode;
 
 /**
  * Utility Class for {@link TypeAdapter} with static methods such as geting
@@ -82,7 +79,8 @@ public final class TypeUtil
         }
     }
     /**
-     * Construct the label text used in the brat user interface.
+     * Construct the label text used in the brat user interface. When rendering many annotations
+     * of the same layer, use a {@link LabelRenderer} instead.
      *
      * @param aAdapter the adapter.
      * @param aFs the annotation.
@@ -92,31 +90,7 @@ public final class TypeUtil
     public static String getBratLabelText(TypeAdapter aAdapter, AnnotationFS aFs,
             List<AnnotationFeature> aFeatures)
     {
-        StringBuilder bratLabelText = new StringBuilder();
-        for (AnnotationFeature feature : aFeatures) {
-
-            if (!feature.isEnabled() || !feature.isVisible()
-                    || !MultiValueMode.NONE.equals(feature.getMultiValueMode())) {
-                continue;
-            }
-
-            Feature labelFeature = aFs.getType().getFeatureByBaseName(feature.getName());
-
-            if (bratLabelText.length() > 0) {
-                bratLabelText.append(TypeAdapter.FEATURE_SEPARATOR);
-            }
-
-            bratLabelText.append(StringUtils.defaultString(aFs
-                    .getFeatureValueAsString(labelFeature)));
-        }
-
-        if (bratLabelText.length() > 0) {
-            return bratLabelText.toString();
-        }
-        else {
-            // If there are no label features at all, then use the layer UI name
-            return "(" + aAdapter.getLayer().getUiName() + ")";
-        }
+        return new LabelRenderer(aAdapter, aFeatures).getLabelText(aFs);
     }
 
     /**
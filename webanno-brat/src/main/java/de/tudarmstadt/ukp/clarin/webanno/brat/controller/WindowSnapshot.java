@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getLastSentenceInDisplayWindow;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectSentenceAt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * The annotations of the current display window. The annotation index is scanned only once between
+ * the window boundaries and the annotations found are bucketed by type. All {@link TypeAdapter}s
+ * rendering the same window share one snapshot instead of each running their own queries.
+ */
+public class WindowSnapshot
+{
+    private final JCas jcas;
+
+    private final Sentence firstSentence;
+    private final Sentence lastSentence;
+
+    /**
+     * All annotations in the window in index order.
+     */
+    private final List<AnnotationFS> annotations = new ArrayList<AnnotationFS>();
+
+    /**
+     * The annotations in the window bucketed by their exact type.
+     */
+    private final Map<Type, List<AnnotationFS>> annotationsByType = new LinkedHashMap<Type, List<AnnotationFS>>();
+
+    /**
+     * The annotations in the window per requested type (including sub-types).
+     */
+    private final Map<Type, List<AnnotationFS>> selectionCache = new HashMap<Type, List<AnnotationFS>>();
+
+    private final List<Sentence> sentences = new ArrayList<Sentence>();
+
+    /**
+     * Create a snapshot of the display window described by the given model.
+     *
+     * @param aJCas
+     *            the JCas.
+     * @param aBModel
+     *            the model providing the first sentence and the window size.
+     */
+    public WindowSnapshot(JCas aJCas, BratAnnotatorModel aBModel)
+    {
+        this(aJCas, aBModel.getSentenceBeginOffset(), aBModel.getSentenceEndOffset(), aBModel
+                .getPreferences().getWindowSize());
+    }
+
+    /**
+     * Create a snapshot of a display window.
+     *
+     * @param aJCas
+     *            the JCas.
+     * @param aSentenceBegin
+     *            the begin offset of the first sentence in the window.
+     * @param aSentenceEnd
+     *            the end offset of the first sentence in the window.
+     * @param aWindowSize
+     *            the window size.
+     */
+    public WindowSnapshot(JCas aJCas, int aSentenceBegin, int aSentenceEnd, int aWindowSize)
+    {
+        jcas = aJCas;
+
+        // Sentences are looked up by offset, not by address, because the model may carry the
+        // address of the sentence in a different CAS (e.g. during curation)
+        firstSentence = selectSentenceAt(aJCas, aSentenceBegin, aSentenceEnd);
+        lastSentence = getLastSentenceInDisplayWindow(aJCas, firstSentence, aWindowSize);
+
+        scan();
+    }
+
+    private void scan()
+    {
+        int windowBegin = getWindowBegin();
+        int windowEnd = getWindowEnd();
+
+        // Position the iterator at the first sentence. Annotations starting at the same offset
+        // but ending later are sorted before it in the index, so we have to step back to them.
+        FSIterator<AnnotationFS> i = jcas.getCas().getAnnotationIndex().iterator(firstSentence);
+        while (i.isValid() && i.get().getBegin() >= windowBegin) {
+            i.moveToPrevious();
+        }
+        if (i.isValid()) {
+            i.moveToNext();
+        }
+        else {
+            i.moveToFirst();
+        }
+
+        // Collect everything that is covered by the window
+        while (i.isValid()) {
+            AnnotationFS fs = i.get();
+            if (fs.getBegin() > windowEnd) {
+                break;
+            }
+
+            if (fs.getBegin() >= windowBegin && fs.getEnd() <= windowEnd) {
+                annotations.add(fs);
+
+                List<AnnotationFS> bucket = annotationsByType.get(fs.getType());
+                if (bucket == null) {
+                    bucket = new ArrayList<AnnotationFS>();
+                    annotationsByType.put(fs.getType(), bucket);
+                }
+                bucket.add(fs);
+
+                if (fs instanceof Sentence) {
+                    sentences.add((Sentence) fs);
+                }
+            }
+
+            i.moveToNext();
+        }
+    }
+
+    /**
+     * Get the annotations of the given type (including sub-types) that are covered by the window.
+     * The annotations are returned in index order.
+     *
+     * @param aType
+     *            the type.
+     * @return the annotations.
+     */
+    public List<AnnotationFS> select(Type aType)
+    {
+        List<AnnotationFS> result = selectionCache.get(aType);
+        if (result != null) {
+            return result;
+        }
+
+        TypeSystem ts = jcas.getTypeSystem();
+        List<Type> matchingTypes = new ArrayList<Type>();
+        for (Type t : annotationsByType.keySet()) {
+            if (ts.subsumes(aType, t)) {
+                matchingTypes.add(t);
+            }
+        }
+
+        if (matchingTypes.isEmpty()) {
+            result = Collections.emptyList();
+        }
+        else if (matchingTypes.size() == 1) {
+            result = Collections.unmodifiableList(annotationsByType.get(matchingTypes.get(0)));
+        }
+        else {
+            // Multiple sub-types are present - filter the full list to retain index order
+            List<AnnotationFS> merged = new ArrayList<AnnotationFS>();
+            for (AnnotationFS fs : annotations) {
+                if (ts.subsumes(aType, fs.getType())) {
+                    merged.add(fs);
+                }
+            }
+            result = Collections.unmodifiableList(merged);
+        }
+
+        selectionCache.put(aType, result);
+        return result;
+    }
+
+    /**
+     * Get the annotations of the given type (including sub-types) that are covered by the window.
+     *
+     * @param aTypeName
+     *            the type name.
+     * @return the annotations.
+     * @see #select(Type)
+     */
+    public List<AnnotationFS> select(String aTypeName)
+    {
+        return select(CasUtil.getType(jcas.getCas(), aTypeName));
+    }
+
+    /**
+     * @return the sentences in the window.
+     */
+    public List<Sentence> getSentences()
+    {
+        return Collections.unmodifiableList(sentences);
+    }
+
+    /**
+     * Get the sentences in the window that are covered by the given offsets.
+     *
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the sentences.
+     */
+    public List<Sentence> getSentences(int aBegin, int aEnd)
+    {
+        List<Sentence> covered = new ArrayList<Sentence>();
+        for (Sentence sentence : sentences) {
+            if (sentence.getBegin() > aEnd) {
+                break;
+            }
+            if (sentence.getBegin() >= aBegin && sentence.getEnd() <= aEnd) {
+                covered.add(sentence);
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * Get the first sentence in the window that contains the given offset. An offset at the end
+     * of a sentence is considered to be part of that sentence.
+     *
+     * @param aOffset
+     *            the offset.
+     * @return the sentence or {@code null} if the offset is not within the window.
+     */
+    public Sentence getSentenceAt(int aOffset)
+    {
+        for (Sentence sentence : sentences) {
+            if (sentence.getBegin() <= aOffset && aOffset <= sentence.getEnd()) {
+                return sentence;
+            }
+        }
+        return null;
+    }
+
+    public JCas getJCas()
+    {
+        return jcas;
+    }
+
+    public Sentence getFirstSentence()
+    {
+        return firstSentence;
+    }
+
+    public Sentence getLastSentence()
+    {
+        return lastSentence;
+    }
+
+    public int getWindowBegin()
+    {
+        return firstSentence.getBegin();
+    }
+
+    public int getWindowEnd()
+    {
+        return lastSentence.getEnd();
+    }
+}
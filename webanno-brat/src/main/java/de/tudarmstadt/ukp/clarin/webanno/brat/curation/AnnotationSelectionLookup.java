@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.AnnotationState;
+
+/**
+ * Lookup tables built once from the result of a {@link CasDiff}. For each user, they map the
+ * address of an annotation in the CAS of the user to its {@link AnnotationSelection} and to the
+ * {@link AnnotationState} used to color it. Looking up an annotation while rendering thus takes
+ * constant time instead of a scan over all annotation options.
+ * <p>
+ * The tables use open addressing on plain {@code int} arrays, so no {@link Integer} is boxed per
+ * annotation. Address {@code 0} is the null reference in a CAS and marks an empty slot.
+ */
+public class AnnotationSelectionLookup
+{
+    private static final AnnotationState[] STATES = AnnotationState.values();
+
+    private final boolean correction;
+    private final Map<String, Table> tables = new HashMap<String, Table>();
+
+    private AnnotationSelectionLookup(boolean aCorrection)
+    {
+        correction = aCorrection;
+    }
+
+    /**
+     * Build the lookup tables.
+     *
+     * @param aAnnotationOptions
+     *            the result of the diff.
+     * @param aNumUsers
+     *            the number of CASes which were compared.
+     * @param aCorrection
+     *            whether the states are computed for automation/correction mode, where the CAS
+     *            of the {@link WebAnnoConst#CURATION_USER} holds the suggestions, instead of
+     *            curation mode.
+     * @return the lookup.
+     */
+    public static AnnotationSelectionLookup build(List<AnnotationOption> aAnnotationOptions,
+            int aNumUsers, boolean aCorrection)
+    {
+        AnnotationSelectionLookup lookup = new AnnotationSelectionLookup(aCorrection);
+
+        // Count first so that the tables never need to grow
+        Map<String, int[]> counts = new HashMap<String, int[]>();
+        for (AnnotationOption annotationOption : aAnnotationOptions) {
+            for (AnnotationSelection annotationSelection : annotationOption
+                    .getAnnotationSelections()) {
+                for (String username : annotationSelection.getAddressByUsername().keySet()) {
+                    int[] count = counts.get(username);
+                    if (count == null) {
+                        count = new int[1];
+                        counts.put(username, count);
+                    }
+                    count[0]++;
+                }
+            }
+        }
+        for (Entry<String, int[]> e : counts.entrySet()) {
+            lookup.tables.put(e.getKey(), new Table(e.getValue()[0]));
+        }
+
+        for (AnnotationOption annotationOption : aAnnotationOptions) {
+            for (AnnotationSelection annotationSelection : annotationOption
+                    .getAnnotationSelections()) {
+                AnnotationState state = aCorrection ? getCorrectionState(annotationSelection,
+                        aNumUsers) : getCurationState(annotationSelection, aNumUsers);
+                for (Entry<String, Integer> e : annotationSelection.getAddressByUsername()
+                        .entrySet()) {
+                    lookup.tables.get(e.getKey()).put(e.getValue(), annotationSelection,
+                            state);
+                }
+            }
+        }
+        return lookup;
+    }
+
+    /**
+     * @param aUsername
+     *            the user.
+     * @param aAddress
+     *            the address of an annotation in the CAS of the user.
+     * @return the selection of the annotation or {@code null} if the annotation was not part of
+     *         the diff.
+     */
+    public AnnotationSelection getSelection(String aUsername, int aAddress)
+    {
+        Table table = tables.get(aUsername);
+        if (table == null) {
+            return null;
+        }
+        int slot = table.find(aAddress);
+        return slot < 0 ? null : table.selections[slot];
+    }
+
+    /**
+     * @param aUsername
+     *            the user.
+     * @param aAddress
+     *            the address of an annotation in the CAS of the user.
+     * @return the state of the annotation.
+     */
+    public AnnotationState getState(String aUsername, int aAddress)
+    {
+        Table table = tables.get(aUsername);
+        int slot = table != null ? table.find(aAddress) : -1;
+        if (slot < 0) {
+            // Annotations which are not part of the diff
+            return correction ? AnnotationState.NOT_SUPPORTED : AnnotationState.AGREE;
+        }
+        return STATES[table.states[slot]];
+    }
+
+    private static AnnotationState getCurationState(AnnotationSelection aAnnotationSelection,
+            int aNumUsers)
+    {
+        if (aAnnotationSelection.getAddressByUsername().size() == aNumUsers) {
+            return AnnotationState.AGREE;
+        }
+        else if (aAnnotationSelection.getAddressByUsername().containsKey(
+                WebAnnoConst.CURATION_USER)) {
+            return AnnotationState.USE;
+        }
+        else {
+            for (AnnotationSelection otherAnnotationSelection : aAnnotationSelection
+                    .getAnnotationOption().getAnnotationSelections()) {
+                if (otherAnnotationSelection.getAddressByUsername().containsKey(
+                        WebAnnoConst.CURATION_USER)) {
+                    return AnnotationState.DO_NOT_USE;
+                }
+            }
+            return AnnotationState.DISAGREE;
+        }
+    }
+
+    private static AnnotationState getCorrectionState(AnnotationSelection aAnnotationSelection,
+            int aNumUsers)
+    {
+        if (aAnnotationSelection.getAddressByUsername().size() == aNumUsers) {
+            return AnnotationState.AGREE;
+        }
+        else if (aAnnotationSelection.getAnnotationOption().getAnnotationSelections().size() == 1) {
+            return AnnotationState.DISAGREE;
+        }
+        else {
+            return AnnotationState.DO_NOT_USE;
+        }
+    }
+
+    /**
+     * Open addressing hash table from annotation address to selection and state.
+     */
+    private static class Table
+    {
+        private final int[] addresses;
+        private final AnnotationSelection[] selections;
+        private final byte[] states;
+        private final int mask;
+
+        Table(int aSize)
+        {
+            // Keep the load factor at or below 0.5
+            int capacity = Integer.highestOneBit(Math.max(aSize, 1) * 2 - 1) << 1;
+            addresses = new int[capacity];
+            selections = new AnnotationSelection[capacity];
+            states = new byte[capacity];
+            mask = capacity - 1;
+        }
+
+        void put(int aAddress, AnnotationSelection aSelection, AnnotationState aState)
+        {
+            int slot = hash(aAddress) & mask;
+            while (addresses[slot] != 0 && addresses[slot] != aAddress) {
+                slot = (slot + 1) & mask;
+            }
+            addresses[slot] = aAddress;
+            selections[slot] = aSelection;
+            states[slot] = (byte) aState.ordinal();
+        }
+
+        int find(int aAddress)
+        {
+            if (aAddress == 0) {
+                return -1;
+            }
+            int slot = hash(aAddress) & mask;
+            while (addresses[slot] != 0) {
+                if (addresses[slot] == aAddress) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int hash(int aAddress)
+        {
+            // CAS addresses are dense and mostly multiples of small numbers, so spread the bits
+            int h = aAddress * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
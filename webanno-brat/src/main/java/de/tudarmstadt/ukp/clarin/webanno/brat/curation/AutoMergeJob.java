@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of an {@link AutoMergeService} job. The documents of a job are processed concurrently
+ * by the worker threads of the service, so all counters may be read at any time from the UI.
+ * The errors of failed documents are logged by the service.
+ */
+public class AutoMergeJob
+{
+    private final long projectId;
+    private final int total;
+    private final long startTime = System.currentTimeMillis();
+    private volatile long endTime = -1;
+    private volatile boolean cancelled = false;
+
+    private final AtomicInteger merged = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+
+    AutoMergeJob(long aProjectId, int aTotal)
+    {
+        projectId = aProjectId;
+        total = aTotal;
+        if (total == 0) {
+            endTime = startTime;
+        }
+    }
+
+    /**
+     * @return whether this was the last document of the job.
+     */
+    boolean documentMerged()
+    {
+        merged.incrementAndGet();
+        return documentDone();
+    }
+
+    /**
+     * @return whether this was the last document of the job.
+     */
+    boolean documentSkipped()
+    {
+        skipped.incrementAndGet();
+        return documentDone();
+    }
+
+    /**
+     * @return whether this was the last document of the job.
+     */
+    boolean documentFailed()
+    {
+        failed.incrementAndGet();
+        return documentDone();
+    }
+
+    private boolean documentDone()
+    {
+        if (done.incrementAndGet() == total) {
+            endTime = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    public long getProjectId()
+    {
+        return projectId;
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * @return the number of documents for which a curation CAS was created.
+     */
+    public int getMerged()
+    {
+        return merged.get();
+    }
+
+    /**
+     * @return the number of documents which already had a curation CAS or no finished annotations,
+     *         or which were not processed because the job was cancelled.
+     */
+    public int getSkipped()
+    {
+        return skipped.get();
+    }
+
+    public int getFailed()
+    {
+        return failed.get();
+    }
+
+    public int getDone()
+    {
+        return done.get();
+    }
+
+    /**
+     * @return the progress in percent.
+     */
+    public int getProgress()
+    {
+        return total == 0 ? 100 : getDone() * 100 / total;
+    }
+
+    /**
+     * @return the number of processed documents per second.
+     */
+    public double getThroughput()
+    {
+        long end = isFinished() ? endTime : System.currentTimeMillis();
+        long duration = Math.max(end - startTime, 1);
+        return getDone() * 1000.0 / duration;
+    }
+
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * @return the time the last document was processed or {@code -1} if the job is still running.
+     */
+    public long getEndTime()
+    {
+        return endTime;
+    }
+
+    public boolean isFinished()
+    {
+        return endTime != -1;
+    }
+
+    /**
+     * Documents which have not been started yet are skipped. Documents which are being processed
+     * are still finished.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d%% - merged: %d, skipped: %d, failed: %d of %d documents "
+                + "(%.2f documents/s)%s", getProgress(), getMerged(), getSkipped(), getFailed(),
+                total, getThroughput(), isFinished() ? " - finished"
+                        : (cancelled ? " - cancelling" : ""));
+    }
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.SuggestionBuilder;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+
+/**
+ * Pre-builds the curation CASes of many documents in the background. For each document, the CAS
+ * of one of the users who finished the document is taken as the curation CAS and all annotations
+ * on which not all of these users agree are removed from it - the same as when a curator opens the
+ * document for the first time. The curator thus only needs to look at the disagreements.
+ * <p>
+ * Documents which already have a curation CAS are never touched. The documents of a job are
+ * processed in parallel on a small pool of low-priority daemon threads, so starting a job returns
+ * immediately. At most one job per project is running at any time.
+ */
+public class AutoMergeService
+{
+    private static final Log LOG = LogFactory.getLog(AutoMergeService.class);
+
+    @Resource(name = "documentRepository")
+    private RepositoryService repository;
+
+    @Resource(name = "annotationService")
+    private AnnotationService annotationService;
+
+    private int threads = 0;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<Long, AutoMergeJob> jobs = new HashMap<Long, AutoMergeJob>();
+
+    public void init()
+    {
+        // Every worker holds the CASes of all annotators of a document in memory, so the default
+        // leaves one processor for the interactive users
+        int n = threads > 0 ? threads : Math.max(1,
+                Runtime.getRuntime().availableProcessors() - 1);
+        executor = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable aRunnable)
+                    {
+                        Thread thread = new Thread(aRunnable, "curation-auto-merge-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        LOG.info("Curation auto-merge threads: " + n);
+    }
+
+    public void destroy()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Start pre-building the curation CASes of the given documents. If a job is already running for
+     * the project, no new job is started.
+     *
+     * @param aProject
+     *            the project.
+     * @param aDocuments
+     *            the documents of the project to process.
+     * @param aUser
+     *            the user who started the job.
+     * @return the new job or the job that is already running.
+     */
+    public AutoMergeJob start(Project aProject, List<SourceDocument> aDocuments, final User aUser)
+    {
+        final AutoMergeJob job;
+        synchronized (jobs) {
+            AutoMergeJob running = jobs.get(aProject.getId());
+            if (running != null && !running.isFinished()) {
+                return running;
+            }
+            job = new AutoMergeJob(aProject.getId(), aDocuments.size());
+            jobs.put(aProject.getId(), job);
+        }
+
+        final List<AnnotationLayer> layers = new ArrayList<AnnotationLayer>();
+        for (AnnotationLayer layer : annotationService.listAnnotationLayer(aProject)) {
+            if (layer.isEnabled()) {
+                layers.add(layer);
+            }
+        }
+
+        LOG.info("Starting curation auto-merge of " + aDocuments.size() + " documents in project ["
+                + aProject.getName() + "]");
+
+        for (final SourceDocument document : aDocuments) {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    boolean last;
+                    if (job.isCancelled()) {
+                        last = job.documentSkipped();
+                    }
+                    else {
+                        try {
+                            last = merge(document, layers, aUser) ? job.documentMerged() : job
+                                    .documentSkipped();
+                        }
+                        catch (Exception e) {
+                            LOG.error("Unable to merge document [" + document.getName() + "]", e);
+                            last = job.documentFailed();
+                        }
+                    }
+
+                    if (last) {
+                        LOG.info("Finished curation auto-merge - " + job);
+                    }
+                }
+            });
+        }
+        return job;
+    }
+
+    /**
+     * Get the last job started for the given project.
+     *
+     * @param aProject
+     *            the project.
+     * @return the job or {@code null} if no job has been started for the project.
+     */
+    public AutoMergeJob getJob(Project aProject)
+    {
+        synchronized (jobs) {
+            return jobs.get(aProject.getId());
+        }
+    }
+
+    /**
+     * Create the curation CAS of a document from the CASes of all users who finished it.
+     *
+     * @return whether a curation CAS was created.
+     */
+    private boolean merge(SourceDocument aDocument, List<AnnotationLayer> aLayers, User aUser)
+        throws Exception
+    {
+        if (repository.existsCas(aDocument, WebAnnoConst.CURATION_USER)) {
+            return false;
+        }
+
+        Map<String, JCas> jCases = new HashMap<String, JCas>();
+        AnnotationDocument randomAnnotationDocument = null;
+        for (AnnotationDocument annotationDocument : repository.listAnnotationDocuments(aDocument)) {
+            String username = annotationDocument.getUser();
+            if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
+                    && !username.equals(WebAnnoConst.CURATION_USER)) {
+                if (randomAnnotationDocument == null) {
+                    randomAnnotationDocument = annotationDocument;
+                }
+                jCases.put(username, repository.readAnnotationCas(annotationDocument));
+            }
+        }
+
+        if (randomAnnotationDocument == null) {
+            return false;
+        }
+
+        int numUsers = jCases.size();
+
+        // A separate copy of one of the user CASes becomes the curation CAS
+        JCas mergeJCas = repository.readAnnotationCas(randomAnnotationDocument);
+        List<Type> entryTypes = SuggestionBuilder.getEntryTypes(mergeJCas, aLayers,
+                annotationService);
+        jCases.put(WebAnnoConst.CURATION_USER, mergeJCas);
+
+        List<AnnotationOption> annotationOptions = CasDiff.doDiff(entryTypes, jCases, 0, mergeJCas
+                .getDocumentText().length());
+        SuggestionBuilder.removeDisagreeingAnnotations(mergeJCas, annotationOptions, numUsers);
+
+        // A curator may have opened the document in the meantime
+        if (repository.existsCas(aDocument, WebAnnoConst.CURATION_USER)) {
+            return false;
+        }
+        repository.writeCurationCas(mergeJCas, aDocument, aUser);
+        return true;
+    }
+
+    public void setThreads(int aThreads)
+    {
+        threads = aThreads;
+    }
+}
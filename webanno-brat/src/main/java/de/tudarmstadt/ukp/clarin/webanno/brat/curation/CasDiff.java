@@ -21,20 +21,27 @@ import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
+import org.apache.uima.cas.ArrayFS;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CommonArrayFS;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.LowLevelCAS;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.IntervalIndex;
+
 /**
  * Class for finding clusters of equal annotations. Equal annotations are grouped into a
  * {@link AnnotationSelection}. Instances of {@link AnnotationSelection}, which are exchangeble,
@@ -46,8 +53,17 @@ import org.apache.uima.jcas.JCas;
 public class CasDiff
 {
 
+    private static final int MAX_DEPTH = 8;
+
     /**
      * spot differing annotations by comparing cases of the same source document.
+     * <p>
+     * Every annotation is reduced to a fingerprint made of its type, its primitive feature values
+     * (including the offsets) and the offsets of the annotations it refers to. Referenced
+     * annotations of the same type, e.g. the next link of a chain, are part of the fingerprint
+     * with all their features, as in {@link #compareFeatureFS}. Annotations with the
+     * same fingerprint end up in the same {@link AnnotationSelection}, so each CAS is visited only
+     * once and no annotation is compared to any other annotation.
      *
      * @param aEntryTypes
      *            the entry types.
@@ -64,6 +80,175 @@ public class CasDiff
     public static List<AnnotationOption> doDiff(List<Type> aEntryTypes, Map<String, JCas> aCasMap,
             int aBegin, int aEnd)
         throws RangeNameNotCheckedException
+    {
+        // Options per position and type, selections per fingerprint
+        Map<String, AnnotationOption> annotationOptionByPositionAndType = new LinkedHashMap<String, AnnotationOption>();
+        Map<String, AnnotationSelection> annotationSelectionByFingerprint = new HashMap<String, AnnotationSelection>();
+        StringBuilder buffer = new StringBuilder();
+
+        for (Entry<String, JCas> e : aCasMap.entrySet()) {
+            String username = e.getKey();
+            CAS cas = e.getValue().getCas();
+            LowLevelCAS llCas = cas.getLowLevelCAS();
+
+            for (Type entryType : aEntryTypes) {
+                // #610 - fetch type by name as type instance may be bound to a different CAS
+                Type localType = CasUtil.getType(cas, entryType.getName());
+                for (AnnotationFS fs : IntervalIndex.selectCovered(cas, localType, aBegin, aEnd)) {
+                    buffer.setLength(0);
+                    appendFingerprint(buffer, fs, fs.getType().getName(), 0, null);
+                    String fingerprint = buffer.toString();
+
+                    AnnotationSelection annotationSelection = annotationSelectionByFingerprint
+                            .get(fingerprint);
+                    if (annotationSelection == null) {
+                        annotationSelection = new AnnotationSelection();
+                        annotationSelectionByFingerprint.put(fingerprint, annotationSelection);
+
+                        String optionKey = fs.getBegin() + "-" + fs.getEnd() + "-"
+                                + fs.getType().getName();
+                        AnnotationOption annotationOption = annotationOptionByPositionAndType
+                                .get(optionKey);
+                        if (annotationOption == null) {
+                            annotationOption = new AnnotationOption();
+                            annotationOptionByPositionAndType.put(optionKey, annotationOption);
+                        }
+                        // link annotationOption and annotationSelection
+                        annotationSelection.setAnnotationOption(annotationOption);
+                        annotationOption.getAnnotationSelections().add(annotationSelection);
+                    }
+                    annotationSelection.getAddressByUsername().put(username,
+                            llCas.ll_getFSRef(fs));
+                    // Add Debug information
+                    annotationSelection.getFsStringByUsername().put(username, fs);
+                }
+            }
+        }
+
+        return new LinkedList<AnnotationOption>(annotationOptionByPositionAndType.values());
+    }
+
+    /**
+     * Append the fingerprint of the given feature structure. Two annotations have the same
+     * fingerprint if they have the same type and the same primitive feature values and if the
+     * annotations they refer to are located at the same offsets. Referenced annotations of the
+     * entry type must have the same fingerprint themselves.
+     *
+     * @param aEntryType
+     *            the type of the annotation the fingerprint is made for.
+     * @param aDepth
+     *            the nesting of non-annotation feature structures.
+     * @param aVisited
+     *            the annotations of the entry type which have been followed on the way here, or
+     *            {@code null} if none.
+     */
+    private static void appendFingerprint(StringBuilder aBuffer, FeatureStructure aFS,
+            String aEntryType, int aDepth, Set<FeatureStructure> aVisited)
+    {
+        ComparisonPlan plan = ComparisonPlan.get(aFS);
+        aBuffer.append(plan.getTypeName());
+
+        // Guard against cyclic references between non-annotation feature structures
+        if (aDepth > MAX_DEPTH) {
+            return;
+        }
+
+        aBuffer.append('{');
+        for (int i = 0; i < plan.size(); i++) {
+            aBuffer.append('|');
+            if (plan.isFollow(i)) {
+                appendReference(aBuffer, aFS.getFeatureValue(plan.getFeature(aFS, i)),
+                        aEntryType, aDepth, aVisited);
+            }
+            else {
+                appendValue(aBuffer, aFS.getFeatureValueAsString(plan.getFeature(aFS, i)));
+            }
+        }
+        aBuffer.append('}');
+    }
+
+    private static void appendReference(StringBuilder aBuffer, FeatureStructure aFS,
+            String aEntryType, int aDepth, Set<FeatureStructure> aVisited)
+    {
+        if (aFS == null) {
+            aBuffer.append('-');
+        }
+        else if (aFS instanceof AnnotationFS
+                && ComparisonPlan.get(aFS).getTypeName().equals(aEntryType)) {
+            // Annotations of the entry type are compared with all their features, so chains are
+            // followed to their end. Only the nesting of other feature structures is limited.
+            Set<FeatureStructure> visited = aVisited != null ? aVisited
+                    : new HashSet<FeatureStructure>();
+            if (visited.add(aFS)) {
+                aBuffer.append('@');
+                appendFingerprint(aBuffer, aFS, aEntryType, aDepth, visited);
+            }
+            else {
+                // Back-reference in a cyclic chain
+                aBuffer.append('^');
+            }
+        }
+        else if (aFS instanceof AnnotationFS) {
+            // Referenced annotations are compared by their position only
+            AnnotationFS annotation = (AnnotationFS) aFS;
+            aBuffer.append('@').append(annotation.getBegin()).append(',')
+                    .append(annotation.getEnd());
+        }
+        else if (aFS instanceof ArrayFS) {
+            ArrayFS array = (ArrayFS) aFS;
+            aBuffer.append('[');
+            for (int i = 0; i < array.size(); i++) {
+                aBuffer.append(';');
+                appendReference(aBuffer, array.get(i), aEntryType, aDepth, aVisited);
+            }
+            aBuffer.append(']');
+        }
+        else if (aFS instanceof CommonArrayFS) {
+            aBuffer.append('[');
+            for (String value : ((CommonArrayFS) aFS).toStringArray()) {
+                aBuffer.append(';');
+                appendValue(aBuffer, value);
+            }
+            aBuffer.append(']');
+        }
+        else {
+            // E.g. link feature structures carrying a role and a target
+            appendFingerprint(aBuffer, aFS, aEntryType, aDepth + 1, aVisited);
+        }
+    }
+
+    private static void appendValue(StringBuilder aBuffer, String aValue)
+    {
+        if (aValue == null) {
+            aBuffer.append('-');
+        }
+        else {
+            // Length prefix to keep values containing separators unambiguous
+            aBuffer.append(aValue.length()).append(':').append(aValue);
+        }
+    }
+
+    /**
+     * spot differing annotations by comparing cases of the same source document. This is the
+     * original implementation of {@link #doDiff(List, Map, int, int)} which compares every
+     * annotation against all annotations at the same offsets. It is kept as a reference for
+     * testing and benchmarking.
+     *
+     * @param aEntryTypes
+     *            the entry types.
+     * @param aCasMap
+     *            Map of (username, cas)
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return List of {@link AnnotationOption}
+     * @throws RangeNameNotCheckedException
+     *             hum?
+     */
+    public static List<AnnotationOption> doPairwiseDiff(List<Type> aEntryTypes,
+            Map<String, JCas> aCasMap, int aBegin, int aEnd)
+        throws RangeNameNotCheckedException
     {
         Map<Integer, Map<Integer, Set<AnnotationFS>>> annotationFSsByBeginEnd = new HashMap<Integer, Map<Integer, Set<AnnotationFS>>>();
         List<AnnotationOption> annotationOptions = new LinkedList<AnnotationOption>();
@@ -94,8 +279,8 @@ public class CasDiff
                         for (FeatureStructure fsOld : annotationSelectionByFeatureStructure
                                 .keySet()) {
                             if (fsNew != fsOld
-                                    && fsNew.getType().toString()
-                                            .equals(fsOld.getType().toString())) {
+                                    && ComparisonPlan.get(fsNew).isSameType(
+                                            ComparisonPlan.get(fsOld))) {
                                 CompareResult compareResult = compareFeatureFS(fsNew.getType(),
                                         fsNew, fsOld, diffFSNew);
                                 for (FeatureStructure compareResultFSNew : compareResult
@@ -122,7 +307,7 @@ public class CasDiff
                         // add featureStructures, that have not been found in existing
                         // annotationSelections
                         for (FeatureStructure subFS1 : diffFSNew) {
-                            if (subFS1.getType().toString().equals(fsNew.getType().toString())) {
+                            if (subFS1.getType().getName().equals(fsNew.getType().getName())) {
                                 AnnotationSelection annotationSelection = new AnnotationSelection();
                                 int addressSubFS1 = aCasMap.get(usernameFSNew).getLowLevelCas()
                                         .ll_getFSRef(subFS1);
@@ -130,7 +315,7 @@ public class CasDiff
                                         addressSubFS1);
                                 annotationSelectionByFeatureStructure.put(subFS1,
                                         annotationSelection);
-                                String type = subFS1.getType().toString();
+                                String type = subFS1.getType().getName();
                                 if (!annotationOptionPerType.containsKey(type)) {
                                     annotationOptionPerType.put(type, new AnnotationOption());
                                 }
@@ -187,149 +372,104 @@ public class CasDiff
     public static Set<FeatureStructure> traverseFS(FeatureStructure fs)
     {
         LinkedHashSet<FeatureStructure> nodePlusChildren = new LinkedHashSet<FeatureStructure>();
-        nodePlusChildren.add(fs);
-        for (Feature feature : fs.getType().getFeatures()) {
-            // features are present in both feature structures, fs1 and fs2
-            // compare primitive values
-            if (!feature.getRange().isPrimitive()
-                    && !feature.toString().equals("uima.cas.AnnotationBase:sofa")) {
-                // compare composite types
-                // assumtion: if feature is not primitive, it is a composite feature
-                FeatureStructure featureValue = fs.getFeatureValue(feature);
+        traverseFS(fs, nodePlusChildren);
+        return nodePlusChildren;
+    }
+
+    private static void traverseFS(FeatureStructure aFS, Set<FeatureStructure> aNodePlusChildren)
+    {
+        aNodePlusChildren.add(aFS);
+        ComparisonPlan plan = ComparisonPlan.get(aFS);
+        for (int i = 0; i < plan.size(); i++) {
+            // only composite features are followed, the sofa is not part of the plan
+            if (plan.isFollow(i)) {
+                FeatureStructure featureValue = aFS.getFeatureValue(plan.getFeature(aFS, i));
                 if (featureValue != null) {
-                    nodePlusChildren.addAll(traverseFS(featureValue));
+                    traverseFS(featureValue, aNodePlusChildren);
                 }
             }
         }
-        return nodePlusChildren;
     }
 
-    private static CompareResult compareFeatureFS(Type aType, FeatureStructure fsNew,
+    /**
+     * Compare two feature structures feature by feature. The features and the kinds of their
+     * ranges are taken from the {@link ComparisonPlan} of each type, so the comparison does not
+     * look at any type or feature names.
+     */
+    static CompareResult compareFeatureFS(Type aType, FeatureStructure fsNew,
             FeatureStructure fsOld, Set<FeatureStructure> diffFSNew)
         throws RangeNameNotCheckedException
     {
         CompareResult compareResult = new CompareResult();
 
         // check if types are equal
-        Type type = fsNew.getType();
-        Type oldType = CasUtil.getType(fsOld.getCAS(), aType.getName());
-        if (!(fsOld.getType().toString().equals(type.toString()))) {
+        ComparisonPlan newPlan = ComparisonPlan.get(fsNew);
+        ComparisonPlan oldPlan = ComparisonPlan.get(fsOld);
+        if (!newPlan.isSameType(oldPlan)) {
             // if types differ add feature structure to diff
             compareResult.getDiffs().put(fsNew, fsOld);
             return compareResult;
         }
 
         boolean agreeOnSubfeatures = true;
-        List<Feature> fsNewFeatures = type.getFeatures();
-        List<Feature> fsOldFeatures = oldType.getFeatures();
-        for (int i = 0; i < fsNewFeatures.size(); i++) {
-            Feature feature = fsNewFeatures.get(i);
-            Feature olFeature = fsOldFeatures.get(i);
+        for (int i = 0; i < newPlan.size(); i++) {
+            Feature feature = newPlan.getFeature(fsNew, i);
+            Feature olFeature = oldPlan.getFeature(fsOld, i);
             // features are present in both feature structures, fs1 and fs2
-            // compare primitive values
-            if (feature.getRange().isPrimitive()) {
-
-                // check int Values
-                if (feature.getRange().getName().equals(CAS.TYPE_NAME_INTEGER)) {
-                    if (!(fsNew.getIntValue(feature) == fsOld.getIntValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_LONG)) {
-                    if (!(fsNew.getLongValue(feature) == fsOld.getLongValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_BYTE)) {
-                    if (!(fsNew.getByteValue(feature) == fsOld.getByteValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_FLOAT)) {
-                    if (!(fsNew.getFloatValue(feature) == fsOld.getFloatValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_DOUBLE)) {
-                    if (!(fsNew.getDoubleValue(feature) == fsOld.getDoubleValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_BOOLEAN)) {
-                    if (!(fsNew.getBooleanValue(feature) == fsOld.getBooleanValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_STRING)) {
-                    String stringValue1 = fsNew.getStringValue(feature);
-                    String stringValue2 = fsNew.getStringValue(feature);
-                    if (stringValue1 == null && stringValue2 == null) {
-                        // agree
-                        // Do nothing, null == null
-                    }
-                    else if (stringValue1 == null
-                            || stringValue2 == null
-                            || !(fsNew.getStringValue(feature).equals(fsOld
-                                    .getStringValue(olFeature)))) {
-                        // stringValue1 differs from stringValue2
-
-                        // disagree
-                        agreeOnSubfeatures = false;
-                        // compareResult.getDiffs().put(fs1, fs2);
-                    }
-                    else {
-                        // agree
-                        // compareResult.getAgreements().put(fs1, fs2);
-                        // diffFS1.remove(fs1);
-                    }
-                }
-                else {
-                    throw new RangeNameNotCheckedException(feature.getRange().getName()
-                            + " not yet supported!");
+            switch (newPlan.getKind(i)) {
+            case ComparisonPlan.KIND_INTEGER:
+                agreeOnSubfeatures &= fsNew.getIntValue(feature) == fsOld.getIntValue(olFeature);
+                break;
+            case ComparisonPlan.KIND_LONG:
+                agreeOnSubfeatures &= fsNew.getLongValue(feature) == fsOld
+                        .getLongValue(olFeature);
+                break;
+            case ComparisonPlan.KIND_BYTE:
+                agreeOnSubfeatures &= fsNew.getByteValue(feature) == fsOld
+                        .getByteValue(olFeature);
+                break;
+            case ComparisonPlan.KIND_FLOAT:
+                agreeOnSubfeatures &= fsNew.getFloatValue(feature) == fsOld
+                        .getFloatValue(olFeature);
+                break;
+            case ComparisonPlan.KIND_DOUBLE:
+                agreeOnSubfeatures &= fsNew.getDoubleValue(feature) == fsOld
+                        .getDoubleValue(olFeature);
+                break;
+            case ComparisonPlan.KIND_BOOLEAN:
+                agreeOnSubfeatures &= fsNew.getBooleanValue(feature) == fsOld
+                        .getBooleanValue(olFeature);
+                break;
+            case ComparisonPlan.KIND_STRING: {
+                String stringValue1 = fsNew.getStringValue(feature);
+                String stringValue2 = fsOld.getStringValue(olFeature);
+                if (stringValue1 == null ? stringValue2 != null : !stringValue1
+                        .equals(stringValue2)) {
+                    // disagree
+                    agreeOnSubfeatures = false;
                 }
-
-                // check other Values
+                break;
             }
-            else if (feature.toString().equals("uima.cas.AnnotationBase:sofa")) {
-                continue;
-            }
-            else {
+            case ComparisonPlan.KIND_UNSUPPORTED:
+                throw new RangeNameNotCheckedException(feature.getRange().getName()
+                        + " not yet supported!");
+            default: {
                 // compare composite types
-                // assumption: if feature is not primitive, it is a composite feature
                 FeatureStructure featureValue1 = fsNew.getFeatureValue(feature);
                 FeatureStructure featureValue2 = fsOld.getFeatureValue(olFeature);
-                if (((AnnotationFS) featureValue1).getBegin() != ((AnnotationFS) featureValue2)
-                        .getBegin()
-                        || ((AnnotationFS) featureValue1).getEnd() != ((AnnotationFS) featureValue2)
-                                .getEnd()) {
-                    agreeOnSubfeatures = false;
+                if (featureValue1 == null || featureValue2 == null) {
+                    agreeOnSubfeatures &= featureValue1 == featureValue2;
+                    break;
                 }
-                if (featureValue1 != null && featureValue2 != null
-                        && (aType.toString().equals(featureValue1.getType().toString()))) {
+                if (newPlan.getKind(i) == ComparisonPlan.KIND_ANNOTATION) {
+                    AnnotationFS annotation1 = (AnnotationFS) featureValue1;
+                    AnnotationFS annotation2 = (AnnotationFS) featureValue2;
+                    if (annotation1.getBegin() != annotation2.getBegin()
+                            || annotation1.getEnd() != annotation2.getEnd()) {
+                        agreeOnSubfeatures = false;
+                    }
+                }
+                if (aType.getName().equals(ComparisonPlan.get(featureValue1).getTypeName())) {
                     CompareResult compareResultSubfeatures = compareFeatureFS(aType, featureValue1,
                             featureValue2, diffFSNew);
                     compareResult.getDiffs().putAll(compareResultSubfeatures.getDiffs());
@@ -339,6 +479,7 @@ public class CasDiff
                     }
                 }
             }
+            }
         }
         if (agreeOnSubfeatures) {
             compareResult.getAgreements().put(fsNew, fsOld);
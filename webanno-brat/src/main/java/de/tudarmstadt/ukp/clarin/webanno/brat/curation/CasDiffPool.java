@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+import org.springframework.context.ApplicationContext;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.support.spring.ApplicationContextProvider;
+
+/**
+ * Runs the {@link CasDiff} of many segments (usually sentences) of a document in parallel. The
+ * diffs only read the CASes, so the segments can be processed independently. The results are
+ * collected by segment begin offset, so they do not depend on the order in which the segments
+ * are processed.
+ */
+public class CasDiffPool
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * Number of segments below which a task is not split any further.
+     */
+    private static final int SPLIT_THRESHOLD = 16;
+
+    private int parallelism = 0;
+
+    private ForkJoinPool pool;
+
+    public void init()
+    {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+        }
+        log.info("Curation diff parallelism: " + threads);
+    }
+
+    public void destroy()
+    {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * Get the pool configured in the application context.
+     *
+     * @return the pool or {@code null} if there is no application context (e.g. in tests).
+     */
+    public static CasDiffPool get()
+    {
+        ApplicationContext context = ApplicationContextProvider.getApplicationContext();
+        if (context == null || !context.containsBean("casDiffPool")) {
+            return null;
+        }
+        return context.getBean("casDiffPool", CasDiffPool.class);
+    }
+
+    /**
+     * Diff all the given segments, in parallel if a pool is configured.
+     *
+     * @param aPool
+     *            the pool or {@code null} to diff the segments in the calling thread.
+     * @param aEntryTypes
+     *            the entry types.
+     * @param aCasMap
+     *            Map of (username, cas)
+     * @param aSegmentBeginEnd
+     *            the segment end offsets by segment begin offset.
+     * @return the annotation options by segment begin offset.
+     * @throws RangeNameNotCheckedException
+     *             if the diff fails.
+     */
+    public static SortedMap<Integer, List<AnnotationOption>> doDiff(CasDiffPool aPool,
+            List<Type> aEntryTypes, Map<String, JCas> aCasMap, Map<Integer, Integer> aSegmentBeginEnd)
+        throws RangeNameNotCheckedException
+    {
+        List<int[]> segments = new ArrayList<int[]>(aSegmentBeginEnd.size());
+        for (Entry<Integer, Integer> e : new TreeMap<Integer, Integer>(aSegmentBeginEnd)
+                .entrySet()) {
+            segments.add(new int[] { e.getKey(), e.getValue() });
+        }
+
+        if (aPool == null || aPool.pool == null || segments.size() <= SPLIT_THRESHOLD) {
+            return diffSegments(aEntryTypes, aCasMap, segments);
+        }
+
+        try {
+            return aPool.pool.invoke(new DiffTask(aEntryTypes, aCasMap, segments));
+        }
+        catch (DiffFailedException e) {
+            // The pool may wrap the exception again when it was thrown in a worker thread
+            Throwable cause = e;
+            while (cause != null && !(cause instanceof RangeNameNotCheckedException)) {
+                cause = cause.getCause();
+            }
+            if (cause == null) {
+                throw e;
+            }
+            throw (RangeNameNotCheckedException) cause;
+        }
+    }
+
+    private static SortedMap<Integer, List<AnnotationOption>> diffSegments(
+            List<Type> aEntryTypes, Map<String, JCas> aCasMap, List<int[]> aSegments)
+        throws RangeNameNotCheckedException
+    {
+        SortedMap<Integer, List<AnnotationOption>> result = new TreeMap<Integer, List<AnnotationOption>>();
+        for (int[] segment : aSegments) {
+            result.put(segment[0],
+                    CasDiff.doDiff(aEntryTypes, aCasMap, segment[0], segment[1]));
+        }
+        return result;
+    }
+
+    public void setParallelism(int aParallelism)
+    {
+        parallelism = aParallelism;
+    }
+
+    private static class DiffTask
+        extends RecursiveTask<SortedMap<Integer, List<AnnotationOption>>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Type> entryTypes;
+        private final Map<String, JCas> casMap;
+        private final List<int[]> segments;
+
+        DiffTask(List<Type> aEntryTypes, Map<String, JCas> aCasMap, List<int[]> aSegments)
+        {
+            entryTypes = aEntryTypes;
+            casMap = aCasMap;
+            segments = aSegments;
+        }
+
+        @Override
+        protected SortedMap<Integer, List<AnnotationOption>> compute()
+        {
+            if (segments.size() <= SPLIT_THRESHOLD) {
+                try {
+                    return diffSegments(entryTypes, casMap, segments);
+                }
+                catch (RangeNameNotCheckedException e) {
+                    throw new DiffFailedException(e);
+                }
+            }
+
+            int middle = segments.size() / 2;
+            DiffTask left = new DiffTask(entryTypes, casMap, segments.subList(0, middle));
+            DiffTask right = new DiffTask(entryTypes, casMap, segments.subList(middle,
+                    segments.size()));
+            right.fork();
+            SortedMap<Integer, List<AnnotationOption>> result = left.compute();
+            result.putAll(right.join());
+            return result;
+        }
+    }
+
+    /**
+     * Carries a checked exception out of a {@link DiffTask}.
+     */
+    private static class DiffFailedException
+        extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        DiffFailedException(RangeNameNotCheckedException aCause)
+        {
+            super(aCause);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.LowLevelTypeSystem;
+
+/**
+ * How the feature structures of one type are compared by {@link CasDiff}. The features of the
+ * type (without the sofa feature) are resolved once together with a code for the kind of their
+ * range, so that comparing and traversing feature structures needs no look-ups by name.
+ * <p>
+ * Plans are cached per {@link TypeSystem} and type name. Types of different type systems get
+ * separate plans, but the features of two plans for types of the same name are expected to be in
+ * the same order. A plan only holds the codes of the features, not the features themselves, so it
+ * does not keep its type system alive - a new type system is created for every CAS which is read.
+ */
+public final class ComparisonPlan
+{
+    public static final int KIND_BOOLEAN = 0;
+    public static final int KIND_BYTE = 1;
+    public static final int KIND_INTEGER = 2;
+    public static final int KIND_LONG = 3;
+    public static final int KIND_FLOAT = 4;
+    public static final int KIND_DOUBLE = 5;
+    public static final int KIND_STRING = 6;
+    /**
+     * A primitive range which is not supported by the comparison, e.g. short.
+     */
+    public static final int KIND_UNSUPPORTED = 7;
+    /**
+     * A reference to an annotation. Such references are compared by the offsets of the referenced
+     * annotations.
+     */
+    public static final int KIND_ANNOTATION = 8;
+    /**
+     * A reference to any other feature structure.
+     */
+    public static final int KIND_FS = 9;
+
+    private static final Map<TypeSystem, Map<String, ComparisonPlan>> PLANS = new WeakHashMap<TypeSystem, Map<String, ComparisonPlan>>();
+
+    private final String typeName;
+    private final int[] features;
+    private final int[] kinds;
+    private final boolean[] follow;
+
+    private ComparisonPlan(Type aType, TypeSystem aTypeSystem)
+    {
+        typeName = aType.getName();
+
+        Type annotationType = aTypeSystem.getType(CAS.TYPE_NAME_ANNOTATION);
+
+        List<Feature> featureList = new ArrayList<Feature>();
+        for (Feature feature : aType.getFeatures()) {
+            if (!CAS.FEATURE_FULL_NAME_SOFA.equals(feature.getName())) {
+                featureList.add(feature);
+            }
+        }
+
+        LowLevelTypeSystem llts = (LowLevelTypeSystem) aTypeSystem;
+        features = new int[featureList.size()];
+        kinds = new int[features.length];
+        follow = new boolean[features.length];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = llts.ll_getCodeForFeature(featureList.get(i));
+            Type range = featureList.get(i).getRange();
+            if (range.isPrimitive()) {
+                kinds[i] = getPrimitiveKind(range.getName());
+            }
+            else {
+                kinds[i] = annotationType != null && aTypeSystem.subsumes(annotationType, range)
+                        ? KIND_ANNOTATION : KIND_FS;
+                follow[i] = true;
+            }
+        }
+    }
+
+    /**
+     * Get the plan for the type of the given feature structure.
+     *
+     * @param aFS
+     *            the feature structure.
+     * @return the plan.
+     */
+    public static ComparisonPlan get(FeatureStructure aFS)
+    {
+        Type type = aFS.getType();
+        TypeSystem typeSystem = aFS.getCAS().getTypeSystem();
+        synchronized (PLANS) {
+            Map<String, ComparisonPlan> plans = PLANS.get(typeSystem);
+            if (plans == null) {
+                plans = new HashMap<String, ComparisonPlan>();
+                PLANS.put(typeSystem, plans);
+            }
+            ComparisonPlan plan = plans.get(type.getName());
+            if (plan == null) {
+                plan = new ComparisonPlan(type, typeSystem);
+                plans.put(type.getName(), plan);
+            }
+            return plan;
+        }
+    }
+
+    private static int getPrimitiveKind(String aRangeName)
+    {
+        if (CAS.TYPE_NAME_BOOLEAN.equals(aRangeName)) {
+            return KIND_BOOLEAN;
+        }
+        else if (CAS.TYPE_NAME_BYTE.equals(aRangeName)) {
+            return KIND_BYTE;
+        }
+        else if (CAS.TYPE_NAME_INTEGER.equals(aRangeName)) {
+            return KIND_INTEGER;
+        }
+        else if (CAS.TYPE_NAME_LONG.equals(aRangeName)) {
+            return KIND_LONG;
+        }
+        else if (CAS.TYPE_NAME_FLOAT.equals(aRangeName)) {
+            return KIND_FLOAT;
+        }
+        else if (CAS.TYPE_NAME_DOUBLE.equals(aRangeName)) {
+            return KIND_DOUBLE;
+        }
+        else if (CAS.TYPE_NAME_STRING.equals(aRangeName)) {
+            return KIND_STRING;
+        }
+        else {
+            // Also string sub-types with allowed values are reported as unsupported, like before
+            return KIND_UNSUPPORTED;
+        }
+    }
+
+    /**
+     * @param aOther
+     *            another plan.
+     * @return whether the other plan is for a type of the same name.
+     */
+    public boolean isSameType(ComparisonPlan aOther)
+    {
+        return this == aOther || typeName.equals(aOther.typeName);
+    }
+
+    public String getTypeName()
+    {
+        return typeName;
+    }
+
+    /**
+     * @return the number of features in the plan.
+     */
+    public int size()
+    {
+        return features.length;
+    }
+
+    /**
+     * @param aFS
+     *            a feature structure of the type of the plan.
+     * @param aIndex
+     *            the index of the feature in the plan.
+     * @return the feature in the type system of the feature structure.
+     */
+    public Feature getFeature(FeatureStructure aFS, int aIndex)
+    {
+        return aFS.getCAS().getLowLevelCAS().ll_getTypeSystem()
+                .ll_getFeatureForCode(features[aIndex]);
+    }
+
+    /**
+     * @return one of the {@code KIND_} codes.
+     */
+    public int getKind(int aIndex)
+    {
+        return kinds[aIndex];
+    }
+
+    /**
+     * @return whether the feature refers to another feature structure which needs to be followed
+     *         when traversing a feature structure.
+     */
+    public boolean isFollow(int aIndex)
+    {
+        return follow[aIndex];
+    }
+}
@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.logging.Log;
@@ -34,6 +35,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.uima.UIMAException;
 import org.apache.uima.jcas.JCas;
 import org.apache.wicket.AttributeModifier;
+import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
 import org.apache.wicket.ajax.AbstractDefaultAjaxBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.behavior.AbstractAjaxBehavior;
@@ -47,6 +49,7 @@ import org.apache.wicket.markup.html.panel.FeedbackPanel;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.apache.wicket.util.time.Duration;
 import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
@@ -59,6 +62,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationSelection;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationContainer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationSession;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationUserSegmentForAnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationViewForSourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.SentenceState;
@@ -111,6 +115,8 @@ public class CurationPanel
 
     ListView<CurationViewForSourceDocument> textListView;
 
+    private AbstractAjaxTimerBehavior sentenceStateTimer;
+
     /**
      * Class for combining an on click ajax call and a label
      */
@@ -187,6 +193,7 @@ public class CurationPanel
                     mergeVisualizer.bratRenderLater(aTarget);
                     textOuterView.addOrReplace(textListView);
                     aTarget.add(textOuterView);
+                    updateSentenceStateTimer(aTarget);
                 }
                 catch (UIMAException e) {
                     error(ExceptionUtils.getRootCause(e));
@@ -267,6 +274,7 @@ public class CurationPanel
                             annotationService, userRepository);
                     textOuterView.addOrReplace(textListView);
                     aTarget.add(textOuterView);
+                    updateSentenceStateTimer(aTarget);
                 }
                 catch (UIMAException e) {
                     error(ExceptionUtils.getRootCause(e));
@@ -320,7 +328,10 @@ public class CurationPanel
                                 jCas = repository.readCurationCas(bModel.getDocument());
                             }
 
-                            if (bModel.getPreferences().isScrollPage()) {
+                            // Sentences outside the display window are only listed, so the window
+                            // needs to be moved to them
+                            if (bModel.getPreferences().isScrollPage()
+                                    || !curationViewItem.isInDisplayWindow()) {
                                 int currentSentAddress = getAddr(selectSentenceAt(jCas,
                                         bModel.getSentenceBeginOffset(),
                                         bModel.getSentenceEndOffset()));
@@ -360,6 +371,7 @@ public class CurationPanel
                             // textListView.setModelObject(views);
                             textOuterView.addOrReplace(textListView);
                             aTarget.add(textOuterView);
+                            updateSentenceStateTimer(aTarget);
                             aTarget.add(suggestionViewPanel);
 
                             // Wicket-level rendering of annotator because it becomes visible
@@ -412,11 +424,106 @@ public class CurationPanel
         // add subcomponents to the component
         textListView.setOutputMarkupId(true);
         textOuterView.add(textListView);
+
+        // Show the states of the sentences classified in the background as they become available.
+        // The timer stops once all shown sentences are classified or the classification failed.
+        sentenceStateTimer = new AbstractAjaxTimerBehavior(Duration.seconds(2))
+        {
+            private static final long serialVersionUID = -1379562233463838563L;
+
+            @Override
+            protected void onTimer(AjaxRequestTarget aTarget)
+            {
+                if (bModel == null || !hasUnknownSentences()) {
+                    stop(aTarget);
+                    return;
+                }
+                try {
+                    SuggestionBuilder builder = new SuggestionBuilder(repository,
+                            annotationService, userRepository);
+                    if (builder.updateSentenceStates(bModel, textListView.getModelObject())) {
+                        aTarget.add(textOuterView);
+                    }
+                    if (!hasUnknownSentences()) {
+                        stop(aTarget);
+                    }
+                }
+                catch (UIMAException e) {
+                    error(ExceptionUtils.getRootCause(e));
+                    stop(aTarget);
+                }
+                catch (ClassNotFoundException e) {
+                    error(e.getMessage());
+                    stop(aTarget);
+                }
+                catch (IOException e) {
+                    error(e.getMessage());
+                    stop(aTarget);
+                }
+                aTarget.addChildren(getPage(), FeedbackPanel.class);
+            }
+        };
+        textOuterView.add(sentenceStateTimer);
+    }
+
+    /**
+     * @return whether any of the shown sentences is not classified yet.
+     */
+    private boolean hasUnknownSentences()
+    {
+        for (CurationViewForSourceDocument view : textListView.getModelObject()) {
+            if (view.getSentenceState() == SentenceState.UNKNOWN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Restart polling the sentence states if the shown sentences were rebuilt and some of them are
+     * not classified yet.
+     */
+    private void updateSentenceStateTimer(AjaxRequestTarget aTarget)
+    {
+        if (sentenceStateTimer.isStopped() && hasUnknownSentences()) {
+            sentenceStateTimer.restart(aTarget);
+        }
     }
 
     private void setCurationSegmentBeginEnd()
         throws UIMAException, ClassNotFoundException, IOException
     {
+        // In curation mode, the sentences are taken from the curation session so that no CAS
+        // needs to be read
+        if (bModel.getMode().equals(Mode.CURATION)) {
+            CurationSession session = CurationSession.get(repository, bModel.getDocument());
+            if (!session.getUsers().isEmpty()) {
+                String username = session.getUsers().iterator().next();
+                SortedMap<Integer, Integer> sentenceBeginEnd = session.getSentenceBeginEnd();
+                Integer end = sentenceBeginEnd.get(bModel.getSentenceBeginOffset());
+                if (end != null && end == bModel.getSentenceEndOffset()) {
+                    bModel.setSentenceAddress(session.getSentenceAddresses(username).get(
+                            bModel.getSentenceBeginOffset()));
+
+                    // The display window consists of the sentence and the following sentences
+                    int windowSize = bModel.getPreferences().getWindowSize();
+                    int lastEnd = end;
+                    int following = 0;
+                    for (Integer sentenceEnd : sentenceBeginEnd.tailMap(
+                            bModel.getSentenceBeginOffset() + 1).values()) {
+                        if (following == windowSize) {
+                            break;
+                        }
+                        lastEnd = sentenceEnd;
+                        following++;
+                    }
+                    curationView.setBegin(bModel.getSentenceBeginOffset());
+                    curationView.setEnd(lastEnd);
+                    return;
+                }
+            }
+        }
+
         JCas jCas = repository.readAnnotationCas(bModel.getDocument(),
                 bModel.getUser());
 
@@ -63,6 +63,8 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationSelection;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.AnnotationState;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.BratSuggestionVisualizer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CorrectionCasSnapshot;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationSession;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationUserSegmentForAnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.BratAnnotatorUtility;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.NoOriginOrTargetAnnotationSelectedException;
@@ -439,10 +441,21 @@ public class SuggestionViewPanel
         try {
             if (aModel.getMode().equals(Mode.AUTOMATION)
                     || aModel.getMode().equals(Mode.CORRECTION)) {
-                return repository.readCorrectionCas(aModel.getDocument());
+                // The clicked suggestion is only read from the shared correction CAS snapshot
+                CorrectionCasSnapshot snapshot = CorrectionCasSnapshot.acquire(repository,
+                        aModel.getDocument());
+                try {
+                    return snapshot.getJCas();
+                }
+                finally {
+                    snapshot.release();
+                }
             }
             else {
-                return repository.readAnnotationCas(aDocument);
+                // The clicked annotator CAS is already part of the curation session
+                JCas jCas = CurationSession.get(repository, aModel.getDocument()).getJCas(
+                        aDocument.getUser());
+                return jCas != null ? jCas : repository.readAnnotationCas(aDocument);
             }
         }
         catch (UIMAException e) {
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * A read-only snapshot of the CAS of the {@link WebAnnoConst#CORRECTION_USER} of a document. In
+ * correction and automation mode, this CAS holds the suggestions which every annotator of the
+ * project compares their own CAS with. It is read once and then shared by all users, instead of
+ * being read again on every update of the suggestion panel.
+ * <p>
+ * Snapshots are reference counted: {@link #acquire(RepositoryService, SourceDocument)} must be
+ * paired with {@link #release()}. Only snapshots which are not in use are evicted when more than
+ * {@link #MAX_SNAPSHOTS} documents are cached. The automation calls
+ * {@link #invalidate(SourceDocument)} whenever it writes new suggestions. Users still holding the
+ * old snapshot keep working with it until they release it. The CAS handed out by a snapshot must
+ * not be modified.
+ */
+public class CorrectionCasSnapshot
+{
+    private static final Log LOG = LogFactory.getLog(CorrectionCasSnapshot.class);
+
+    /**
+     * Maximum number of documents for which unused snapshots are kept.
+     */
+    private static final int MAX_SNAPSHOTS = 8;
+
+    private static final Map<Long, CorrectionCasSnapshot> SNAPSHOTS = new LinkedHashMap<Long, CorrectionCasSnapshot>(
+            16, 0.75f, true);
+
+    private final String casVersion;
+    private JCas jCas;
+    private int references = 0;
+    private boolean cached = true;
+
+    private CorrectionCasSnapshot(String aCasVersion, JCas aJCas)
+    {
+        casVersion = aCasVersion;
+        jCas = aJCas;
+    }
+
+    /**
+     * Get the snapshot of the correction CAS of the given document, reading the CAS if there is
+     * no valid snapshot yet. The snapshot must be released by the caller.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aDocument
+     *            the document.
+     * @return the snapshot.
+     * @throws UIMAException
+     *             hum?
+     * @throws ClassNotFoundException
+     *             hum?
+     * @throws IOException
+     *             if an I/O error occurs, e.g. because there is no correction CAS yet.
+     */
+    public static CorrectionCasSnapshot acquire(RepositoryService aRepository,
+            SourceDocument aDocument)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        // The file is only checked in case the correction CAS was written without invalidating
+        // the snapshot, which is much cheaper than reading the CAS
+        File casFile = aRepository.getCasFile(aDocument, WebAnnoConst.CORRECTION_USER);
+        String casVersion = casFile.lastModified() + ":" + casFile.length();
+
+        synchronized (SNAPSHOTS) {
+            CorrectionCasSnapshot snapshot = SNAPSHOTS.get(aDocument.getId());
+            if (snapshot != null && snapshot.casVersion.equals(casVersion)) {
+                snapshot.references++;
+                return snapshot;
+            }
+        }
+
+        CorrectionCasSnapshot snapshot = new CorrectionCasSnapshot(casVersion,
+                aRepository.readCorrectionCas(aDocument));
+        snapshot.references++;
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded correction CAS snapshot of document [" + aDocument.getName() + "]");
+        }
+
+        synchronized (SNAPSHOTS) {
+            CorrectionCasSnapshot outdated = SNAPSHOTS.put(aDocument.getId(), snapshot);
+            if (outdated != null) {
+                outdated.uncache();
+            }
+            evict();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drop the snapshot of the given document because its correction CAS was written.
+     *
+     * @param aDocument
+     *            the document.
+     */
+    public static void invalidate(SourceDocument aDocument)
+    {
+        synchronized (SNAPSHOTS) {
+            CorrectionCasSnapshot snapshot = SNAPSHOTS.remove(aDocument.getId());
+            if (snapshot != null) {
+                snapshot.uncache();
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used snapshots which are not in use. Must be called while holding
+     * the lock on {@link #SNAPSHOTS}.
+     */
+    private static void evict()
+    {
+        int excess = SNAPSHOTS.size() - MAX_SNAPSHOTS;
+        Iterator<CorrectionCasSnapshot> i = SNAPSHOTS.values().iterator();
+        while (excess > 0 && i.hasNext()) {
+            CorrectionCasSnapshot snapshot = i.next();
+            if (snapshot.references == 0) {
+                i.remove();
+                snapshot.uncache();
+                excess--;
+            }
+        }
+    }
+
+    private void uncache()
+    {
+        cached = false;
+        if (references == 0) {
+            jCas = null;
+        }
+    }
+
+    /**
+     * @return the correction CAS. It must not be modified.
+     */
+    public JCas getJCas()
+    {
+        synchronized (SNAPSHOTS) {
+            if (jCas == null) {
+                throw new IllegalStateException("Snapshot has already been released");
+            }
+            return jCas;
+        }
+    }
+
+    /**
+     * Release the snapshot. Once all users of a snapshot which is no longer cached released it,
+     * its CAS can be garbage collected.
+     */
+    public void release()
+    {
+        synchronized (SNAPSHOTS) {
+            if (references > 0) {
+                references--;
+            }
+            if (references == 0) {
+                if (cached) {
+                    evict();
+                }
+                else {
+                    jCas = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model;
+
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getAddr;
+import static org.apache.uima.fit.util.JCasUtil.select;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * The read-only annotator CASes of a document under curation, i.e. the CASes of all users who
+ * finished the document, together with the sentence addresses in each of them. The session is
+ * loaded once when the document is opened and then shared by all curation panels and all
+ * curators working on the document, instead of reading every annotator CAS again on each click.
+ * <p>
+ * A session is only reused while the same set of users has finished the document and none of
+ * their CAS files changed. Pages changing the state of an annotation document additionally call
+ * {@link #invalidate(SourceDocument)}. The CASes handed out by a session must not be modified.
+ * The editable curation CAS is not part of the session.
+ * <p>
+ * A session also keeps the {@link SentenceClassification} of the document, which is cancelled when
+ * the session is invalidated or replaced.
+ */
+public class CurationSession
+{
+    private static final Log LOG = LogFactory.getLog(CurationSession.class);
+
+    /**
+     * Maximum number of documents for which sessions are kept. Sessions are only softly
+     * referenced, so they may also be dropped when memory gets low.
+     */
+    private static final int MAX_SESSIONS = 8;
+
+    private static final Map<Long, SoftReference<CurationSession>> SESSIONS = new LinkedHashMap<Long, SoftReference<CurationSession>>(
+            16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, SoftReference<CurationSession>> aEldest)
+        {
+            return size() > MAX_SESSIONS;
+        }
+    };
+
+    private final Map<String, String> casVersions;
+    private final Map<String, JCas> jCases = new LinkedHashMap<String, JCas>();
+    private final Map<String, SortedMap<Integer, Integer>> sentenceAddresses = new HashMap<String, SortedMap<Integer, Integer>>();
+    private final SortedMap<Integer, Integer> sentenceBeginEnd = new TreeMap<Integer, Integer>();
+    private final Map<String, SentenceClassification> classifications = new HashMap<String, SentenceClassification>();
+
+    private CurationSession(Map<String, String> aCasVersions)
+    {
+        casVersions = aCasVersions;
+    }
+
+    /**
+     * Get the session of the given document, loading the annotator CASes if there is no valid
+     * session yet.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aDocument
+     *            the document.
+     * @return the session.
+     * @throws UIMAException
+     *             hum?
+     * @throws ClassNotFoundException
+     *             hum?
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static CurationSession get(RepositoryService aRepository, SourceDocument aDocument)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        // Checking the finished users and the CAS file versions is much cheaper than reading the
+        // CASes, so it is done on every access
+        Map<String, AnnotationDocument> finished = new TreeMap<String, AnnotationDocument>();
+        Map<String, String> casVersions = new HashMap<String, String>();
+        for (AnnotationDocument annotationDocument : aRepository
+                .listAnnotationDocuments(aDocument)) {
+            String username = annotationDocument.getUser();
+            if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
+                    && !username.equals(WebAnnoConst.CURATION_USER)) {
+                finished.put(username, annotationDocument);
+                File casFile = aRepository.getCasFile(aDocument, username);
+                casVersions.put(username, casFile.lastModified() + ":" + casFile.length());
+            }
+        }
+
+        CurationSession outdated;
+        synchronized (SESSIONS) {
+            SoftReference<CurationSession> ref = SESSIONS.get(aDocument.getId());
+            outdated = ref != null ? ref.get() : null;
+            if (outdated != null && outdated.casVersions.equals(casVersions)) {
+                return outdated;
+            }
+        }
+        if (outdated != null) {
+            outdated.dispose();
+        }
+
+        CurationSession session = new CurationSession(casVersions);
+        for (AnnotationDocument annotationDocument : finished.values()) {
+            session.add(annotationDocument.getUser(),
+                    aRepository.readAnnotationCas(annotationDocument));
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded curation session of document [" + aDocument.getName() + "] with "
+                    + finished.size() + " annotators");
+        }
+
+        synchronized (SESSIONS) {
+            SESSIONS.put(aDocument.getId(), new SoftReference<CurationSession>(session));
+        }
+        return session;
+    }
+
+    /**
+     * Drop the session of the given document, e.g. because an annotator re-opened or finished it.
+     *
+     * @param aDocument
+     *            the document.
+     */
+    public static void invalidate(SourceDocument aDocument)
+    {
+        SoftReference<CurationSession> ref;
+        synchronized (SESSIONS) {
+            ref = SESSIONS.remove(aDocument.getId());
+        }
+        CurationSession session = ref != null ? ref.get() : null;
+        if (session != null) {
+            session.dispose();
+        }
+    }
+
+    private void dispose()
+    {
+        synchronized (classifications) {
+            for (SentenceClassification classification : classifications.values()) {
+                classification.cancel();
+            }
+        }
+    }
+
+    private void add(String aUsername, JCas aJCas)
+    {
+        SortedMap<Integer, Integer> addresses = new TreeMap<Integer, Integer>();
+        boolean first = sentenceBeginEnd.isEmpty();
+        for (Sentence sentence : select(aJCas, Sentence.class)) {
+            addresses.put(sentence.getBegin(), getAddr(sentence));
+            if (first) {
+                sentenceBeginEnd.put(sentence.getBegin(), sentence.getEnd());
+            }
+        }
+
+        jCases.put(aUsername, aJCas);
+        sentenceAddresses.put(aUsername, Collections.unmodifiableSortedMap(addresses));
+    }
+
+    /**
+     * @return the users who finished the document, sorted by name.
+     */
+    public Set<String> getUsers()
+    {
+        return Collections.unmodifiableSet(jCases.keySet());
+    }
+
+    /**
+     * @return a new map of the annotator CASes by user name which the caller may extend, e.g. by
+     *         the curation CAS.
+     */
+    public Map<String, JCas> getJCases()
+    {
+        return new HashMap<String, JCas>(jCases);
+    }
+
+    /**
+     * @param aUsername
+     *            the user.
+     * @return the CAS of the given user or {@code null} if the user did not finish the document.
+     */
+    public JCas getJCas(String aUsername)
+    {
+        return jCases.get(aUsername);
+    }
+
+    /**
+     * @param aUsername
+     *            the user.
+     * @return the sentence addresses in the CAS of the given user by sentence begin offset or
+     *         {@code null} if the user did not finish the document.
+     */
+    public SortedMap<Integer, Integer> getSentenceAddresses(String aUsername)
+    {
+        return sentenceAddresses.get(aUsername);
+    }
+
+    /**
+     * Get the classification of all sentences of the document for the given types, starting it if
+     * it has not been started yet for this session.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aDocument
+     *            the document.
+     * @param aEntryTypes
+     *            the types which are compared.
+     * @return the classification.
+     */
+    public SentenceClassification getClassification(RepositoryService aRepository,
+            SourceDocument aDocument, List<Type> aEntryTypes)
+    {
+        List<String> typeNames = new ArrayList<String>();
+        for (Type type : aEntryTypes) {
+            typeNames.add(type.getName());
+        }
+        Collections.sort(typeNames);
+        String key = typeNames.toString();
+
+        synchronized (classifications) {
+            SentenceClassification classification = classifications.get(key);
+            if (classification == null) {
+                classification = new SentenceClassification(aRepository, aDocument,
+                        Collections.unmodifiableMap(jCases), getSentenceBeginEnd(), aEntryTypes);
+                classifications.put(key, classification);
+                classification.start();
+            }
+            return classification;
+        }
+    }
+
+    /**
+     * @return the sentence end offsets by sentence begin offset. The sentences are the same in the
+     *         CASes of all users.
+     */
+    public SortedMap<Integer, Integer> getSentenceBeginEnd()
+    {
+        return Collections.unmodifiableSortedMap(sentenceBeginEnd);
+    }
+}
@@ -39,6 +39,7 @@ public class CurationViewForSourceDocument
     private SentenceState sentenceState;
     private Integer sentenceNumber;
     private boolean isCurrentSentence;
+    private boolean isInDisplayWindow = true;
 
     private Map<String, Integer> sentenceAddress = new LinkedHashMap<String, Integer>();
 
@@ -117,5 +118,18 @@ public class CurationViewForSourceDocument
         this.isCurrentSentence = isCurrentSentence;
     }
 
+    /**
+     * @return whether the sentence is part of the display window shown by the suggestion panels.
+     */
+    public boolean isInDisplayWindow()
+    {
+        return isInDisplayWindow;
+    }
+
+    public void setInDisplayWindow(boolean isInDisplayWindow)
+    {
+        this.isInDisplayWindow = isInDisplayWindow;
+    }
+
 
 }
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.Type;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Persistent AGREE/DISAGREE states of the sentences of a document for a given set of annotators
+ * and layers. Each state is stored together with the versions of the annotator CASes and a key
+ * derived from the content hashes of the sentence in each of these CASes (see
+ * {@link RepositoryService#getSentenceHashes(SourceDocument, String)}). A stored state is reused
+ * if the CASes did not change at all or if the content of the sentence did not change in any of
+ * them. Only the remaining sentences need to be diffed again.
+ */
+public class SentenceAgreementIndex
+{
+    private static final Log LOG = LogFactory.getLog(SentenceAgreementIndex.class);
+
+    private static final String FILE_NAME = "curation-agreement.idx";
+
+    private final RepositoryService repository;
+    private final SourceDocument document;
+    private final List<String> users;
+    private final File file;
+
+    private final Map<String, String> casVersions;
+    private final boolean casesUnchanged;
+    private Map<String, Map<Integer, Long>> hashes;
+
+    private final Data data;
+    private boolean dirty;
+
+    private SentenceAgreementIndex(RepositoryService aRepository, SourceDocument aDocument,
+            Collection<String> aUsers, List<Type> aEntryTypes)
+    {
+        repository = aRepository;
+        document = aDocument;
+        users = new ArrayList<String>(aUsers);
+        Collections.sort(users);
+        file = new File(repository.getCasFile(aDocument, WebAnnoConst.CURATION_USER)
+                .getParentFile(), FILE_NAME);
+
+        casVersions = new HashMap<String, String>();
+        for (String user : users) {
+            File casFile = repository.getCasFile(aDocument, user);
+            casVersions.put(user, casFile.lastModified() + ":" + casFile.length());
+        }
+
+        List<String> typeNames = new ArrayList<String>();
+        for (Type type : aEntryTypes) {
+            typeNames.add(type.getName());
+        }
+        Collections.sort(typeNames);
+        String configuration = users + "/" + typeNames;
+
+        Data stored = read(file);
+        if (stored != null && configuration.equals(stored.configuration)) {
+            data = stored;
+            casesUnchanged = casVersions.equals(stored.casVersions);
+        }
+        else {
+            data = new Data();
+            data.configuration = configuration;
+            casesUnchanged = false;
+        }
+    }
+
+    /**
+     * Load the index of the given document.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aDocument
+     *            the document.
+     * @param aUsers
+     *            the annotators whose CASes are compared.
+     * @param aEntryTypes
+     *            the types which are compared.
+     * @return the index.
+     */
+    public static SentenceAgreementIndex load(RepositoryService aRepository,
+            SourceDocument aDocument, Collection<String> aUsers, List<Type> aEntryTypes)
+    {
+        return new SentenceAgreementIndex(aRepository, aDocument, aUsers, aEntryTypes);
+    }
+
+    /**
+     * Get the stored state of a sentence if it is still valid.
+     *
+     * @param aBegin
+     *            the begin offset of the sentence.
+     * @param aEnd
+     *            the end offset of the sentence.
+     * @return the state or {@code null} if the sentence needs to be diffed.
+     */
+    public SentenceState get(int aBegin, int aEnd)
+    {
+        Entry entry = data.entries.get(aBegin);
+        if (entry == null || entry.end != aEnd) {
+            return null;
+        }
+
+        if (casesUnchanged) {
+            return entry.state;
+        }
+
+        Long contentKey = getContentKey(aBegin);
+        if (contentKey != null && contentKey.equals(entry.contentKey)) {
+            return entry.state;
+        }
+        return null;
+    }
+
+    /**
+     * Store the state of a sentence.
+     *
+     * @param aBegin
+     *            the begin offset of the sentence.
+     * @param aEnd
+     *            the end offset of the sentence.
+     * @param aState
+     *            the state.
+     */
+    public void put(int aBegin, int aEnd, SentenceState aState)
+    {
+        Entry entry = new Entry();
+        entry.end = aEnd;
+        entry.state = aState;
+        entry.contentKey = getContentKey(aBegin);
+        data.entries.put(aBegin, entry);
+        dirty = true;
+    }
+
+    /**
+     * Write the index if it has changed.
+     */
+    public void save()
+    {
+        if (!dirty && casesUnchanged) {
+            return;
+        }
+
+        data.casVersions = casVersions;
+
+        // The index may be saved by the page and the background classification at the same time
+        File tmp = null;
+        ObjectOutputStream out = null;
+        try {
+            FileUtils.forceMkdir(file.getParentFile());
+            tmp = File.createTempFile(FILE_NAME, ".tmp", file.getParentFile());
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeObject(data);
+            out.close();
+            out = null;
+            FileUtils.deleteQuietly(file);
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename [" + tmp + "] to [" + file + "]");
+            }
+            dirty = false;
+        }
+        catch (IOException e) {
+            // The index is only an optimization - the states are recomputed if it is missing
+            LOG.warn("Unable to write sentence agreement index [" + file + "]", e);
+            FileUtils.deleteQuietly(tmp);
+        }
+        finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Combine the content hashes of the sentence in all CASes.
+     *
+     * @return the key or {@code null} if the hashes of one of the CASes are not available.
+     */
+    private Long getContentKey(int aBegin)
+    {
+        if (hashes == null) {
+            hashes = new HashMap<String, Map<Integer, Long>>();
+            for (String user : users) {
+                try {
+                    hashes.put(user, repository.getSentenceHashes(document, user));
+                }
+                catch (IOException e) {
+                    LOG.warn("Unable to read sentence hashes of user [" + user + "]", e);
+                    hashes.put(user, null);
+                }
+            }
+        }
+
+        long key = 17;
+        for (String user : users) {
+            Map<Integer, Long> userHashes = hashes.get(user);
+            Long hash = userHashes != null ? userHashes.get(aBegin) : null;
+            if (hash == null) {
+                return null;
+            }
+            key = key * 31 + hash;
+        }
+        return key;
+    }
+
+    private static Data read(File aFile)
+    {
+        if (!aFile.exists()) {
+            return null;
+        }
+
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(aFile)));
+            return (Data) in.readObject();
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOG.warn("Ignoring unreadable sentence agreement index [" + aFile + "]", e);
+            return null;
+        }
+        finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static class Data
+        implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        String configuration;
+        Map<String, String> casVersions = new HashMap<String, String>();
+        Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+    }
+
+    private static class Entry
+        implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        int end;
+        SentenceState state;
+        Long contentKey;
+    }
+}
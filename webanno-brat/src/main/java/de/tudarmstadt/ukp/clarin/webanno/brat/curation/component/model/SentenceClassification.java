@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Classifies all sentences of a document under curation as AGREE or DISAGREE in a background
+ * thread, so the curation page only needs to diff the sentences in the display window before it
+ * can be shown. The states of the other sentences are picked up by the page as they become
+ * available and are stored in the {@link SentenceAgreementIndex} once all sentences are done.
+ * <p>
+ * A classification belongs to a {@link CurationSession} and only reads the annotator CASes of the
+ * session. It is cancelled when the session is dropped.
+ */
+public class SentenceClassification
+{
+    private static final Log LOG = LogFactory.getLog(SentenceClassification.class);
+
+    private final RepositoryService repository;
+    private final SourceDocument document;
+    private final Map<String, JCas> jCases;
+    private final SortedMap<Integer, Integer> sentenceBeginEnd;
+    private final List<Type> entryTypes;
+
+    private final Map<Integer, SentenceState> states = new ConcurrentHashMap<Integer, SentenceState>();
+    private volatile boolean finished = false;
+    private volatile boolean cancelled = false;
+    private volatile Exception failure;
+
+    SentenceClassification(RepositoryService aRepository, SourceDocument aDocument,
+            Map<String, JCas> aJCases, SortedMap<Integer, Integer> aSentenceBeginEnd,
+            List<Type> aEntryTypes)
+    {
+        repository = aRepository;
+        document = aDocument;
+        jCases = aJCases;
+        sentenceBeginEnd = aSentenceBeginEnd;
+        entryTypes = aEntryTypes;
+    }
+
+    void start()
+    {
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                classify();
+            }
+        }, "curation-classify-" + document.getId());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void classify()
+    {
+        long start = System.currentTimeMillis();
+        int diffed = 0;
+        try {
+            // Sentences which did not change since the document was curated last keep their state
+            SentenceAgreementIndex index = SentenceAgreementIndex.load(repository, document,
+                    jCases.keySet(), entryTypes);
+            Map<Integer, Integer> pending = new TreeMap<Integer, Integer>();
+            for (Entry<Integer, Integer> e : sentenceBeginEnd.entrySet()) {
+                if (states.containsKey(e.getKey())) {
+                    continue;
+                }
+                SentenceState state = index.get(e.getKey(), e.getValue());
+                if (state != null) {
+                    states.put(e.getKey(), state);
+                }
+                else {
+                    pending.put(e.getKey(), e.getValue());
+                }
+            }
+
+            Map<Integer, SentenceState> diffedStates = new TreeMap<Integer, SentenceState>();
+            for (Entry<Integer, Integer> e : pending.entrySet()) {
+                if (cancelled) {
+                    return;
+                }
+                // The page may have diffed the sentence in the meantime
+                if (states.containsKey(e.getKey())) {
+                    continue;
+                }
+                SentenceState state = SuggestionBuilder.getSentenceState(
+                        CasDiff.doDiff(entryTypes, jCases, e.getKey(), e.getValue()),
+                        jCases.size());
+                states.put(e.getKey(), state);
+                diffedStates.put(e.getKey(), state);
+                diffed++;
+            }
+
+            // Load the index again, the page may have stored the states of its sentences
+            index = SentenceAgreementIndex.load(repository, document, jCases.keySet(),
+                    entryTypes);
+            for (Entry<Integer, SentenceState> e : diffedStates.entrySet()) {
+                index.put(e.getKey(), sentenceBeginEnd.get(e.getKey()), e.getValue());
+            }
+            index.save();
+        }
+        catch (Exception e) {
+            failure = e;
+            LOG.error("Unable to classify the sentences of document [" + document.getName()
+                    + "]", e);
+        }
+        finally {
+            finished = true;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Classified sentences of document [" + document.getName() + "] - "
+                        + diffed + " diffed in " + (System.currentTimeMillis() - start) + "ms"
+                        + (cancelled ? " - cancelled" : ""));
+            }
+        }
+    }
+
+    /**
+     * @param aBegin
+     *            the begin offset of the sentence.
+     * @return the state of the sentence or {@code null} if the sentence has not been classified
+     *         yet.
+     */
+    public SentenceState getState(int aBegin)
+    {
+        return states.get(aBegin);
+    }
+
+    /**
+     * Record the state of a sentence which was diffed by the page, so that it is not diffed again.
+     *
+     * @param aBegin
+     *            the begin offset of the sentence.
+     * @param aState
+     *            the state.
+     */
+    public void put(int aBegin, SentenceState aState)
+    {
+        states.put(aBegin, aState);
+    }
+
+    /**
+     * @return whether the classification has ended, either because all sentences are classified
+     *         or because it failed or was cancelled.
+     */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    /**
+     * @return the error which ended the classification or {@code null} if it did not fail.
+     */
+    public Exception getFailure()
+    {
+        return failure;
+    }
+
+    void cancel()
+    {
+        cancelled = true;
+    }
+}
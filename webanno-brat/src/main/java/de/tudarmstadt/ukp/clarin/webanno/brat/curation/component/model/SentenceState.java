@@ -44,7 +44,11 @@ public enum SentenceState
     /**
      *
      */
-    CONFIRMED(true, "#99FF99");
+    CONFIRMED(true, "#99FF99"),
+    /**
+     * The sentence has not been diffed yet, mark background in grey
+     */
+    UNKNOWN(false, "#E6E6E6");
 
     private boolean hasDiff;
     private String colorCode;
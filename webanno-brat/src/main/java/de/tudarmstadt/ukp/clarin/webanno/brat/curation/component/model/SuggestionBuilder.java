@@ -23,15 +23,19 @@ import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectByAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectSentenceAt;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil.getAdapter;
+import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
@@ -44,9 +48,11 @@ import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.IntervalIndex;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationOption;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationSelection;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiffPool;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.CurationPanel;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.CasDiffException;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
@@ -97,18 +103,8 @@ public class SuggestionBuilder
         Map<Integer, Integer> segmentNumber = new HashMap<Integer, Integer>();
         Map<Integer, String> segmentText = new HashMap<Integer, String>();
         Map<String, Map<Integer, Integer>> segmentAdress = new HashMap<String, Map<Integer, Integer>>();
-        // get annotation documents
-
-        List<AnnotationDocument> finishedAnnotationDocuments = new ArrayList<AnnotationDocument>();
-
-        for (AnnotationDocument annotationDocument : repository
-                .listAnnotationDocuments(aBratAnnotatorModel.getDocument())) {
-            if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
-                finishedAnnotationDocuments.add(annotationDocument);
-            }
-        }
-
         Map<String, JCas> jCases = new HashMap<String, JCas>();
+        CurationSession session = null;
 
         AnnotationDocument randomAnnotationDocument = null;
 
@@ -123,9 +119,9 @@ public class SuggestionBuilder
 
         }
         else {
-
-            jCases = listJcasesforCuration(finishedAnnotationDocuments, randomAnnotationDocument,
-                    aBratAnnotatorModel.getMode());
+            // The annotator CASes are only read when the curation session is (re-)loaded
+            session = CurationSession.get(repository, sourceDocument);
+            jCases = session.getJCases();
             for (String username : jCases.keySet()) {
                 JCas jCas = jCases.get(username);
                 updateSegment(aBratAnnotatorModel, segmentBeginEnd, segmentNumber, segmentText,
@@ -140,52 +136,82 @@ public class SuggestionBuilder
 
         List<Type> entryTypes = null;
 
+        if (entryTypes == null) {
+            entryTypes = getEntryTypes(mergeJCas, aBratAnnotatorModel.getAnnotationLayers(),
+                    annotationService);
+        }
+
+        // In curation mode, the sentence list shows all sentences of the document. Only the
+        // sentences in the display window are diffed here, all others are classified in the
+        // background and shown as UNKNOWN until their state is available.
+        SentenceClassification classification = null;
+        if (aBratAnnotatorModel.getMode().equals(Mode.CURATION) && session != null
+                && !session.getUsers().isEmpty()) {
+            classification = session.getClassification(repository, sourceDocument, entryTypes);
+        }
+
         segmentAdress.put(CurationPanel.CURATION_USER, new HashMap<Integer, Integer>());
-        for (Sentence sentence : selectCovered(mergeJCas, Sentence.class, begin, end)) {
+        for (Sentence sentence : classification != null ? select(mergeJCas, Sentence.class)
+                : selectCovered(mergeJCas, Sentence.class, begin, end)) {
             segmentAdress.get(CurationPanel.CURATION_USER).put(sentence.getBegin(),
                     getAddr(sentence));
         }
 
-        if (entryTypes == null) {
-            entryTypes = getEntryTypes(mergeJCas, aBratAnnotatorModel.getAnnotationLayers(),
-                    annotationService);
+        // In curation mode, sentences which did not change since the last time the document was
+        // opened keep their state, only the others are diffed again
+        SentenceAgreementIndex agreementIndex = null;
+        if (aBratAnnotatorModel.getMode().equals(Mode.CURATION)) {
+            agreementIndex = SentenceAgreementIndex.load(repository, sourceDocument,
+                    jCases.keySet(), entryTypes);
         }
 
+        SortedMap<Integer, SentenceState> sentenceStates = new TreeMap<Integer, SentenceState>();
+        Map<Integer, Integer> changedSegmentBeginEnd = new HashMap<Integer, Integer>();
         for (Integer begin : segmentBeginEnd.keySet()) {
-            Integer end = segmentBeginEnd.get(begin);
-
-            List<AnnotationOption> annotationOptions = null;
-            try {
-                annotationOptions = CasDiff.doDiff(entryTypes, jCases, begin, end);
+            SentenceState state = classification != null ? classification.getState(begin) : null;
+            if (state == null && agreementIndex != null) {
+                state = agreementIndex.get(begin, segmentBeginEnd.get(begin));
             }
-            catch (Exception e) {
-                throw new CasDiffException(e.getMessage(), e);
+            if (state != null) {
+                sentenceStates.put(begin, state);
             }
+            else {
+                changedSegmentBeginEnd.put(begin, segmentBeginEnd.get(begin));
+            }
+        }
 
-            Boolean hasDiff = false;
-            for (AnnotationOption annotationOption : annotationOptions) {
-                List<AnnotationSelection> annotationSelections = annotationOption
-                        .getAnnotationSelections();
-                if (annotationSelections.size() > 1) {
-                    hasDiff = true;
-                }
-                else if (annotationSelections.size() == 1) {
-                    AnnotationSelection annotationSelection = annotationSelections.get(0);
-                    if (annotationSelection.getAddressByUsername().size() < numUsers) {
-                        hasDiff = true;
-                    }
-                }
+        // The segments are diffed in parallel, the results are sorted by segment begin
+        SortedMap<Integer, List<AnnotationOption>> annotationOptionsByBegin;
+        try {
+            annotationOptionsByBegin = CasDiffPool.doDiff(CasDiffPool.get(), entryTypes, jCases,
+                    changedSegmentBeginEnd);
+        }
+        catch (Exception e) {
+            throw new CasDiffException(e.getMessage(), e);
+        }
+
+        for (Integer begin : annotationOptionsByBegin.keySet()) {
+            SentenceState state = getSentenceState(annotationOptionsByBegin.get(begin), numUsers);
+            sentenceStates.put(begin, state);
+            if (agreementIndex != null) {
+                agreementIndex.put(begin, segmentBeginEnd.get(begin), state);
+            }
+            if (classification != null) {
+                classification.put(begin, state);
             }
+        }
+
+        if (agreementIndex != null) {
+            agreementIndex.save();
+        }
+
+        for (Integer begin : sentenceStates.keySet()) {
+            Integer end = segmentBeginEnd.get(begin);
 
             CurationViewForSourceDocument curationSegment = new CurationViewForSourceDocument();
             curationSegment.setBegin(begin);
             curationSegment.setEnd(end);
-            if (hasDiff) {
-                curationSegment.setSentenceState(SentenceState.DISAGREE);
-            }
-            else {
-                curationSegment.setSentenceState(SentenceState.AGREE);
-            }
+            curationSegment.setSentenceState(sentenceStates.get(begin));
             curationSegment.setText(segmentText.get(begin));
             curationSegment.setSentenceNumber(segmentNumber.get(begin));
 
@@ -195,9 +221,141 @@ public class SuggestionBuilder
             }
             curationContainer.getCurationViewByBegin().put(begin, curationSegment);
         }
+
+        if (classification != null) {
+            String text = mergeJCas.getDocumentText();
+            int number = 0;
+            for (Entry<Integer, Integer> e : session.getSentenceBeginEnd().entrySet()) {
+                number++;
+                Integer begin = e.getKey();
+                if (curationContainer.getCurationViewByBegin().containsKey(begin)) {
+                    continue;
+                }
+
+                SentenceState state = classification.getState(begin);
+
+                CurationViewForSourceDocument curationSegment = new CurationViewForSourceDocument();
+                curationSegment.setBegin(begin);
+                curationSegment.setEnd(e.getValue());
+                curationSegment.setSentenceState(state != null ? state : SentenceState.UNKNOWN);
+                curationSegment.setText(text.substring(begin, e.getValue()));
+                curationSegment.setSentenceNumber(number);
+                curationSegment.setInDisplayWindow(false);
+
+                for (String username : session.getUsers()) {
+                    curationSegment.getSentenceAddress().put(username,
+                            session.getSentenceAddresses(username).get(begin));
+                }
+                curationSegment.getSentenceAddress().put(CurationPanel.CURATION_USER,
+                        segmentAdress.get(CurationPanel.CURATION_USER).get(begin));
+                curationContainer.getCurationViewByBegin().put(begin, curationSegment);
+            }
+        }
         return curationContainer;
     }
 
+    /**
+     * Fill in the states of the sentences shown as UNKNOWN which have been classified in the
+     * meantime.
+     *
+     * @param aBratAnnotatorModel
+     *            the model.
+     * @param aCurationViews
+     *            the sentences shown in the sentence list.
+     * @return whether the state of any sentence changed.
+     * @throws UIMAException
+     *             hum?
+     * @throws ClassNotFoundException
+     *             hum?
+     * @throws IOException
+     *             if an I/O error occurs or if the classification ended without classifying all
+     *             sentences.
+     */
+    public boolean updateSentenceStates(BratAnnotatorModel aBratAnnotatorModel,
+            List<CurationViewForSourceDocument> aCurationViews)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        if (!Mode.CURATION.equals(aBratAnnotatorModel.getMode())
+                || aBratAnnotatorModel.getDocument() == null) {
+            return false;
+        }
+
+        boolean unknown = false;
+        for (CurationViewForSourceDocument curationView : aCurationViews) {
+            unknown |= curationView.getSentenceState() == SentenceState.UNKNOWN;
+        }
+        if (!unknown) {
+            return false;
+        }
+
+        CurationSession session = CurationSession.get(repository,
+                aBratAnnotatorModel.getDocument());
+        if (session.getUsers().isEmpty()) {
+            return false;
+        }
+        JCas jCas = session.getJCas(session.getUsers().iterator().next());
+        SentenceClassification classification = session.getClassification(repository,
+                aBratAnnotatorModel.getDocument(), getEntryTypes(jCas,
+                        aBratAnnotatorModel.getAnnotationLayers(), annotationService));
+
+        boolean changed = false;
+        boolean unclassified = false;
+        for (CurationViewForSourceDocument curationView : aCurationViews) {
+            if (curationView.getSentenceState() == SentenceState.UNKNOWN) {
+                SentenceState state = classification.getState(curationView.getBegin());
+                if (state != null) {
+                    curationView.setSentenceState(state);
+                    changed = true;
+                }
+                else if (classification.isFinished()) {
+                    unclassified = true;
+                }
+            }
+        }
+
+        // A finished classification which did not classify all sentences failed or was
+        // cancelled, so waiting for the remaining states is pointless
+        if (unclassified) {
+            Exception failure = classification.getFailure();
+            if (failure != null) {
+                throw new IOException("Unable to determine the agreement of the sentences: "
+                        + ExceptionUtils.getRootCauseMessage(failure), failure);
+            }
+            throw new IOException("The agreement of the sentences was not determined because "
+                    + "the classification was cancelled. Please reload the document.");
+        }
+        return changed;
+    }
+
+    /**
+     * Classify a sentence by the result of the {@link CasDiff} of the sentence.
+     *
+     * @param aAnnotationOptions
+     *            the annotation options of the sentence.
+     * @param aNumUsers
+     *            the number of users whose CASes were compared.
+     * @return {@link SentenceState#DISAGREE} if the users do not all agree on all annotations,
+     *         otherwise {@link SentenceState#AGREE}.
+     */
+    public static SentenceState getSentenceState(List<AnnotationOption> aAnnotationOptions,
+            int aNumUsers)
+    {
+        for (AnnotationOption annotationOption : aAnnotationOptions) {
+            List<AnnotationSelection> annotationSelections = annotationOption
+                    .getAnnotationSelections();
+            if (annotationSelections.size() > 1) {
+                return SentenceState.DISAGREE;
+            }
+            else if (annotationSelections.size() == 1) {
+                AnnotationSelection annotationSelection = annotationSelections.get(0);
+                if (annotationSelection.getAddressByUsername().size() < aNumUsers) {
+                    return SentenceState.DISAGREE;
+                }
+            }
+        }
+        return SentenceState.AGREE;
+    }
+
     public Map<String, JCas> listJcasesforCorrection(AnnotationDocument randomAnnotationDocument,
             SourceDocument aDocument, Mode aMode)
         throws UIMAException, ClassNotFoundException, IOException
@@ -278,7 +436,12 @@ public class SuggestionBuilder
                 // are used as IDs in the UI
                 // repository.upgradeCasAndSave(aDocument, aBratAnnotatorModel.getMode(),
                 // aBratAnnotatorModel.getUser().getUsername());
-                mergeJCas = repository.readCorrectionCas(aDocument);
+                // The correction CAS is only read here. The snapshot CAS is never modified, so it
+                // can still be used after the snapshot has been released.
+                CorrectionCasSnapshot snapshot = CorrectionCasSnapshot.acquire(repository,
+                        aDocument);
+                mergeJCas = snapshot.getJCas();
+                snapshot.release();
             }
             else {
                 // Upgrading should be an explicit action during the opening of a document at the
@@ -407,13 +570,34 @@ public class SuggestionBuilder
         List<AnnotationOption> annotationOptions = null;
 
         annotationOptions = CasDiff.doDiff(entryTypes, jCases, aBegin, aEnd);
-        for (AnnotationOption annotationOption : annotationOptions) {
+        removeDisagreeingAnnotations(mergeJCas, annotationOptions, numUsers);
+
+        repository.writeCurationCas(mergeJCas, randomAnnotationDocument.getDocument(),
+                userLoggedIn);
+        return mergeJCas;
+    }
+
+    /**
+     * Remove all annotations from the merge CAS on which not all users agree. The merge CAS must
+     * be part of the diff as {@link CurationPanel#CURATION_USER}.
+     *
+     * @param aMergeJCas
+     *            the merge CAS.
+     * @param aAnnotationOptions
+     *            the result of the {@link CasDiff} of the merge CAS and the user CASes.
+     * @param aNumUsers
+     *            the number of users, not counting the merge CAS.
+     */
+    public static void removeDisagreeingAnnotations(JCas aMergeJCas,
+            List<AnnotationOption> aAnnotationOptions, int aNumUsers)
+    {
+        for (AnnotationOption annotationOption : aAnnotationOptions) {
             // remove the featureStructure if more than 1 annotationSelection exists per
             // annotationOption
             boolean removeFS = annotationOption.getAnnotationSelections().size() > 1;
             if (annotationOption.getAnnotationSelections().size() == 1) {
                 removeFS = annotationOption.getAnnotationSelections().get(0).getAddressByUsername()
-                        .size() <= numUsers;
+                        .size() <= aNumUsers;
             }
             for (AnnotationSelection annotationSelection : annotationOption
                     .getAnnotationSelections()) {
@@ -423,19 +607,15 @@ public class SuggestionBuilder
 
                         // removing disagreeing feature structures in mergeJCas
                         if (removeFS && address != null) {
-                            FeatureStructure fs = selectByAddr(mergeJCas, address);
+                            FeatureStructure fs = selectByAddr(aMergeJCas, address);
                             if (!(fs instanceof Token)) {
-                                mergeJCas.getCas().removeFsFromIndexes(fs);
+                                IntervalIndex.removeFs(aMergeJCas.getCas(), fs);
                             }
                         }
                     }
                 }
             }
         }
-
-        repository.writeCurationCas(mergeJCas, randomAnnotationDocument.getDocument(),
-                userLoggedIn);
-        return mergeJCas;
     }
 
     private JCas createCorrectionCas(JCas mergeJCas, BratAnnotatorModel aBratAnnotatorModel,
@@ -39,6 +39,7 @@ import org.apache.uima.jcas.tcas.Annotation;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotator;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.IntervalIndex;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -109,6 +110,7 @@ public class BratAnnotatorUtility
 
         // Remove all annotations from the target CAS but we keep the type system!
         target.reset();
+        IntervalIndex.invalidate(target.getCas());
         
         // Copy over essential information
         DocumentMetaData.copy(aJCas, target);
@@ -47,21 +47,23 @@ import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotator;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
-import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasController;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.CollectionInformationCache;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ColoringStrategy;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.WindowSnapshot;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationOption;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationSelection;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationSelectionLookup;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.SuggestionViewPanel;
-import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.AnnotationState;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.SuggestionBuilder;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CorrectionCasSnapshot;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationContainer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationSession;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationUserSegmentForAnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationViewForSourceDocument;
-import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.project.PreferencesUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
@@ -236,22 +238,14 @@ public class CuratorUtil
         LOG.debug("all users is  " + usernamesSorted);
         LOG.debug("annotator CAS is for user [" + annotatorCasUser + "]");
 
+        // The selections and states of all users are looked up by address while rendering
+        final AnnotationSelectionLookup lookup = AnnotationSelectionLookup.build(
+                aAnnotationOptions, numUsers, isAutomationMode || isCorrectionMode);
+
         for (String username : usernamesSorted) {
             if ((!username.equals(CURATION_USER) && isCurationMode)
                     || (username.equals(CURATION_USER) && (isAutomationMode || isCorrectionMode))) {
-                // WTF?
-                final Map<Integer, AnnotationSelection> annotationSelectionByAddress = new HashMap<Integer, AnnotationSelection>();
-                for (AnnotationOption annotationOption : aAnnotationOptions) {
-                    for (AnnotationSelection annotationSelection : annotationOption
-                            .getAnnotationSelections()) {
-                        if (annotationSelection.getAddressByUsername().containsKey(username)) {
-                            Integer address = annotationSelection.getAddressByUsername().get(
-                                    username);
-                            annotationSelectionByAddress.put(address, annotationSelection);
-                        }
-                    }
-                }
-
+                final String colorUsername = username;
                 JCas jCas = aJCases.get(username);
                 // Set up coloring strategy
                 ColoringStrategy curationColoringStrategy = new ColoringStrategy()
@@ -259,19 +253,7 @@ public class CuratorUtil
                     @Override
                     public String getColor(FeatureStructure aFS, String aLabel)
                     {
-                        int address = getAddr(aFS);
-                        AnnotationSelection annotationSelection = annotationSelectionByAddress
-                                .get(address);
-                        AnnotationState newState = null;
-                        if (mode.equals(Mode.AUTOMATION) || mode.equals(Mode.CORRECTION)) {
-                            newState = getCorrectionState(annotationSelection, aAnnotationOptions,
-                                    numUsers, address);
-                        }
-                        else {
-                            newState = getCurationState(numUsers, annotationSelection);
-                        }
-
-                        return newState.getColorCode();
+                        return lookup.getState(colorUsername, getAddr(aFS)).getColorCode();
                     }
                 };
 
@@ -297,8 +279,11 @@ public class CuratorUtil
     {
         GetDocumentResponse response = new GetDocumentResponse();
 
+        // Scan the display window once and share the result among all layers
+        WindowSnapshot window = new WindowSnapshot(aJcas, aBratAnnotatorModel);
+
         // Render invisible baseline annotations (sentence, tokens)
-        SpanAdapter.renderTokenAndSentence(aJcas, response, aBratAnnotatorModel);
+        SpanAdapter.renderTokenAndSentence(window, response);
 
         // Render visible (custom) layers
         for (AnnotationLayer layer : aBratAnnotatorModel.getAnnotationLayers()) {
@@ -317,7 +302,7 @@ public class CuratorUtil
             }
             features.removeAll(invisibleFeatures);
             TypeAdapter adapter = getAdapter(aAnnotationService, layer);
-            adapter.render(aJcas, features, response, aBratAnnotatorModel,
+            adapter.render(window, features, response, aBratAnnotatorModel,
                     aCurationColoringStrategy);
         }
 
@@ -332,86 +317,8 @@ public class CuratorUtil
             CurationContainer aCurationContainer)
         throws IOException
     {
-        GetCollectionInformationResponse info = new GetCollectionInformationResponse();
-        info.setEntityTypes(BratAjaxCasController.buildEntityTypes(aCurationContainer
-                .getBratAnnotatorModel().getAnnotationLayers(), aAnnotationService));
-
-        StringWriter out = new StringWriter();
-        JsonGenerator jsonGenerator = JSONUtil.getJsonConverter().getObjectMapper().getJsonFactory()
-                .createJsonGenerator(out);
-        jsonGenerator.writeObject(info);
-        return out.toString();
-    }
-
-    private static AnnotationState getCurationState(int numUsers,
-            AnnotationSelection annotationSelection)
-    {
-        AnnotationState newState;
-        if (annotationSelection == null) {
-            newState = AnnotationState.AGREE;
-
-        }
-        else if (annotationSelection.getAddressByUsername().size() == numUsers) {
-            newState = AnnotationState.AGREE;
-
-        }
-        else if (annotationSelection.getAddressByUsername().containsKey(CURATION_USER)) {
-            newState = AnnotationState.USE;
-
-        }
-        else {
-            boolean doNotUse = false;
-            for (AnnotationSelection otherAnnotationSelection : annotationSelection
-                    .getAnnotationOption().getAnnotationSelections()) {
-                if (otherAnnotationSelection.getAddressByUsername().containsKey(CURATION_USER)) {
-                    doNotUse = true;
-                    break;
-                }
-            }
-            if (doNotUse) {
-                newState = AnnotationState.DO_NOT_USE;
-            }
-            else {
-                newState = AnnotationState.DISAGREE;
-
-            }
-        }
-        return newState;
-    }
-
-    private static AnnotationState getCorrectionState(AnnotationSelection annotationSelection,
-            List<AnnotationOption> aAnnotationOptions, int numUsers, int address)
-    {
-        AnnotationOption annotationOption = null;
-
-        for (AnnotationOption annotationOption2 : aAnnotationOptions) {
-            for (AnnotationSelection annotationSelection2 : annotationOption2
-                    .getAnnotationSelections()) {
-                if (annotationSelection2.getAddressByUsername().containsKey(CURATION_USER)
-                        && annotationSelection2.getAddressByUsername().get(CURATION_USER)
-                                .equals(address)) {
-                    annotationOption = annotationOption2;
-                    break;
-                }
-
-            }
-        }
-        AnnotationState newState = null;
-        if (annotationSelection == null) {
-            newState = AnnotationState.NOT_SUPPORTED;
-
-        }
-        else if (annotationSelection.getAddressByUsername().size() == numUsers) {
-            newState = AnnotationState.AGREE;
-
-        }
-        else if (annotationOption.getAnnotationSelections().size() == 1) {
-            newState = AnnotationState.DISAGREE;
-        }
-        else {
-            newState = AnnotationState.DO_NOT_USE;
-        }
-        return newState;
+        return CollectionInformationCache.getCollectionInformationJson(aCurationContainer
+                .getBratAnnotatorModel().getAnnotationLayers(), aAnnotationService);
     }
 
     /**
@@ -458,10 +365,38 @@ public class CuratorUtil
         SourceDocument sourceDocument = aCurationContainer.getBratAnnotatorModel().getDocument();
         Map<String, JCas> jCases = new HashMap<String, JCas>();
 
+        // In correction/automation mode, the suggestions are compared from the shared snapshot of
+        // the correction CAS, which is held until the panel has been updated
+        CorrectionCasSnapshot correctionSnapshot = null;
+        Mode mode = aCurationContainer.getBratAnnotatorModel().getMode();
+        if (mode.equals(Mode.AUTOMATION) || mode.equals(Mode.CORRECTION)) {
+            correctionSnapshot = CorrectionCasSnapshot.acquire(aRepository, sourceDocument);
+        }
+        try {
+            populateSuggestions(aParent, aCurationContainer, aRepository,
+                    aAnnotationSelectionByUsernameAndAddress, aCurationSegment,
+                    aAnnotationService, aUserDao, sourceDocument, jCases, correctionSnapshot);
+        }
+        finally {
+            if (correctionSnapshot != null) {
+                correctionSnapshot.release();
+            }
+        }
+        aTarget.add(aParent);
+    }
+
+    private static void populateSuggestions(SuggestionViewPanel aParent,
+            CurationContainer aCurationContainer, RepositoryService aRepository,
+            Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress,
+            CurationViewForSourceDocument aCurationSegment, AnnotationService aAnnotationService,
+            UserDao aUserDao, SourceDocument sourceDocument, Map<String, JCas> jCases,
+            CorrectionCasSnapshot aCorrectionSnapshot)
+        throws UIMAException, ClassNotFoundException, IOException, BratAnnotationException
+    {
         // This is the CAS that the user can actively edit
         JCas annotatorCas = getAnnotatorCase(aCurationContainer.getBratAnnotatorModel(),
                 aRepository, aUserDao, aAnnotationSelectionByUsernameAndAddress, sourceDocument,
-                jCases);
+                jCases, aCorrectionSnapshot);
 
         // We store the CAS that the user will edit as the "CURATION USER"
         jCases.put(CURATION_USER, annotatorCas);
@@ -497,7 +432,6 @@ public class CuratorUtil
             aMergeVisualizer.setModelObject(bratAnnotatorModel);
             aMergeVisualizer.bratRenderLater(aTarget);
         }*/
-        aTarget.add(aParent);
     }
 
     public static JCas getAnnotatorCase(
@@ -505,7 +439,8 @@ public class CuratorUtil
             RepositoryService aRepository,
             UserDao aUserDao,
             Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress,
-            SourceDocument sourceDocument, Map<String, JCas> jCases)
+            SourceDocument sourceDocument, Map<String, JCas> jCases,
+            CorrectionCasSnapshot aCorrectionSnapshot)
         throws UIMAException, IOException, ClassNotFoundException
     {
         JCas annotatorCas;
@@ -515,8 +450,9 @@ public class CuratorUtil
             // we treat consider this scenario as a curation scenario where the CORRECTION document
             // is the only document we compare with.
 
-            // The CAS the user can edit is the one from the virtual CORRECTION USER
-            annotatorCas = aRepository.readCorrectionCas(sourceDocument);
+            // The CAS the user can edit is the one from the virtual CORRECTION USER. It is only
+            // read here, so the shared snapshot is used
+            annotatorCas = aCorrectionSnapshot.getJCas();
 
             User user = aUserDao.get(SecurityContextHolder.getContext().getAuthentication()
                     .getName());
@@ -533,21 +469,17 @@ public class CuratorUtil
             // The CAS the user can edit is the one from the virtual CURATION USER
             annotatorCas = aRepository.readCurationCas(sourceDocument);
 
-            // Now we get all the other CASes from the repository
-            List<AnnotationDocument> annotationDocuments = aRepository
-                    .listAnnotationDocuments(sourceDocument);
-            for (AnnotationDocument annotationDocument : annotationDocuments) {
-                String username = annotationDocument.getUser();
-                if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
-                        || username.equals(CuratorUtil.CURATION_USER)) {
-                    JCas jCas = aRepository.readAnnotationCas(annotationDocument);
-                    jCases.put(username, jCas);
-
-                    // cleanup annotationSelections
-                    aAnnotationSelectionByUsernameAndAddress.put(username,
-                            new HashMap<Integer, AnnotationSelection>());
-                }
+            // The CASes of the users who finished the document are read only once and then
+            // shared via the curation session
+            CurationSession session = CurationSession.get(aRepository, sourceDocument);
+            jCases.putAll(session.getJCases());
+            for (String username : session.getUsers()) {
+                // cleanup annotationSelections
+                aAnnotationSelectionByUsernameAndAddress.put(username,
+                        new HashMap<Integer, AnnotationSelection>());
             }
+            aAnnotationSelectionByUsernameAndAddress.put(CURATION_USER,
+                    new HashMap<Integer, AnnotationSelection>());
         }
         return annotatorCas;
     }
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+/**
+ * Compares the overlap checks done when stacking annotations on the {@link IntervalIndex} with
+ * scanning the annotation index. Run it with {@code mvn test -Pbenchmark}.
+ */
+public class IntervalIndexBenchmark
+{
+    private static final int TOKENS = 100000;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Test
+    public void benchmarkStackingChecks()
+        throws Exception
+    {
+        JCas jcas = IntervalIndexTest.createDenseCas(TOKENS);
+        CAS cas = jcas.getCas();
+        Type neType = CasUtil.getType(cas, NamedEntity.class);
+        Random rnd = new Random(42);
+        int[] offsets = new int[1000];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = rnd.nextInt(TOKENS) * 4;
+        }
+
+        long start = System.currentTimeMillis();
+        int scanHits = 0;
+        for (int offset : offsets) {
+            scanHits += IntervalIndexTest.selectOverlappingByScan(cas, neType, offset,
+                    offset + 3).size();
+        }
+        long scanTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        int indexHits = 0;
+        for (int offset : offsets) {
+            indexHits += IntervalIndex.selectOverlapping(cas, neType, offset, offset + 3).size();
+        }
+        long indexTime = System.currentTimeMillis() - start;
+
+        assertEquals(scanHits, indexHits);
+        log.info("Overlap checks on " + TOKENS + " tokens - scan: " + scanTime + "ms, index: "
+                + indexTime + "ms (including index build)");
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class IntervalIndexTest
+{
+    private static final int TOKENS = 100000;
+
+    private JCas jcas;
+    private Type neType;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        jcas = createDenseCas(TOKENS);
+        neType = CasUtil.getType(jcas.getCas(), NamedEntity.class);
+    }
+
+    /**
+     * @return a dense document of the given number of tokens.
+     */
+    static JCas createDenseCas(int aTokens)
+        throws Exception
+    {
+        // Every token carries a named entity and every tenth token starts a stacked multi-token
+        // named entity
+        JCas jcas = JCasFactory.createJCas();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < aTokens; i++) {
+            text.append("tok ");
+        }
+        jcas.setDocumentText(text.toString());
+
+        for (int i = 0; i < aTokens; i++) {
+            new Token(jcas, i * 4, i * 4 + 3).addToIndexes();
+            new NamedEntity(jcas, i * 4, i * 4 + 3).addToIndexes();
+            if (i % 10 == 0 && i + 3 < aTokens) {
+                new NamedEntity(jcas, i * 4, (i + 3) * 4 + 3).addToIndexes();
+            }
+            if (i % 20 == 0) {
+                new Sentence(jcas, i * 4, Math.min(i + 20, aTokens) * 4 - 1).addToIndexes();
+            }
+        }
+        return jcas;
+    }
+
+    @Test
+    public void thatQueriesMatchCasUtil()
+    {
+        CAS cas = jcas.getCas();
+        Random rnd = new Random(42);
+        for (int n = 0; n < 500; n++) {
+            int begin = rnd.nextInt(TOKENS * 4);
+            int end = begin + rnd.nextInt(60);
+
+            assertEquals(CasUtil.selectCovered(cas, neType, begin, end),
+                    IntervalIndex.selectCovered(cas, neType, begin, end));
+            assertEquals(selectOverlappingByScan(cas, neType, begin, end),
+                    IntervalIndex.selectOverlapping(cas, neType, begin, end));
+        }
+    }
+
+    @Test
+    public void thatIndexFollowsAddAndRemove()
+    {
+        CAS cas = jcas.getCas();
+
+        // Build the index
+        assertEquals(1, IntervalIndex.selectAt(cas, neType, 0, 3).size());
+
+        AnnotationFS added = cas.createAnnotation(neType, 0, 3);
+        IntervalIndex.addFs(cas, added);
+        assertEquals(2, IntervalIndex.selectAt(cas, neType, 0, 3).size());
+
+        IntervalIndex.removeFs(cas, added);
+        assertEquals(1, IntervalIndex.selectAt(cas, neType, 0, 3).size());
+
+        // Changes made directly to the CAS are picked up as well
+        cas.addFsToIndexes(added);
+        assertEquals(2, IntervalIndex.selectAt(cas, neType, 0, 3).size());
+    }
+
+    @Test
+    public void thatInvalidateDropsStaleIndex()
+    {
+        CAS cas = jcas.getCas();
+        AnnotationFS removed = IntervalIndex.selectAt(cas, neType, 0, 3).get(0);
+
+        // A removal and an addition which keep the size of the CAS index
+        cas.removeFsFromIndexes(removed);
+        cas.addFsToIndexes(cas.createAnnotation(neType, 4, 7));
+        IntervalIndex.invalidate(cas);
+
+        assertEquals(0, IntervalIndex.selectAt(cas, neType, 0, 3).size());
+        assertEquals(2, IntervalIndex.selectAt(cas, neType, 4, 7).size());
+    }
+
+    /**
+     * The way {@link BratAjaxCasUtil#selectOverlapping} used to work.
+     */
+    static List<AnnotationFS> selectOverlappingByScan(CAS aCas, Type aType, int aBegin,
+            int aEnd)
+    {
+        List<AnnotationFS> annotations = new ArrayList<AnnotationFS>();
+        for (AnnotationFS fs : CasUtil.select(aCas, aType)) {
+            if (fs.getBegin() >= aEnd) {
+                break;
+            }
+            if (fs.getEnd() <= aBegin) {
+                continue;
+            }
+            annotations.add(fs);
+        }
+        return annotations;
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.AnnotationState;
+
+public class AnnotationSelectionLookupTest
+{
+    @Test
+    public void testCurationStates()
+    {
+        List<AnnotationOption> options = new ArrayList<AnnotationOption>();
+
+        // Everybody agrees
+        AnnotationSelection agree = select(option(options), "user1", 10, "user2", 20,
+                WebAnnoConst.CURATION_USER, 30);
+
+        // The users disagree and the curator took the label of user1
+        AnnotationOption disagreeing = option(options);
+        AnnotationSelection use = select(disagreeing, "user1", 11, WebAnnoConst.CURATION_USER,
+                31);
+        AnnotationSelection doNotUse = select(disagreeing, "user2", 21);
+
+        // The users disagree and the curator did not decide yet
+        AnnotationOption open = option(options);
+        AnnotationSelection disagree1 = select(open, "user1", 12);
+        select(open, "user2", 22);
+
+        AnnotationSelectionLookup lookup = AnnotationSelectionLookup.build(options, 3, false);
+
+        assertSame(agree, lookup.getSelection("user2", 20));
+        assertSame(use, lookup.getSelection("user1", 11));
+        assertSame(doNotUse, lookup.getSelection("user2", 21));
+        assertSame(disagree1, lookup.getSelection("user1", 12));
+        assertNull(lookup.getSelection("user1", 99));
+        assertNull(lookup.getSelection("user3", 10));
+
+        assertEquals(AnnotationState.AGREE, lookup.getState("user1", 10));
+        assertEquals(AnnotationState.USE, lookup.getState("user1", 11));
+        assertEquals(AnnotationState.DO_NOT_USE, lookup.getState("user2", 21));
+        assertEquals(AnnotationState.DISAGREE, lookup.getState("user2", 22));
+        assertEquals(AnnotationState.AGREE, lookup.getState("user1", 99));
+    }
+
+    @Test
+    public void testCorrectionStates()
+    {
+        List<AnnotationOption> options = new ArrayList<AnnotationOption>();
+        select(option(options), "user", 10, WebAnnoConst.CURATION_USER, 30);
+        select(option(options), WebAnnoConst.CURATION_USER, 31);
+        AnnotationOption differing = option(options);
+        select(differing, WebAnnoConst.CURATION_USER, 32);
+        select(differing, "user", 12);
+
+        AnnotationSelectionLookup lookup = AnnotationSelectionLookup.build(options, 2, true);
+
+        assertEquals(AnnotationState.AGREE, lookup.getState(WebAnnoConst.CURATION_USER, 30));
+        assertEquals(AnnotationState.DISAGREE, lookup.getState(WebAnnoConst.CURATION_USER, 31));
+        assertEquals(AnnotationState.DO_NOT_USE, lookup.getState(WebAnnoConst.CURATION_USER, 32));
+        assertEquals(AnnotationState.NOT_SUPPORTED,
+                lookup.getState(WebAnnoConst.CURATION_USER, 99));
+    }
+
+    @Test
+    public void testManyAddresses()
+    {
+        List<AnnotationOption> options = new ArrayList<AnnotationOption>();
+        List<AnnotationSelection> selections = new ArrayList<AnnotationSelection>();
+        for (int i = 1; i <= 10000; i++) {
+            selections.add(select(option(options), "user", i * 8));
+        }
+
+        AnnotationSelectionLookup lookup = AnnotationSelectionLookup.build(options, 1, false);
+        for (int i = 1; i <= 10000; i++) {
+            assertSame(selections.get(i - 1), lookup.getSelection("user", i * 8));
+            assertNull(lookup.getSelection("user", i * 8 + 1));
+        }
+    }
+
+    private static AnnotationOption option(List<AnnotationOption> aOptions)
+    {
+        AnnotationOption option = new AnnotationOption();
+        aOptions.add(option);
+        return option;
+    }
+
+    private static AnnotationSelection select(AnnotationOption aOption, Object... aUserAddress)
+    {
+        AnnotationSelection selection = new AnnotationSelection();
+        for (int i = 0; i < aUserAddress.length; i += 2) {
+            selection.getAddressByUsername().put((String) aUserAddress[i],
+                    (Integer) aUserAddress[i + 1]);
+        }
+        selection.setAnnotationOption(aOption);
+        aOption.getAnnotationSelections().add(selection);
+        return selection;
+    }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+/**
+ * Checks that the fingerprint based {@link CasDiff#doDiff} finds the same agreements as the
+ * pairwise {@link CasDiff#doPairwiseDiff} on generated documents with several span layers, a
+ * relation layer and a chain layer.
+ */
+public class CasDiffEquivalenceTest
+{
+    @Test
+    public void testSpansAndRelations()
+        throws Exception
+    {
+        CurationCasGenerator generator = new CurationCasGenerator().setAnnotators(3)
+                .setSentences(20).setLayers(4).setDensity(0.7).setRelations(true)
+                .setDisagreement(0.2);
+        Map<String, JCas> jCases = generator.generate();
+        JCas jCas = jCases.values().iterator().next();
+        List<Type> entryTypes = generator.getEntryTypes(jCas);
+        int end = jCas.getDocumentText().length();
+
+        assertEquals(normalize(CasDiff.doPairwiseDiff(entryTypes, jCases, 0, end)),
+                normalize(CasDiff.doDiff(entryTypes, jCases, 0, end)));
+    }
+
+    @Test
+    public void testChains()
+        throws Exception
+    {
+        CurationCasGenerator generator = new CurationCasGenerator().setAnnotators(3)
+                .setSentences(20).setLayers(0).setChains(true).setDisagreement(0.05);
+        Map<String, JCas> jCases = generator.generate();
+        JCas jCas = jCases.values().iterator().next();
+        List<Type> entryTypes = generator.getEntryTypes(jCas);
+        int end = jCas.getDocumentText().length();
+
+        // The pairwise diff also adds the following links of a chain to the option of a link, so
+        // only the selections are compared
+        assertEquals(getSelections(CasDiff.doPairwiseDiff(entryTypes, jCases, 0, end)),
+                getSelections(CasDiff.doDiff(entryTypes, jCases, 0, end)));
+    }
+
+    @Test
+    public void testSerialEqualsParallel()
+        throws Exception
+    {
+        CurationCasGenerator generator = new CurationCasGenerator().setAnnotators(3)
+                .setSentences(50).setLayers(2).setRelations(true).setDisagreement(0.2);
+        Map<String, JCas> jCases = generator.generate();
+        JCas jCas = jCases.values().iterator().next();
+        List<Type> entryTypes = generator.getEntryTypes(jCas);
+        Map<Integer, Integer> sentenceBeginEnd = CurationCasGenerator.getSentenceBeginEnd(jCas);
+
+        CasDiffPool pool = new CasDiffPool();
+        pool.setParallelism(4);
+        pool.init();
+        try {
+            assertEquals(normalize(CasDiffPool.doDiff(null, entryTypes, jCases,
+                    sentenceBeginEnd)), normalize(CasDiffPool.doDiff(pool, entryTypes, jCases,
+                    sentenceBeginEnd)));
+        }
+        finally {
+            pool.destroy();
+        }
+    }
+
+    /**
+     * Reduce the options of each sentence to the user/address assignments of their selections,
+     * ignoring order.
+     */
+    static SortedMap<Integer, Set<Set<Map<String, Integer>>>> normalize(
+            SortedMap<Integer, List<AnnotationOption>> aOptionsBySentence)
+    {
+        SortedMap<Integer, Set<Set<Map<String, Integer>>>> result = new TreeMap<Integer, Set<Set<Map<String, Integer>>>>();
+        for (Entry<Integer, List<AnnotationOption>> e : aOptionsBySentence.entrySet()) {
+            result.put(e.getKey(), normalize(e.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Reduce the options to the user/address assignments of their selections, ignoring order.
+     */
+    static Set<Set<Map<String, Integer>>> normalize(List<AnnotationOption> aOptions)
+    {
+        Set<Set<Map<String, Integer>>> result = new HashSet<Set<Map<String, Integer>>>();
+        for (AnnotationOption option : aOptions) {
+            Set<Map<String, Integer>> selections = new HashSet<Map<String, Integer>>();
+            for (AnnotationSelection selection : option.getAnnotationSelections()) {
+                selections.add(selection.getAddressByUsername());
+            }
+            result.add(selections);
+        }
+        return result;
+    }
+
+    /**
+     * Reduce the options to the user/address assignments of all their selections, ignoring the
+     * options they belong to.
+     */
+    private static Set<Map<String, Integer>> getSelections(List<AnnotationOption> aOptions)
+    {
+        Set<Map<String, Integer>> selections = new HashSet<Map<String, Integer>>();
+        for (AnnotationOption option : aOptions) {
+            for (AnnotationSelection selection : option.getAnnotationSelections()) {
+                selections.add(selection.getAddressByUsername());
+            }
+        }
+        return selections;
+    }
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+/**
+ * Compares {@link CasDiff#compareFeatureFS} on the {@link ComparisonPlan} with the comparison by
+ * names it replaced. Run it with {@code mvn test -Pbenchmark}.
+ */
+public class ComparisonPlanBenchmark
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Test
+    public void benchmarkCompare()
+        throws Exception
+    {
+        int n = 2000;
+        List<NamedEntity> nes1 = new ArrayList<NamedEntity>();
+        List<NamedEntity> nes2 = new ArrayList<NamedEntity>();
+        ComparisonPlanTest.createPairs(n, nes1, nes2);
+
+        int rounds = 50;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            int agreeByName = 0;
+            long start = System.currentTimeMillis();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < n; i++) {
+                    if (ComparisonPlanTest.compareByName(nes1.get(i), nes2.get(i))) {
+                        agreeByName++;
+                    }
+                }
+            }
+            long byName = System.currentTimeMillis() - start;
+
+            int agreeByPlan = 0;
+            start = System.currentTimeMillis();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < n; i++) {
+                    if (ComparisonPlanTest.compare(nes1.get(i), nes2.get(i))) {
+                        agreeByPlan++;
+                    }
+                }
+            }
+            long byPlan = System.currentTimeMillis() - start;
+
+            assertEquals(agreeByName, agreeByPlan);
+            log.info("Compared " + (rounds * n) + " pairs - by name: " + byName + "ms - by plan: "
+                    + byPlan + "ms");
+        }
+    }
+}
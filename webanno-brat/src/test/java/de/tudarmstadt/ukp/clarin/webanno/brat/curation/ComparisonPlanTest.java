@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class ComparisonPlanTest
+{
+    @Test
+    public void testPlan()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("John lives in Berlin.");
+        Token token = new Token(jcas, 0, 4);
+        token.addToIndexes();
+
+        ComparisonPlan plan = ComparisonPlan.get(token);
+        assertSame(plan, ComparisonPlan.get(token));
+        assertEquals(Token.class.getName(), plan.getTypeName());
+
+        boolean posFound = false;
+        for (int i = 0; i < plan.size(); i++) {
+            Feature feature = plan.getFeature(token, i);
+            assertFalse(CAS.FEATURE_FULL_NAME_SOFA.equals(feature.getName()));
+            if (feature.getShortName().equals("pos")) {
+                posFound = true;
+                assertEquals(ComparisonPlan.KIND_ANNOTATION, plan.getKind(i));
+                assertTrue(plan.isFollow(i));
+            }
+            if (feature.getShortName().equals("begin")) {
+                assertEquals(ComparisonPlan.KIND_INTEGER, plan.getKind(i));
+                assertFalse(plan.isFollow(i));
+            }
+        }
+        assertTrue(posFound);
+
+        // Same type in another CAS
+        JCas other = JCasFactory.createJCas();
+        other.setDocumentText("John lives in Berlin.");
+        Token otherToken = new Token(other, 0, 4);
+        assertTrue(plan.isSameType(ComparisonPlan.get(otherToken)));
+        assertFalse(plan.isSameType(ComparisonPlan.get(new NamedEntity(other, 0, 4))));
+    }
+
+    @Test
+    public void testTraverse()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("John lives in Berlin.");
+        Token token = new Token(jcas, 0, 4);
+        POS pos = new POS(jcas, 0, 4);
+        pos.setPosValue("NNP");
+        token.setPos(pos);
+
+        Set<FeatureStructure> fss = CasDiff.traverseFS(token);
+        assertEquals(2, fss.size());
+        assertTrue(fss.contains(token));
+        assertTrue(fss.contains(pos));
+    }
+
+    @Test
+    public void testCompare()
+        throws Exception
+    {
+        JCas jcas1 = createCas("PER", "LOC");
+        JCas jcas2 = createCas("PER", null);
+
+        List<NamedEntity> nes1 = new ArrayList<NamedEntity>(select(jcas1, NamedEntity.class));
+        List<NamedEntity> nes2 = new ArrayList<NamedEntity>(select(jcas2, NamedEntity.class));
+
+        assertTrue(compare(nes1.get(0), nes2.get(0)));
+        // A value against no value used to be counted as an agreement
+        assertFalse(compare(nes1.get(1), nes2.get(1)));
+        assertFalse(compare(nes2.get(1), nes1.get(1)));
+        assertTrue(compare(nes2.get(1), nes2.get(1)));
+    }
+
+    @Test
+    public void testCompareMatchesByName()
+        throws Exception
+    {
+        List<NamedEntity> nes1 = new ArrayList<NamedEntity>();
+        List<NamedEntity> nes2 = new ArrayList<NamedEntity>();
+        createPairs(100, nes1, nes2);
+
+        for (int i = 0; i < nes1.size(); i++) {
+            assertEquals(compareByName(nes1.get(i), nes2.get(i)), compare(nes1.get(i),
+                    nes2.get(i)));
+        }
+    }
+
+    /**
+     * Create pairs of named entities at the same offsets in two CASes, which agree on some of the
+     * values.
+     */
+    static void createPairs(int aCount, List<NamedEntity> aNes1, List<NamedEntity> aNes2)
+        throws Exception
+    {
+        JCas jcas1 = JCasFactory.createJCas();
+        JCas jcas2 = JCasFactory.createJCas();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < aCount; i++) {
+            text.append("word ");
+        }
+        jcas1.setDocumentText(text.toString());
+        jcas2.setDocumentText(text.toString());
+
+        for (int i = 0; i < aCount; i++) {
+            NamedEntity ne1 = new NamedEntity(jcas1, i * 5, i * 5 + 4);
+            ne1.setValue(i % 3 == 0 ? "PER" : "LOC");
+            aNes1.add(ne1);
+            NamedEntity ne2 = new NamedEntity(jcas2, i * 5, i * 5 + 4);
+            ne2.setValue(i % 4 == 0 ? "PER" : "LOC");
+            aNes2.add(ne2);
+        }
+    }
+
+    private static JCas createCas(String... aValues)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("John lives in Berlin.");
+        int begin = 0;
+        for (String value : aValues) {
+            NamedEntity ne = new NamedEntity(jcas, begin, begin + 4);
+            ne.setValue(value);
+            ne.addToIndexes();
+            begin += 5;
+        }
+        return jcas;
+    }
+
+    static boolean compare(FeatureStructure aNew, FeatureStructure aOld)
+        throws Exception
+    {
+        Set<FeatureStructure> diff = new HashSet<FeatureStructure>(CasDiff.traverseFS(aNew));
+        return CasDiff.compareFeatureFS(aNew.getType(), aNew, aOld, diff).getDiffs().isEmpty();
+    }
+
+    /**
+     * The comparison as it was done before the plans: features are fetched from the type and
+     * dispatched by the name of their range.
+     */
+    static boolean compareByName(FeatureStructure aNew, FeatureStructure aOld)
+    {
+        if (!aNew.getType().toString().equals(aOld.getType().toString())) {
+            return false;
+        }
+        List<Feature> newFeatures = aNew.getType().getFeatures();
+        List<Feature> oldFeatures = aOld.getType().getFeatures();
+        boolean agree = true;
+        for (int i = 0; i < newFeatures.size(); i++) {
+            Feature feature = newFeatures.get(i);
+            Feature oldFeature = oldFeatures.get(i);
+            if (feature.toString().equals("uima.cas.AnnotationBase:sofa")) {
+                continue;
+            }
+            String range = feature.getRange().getName();
+            if (range.equals(CAS.TYPE_NAME_INTEGER)) {
+                agree &= aNew.getIntValue(feature) == aOld.getIntValue(oldFeature);
+            }
+            else if (range.equals(CAS.TYPE_NAME_STRING)) {
+                String value1 = aNew.getStringValue(feature);
+                String value2 = aOld.getStringValue(oldFeature);
+                agree &= value1 == null ? value2 == null : value1.equals(value2);
+            }
+        }
+        return agree;
+    }
+}
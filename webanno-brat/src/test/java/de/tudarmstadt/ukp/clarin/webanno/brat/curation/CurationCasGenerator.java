@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.JCasBuilder;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+
+import de.tudarmstadt.ukp.dkpro.core.api.coref.type.CoreferenceChain;
+import de.tudarmstadt.ukp.dkpro.core.api.coref.type.CoreferenceLink;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.chunk.Chunk;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Generates the CASes of several annotators of the same synthetic document for testing and
+ * benchmarking the curation diff. All annotators get the same text, tokens and sentences and
+ * annotate the same positions. Each annotator deviates from the common label of an annotation
+ * with the configured disagreement rate. The output only depends on the parameters and the seed.
+ */
+public class CurationCasGenerator
+{
+    /**
+     * The span layers in the order in which they are added when the layer count is increased.
+     */
+    private static final Class<?>[] SPAN_LAYERS = { POS.class, NamedEntity.class, Lemma.class,
+            Chunk.class };
+
+    private int annotators = 2;
+    private int sentences = 100;
+    private int tokensPerSentence = 15;
+    private double density = 0.5;
+    private int layers = 1;
+    private boolean relations = false;
+    private boolean chains = false;
+    private double disagreement = 0.1;
+    private long seed = 42;
+
+    /**
+     * Generate the CASes.
+     *
+     * @return the CASes by user name, i.e. "user0", "user1", ...
+     * @throws UIMAException
+     *             if a CAS cannot be created.
+     */
+    public Map<String, JCas> generate()
+        throws UIMAException
+    {
+        Map<String, JCas> jCases = new LinkedHashMap<String, JCas>();
+        for (int a = 0; a < annotators; a++) {
+            jCases.put("user" + a, generate(a));
+        }
+        return jCases;
+    }
+
+    private JCas generate(int aAnnotator)
+        throws UIMAException
+    {
+        // The same seed for all annotators, so they annotate the same positions
+        Random structure = new Random(seed);
+        Random deviation = new Random(seed + 1 + aAnnotator);
+
+        JCas jCas = JCasFactory.createJCas();
+        JCasBuilder builder = new JCasBuilder(jCas);
+        CoreferenceLink previousLink = null;
+        for (int s = 0; s < sentences; s++) {
+            int sentenceBegin = builder.getPosition();
+            List<Token> tokens = new ArrayList<Token>();
+            for (int t = 0; t < tokensPerSentence; t++) {
+                tokens.add(builder.add("w" + structure.nextInt(1000), Token.class));
+                builder.add(" ");
+            }
+            builder.add(".", Token.class);
+            new Sentence(jCas, sentenceBegin, builder.getPosition()).addToIndexes();
+            builder.add(" ");
+
+            for (int l = 0; l < Math.min(layers, SPAN_LAYERS.length); l++) {
+                for (Token token : tokens) {
+                    if (structure.nextDouble() < density) {
+                        String label = label(structure, deviation, "L");
+                        addSpan(jCas, SPAN_LAYERS[l], token, label);
+                    }
+                }
+            }
+
+            if (relations) {
+                for (int t = 1; t < tokens.size(); t++) {
+                    Token dependent = tokens.get(t);
+                    Dependency dependency = new Dependency(jCas, dependent.getBegin(),
+                            dependent.getEnd());
+                    dependency.setGovernor(tokens.get(structure.nextInt(t)));
+                    dependency.setDependent(dependent);
+                    dependency.setDependencyType(label(structure, deviation, "dep"));
+                    dependency.addToIndexes();
+                }
+            }
+
+            if (chains) {
+                // One mention per sentence, all mentions of the document form a single chain
+                Token token = tokens.get(0);
+                CoreferenceLink link = new CoreferenceLink(jCas, token.getBegin(), token.getEnd());
+                link.setReferenceType(label(structure, deviation, "NAM"));
+                link.setReferenceRelation("coreference");
+                link.addToIndexes();
+                if (previousLink == null) {
+                    CoreferenceChain chain = new CoreferenceChain(jCas);
+                    chain.setFirst(link);
+                    chain.addToIndexes();
+                }
+                else {
+                    previousLink.setNext(link);
+                }
+                previousLink = link;
+            }
+        }
+        builder.close();
+        return jCas;
+    }
+
+    private String label(Random aStructure, Random aDeviation, String aPrefix)
+    {
+        String label = aPrefix + aStructure.nextInt(10);
+        return aDeviation.nextDouble() < disagreement ? label + "-" + aDeviation.nextInt(3)
+                : label;
+    }
+
+    private static void addSpan(JCas aJCas, Class<?> aLayer, Token aToken, String aLabel)
+    {
+        Annotation annotation;
+        if (aLayer == POS.class) {
+            POS pos = new POS(aJCas, aToken.getBegin(), aToken.getEnd());
+            pos.setPosValue(aLabel);
+            aToken.setPos(pos);
+            annotation = pos;
+        }
+        else if (aLayer == NamedEntity.class) {
+            NamedEntity ne = new NamedEntity(aJCas, aToken.getBegin(), aToken.getEnd());
+            ne.setValue(aLabel);
+            annotation = ne;
+        }
+        else if (aLayer == Lemma.class) {
+            Lemma lemma = new Lemma(aJCas, aToken.getBegin(), aToken.getEnd());
+            lemma.setValue(aLabel);
+            aToken.setLemma(lemma);
+            annotation = lemma;
+        }
+        else {
+            Chunk chunk = new Chunk(aJCas, aToken.getBegin(), aToken.getEnd());
+            chunk.setChunkValue(aLabel);
+            annotation = chunk;
+        }
+        annotation.addToIndexes();
+    }
+
+    /**
+     * @param aJCas
+     *            one of the generated CASes.
+     * @return the types of all generated layers, as compared by the curation diff.
+     */
+    public List<Type> getEntryTypes(JCas aJCas)
+    {
+        List<Type> entryTypes = new ArrayList<Type>();
+        for (int l = 0; l < Math.min(layers, SPAN_LAYERS.length); l++) {
+            entryTypes.add(CasUtil.getType(aJCas.getCas(), SPAN_LAYERS[l]));
+        }
+        if (relations) {
+            entryTypes.add(CasUtil.getType(aJCas.getCas(), Dependency.class));
+        }
+        if (chains) {
+            entryTypes.add(CasUtil.getType(aJCas.getCas(), CoreferenceLink.class));
+        }
+        return entryTypes;
+    }
+
+    /**
+     * @param aJCas
+     *            one of the generated CASes.
+     * @return the sentence end offsets by sentence begin offset.
+     */
+    public static Map<Integer, Integer> getSentenceBeginEnd(JCas aJCas)
+    {
+        Map<Integer, Integer> sentenceBeginEnd = new TreeMap<Integer, Integer>();
+        for (Sentence sentence : select(aJCas, Sentence.class)) {
+            sentenceBeginEnd.put(sentence.getBegin(), sentence.getEnd());
+        }
+        return sentenceBeginEnd;
+    }
+
+    public CurationCasGenerator setAnnotators(int aAnnotators)
+    {
+        annotators = aAnnotators;
+        return this;
+    }
+
+    public CurationCasGenerator setSentences(int aSentences)
+    {
+        sentences = aSentences;
+        return this;
+    }
+
+    public CurationCasGenerator setTokensPerSentence(int aTokensPerSentence)
+    {
+        tokensPerSentence = aTokensPerSentence;
+        return this;
+    }
+
+    /**
+     * @param aDensity
+     *            the probability of a token to be annotated in each span layer.
+     * @return the generator.
+     */
+    public CurationCasGenerator setDensity(double aDensity)
+    {
+        density = aDensity;
+        return this;
+    }
+
+    /**
+     * @param aLayers
+     *            the number of span layers, at most 4.
+     * @return the generator.
+     */
+    public CurationCasGenerator setLayers(int aLayers)
+    {
+        layers = aLayers;
+        return this;
+    }
+
+    /**
+     * @param aRelations
+     *            whether to add a dependency relation for all but the first token of a sentence.
+     * @return the generator.
+     */
+    public CurationCasGenerator setRelations(boolean aRelations)
+    {
+        relations = aRelations;
+        return this;
+    }
+
+    /**
+     * @param aChains
+     *            whether to add a coreference chain through the first token of each sentence.
+     * @return the generator.
+     */
+    public CurationCasGenerator setChains(boolean aChains)
+    {
+        chains = aChains;
+        return this;
+    }
+
+    /**
+     * @param aDisagreement
+     *            the probability of an annotator to deviate from the common label.
+     * @return the generator.
+     */
+    public CurationCasGenerator setDisagreement(double aDisagreement)
+    {
+        disagreement = aDisagreement;
+        return this;
+    }
+
+    public CurationCasGenerator setSeed(long aSeed)
+    {
+        seed = aSeed;
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "annotators=" + annotators + ", sentences=" + sentences + ", density=" + density
+                + ", layers=" + layers + ", relations=" + relations + ", chains=" + chains;
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.allocatedBytes;
+import static de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.scale;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.SentenceState;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.SuggestionBuilder;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.Report;
+
+/**
+ * Measures how the curation diff scales with the number of annotators, sentences, annotations and
+ * layers. For each configuration, the sentences of the document are diffed the same way the
+ * curation page does: one {@link CasDiff#doDiff} per sentence, serially and on a
+ * {@link CasDiffPool}, followed by the classification of each sentence.
+ * <p>
+ * The throughput and the bytes allocated per sentence are logged and written to
+ * {@code target/curation-diff-benchmark.tsv}. The number of sentences is scaled by
+ * {@link BenchmarkSupport#scale(int)} for longer runs.
+ * <p>
+ * The benchmark is not part of the unit tests. Run it with {@code mvn test -Pbenchmark}.
+ */
+public class CurationDiffBenchmark
+{
+    private static final Log LOG = LogFactory.getLog(CurationDiffBenchmark.class);
+
+    private static final File REPORT = new File("target/curation-diff-benchmark.tsv");
+
+    private static final int ROUNDS = 3;
+
+    private static CasDiffPool pool;
+    private static Report report;
+
+    @BeforeClass
+    public static void setUp()
+    {
+        pool = new CasDiffPool();
+        pool.setParallelism(4);
+        pool.init();
+        report = new Report(REPORT, "configuration", "serial sentences/s",
+                "parallel sentences/s", "bytes/sentence", "disagreeing sentences");
+    }
+
+    @AfterClass
+    public static void tearDown()
+        throws Exception
+    {
+        pool.destroy();
+        report.write();
+    }
+
+    @Test
+    public void testAnnotators()
+        throws Exception
+    {
+        for (int annotators : new int[] { 2, 5, 10 }) {
+            benchmark(new CurationCasGenerator().setAnnotators(annotators).setSentences(
+                    scale(200)));
+        }
+    }
+
+    @Test
+    public void testSentences()
+        throws Exception
+    {
+        for (int sentences : new int[] { 100, 400, 1600 }) {
+            benchmark(new CurationCasGenerator().setSentences(scale(sentences)));
+        }
+    }
+
+    @Test
+    public void testDensityAndLayers()
+        throws Exception
+    {
+        for (int layers : new int[] { 1, 4 }) {
+            for (double density : new double[] { 0.2, 0.9 }) {
+                benchmark(new CurationCasGenerator().setAnnotators(3)
+                        .setSentences(scale(200)).setLayers(layers).setDensity(density));
+            }
+        }
+    }
+
+    @Test
+    public void testRelationsAndChains()
+        throws Exception
+    {
+        benchmark(new CurationCasGenerator().setAnnotators(3).setSentences(scale(200))
+                .setRelations(true));
+        benchmark(new CurationCasGenerator().setAnnotators(3).setSentences(scale(200))
+                .setChains(true));
+    }
+
+    private void benchmark(CurationCasGenerator aGenerator)
+        throws Exception
+    {
+        Map<String, JCas> jCases = aGenerator.generate();
+        JCas jCas = jCases.values().iterator().next();
+        List<Type> entryTypes = aGenerator.getEntryTypes(jCas);
+        Map<Integer, Integer> sentenceBeginEnd = CurationCasGenerator.getSentenceBeginEnd(jCas);
+        int sentences = sentenceBeginEnd.size();
+
+        // The first round warms up the JIT, only the last one is reported
+        long serialTime = 0;
+        long parallelTime = 0;
+        long allocated = 0;
+        int disagreeing = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            SortedMap<Integer, List<AnnotationOption>> serial = CasDiffPool.doDiff(null,
+                    entryTypes, jCases, sentenceBeginEnd);
+            disagreeing = 0;
+            for (List<AnnotationOption> options : serial.values()) {
+                SentenceState state = SuggestionBuilder.getSentenceState(options, jCases.size());
+                if (state == SentenceState.DISAGREE) {
+                    disagreeing++;
+                }
+            }
+            serialTime = System.nanoTime() - start;
+            allocated = allocatedBefore >= 0 ? allocatedBytes() - allocatedBefore : -1;
+
+            start = System.nanoTime();
+            SortedMap<Integer, List<AnnotationOption>> parallel = CasDiffPool.doDiff(pool,
+                    entryTypes, jCases, sentenceBeginEnd);
+            parallelTime = System.nanoTime() - start;
+
+            assertEquals(CasDiffEquivalenceTest.normalize(serial),
+                    CasDiffEquivalenceTest.normalize(parallel));
+        }
+
+        double serialThroughput = sentences * 1e9 / Math.max(serialTime, 1);
+        double parallelThroughput = sentences * 1e9 / Math.max(parallelTime, 1);
+        long bytesPerSentence = allocated >= 0 ? allocated / sentences : -1;
+
+        LOG.info(String.format("%s - serial: %.0f sentences/s, parallel: %.0f sentences/s, "
+                + "%d bytes/sentence, %d of %d sentences disagree", aGenerator, serialThroughput,
+                parallelThroughput, bytesPerSentence, disagreeing, sentences));
+        report.add(aGenerator, Math.round(serialThroughput), Math.round(parallelThroughput),
+                bytesPerSentence, disagreeing);
+    }
+}
@@ -20,7 +20,6 @@ package de.tudarmstadt.ukp.clarin.webanno.monitoring.page;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.ANNOTATION_FINISHED_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_ANNOTATION_FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.IGNORE_TO_NEW;
-import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_IGNORE;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_FINISHED_TO_CURATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_IN_PROGRESS_TO_CURATION_FINISHED;
@@ -31,13 +30,13 @@ import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
-import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.uima.UIMAException;
@@ -45,6 +44,8 @@ import org.apache.uima.jcas.JCas;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.ajax.AjaxEventBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
+import org.apache.wicket.ajax.markup.html.AjaxLink;
 import org.apache.wicket.ajax.form.OnChangeAjaxBehavior;
 import org.apache.wicket.extensions.markup.html.repeater.data.grid.DataGridView;
 import org.apache.wicket.extensions.markup.html.repeater.data.grid.ICellPopulator;
@@ -56,15 +57,15 @@ import org.apache.wicket.markup.html.form.ChoiceRenderer;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.ListChoice;
 import org.apache.wicket.markup.html.image.Image;
-import org.apache.wicket.markup.html.image.NonCachingImage;
+import org.apache.wicket.markup.html.panel.FeedbackPanel;
 import org.apache.wicket.markup.repeater.Item;
-import org.apache.wicket.model.AbstractReadOnlyModel;
 import org.apache.wicket.model.CompoundPropertyModel;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.request.resource.ContextRelativeResource;
 import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.apache.wicket.util.time.Duration;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
@@ -77,7 +78,6 @@ import org.jfree.chart.renderer.category.StandardBarPainter;
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.ui.RectangleInsets;
 import org.jfree.util.UnitType;
-import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
@@ -87,8 +87,9 @@ import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.SecurityUtil;
 import de.tudarmstadt.ukp.clarin.webanno.automation.AutomationService;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeAdapter;
-import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil;
-import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.CurationPanel;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AutoMergeJob;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AutoMergeService;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationSession;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
@@ -104,9 +105,20 @@ import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition;
 import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementTable;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementTuples;
 import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.ChartImageResource;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.ChartRenderService;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.ChartRenderService.ChartBuilder;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.DocumentStatusProvider;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.DocumentStatusProvider.Row;
 import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.DynamicColumnMetaData;
 import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.EmbeddableImage;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.LongIntHashMap;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.MonitoringSnapshot;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.MonitoringSnapshot.Agreement;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.MonitoringSnapshotService;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.PairwiseAgreement;
 import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.TableDataProvider;
 import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.TwoPairedKappa;
 import de.tudarmstadt.ukp.clarin.webanno.support.EntityModel;
@@ -155,6 +167,12 @@ public class MonitoringPage
 
     @SpringBean(name = "userRepository")
     private UserDao userRepository;
+
+    @SpringBean(name = "autoMergeService")
+    private AutoMergeService autoMergeService;
+
+    @SpringBean(name = "monitoringSnapshotService")
+    private MonitoringSnapshotService snapshotService;
     
     private final ProjectSelectionForm projectSelectionForm;
     private final MonitoringDetailForm monitoringDetailForm;
@@ -170,7 +188,6 @@ public class MonitoringPage
     private AgreementForm agreementForm;
     private final AnnotationTypeSelectionForm annotationTypeSelectionForm;
     private ListChoice<AnnotationFeature> features;
-    private transient Map<SourceDocument, Map<User, JCas>> documentJCases;
 
     private String result;
 
@@ -195,18 +212,24 @@ public class MonitoringPage
         annotationTypeSelectionForm.setVisible(false);
         add(annotationTypeSelectionForm);
 
-        annotatorsProgressImage = new NonCachingImage("annotator");
+        // The chart images are served with an ETag, the browser only needs to reload them after
+        // they have changed (see ChartImageResource). On Ajax updates, Image adds an anti-cache
+        // parameter by itself.
+        annotatorsProgressImage = new Image("annotator", new Model<String>());
         annotatorsProgressImage.setOutputMarkupPlaceholderTag(true);
         annotatorsProgressImage.setVisible(false);
 
-        annotatorsProgressPercentageImage = new NonCachingImage("annotatorPercentage");
+        annotatorsProgressPercentageImage = new Image("annotatorPercentage", new Model<String>());
         annotatorsProgressPercentageImage.setOutputMarkupPlaceholderTag(true);
         annotatorsProgressPercentageImage.setVisible(false);
 
-        overallProjectProgressImage = new NonCachingImage("overallProjectProgressImage");
+        overallProjectProgressImage = new Image("overallProjectProgressImage",
+                new Model<String>());
         final Map<String, Integer> overallProjectProgress = getOverallProjectProgress();
-        overallProjectProgressImage.setImageResource(createProgressChart(overallProjectProgress,
-                100, true));
+        // The chart only covers the projects the user curates or administrates
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        overallProjectProgressImage.setImageResource(createProgressChart("overall-" + username,
+                overallProjectProgress, 100, true));
         overallProjectProgressImage.setOutputMarkupPlaceholderTag(true);
         overallProjectProgressImage.setVisible(true);
         add(overallProjectProgressImage);
@@ -215,38 +238,10 @@ public class MonitoringPage
         add(projectSelectionForm);
         projectName = new Label("projectName", "");
 
-        Project project = repository.listProjects().get(0);
-
-        List<List<String>> userAnnotationDocumentLists = new ArrayList<List<String>>();
-        List<SourceDocument> dc = repository.listSourceDocuments(project);
-        List<SourceDocument> trainingDoc = new ArrayList<SourceDocument>();
-        for (SourceDocument sdc : dc) {
-            if (sdc.isTrainingDocument()) {
-                trainingDoc.add(sdc);
-            }
-        }
-        dc.removeAll(trainingDoc);
-        for (int j = 0; j < repository.listProjectUsersWithPermissions(project).size(); j++) {
-            List<String> userAnnotationDocument = new ArrayList<String>();
-            userAnnotationDocument.add("");
-            for (int i = 0; i < dc.size(); i++) {
-                userAnnotationDocument.add("");
-            }
-            userAnnotationDocumentLists.add(userAnnotationDocument);
-        }
-        List<String> documentListAsColumnHeader = new ArrayList<String>();
-        documentListAsColumnHeader.add("Users");
-        for (SourceDocument d : dc) {
-            documentListAsColumnHeader.add(d.getName());
-        }
-        TableDataProvider prov = new TableDataProvider(documentListAsColumnHeader,
-                userAnnotationDocumentLists);
-
+        DocumentStatusProvider prov = new DocumentStatusProvider(new Project(),
+                new ArrayList<String>());
         List<IColumn<?,?>> cols = new ArrayList<IColumn<?,?>>();
-
-        for (int i = 0; i < prov.getColumnCount(); i++) {
-            cols.add(new DocumentStatusColumnMetaData(prov, i, new Project(), repository));
-        }
+        cols.add(new DocumentStatusColumnMetaData("Users", 0, new Project()));
         annotationDocumentStatusTable = new DefaultDataTable("rsTable", cols, prov, 2);
         monitoringDetailForm.setVisible(false);
         add(monitoringDetailForm.add(annotatorsProgressImage)
@@ -324,8 +319,6 @@ public class MonitoringPage
                     }
                     sourceDocuments.removeAll(trainingDoc);
 
-                    documentJCases = null;
-
                     if (aNewSelection == null) {
                         return;
                     }
@@ -350,21 +343,25 @@ public class MonitoringPage
 
                     // Annotator's Progress
                     if (projectSelectionModel.project != null) {
-                        projectSelectionModel.annotatorsProgressInPercent
-                                .putAll(getPercentageOfFinishedDocumentsPerUser(projectSelectionModel.project));
-                        projectSelectionModel.annotatorsProgress.putAll(getFinishedDocumentsPerUser(projectSelectionModel.project));
-
+                        MonitoringSnapshot snapshot = snapshotService
+                                .getSnapshot(projectSelectionModel.project);
+                        projectSelectionModel.annotatorsProgressInPercent.putAll(snapshot
+                                .getPercentageOfFinishedDocumentsPerUser());
+                        projectSelectionModel.annotatorsProgress.putAll(snapshot
+                                .getFinishedDocumentsPerUser());
                     }
                     projectName.setDefaultModelObject(projectSelectionModel.project.getName());
                     overallProjectProgressImage.setVisible(false);
                     overview.setVisible(false);
 
                     annotatorsProgressImage.setImageResource(createProgressChart(
+                            getChartKey(projectSelectionModel.project, "progress"),
                             projectSelectionModel.annotatorsProgress,
                             projectSelectionModel.totalDocuments, false));
                     annotatorsProgressImage.setVisible(true);
 
                     annotatorsProgressPercentageImage.setImageResource(createProgressChart(
+                            getChartKey(projectSelectionModel.project, "percentage"),
                             projectSelectionModel.annotatorsProgressInPercent, 100, true));
                     annotatorsProgressPercentageImage.setVisible(true);
 
@@ -378,63 +375,20 @@ public class MonitoringPage
                     List<User> usersWithPermissions = repository.listProjectUsersWithPermissions(
                             projectSelectionModel.project, PermissionLevel.USER);
 
+                    List<String> usernames = new ArrayList<String>();
                     for (User user : usersWithPermissions) {
                         documentListAsColumnHeader.add(user.getUsername());
+                        usernames.add(user.getUsername());
                     }
 
-                    List<List<String>> userAnnotationDocumentStatusList = new ArrayList<List<String>>();
-
-                    // Add a timestamp row for every user.
-                    List<String> projectTimeStamp = new ArrayList<String>();
-                    projectTimeStamp.add(LAST_ACCESS + LAST_ACCESS_ROW); // first
-                                                                         // column
-                    if (repository.existsProjectTimeStamp(aNewSelection)) {
-                        projectTimeStamp.add(LAST_ACCESS
-                                + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(repository
-                                        .getProjectTimeStamp(aNewSelection)));
-                    }
-                    else {
-                        projectTimeStamp.add(LAST_ACCESS + "__");
-                    }
-
-                    for (User user : usersWithPermissions) {
-                        if (repository.existsProjectTimeStamp(projectSelectionModel.project, user.getUsername())) {
-                            projectTimeStamp.add(LAST_ACCESS
-                                    + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(repository
-                                            .getProjectTimeStamp(projectSelectionModel.project, user.getUsername())));
-                        }
-                        else {
-                            projectTimeStamp.add(LAST_ACCESS + "__");
-                        }
-                    }
-
-                    userAnnotationDocumentStatusList.add(projectTimeStamp);
-
-                    for (SourceDocument document : sourceDocuments) {
-                        List<String> userAnnotationDocuments = new ArrayList<String>();
-                        userAnnotationDocuments.add(DOCUMENT + document.getName());
-
-                        // Curation Document status
-                        userAnnotationDocuments.add(CurationPanel.CURATION_USER + "-" + DOCUMENT
-                                + document.getName());
-
-                        for (User user : usersWithPermissions) {
-                            // annotation document status for this annotator
-                            userAnnotationDocuments.add(user.getUsername() + "-" + DOCUMENT
-                                    + document.getName());
-                        }
-
-                        userAnnotationDocumentStatusList.add(userAnnotationDocuments);
-                    }
-
-                    TableDataProvider provider = new TableDataProvider(documentListAsColumnHeader,
-                            userAnnotationDocumentStatusList);
+                    DocumentStatusProvider provider = new DocumentStatusProvider(
+                            projectSelectionModel.project, usernames);
 
                     List<IColumn<?,?>> columns = new ArrayList<IColumn<?,?>>();
 
-                    for (int i = 0; i < provider.getColumnCount(); i++) {
-                        columns.add(new DocumentStatusColumnMetaData(provider, i, projectSelectionModel.project,
-                                repository));
+                    for (int i = 0; i < documentListAsColumnHeader.size(); i++) {
+                        columns.add(new DocumentStatusColumnMetaData(documentListAsColumnHeader
+                                .get(i), i, projectSelectionModel.project));
                     }
                     annotationDocumentStatusTable.remove();
                     annotationDocumentStatusTable = new DefaultDataTable("rsTable", columns,
@@ -536,66 +490,6 @@ public class MonitoringPage
         }
     };
 
-    private Map<String, Integer> getFinishedDocumentsPerUser(Project aProject)
-    {
-        Map<String, Integer> annotatorsProgress = new HashMap<String, Integer>();
-        if (aProject != null) {
-            for (User user : repository.listProjectUsersWithPermissions(aProject)) {
-                for (SourceDocument document : repository.listSourceDocuments(aProject)) {
-                    if (repository.isAnnotationFinished(document, user)) {
-                        if (annotatorsProgress.get(user.getUsername()) == null) {
-                            annotatorsProgress.put(user.getUsername(), 1);
-                        }
-                        else {
-                            int previousValue = annotatorsProgress.get(user.getUsername());
-                            annotatorsProgress.put(user.getUsername(), previousValue + 1);
-                        }
-                    }
-                }
-                if (annotatorsProgress.get(user.getUsername()) == null) {
-                    annotatorsProgress.put(user.getUsername(), 0);
-                }
-            }
-        }
-        return annotatorsProgress;
-    }
-
-    private Map<String, Integer> getPercentageOfFinishedDocumentsPerUser(Project aProject)
-    {
-        Map<String, Integer> annotatorsProgress = new HashMap<String, Integer>();
-        if (aProject != null) {
-            for (User user : repository.listProjectUsersWithPermissions(aProject)) {
-                int finished = 0;
-                int ignored = 0;
-                int totalDocs = 0;
-                List<SourceDocument> documents = repository.listSourceDocuments(aProject);
-                List<SourceDocument> trainingDoc = new ArrayList<SourceDocument>();
-                for (SourceDocument sdc : documents) {
-                    if (sdc.isTrainingDocument()) {
-                        trainingDoc.add(sdc);
-                    }
-                }
-                documents.removeAll(trainingDoc);
-                for (SourceDocument document : documents) {
-                    totalDocs++;
-                    if (repository.isAnnotationFinished(document, user)) {
-                        finished++;
-                    }
-                    else if (repository.existsAnnotationDocument(document, user)) {
-                        AnnotationDocument annotationDocument = repository.getAnnotationDocument(
-                                document, user);
-                        if (annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)) {
-                            ignored++;
-                        }
-                    }
-                }
-                annotatorsProgress.put(user.getUsername(),
-                        (int) Math.round((double) (finished * 100) / (totalDocs - ignored)));
-            }
-        }
-        return annotatorsProgress;
-    }
-
     private Map<String, Integer> getOverallProjectProgress()
     {
         Map<String, Integer> overallProjectProgress = new LinkedHashMap<String, Integer>();
@@ -643,6 +537,124 @@ public class MonitoringPage
         {
             super(id, new CompoundPropertyModel<Project>(new EntityModel<Project>(new Project())));
 
+            final Label autoMergeStatus = new Label("autoMergeStatus",
+                    new LoadableDetachableModel<String>()
+                    {
+                        private static final long serialVersionUID = -2935424187476302442L;
+
+                        @Override
+                        protected String load()
+                        {
+                            AutoMergeJob job = autoMergeService.getJob(getModelObject());
+                            return job == null ? "" : job.toString();
+                        }
+                    });
+            final AjaxLink<Void> cancelAutoMerge = new AjaxLink<Void>("cancelAutoMerge")
+            {
+                private static final long serialVersionUID = 3473226598812451963L;
+
+                @Override
+                public void onClick(AjaxRequestTarget aTarget)
+                {
+                    AutoMergeJob job = autoMergeService.getJob(MonitoringDetailForm.this
+                            .getModelObject());
+                    if (job != null) {
+                        job.cancel();
+                    }
+                    aTarget.add(autoMergeStatus, this);
+                }
+
+                @Override
+                public boolean isVisible()
+                {
+                    AutoMergeJob job = autoMergeService.getJob(MonitoringDetailForm.this
+                            .getModelObject());
+                    return job != null && !job.isFinished();
+                }
+            };
+            // Visibility follows the job, so the link must be re-rendered even while hidden
+            cancelAutoMerge.setOutputMarkupPlaceholderTag(true);
+
+            // The job runs in the background, so its progress is polled
+            autoMergeStatus.add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(2))
+            {
+                private static final long serialVersionUID = 5915283372931839315L;
+
+                @Override
+                protected void onPostProcessTarget(AjaxRequestTarget aTarget)
+                {
+                    aTarget.add(cancelAutoMerge);
+                }
+            });
+            autoMergeStatus.setOutputMarkupId(true);
+            add(autoMergeStatus);
+
+            add(new AjaxLink<Void>("autoMerge")
+            {
+                private static final long serialVersionUID = -6227813396209937546L;
+
+                @Override
+                public void onClick(AjaxRequestTarget aTarget)
+                {
+                    Project project = MonitoringDetailForm.this.getModelObject();
+                    User user = userRepository.get(SecurityContextHolder.getContext()
+                            .getAuthentication().getName());
+
+                    List<SourceDocument> documents = new ArrayList<SourceDocument>();
+                    for (SourceDocument document : repository.listSourceDocuments(project)) {
+                        if (!document.isTrainingDocument()
+                                && repository.existsFinishedAnnotation(document)) {
+                            documents.add(document);
+                        }
+                    }
+
+                    autoMergeService.start(project, documents, user);
+                    aTarget.add(autoMergeStatus, cancelAutoMerge);
+                }
+
+                @Override
+                public boolean isVisible()
+                {
+                    Project project = MonitoringDetailForm.this.getModelObject();
+                    return project.getId() != 0 && Mode.ANNOTATION.equals(project.getMode());
+                }
+            });
+
+            add(new Label("snapshotTime", new LoadableDetachableModel<String>()
+            {
+                private static final long serialVersionUID = 2754360183398718545L;
+
+                @Override
+                protected String load()
+                {
+                    Project project = MonitoringDetailForm.this.getModelObject();
+                    if (project.getId() == 0) {
+                        return "";
+                    }
+                    return new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(new Date(
+                            snapshotService.getSnapshot(project).getComputedAt()));
+                }
+            }));
+
+            add(new AjaxLink<Void>("refreshSnapshot")
+            {
+                private static final long serialVersionUID = -4012765214866437210L;
+
+                @Override
+                public void onClick(AjaxRequestTarget aTarget)
+                {
+                    updateStats(aTarget, snapshotService.refresh(MonitoringDetailForm.this
+                            .getModelObject()));
+                }
+
+                @Override
+                public boolean isVisible()
+                {
+                    return MonitoringDetailForm.this.getModelObject().getId() != 0;
+                }
+            });
+
+            add(cancelAutoMerge);
         }
     }
 
@@ -673,6 +685,7 @@ public class MonitoringPage
                 columns.add(new DynamicColumnMetaData(provider, m));
             }
             add(agreementTable = new DefaultDataTable("agreementTable", columns, provider, 10));
+            add(new Label("multiRaterAgreement", ""));
         }
     }
 
@@ -694,73 +707,33 @@ public class MonitoringPage
          
     }
 
+    /**
+     * Show the agreement of the selected feature. It is taken from the latest monitoring snapshot
+     * of the project (see {@link MonitoringSnapshotService}) instead of being computed while the
+     * user waits.
+     */
     @SuppressWarnings({ "unchecked", "rawtypes" })
     private void updateAgreementTable(AjaxRequestTarget aTarget)
     {
-
         Project project = projectSelectionForm.getModelObject().project;
-        List<User> users = repository
-                .listProjectUsersWithPermissions(project, PermissionLevel.USER);
-        double[][] results = new double[users.size()][users.size()];
         if (features.getModelObject() != null) {
-
-            TypeAdapter adapter = TypeUtil.getAdapter(annotationService, features.getModelObject().getLayer());
-
-            // assume all users finished only one document
-            double[][] multipleDocumentsFinished = new double[users.size()][users.size()];
-            for (int m = 0; m < users.size(); m++) {
-                for (int j = 0; j < users.size(); j++) {
-                    multipleDocumentsFinished[m][j] = 1.0;
-                }
-            }
-
-            List<SourceDocument> sourceDocuments = repository.listSourceDocuments(project);
-            List<SourceDocument> trainingDoc = new ArrayList<SourceDocument>();
-            for (SourceDocument sdc : sourceDocuments) {
-                if (sdc.isTrainingDocument()) {
-                    trainingDoc.add(sdc);
-                }
-            }
-            sourceDocuments.removeAll(trainingDoc);
-
-            // a map that contains list of finished annotation documents for a
-            // given user
-            Map<User, List<SourceDocument>> finishedDocumentLists = new HashMap<User, List<SourceDocument>>();
-            for (User user : users) {
-                List<SourceDocument> finishedDocuments = new ArrayList<SourceDocument>();
-
-                for (SourceDocument document : sourceDocuments) {
-                    AnnotationDocument annotationDocument = repository.getAnnotationDocument(
-                            document, user);
-                    if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
-                        finishedDocuments.add(document);
-                    }
-                }
-                finishedDocumentLists.put(user, finishedDocuments);
-            }
-
-            if (documentJCases == null) {
-                documentJCases = getJCases(users, sourceDocuments);
-            }
-            
-            results = computeKappa(users, adapter, features.getModelObject().getName(),
-                    finishedDocumentLists, documentJCases);
-
-            // Users with some annotations of this type
+            Agreement agreement = snapshotService.getAgreement(project,
+                    features.getModelObject());
+            String[] usernames = agreement.getUsernames();
+            double[][] results = agreement.getPairwise();
 
             List<String> usersListAsColumnHeader = new ArrayList<String>();
             usersListAsColumnHeader.add("users");
 
-            for (User user : users) {
-                usersListAsColumnHeader.add(user.getUsername());
+            for (String username : usernames) {
+                usersListAsColumnHeader.add(username);
             }
             List<List<String>> agreementResults = new ArrayList<List<String>>();
-            int i = 0;
-            for (User user1 : users) {
+            for (int i = 0; i < usernames.length; i++) {
                 List<String> agreementResult = new ArrayList<String>();
-                agreementResult.add(user1.getUsername());
+                agreementResult.add(usernames[i]);
 
-                for (int j = 0; j < users.size(); j++) {
+                for (int j = 0; j < usernames.length; j++) {
                     if (j < i) {
                         agreementResult.add("");
                     }
@@ -768,7 +741,6 @@ public class MonitoringPage
                         agreementResult.add((double) Math.round(results[i][j] * 100) / 100 + "");
                     }
                 }
-                i++;
                 agreementResults.add(agreementResult);
             }
 
@@ -783,10 +755,49 @@ public class MonitoringPage
             agreementTable.remove();
             agreementTable = new DefaultDataTable("agreementTable", columns, provider, 10);
             agreementForm.add(agreementTable);
+            agreementForm.addOrReplace(new Label("multiRaterAgreement", "Fleiss' kappa: "
+                    + formatAgreement(agreement.getFleissKappa()) + ", Krippendorff's alpha: "
+                    + formatAgreement(agreement.getKrippendorffAlpha())
+                    + (agreement.isComplete() ? "" : " (incomplete: "
+                            + agreement.getFailures().length
+                            + " annotation documents could not be loaded)")));
             aTarget.add(agreementForm);
+
+            for (String failure : agreement.getFailures()) {
+                error(failure);
+            }
+            if (!agreement.isComplete()) {
+                aTarget.addChildren(getPage(), FeedbackPanel.class);
+            }
         }
     }
 
+    /**
+     * Update the progress charts and the agreement from a snapshot of the selected project.
+     */
+    private void updateStats(AjaxRequestTarget aTarget, MonitoringSnapshot aSnapshot)
+    {
+        ProjectSelectionModel model = projectSelectionForm.getModelObject();
+        model.annotatorsProgress.clear();
+        model.annotatorsProgress.putAll(aSnapshot.getFinishedDocumentsPerUser());
+        annotatorsProgressImage.setImageResource(createProgressChart(
+                getChartKey(model.project, "progress"), model.annotatorsProgress,
+                model.totalDocuments, false));
+        aTarget.add(annotatorsProgressImage.setOutputMarkupId(true));
+
+        model.annotatorsProgressInPercent.clear();
+        model.annotatorsProgressInPercent.putAll(aSnapshot
+                .getPercentageOfFinishedDocumentsPerUser());
+        annotatorsProgressPercentageImage.setImageResource(createProgressChart(
+                getChartKey(model.project, "percentage"), model.annotatorsProgressInPercent, 100,
+                true));
+        aTarget.add(annotatorsProgressPercentageImage.setOutputMarkupId(true));
+
+        aTarget.add(monitoringDetailForm.setOutputMarkupId(true));
+        updateAgreementTable(aTarget);
+        aTarget.add(agreementForm.setOutputMarkupId(true));
+    }
+
     private class TrainingResultForm
         extends Form<ResultMOdel>
     {
@@ -990,6 +1001,11 @@ public class MonitoringPage
 
     }
 
+    private static String formatAgreement(double aValue)
+    {
+        return Double.isNaN(aValue) ? "-" : String.valueOf(aValue);
+    }
+
     /**
      * Compute kappa using the {@link TwoRaterKappaAgreement}. The matrix of kappa result is
      * computed for a user against every other users if and only if both users have finished the
@@ -1007,214 +1023,162 @@ public class MonitoringPage
             String aLabelFeatureName, Map<User, List<SourceDocument>> finishedDocumentLists,
             Map<SourceDocument, Map<User, JCas>> documentJCases)
     {
-        double[][] results = new double[users.size()][users.size()];
         TwoPairedKappa twoPairedKappa = new TwoPairedKappa();
-        int userInRow = 0;
-        List<User> rowUsers = new ArrayList<User>();
-        for (User user1 : users) {
-            if (finishedDocumentLists.get(user1).size() == 0) {
-                userInRow++;
-                continue;
-            }
-            int userInColumn = 0;
-            for (User user2 : users) {
-                if (user1.getUsername().equals(user2.getUsername())) {// no need
-                                                                      // to
-                                                                      // compute
-                    // with itself, diagonal one
-                    results[userInRow][userInColumn] = 1.0;
-                    userInColumn++;
-                    continue;
-                }
-                else if (rowUsers.contains(user2)) {// already done, upper
-                                                    // part of
-                                                    // matrix
-                    userInColumn++;
-                    continue;
+        PairwiseAgreement agreement = new PairwiseAgreement(getUsernames(users));
+        for (SourceDocument document : documentJCases.keySet()) {
+            Map<String, LongIntHashMap> annotations = new HashMap<String, LongIntHashMap>();
+            for (User user : users) {
+                JCas jCas = documentJCases.get(document).get(user);
+                if (jCas != null && finishedDocumentLists.get(user).contains(document)) {
+                    annotations.put(user.getUsername(), twoPairedKappa.getItems(jCas,
+                            adapter.getAnnotationTypeName(), aLabelFeatureName,
+                            agreement.getLabels()));
                 }
+            }
+            agreement.addDocument(annotations);
+        }
+        return agreement.getAgreement();
+    }
 
-                Map<String, Map<String, String>> allUserAnnotations = new TreeMap<String, Map<String, String>>();
-
-                if (finishedDocumentLists.get(user2).size() != 0) {
-                    List<SourceDocument> user1Documents = new ArrayList<SourceDocument>();
-                    user1Documents.addAll(finishedDocumentLists.get(user1));
-
-                    List<SourceDocument> user2Documents = new ArrayList<SourceDocument>();
-                    user2Documents.addAll(finishedDocumentLists.get(user2));
-
-                    // sameDocuments finished (intersection of anno docs)
-                    user1Documents.retainAll(user2Documents);
-                    for (SourceDocument document : user1Documents) {
-                        twoPairedKappa.getStudy(adapter.getAnnotationTypeName(), aLabelFeatureName,
-                                user1, user2, allUserAnnotations, document,
-                                documentJCases.get(document));
+    private static List<String> getUsernames(List<User> users)
+    {
+        List<String> usernames = new ArrayList<String>();
+        for (User user : users) {
+            usernames.add(user.getUsername());
+        }
+        return usernames;
+    }
 
-                    }
-                }
+    private static String getChartKey(Project aProject, String aKind)
+    {
+        return "project-" + aProject.getId() + "-" + aKind;
+    }
 
-                if (twoPairedKappa.getAgreement(allUserAnnotations).length != 0) {
-                    double[][] thisResults = twoPairedKappa.getAgreement(allUserAnnotations);
-                    // for a user with itself, we have
-                    // u1
-                    // u1 1.0
-                    // we took it as it is
-                    if (allUserAnnotations.keySet().size() == 1) {
-                        results[userInRow][userInColumn] = (double) Math
-                                .round(thisResults[0][0] * 100) / 100;
-                    }
-                    else {
-                        // in result for the two users will be in the form of
-                        // u1 u2
-                        // --------------
-                        // u1 1.0 0.84
-                        // u2 0.84 1.0
-                        // only value from first row, second column is important
-                        results[userInRow][userInColumn] = (double) Math
-                                .round(thisResults[0][1] * 100) / 100;
-                    }
-                    rowUsers.add(user1);
-                }
-                userInColumn++;
-            }
-            userInRow++;
-        }
-        return results;
+    private ChartImageResource createProgressChart(String aKey, Map<String, Integer> chartValues,
+            int aMaxValue, boolean aIsPercentage)
+    {
+        return new ChartImageResource(aKey, new ProgressChartBuilder(chartValues, aMaxValue,
+                aIsPercentage), CHART_WIDTH, 30 + (chartValues.size() * 18));
     }
 
     /**
-     * Get the finished CASes used to compute agreement.
+     * Builds a progress chart. The chart is only built if it has not been rendered yet for the
+     * current values, see {@link ChartRenderService}.
      */
-    private Map<SourceDocument, Map<User, JCas>> getJCases(List<User> users,
-            List<SourceDocument> sourceDocuments)
+    private static class ProgressChartBuilder
+        implements ChartBuilder
     {
-        Map<SourceDocument, Map<User, JCas>> documentJCases = new HashMap<SourceDocument, Map<User, JCas>>();
-        for (SourceDocument document : sourceDocuments) {
-            Map<User, JCas> jCases = new HashMap<User, JCas>();
-            for (User user : users) {
-                if (repository.existsAnnotationDocument(document, user)) {
-                    AnnotationDocument annotationDocument = repository.getAnnotationDocument(
-                            document, user);
-                    if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
-                        try {
-                            JCas jCas = repository.readAnnotationCas(annotationDocument);
-                            repository.upgradeCas(jCas.getCas(), annotationDocument);
-                            // REC: I think there is no need to write the CASes here. We would not
-                            // want to interfere with currently active annotator users
-                            jCases.put(user, jCas);
-                        }
-                        catch (DataRetrievalFailureException e) {
-                            error(e.getCause().getMessage());
-                        }
-                        catch (UIMAException e) {
-                            error(ExceptionUtils.getRootCause(e));
-                        }
-                        catch (IOException e) {
-                            error(ExceptionUtils.getRootCause(e));
-                        }
-                    }
-                }
-            }
-            documentJCases.put(document, jCases);
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, Integer> values;
+        private final int maxValue;
+        private final boolean percentage;
+
+        ProgressChartBuilder(Map<String, Integer> aValues, int aMaxValue, boolean aIsPercentage)
+        {
+            values = new LinkedHashMap<String, Integer>(aValues);
+            maxValue = aMaxValue;
+            percentage = aIsPercentage;
         }
-        return documentJCases;
-    }
 
-    private ChartImageResource createProgressChart(Map<String, Integer> chartValues, int aMaxValue,
-            boolean aIsPercentage)
-    {
-        // fill dataset
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-        for (String chartValue : chartValues.keySet()) {
-            dataset.setValue(chartValues.get(chartValue), "Completion", chartValue);
+        @Override
+        public String getVersion()
+        {
+            return values + "/" + maxValue + "/" + percentage;
         }
-        // create chart
-        JFreeChart chart = ChartFactory.createBarChart(null, null, null, dataset,
-                PlotOrientation.HORIZONTAL, false, false, false);
-
-        CategoryPlot plot = chart.getCategoryPlot();
-        plot.setInsets(new RectangleInsets(UnitType.ABSOLUTE, 0, 20, 0, 20));
-        plot.getRangeAxis().setRange(0.0, aMaxValue);
-        ((NumberAxis) plot.getRangeAxis()).setNumberFormatOverride(new DecimalFormat("0"));
-        // For documents lessan 10, avoid repeating the number of documents such
-        // as 0 0 1 1 1
-        // NumberTickUnit automatically determin the range
-        if (!aIsPercentage && aMaxValue <= 10) {
-            TickUnits standardUnits = new TickUnits();
-            NumberAxis tick = new NumberAxis();
-            tick.setTickUnit(new NumberTickUnit(1));
-            standardUnits.add(tick.getTickUnit());
-            plot.getRangeAxis().setStandardTickUnits(standardUnits);
+
+        @Override
+        public JFreeChart build()
+        {
+            // fill dataset
+            DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+            for (String chartValue : values.keySet()) {
+                dataset.setValue(values.get(chartValue), "Completion", chartValue);
+            }
+            // create chart
+            JFreeChart chart = ChartFactory.createBarChart(null, null, null, dataset,
+                    PlotOrientation.HORIZONTAL, false, false, false);
+
+            CategoryPlot plot = chart.getCategoryPlot();
+            plot.setInsets(new RectangleInsets(UnitType.ABSOLUTE, 0, 20, 0, 20));
+            plot.getRangeAxis().setRange(0.0, maxValue);
+            ((NumberAxis) plot.getRangeAxis()).setNumberFormatOverride(new DecimalFormat("0"));
+            // For documents lessan 10, avoid repeating the number of documents such
+            // as 0 0 1 1 1
+            // NumberTickUnit automatically determin the range
+            if (!percentage && maxValue <= 10) {
+                TickUnits standardUnits = new TickUnits();
+                NumberAxis tick = new NumberAxis();
+                tick.setTickUnit(new NumberTickUnit(1));
+                standardUnits.add(tick.getTickUnit());
+                plot.getRangeAxis().setStandardTickUnits(standardUnits);
+            }
+            plot.setOutlineVisible(false);
+            plot.setBackgroundPaint(null);
+
+            BarRenderer renderer = new BarRenderer();
+            renderer.setBarPainter(new StandardBarPainter());
+            renderer.setShadowVisible(false);
+            // renderer.setGradientPaintTransformer(new
+            // StandardGradientPaintTransformer(
+            // GradientPaintTransformType.HORIZONTAL));
+            renderer.setSeriesPaint(0, Color.BLUE);
+            chart.getCategoryPlot().setRenderer(renderer);
+
+            return chart;
         }
-        plot.setOutlineVisible(false);
-        plot.setBackgroundPaint(null);
-
-        BarRenderer renderer = new BarRenderer();
-        renderer.setBarPainter(new StandardBarPainter());
-        renderer.setShadowVisible(false);
-        // renderer.setGradientPaintTransformer(new
-        // StandardGradientPaintTransformer(
-        // GradientPaintTransformType.HORIZONTAL));
-        renderer.setSeriesPaint(0, Color.BLUE);
-        chart.getCategoryPlot().setRenderer(renderer);
-
-        return new ChartImageResource(chart, CHART_WIDTH, 30 + (chartValues.size() * 18));
     }
     
     /**
-     * Build dynamic columns for the user's annotation documents status {@link DataGridView}
+     * Build dynamic columns for the user's annotation documents status {@link DataGridView}. The
+     * cells are rendered from the states in the rows of the {@link DocumentStatusProvider}, the
+     * database is only accessed when a state is changed.
      */
     public class DocumentStatusColumnMetaData
-        extends AbstractColumn<List<String>, Object>
+        extends AbstractColumn<Row, Object>
     {
-//        private RepositoryService projectRepositoryService;
-
         private static final long serialVersionUID = 1L;
         private int columnNumber;
 
         private Project project;
 
-        public DocumentStatusColumnMetaData(final TableDataProvider prov, final int colNumber,
-                Project aProject, RepositoryService aProjectreRepositoryService)
+        /**
+         * @param aHeader
+         *            the header of the column, the user name for the columns of the users.
+         * @param aColumnNumber
+         *            0 for the documents, 1 for the curation and the user plus 2 for the users.
+         * @param aProject
+         *            the project.
+         */
+        public DocumentStatusColumnMetaData(String aHeader, int aColumnNumber, Project aProject)
         {
-            super(new AbstractReadOnlyModel<String>()
-            {
-                private static final long serialVersionUID = 1L;
-
-                @Override
-                public String getObject()
-                {
-                    return prov.getColNames().get(colNumber);
-
-                }
-            });
-            columnNumber = colNumber;
+            super(Model.of(aHeader), aColumnNumber == 0 ? DocumentStatusProvider.SORT_NAME
+                    : null);
+            columnNumber = aColumnNumber;
             project = aProject;
-//            projectRepositoryService = aProjectreRepositoryService;
         }
 
         @Override
-        public void populateItem(final Item<ICellPopulator<List<String>>> aCellItem,
-                final String componentId, final IModel<List<String>> rowModel)
+        public void populateItem(final Item<ICellPopulator<Row>> aCellItem,
+                final String componentId, final IModel<Row> rowModel)
         {
-            String username = SecurityContextHolder.getContext().getAuthentication()
-                    .getName();
-            final User user = userRepository.get(username);
-
-            int rowNumber = aCellItem.getIndex();
             aCellItem.setOutputMarkupId(true);
 
-            final String value = getCellValue(rowModel.getObject().get(columnNumber)).trim();
-            if (rowNumber == 0) {
-                aCellItem.add(new Label(componentId, value.substring(value.indexOf(":") + 1)));
+            final Row row = rowModel.getObject();
+            if (row.isLastAccess()) {
+                if (columnNumber == 0) {
+                    aCellItem.add(new Label(componentId, LAST_ACCESS_ROW));
+                }
+                else {
+                    aCellItem.add(new Label(componentId, row.getLastAccess(columnNumber - 1)));
+                    aCellItem.add(AttributeModifier.append("class", "centering"));
+                }
             }
-            else if (value.startsWith(MonitoringPage.LAST_ACCESS)) {
-                aCellItem.add(new Label(componentId, value.substring(value.indexOf(":") + 1)));
-                aCellItem.add(AttributeModifier.append("class", "centering"));
+            else if (columnNumber == 0) {
+                aCellItem.add(new Label(componentId, row.getDocumentName()));
             }
-            else if (value.substring(0, value.indexOf(":")).equals(CurationPanel.CURATION_USER)) {
-                SourceDocument document = repository.getSourceDocument(project,
-                        value.substring(value.indexOf(":") + 1));
-                SourceDocumentState state = document.getState();
+            else if (columnNumber == 1) {
+                SourceDocumentState state = row.getSourceDocumentState();
                 String iconNameForState = SourceDocumentState.NEW.toString();
                 // If state is annotation finished or annotation in progress, curation is not yet
                 // started
@@ -1230,29 +1194,8 @@ public class MonitoringPage
                 else if (state.equals(SourceDocumentState.CURATION_FINISHED)) {
                     iconNameForState = AnnotationDocumentState.FINISHED.toString();
                 }
-                // #770 - Disable per-document progress on account of slowing down monitoring page
-//                if (iconNameForState.equals(AnnotationDocumentState.IN_PROGRESS.toString())
-//                        && document.getSentenceAccessed() != 0) {
-//                    JCas jCas = null;
-//                    try {
-//                        jCas = projectRepositoryService.readJCas(document, document.getProject(), user);
-//                    }
-//                    catch (UIMAException e) {
-//                        LOG.info(ExceptionUtils.getRootCauseMessage(e));
-//                    }
-//                    catch (ClassNotFoundException e) {
-//                        LOG.info(e.getMessage());
-//                    }
-//                    catch (IOException e) {
-//                        LOG.info(e.getMessage());
-//                    }
-//                   int totalSN = BratAjaxCasUtil.getNumberOfPages(jCas);
-//                    aCellItem.add(new Label(componentId, document.getSentenceAccessed() + "/"+totalSN));
-//                }
-//                else {
-                    aCellItem.add(new EmbeddableImage(componentId, new ContextRelativeResource(
-                            "/images_small/" + iconNameForState + ".png")));
-//                }
+                aCellItem.add(new EmbeddableImage(componentId, new ContextRelativeResource(
+                        "/images_small/" + iconNameForState + ".png")));
                 aCellItem.add(AttributeModifier.append("class", "centering"));
                 aCellItem.add(new AjaxEventBehavior("onclick")
                 {
@@ -1261,8 +1204,10 @@ public class MonitoringPage
                     @Override
                     protected void onEvent(AjaxRequestTarget aTarget)
                     {
+                        User user = userRepository.get(SecurityContextHolder.getContext()
+                                .getAuthentication().getName());
                         SourceDocument document = repository.getSourceDocument(project,
-                                value.substring(value.indexOf(":") + 1));
+                                row.getDocumentName());
                         SourceDocumentState state = document.getState();
                         if (state.toString().equals(
                                 SourceDocumentState.CURATION_FINISHED.toString())) {
@@ -1288,64 +1233,20 @@ public class MonitoringPage
                             aTarget.appendJavaScript("alert('the state can only be changed explicitly by the curator')");
                         }
 
-                        //aTarget.add(annotationDocumentStatusTable);
                         aTarget.add(aCellItem);
-                        updateStats(aTarget, projectSelectionForm.getModelObject());
+                        updateStats(aTarget, snapshotService.refreshStates(project));
                     }
                 });
             }
             else {
-                SourceDocument document = repository.getSourceDocument(project,
-                        value.substring(value.indexOf(":") + 1));
-                User annotator = userRepository.get(value.substring(0, value.indexOf(":")));
-
-                AnnotationDocumentState state;
-                AnnotationDocument annoDoc = null;
-                if (repository.existsAnnotationDocument(document, annotator)) {
-                    annoDoc = repository.getAnnotationDocument(document, annotator);
-                    state = annoDoc.getState();
-                }
-                // user didn't even start working on it
-                else {
+                final String username = getDisplayModel().getObject();
+                AnnotationDocumentState state = row.getAnnotationDocumentState(columnNumber - 2);
+                // The user didn't even start working on it
+                if (state == null) {
                     state = AnnotationDocumentState.NEW;
-                    AnnotationDocument annotationDocument = new AnnotationDocument();
-                    annotationDocument.setDocument(document);
-                    annotationDocument.setName(document.getName());
-                    annotationDocument.setProject(project);
-                    annotationDocument.setUser(annotator.getUsername());
-                    annotationDocument.setState(state);
-                    try {
-                        repository.createAnnotationDocument(annotationDocument);
-                    }
-                    catch (IOException e) {
-                        LOG.info("Unable to get the LOG file");
-                    }
                 }
-
-                // if state is in progress, add the last sentence number accessed
-                // #770 - Disable per-document progress on account of slowing down monitoring page
-//                if (annoDoc != null && (annoDoc.getSentenceAccessed() != 0)
-//                        && annoDoc.getState().equals(AnnotationDocumentState.IN_PROGRESS)) {
-//                    JCas jCas = null;
-//                    try {
-//                        jCas = projectRepositoryService.readJCas(document, document.getProject(), annotator);
-//                    }
-//                    catch (UIMAException e) {
-//                        LOG.info(ExceptionUtils.getRootCauseMessage(e));
-//                    }
-//                    catch (ClassNotFoundException e) {
-//                        LOG.info(e.getMessage());
-//                    }
-//                    catch (IOException e) {
-//                        LOG.info(e.getMessage());
-//                    }
-//                   int totalSN = BratAjaxCasUtil.getNumberOfPages(jCas);
-//                    aCellItem.add(new Label(componentId, annoDoc.getSentenceAccessed() + "/"+totalSN));
-//                }
-//                else {
-                    aCellItem.add(new EmbeddableImage(componentId, new ContextRelativeResource(
-                            "/images_small/" + state.toString() + ".png")));
-//                }
+                aCellItem.add(new EmbeddableImage(componentId, new ContextRelativeResource(
+                        "/images_small/" + state.toString() + ".png")));
                 aCellItem.add(AttributeModifier.append("class", "centering"));
                 aCellItem.add(new AjaxEventBehavior("onclick")
                 {
@@ -1355,107 +1256,49 @@ public class MonitoringPage
                     protected void onEvent(AjaxRequestTarget aTarget)
                     {
                         SourceDocument document = repository.getSourceDocument(project,
-                                value.substring(value.indexOf(":") + 1));
-                        User user = userRepository.get(value.substring(0,
-                                value.indexOf(":")));
-
-                        AnnotationDocumentState state;
-                        if (repository.existsAnnotationDocument(document, user)) {
-                            AnnotationDocument annoDoc = repository
-                                    .getAnnotationDocument(document, user);
-                            state = annoDoc.getState();
-                            if (state.toString()
-                                    .equals(AnnotationDocumentState.FINISHED.toString())) {
-                                changeAnnotationDocumentState(document, user,
-                                        ANNOTATION_FINISHED_TO_ANNOTATION_IN_PROGRESS);
-                            }
-                            else if (state.toString().equals(
-                                    AnnotationDocumentState.IN_PROGRESS.toString())) {
-                                changeAnnotationDocumentState(document, user,
-                                        ANNOTATION_IN_PROGRESS_TO_ANNOTATION_FINISHED);
-                            }
-                            if (state.toString().equals(AnnotationDocumentState.NEW.toString())) {
-                                changeAnnotationDocumentState(document, user, NEW_TO_IGNORE);
-                            }
-                            if (state.toString().equals(AnnotationDocumentState.IGNORE.toString())) {
-                                changeAnnotationDocumentState(document, user, IGNORE_TO_NEW);
-                            }
-                        }
-                        // user didn't even start working on it
-                        else {
+                                row.getDocumentName());
+                        User user = userRepository.get(username);
+
+                        // The annotation document is only created once its state is changed
+                        if (!repository.existsAnnotationDocument(document, user)) {
                             AnnotationDocument annotationDocument = new AnnotationDocument();
                             annotationDocument.setDocument(document);
                             annotationDocument.setName(document.getName());
                             annotationDocument.setProject(project);
                             annotationDocument.setUser(user.getUsername());
-                            annotationDocument.setState(AnnotationDocumentStateTransition
-                                    .transition(NEW_TO_ANNOTATION_IN_PROGRESS));
+                            annotationDocument.setState(AnnotationDocumentState.NEW);
                             try {
                                 repository.createAnnotationDocument(annotationDocument);
                             }
                             catch (IOException e) {
                                 LOG.info("Unable to get the LOG file");
                             }
+                        }
 
+                        AnnotationDocumentState state = repository.getAnnotationDocument(
+                                document, user).getState();
+                        if (state.equals(AnnotationDocumentState.FINISHED)) {
+                            changeAnnotationDocumentState(document, user,
+                                    ANNOTATION_FINISHED_TO_ANNOTATION_IN_PROGRESS);
+                        }
+                        else if (state.equals(AnnotationDocumentState.IN_PROGRESS)) {
+                            changeAnnotationDocumentState(document, user,
+                                    ANNOTATION_IN_PROGRESS_TO_ANNOTATION_FINISHED);
+                        }
+                        else if (state.equals(AnnotationDocumentState.NEW)) {
+                            changeAnnotationDocumentState(document, user, NEW_TO_IGNORE);
+                        }
+                        else if (state.equals(AnnotationDocumentState.IGNORE)) {
+                            changeAnnotationDocumentState(document, user, IGNORE_TO_NEW);
                         }
-                        //aTarget.add(annotationDocumentStatusTable);
+
                         aTarget.add(aCellItem);
-                        updateStats(aTarget, projectSelectionForm.getModelObject());
+                        updateStats(aTarget, snapshotService.refreshStates(project));
                     }
                 });
             }
         }
 
-        private void updateStats(AjaxRequestTarget aTarget, ProjectSelectionModel aModel)
-        {
-            aModel.annotatorsProgress.clear();
-            aModel.annotatorsProgress.putAll(getFinishedDocumentsPerUser(project));
-            annotatorsProgressImage.setImageResource(createProgressChart(aModel.annotatorsProgress,
-                    aModel.totalDocuments, false));
-            aTarget.add(annotatorsProgressImage.setOutputMarkupId(true));
-
-            aModel.annotatorsProgressInPercent.clear();
-            aModel.annotatorsProgressInPercent.putAll(getPercentageOfFinishedDocumentsPerUser(project));
-            annotatorsProgressPercentageImage.setImageResource(createProgressChart(
-                    aModel.annotatorsProgressInPercent, 100, true));
-            aTarget.add(annotatorsProgressPercentageImage.setOutputMarkupId(true));
-
-            aTarget.add(monitoringDetailForm.setOutputMarkupId(true));
-            updateAgreementTable(aTarget);
-            aTarget.add(agreementForm.setOutputMarkupId(true));
-        }
-        
-        /**
-         * Helper method to get the cell value for the user-annotation document status as
-         * <b>username:documentName</b>
-         *
-         * @param aValue
-         * @return
-         */
-        private String getCellValue(String aValue)
-        {
-            // It is the user column, return user name
-            if (aValue.startsWith(MonitoringPage.DOCUMENT)) {
-                return aValue.substring(aValue.indexOf(MonitoringPage.DOCUMENT));
-            }
-            // return as it is
-            else if (aValue.startsWith(MonitoringPage.LAST_ACCESS)) {
-                return aValue;
-            }
-            // Initialization of the appliaction, no project selected
-            else if (project.getId() == 0) {
-                return "";
-            }
-            // It is document column, get the status from the database
-            else {
-
-                String username = aValue.substring(0, aValue.indexOf(MonitoringPage.DOCUMENT) - 1);
-                String documentName = aValue.substring(aValue.indexOf(MonitoringPage.DOCUMENT)
-                        + MonitoringPage.DOCUMENT.length());
-                return username + ":" + documentName;
-            }
-        }
-
         /**
          * change the state of an annotation document. used to re-open closed documents
          *
@@ -1477,6 +1320,18 @@ public class MonitoringPage
             catch (IOException e) {
                 LOG.info("Unable to get the LOG file");
             }
+            // The set of finished annotator CASes which are curated has changed
+            CurationSession.invalidate(aSourceDocument);
+            boolean finished = annotationDocument.getState().equals(
+                    AnnotationDocumentState.FINISHED);
+            if (finished) {
+                AgreementTuples.extract(repository, annotationService, annotationDocument);
+            }
+            // The tuples of a reopened document are still needed to take it out of the agreement
+            AgreementTable.update(repository, annotationService, aSourceDocument);
+            if (!finished) {
+                AgreementTuples.invalidate(repository, aSourceDocument, aUser.getUsername());
+            }
 
         }
 
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense ids to the labels of the agreement items of one agreement computation, so the
+ * items and contingency tables only hold {@code int}s. The label {@link TwoPairedKappa#EMPTY}
+ * always has the id {@link #EMPTY_ID}.
+ */
+public class AgreementLabels
+{
+    public static final int EMPTY_ID = 0;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final List<String> labels = new ArrayList<String>();
+
+    public AgreementLabels()
+    {
+        getId(TwoPairedKappa.EMPTY);
+    }
+
+    /**
+     * @param aLabel
+     *            the label.
+     * @return the id of the label, which is assigned if the label has not been seen yet.
+     */
+    public synchronized int getId(String aLabel)
+    {
+        Integer id = ids.get(aLabel);
+        if (id == null) {
+            id = labels.size();
+            ids.put(aLabel, id);
+            labels.add(aLabel);
+        }
+        return id;
+    }
+
+    /**
+     * @param aId
+     *            the id.
+     * @return the label.
+     */
+    public synchronized String getLabel(int aId)
+    {
+        return labels.get(aId);
+    }
+
+    /**
+     * @return the number of labels, i.e. one more than the largest id.
+     */
+    public synchronized int size()
+    {
+        return labels.size();
+    }
+}
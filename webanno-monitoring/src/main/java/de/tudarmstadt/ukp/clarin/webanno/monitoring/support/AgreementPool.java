@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs work on the pairs of users of a {@link PairwiseAgreement} in parallel. Each pair of users
+ * only touches its own statistics, so the pairs can be processed independently. The pool is
+ * bounded, so computing the agreement of a large project does not take over the server.
+ */
+public class AgreementPool
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * Number of pairs below which a task is not split any further.
+     */
+    private static final int SPLIT_THRESHOLD = 8;
+
+    private int parallelism = 0;
+
+    private ForkJoinPool pool;
+
+    public void init()
+    {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+        }
+        log.info("Agreement parallelism: " + threads);
+    }
+
+    public void destroy()
+    {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * Work done for one pair of users.
+     */
+    public interface PairTask
+    {
+        void run(int aUser1, int aUser2);
+    }
+
+    /**
+     * Run the task for all given pairs, in parallel if a pool is configured.
+     *
+     * @param aPool
+     *            the pool or {@code null} to run the task in the calling thread.
+     * @param aPairs
+     *            the pairs of user indexes.
+     * @param aTask
+     *            the task.
+     */
+    public static void run(AgreementPool aPool, int[][] aPairs, PairTask aTask)
+    {
+        if (aPool == null || aPool.pool == null || aPairs.length <= SPLIT_THRESHOLD) {
+            runPairs(aPairs, 0, aPairs.length, aTask);
+        }
+        else {
+            aPool.pool.invoke(new PairAction(aPairs, 0, aPairs.length, aTask));
+        }
+    }
+
+    private static void runPairs(int[][] aPairs, int aFrom, int aTo, PairTask aTask)
+    {
+        for (int p = aFrom; p < aTo; p++) {
+            aTask.run(aPairs[p][0], aPairs[p][1]);
+        }
+    }
+
+    public void setParallelism(int aParallelism)
+    {
+        parallelism = aParallelism;
+    }
+
+    private static class PairAction
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] pairs;
+        private final int from;
+        private final int to;
+        private final PairTask task;
+
+        PairAction(int[][] aPairs, int aFrom, int aTo, PairTask aTask)
+        {
+            pairs = aPairs;
+            from = aFrom;
+            to = aTo;
+            task = aTask;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= SPLIT_THRESHOLD) {
+                runPairs(pairs, from, to, task);
+                return;
+            }
+
+            int middle = (from + to) / 2;
+            invokeAll(new PairAction(pairs, from, middle, task), new PairAction(pairs, middle,
+                    to, task));
+        }
+    }
+}
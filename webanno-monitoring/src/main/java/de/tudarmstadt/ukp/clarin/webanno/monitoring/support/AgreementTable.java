@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * The agreement counts of the annotators of a project for one feature, kept up to date one
+ * document at a time. The counts of {@link PairwiseAgreement} are additive, so when a user
+ * finishes or reopens a document only the contribution of that document is taken back and added
+ * again with the new set of users who finished it. The other documents are not visited and the
+ * agreement is available immediately.
+ * <p>
+ * The table is stored in one file per feature in the project folder, together with the users who
+ * finished each document when it was last counted. The {@link MonitoringSnapshotService} only
+ * uses a stored table if these users match the current document states, otherwise it computes
+ * the agreement from all documents and stores a new table. A table which cannot be updated is
+ * deleted, which has the same effect.
+ */
+public class AgreementTable
+{
+    private static final Log LOG = LogFactory.getLog(AgreementTable.class);
+
+    private static final String FOLDER = "agreement";
+    private static final String SUFFIX = ".agreement";
+    private static final int FORMAT_VERSION = 1;
+
+    // Guard loading, updating and storing the table of a feature, by feature id. Updates of
+    // different features and projects do not wait for each other.
+    private static final ConcurrentMap<Long, Object> LOCKS = new ConcurrentHashMap<Long, Object>();
+
+    private final List<String> usernames;
+    private final PairwiseAgreement agreement;
+    // The users who finished each counted document, by document id
+    private final Map<Long, Set<String>> raters = new HashMap<Long, Set<String>>();
+
+    /**
+     * @param aUsernames
+     *            the annotators in the order of the rows and columns of the agreement matrix.
+     * @param aPool
+     *            the pool on which the pairs of users are processed or {@code null}.
+     */
+    public AgreementTable(List<String> aUsernames, AgreementPool aPool)
+    {
+        this(aUsernames, new PairwiseAgreement(aUsernames, aPool));
+    }
+
+    private AgreementTable(List<String> aUsernames, PairwiseAgreement aAgreement)
+    {
+        usernames = aUsernames;
+        agreement = aAgreement;
+    }
+
+    public List<String> getUsernames()
+    {
+        return usernames;
+    }
+
+    public PairwiseAgreement getAgreement()
+    {
+        return agreement;
+    }
+
+    /**
+     * @param aDocumentId
+     *            the document.
+     * @return the users who finished the document when it was last counted.
+     */
+    public Set<String> getRaters(long aDocumentId)
+    {
+        Set<String> documentRaters = raters.get(aDocumentId);
+        return documentRaters != null ? documentRaters : Collections.<String> emptySet();
+    }
+
+    /**
+     * @return the documents which have been counted with at least one user.
+     */
+    public Set<Long> getDocumentIds()
+    {
+        return raters.keySet();
+    }
+
+    /**
+     * Count a document which has not been counted before.
+     *
+     * @param aDocumentId
+     *            the document.
+     * @param aAnnotationsByUser
+     *            the label ids by annotation position of each user who finished the document.
+     */
+    public void addDocument(long aDocumentId, Map<String, LongIntHashMap> aAnnotationsByUser)
+    {
+        agreement.addDocument(aAnnotationsByUser);
+        setRaters(aDocumentId, aAnnotationsByUser.keySet());
+    }
+
+    /**
+     * Replace the contribution of a document after the set of users who finished it has
+     * changed.
+     *
+     * @param aDocumentId
+     *            the document.
+     * @param aAnnotationsByUser
+     *            the label ids by annotation position of the users who finished the document
+     *            before and of those who finished it now.
+     * @param aRaters
+     *            the users who finished the document now.
+     */
+    public void updateDocument(long aDocumentId, Map<String, LongIntHashMap> aAnnotationsByUser,
+            Set<String> aRaters)
+    {
+        agreement.removeDocument(select(aAnnotationsByUser, getRaters(aDocumentId)));
+        agreement.addDocument(select(aAnnotationsByUser, aRaters));
+        setRaters(aDocumentId, aRaters);
+    }
+
+    private void setRaters(long aDocumentId, Set<String> aRaters)
+    {
+        if (aRaters.isEmpty()) {
+            raters.remove(aDocumentId);
+        }
+        else {
+            raters.put(aDocumentId, new HashSet<String>(aRaters));
+        }
+    }
+
+    private static Map<String, LongIntHashMap> select(
+            Map<String, LongIntHashMap> aAnnotationsByUser, Set<String> aUsers)
+    {
+        Map<String, LongIntHashMap> selected = new HashMap<String, LongIntHashMap>();
+        for (String user : aUsers) {
+            selected.put(user, aAnnotationsByUser.get(user));
+        }
+        return selected;
+    }
+
+    /**
+     * Update the stored tables of all features of a project after the state of an annotation
+     * document has changed. It must be called after the new state has been saved, but while the
+     * agreement tuples of a reopened document still exist (see {@link AgreementTuples}), since
+     * the annotations of the document are needed to take back its contribution.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aAnnotationService
+     *            the annotation service.
+     * @param aDocument
+     *            the document.
+     */
+    public static void update(RepositoryService aRepository,
+            AnnotationService aAnnotationService, SourceDocument aDocument)
+    {
+        if (aDocument.isTrainingDocument()) {
+            return;
+        }
+
+        Project project = aDocument.getProject();
+        List<AnnotationDocument> annotationDocuments = aRepository
+                .listAnnotationDocuments(aDocument);
+        for (AnnotationFeature feature : aAnnotationService.listAnnotationFeature(project)) {
+            if (!MonitoringSnapshotService.isAgreementFeature(feature)) {
+                continue;
+            }
+            synchronized (getLock(feature)) {
+                AgreementTable table = load(aRepository, project, feature, null);
+                if (table == null) {
+                    continue;
+                }
+                try {
+                    table.update(aRepository, aAnnotationService, annotationDocuments, aDocument,
+                            feature);
+                    table.save(aRepository, project, feature);
+                }
+                catch (Exception e) {
+                    // The agreement is computed from all documents again when it is next needed
+                    LOG.warn("Unable to update the agreement of [" + feature.getName()
+                            + "] for document [" + aDocument.getName() + "]", e);
+                    delete(aRepository, project, feature);
+                }
+            }
+        }
+    }
+
+    private void update(RepositoryService aRepository, AnnotationService aAnnotationService,
+            List<AnnotationDocument> aAnnotationDocuments, SourceDocument aDocument,
+            AnnotationFeature aFeature)
+        throws Exception
+    {
+        Set<String> oldRaters = getRaters(aDocument.getId());
+        Set<String> newRaters = new HashSet<String>();
+        for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
+            if (usernames.contains(annotationDocument.getUser())
+                    && annotationDocument.getState() == AnnotationDocumentState.FINISHED) {
+                newRaters.add(annotationDocument.getUser());
+            }
+        }
+        if (newRaters.equals(oldRaters)) {
+            return;
+        }
+
+        String type = AgreementTuples.getTypeName(aAnnotationService, aFeature);
+        Map<String, LongIntHashMap> annotations = new HashMap<String, LongIntHashMap>();
+        for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
+            String username = annotationDocument.getUser();
+            if (oldRaters.contains(username) || newRaters.contains(username)) {
+                annotations.put(username, AgreementTuples.load(aRepository,
+                        annotationDocument, type, aFeature.getName(), agreement.getLabels()));
+            }
+        }
+        for (String username : oldRaters) {
+            if (!annotations.containsKey(username)) {
+                throw new IllegalStateException("The annotations of user [" + username
+                        + "] are no longer available");
+            }
+        }
+        updateDocument(aDocument.getId(), annotations, newRaters);
+    }
+
+    /**
+     * Load the stored table of a feature.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aProject
+     *            the project.
+     * @param aFeature
+     *            the feature.
+     * @param aPool
+     *            the pool on which the pairs of users are processed or {@code null}.
+     * @return the table or {@code null} if there is none or it cannot be read.
+     */
+    public static AgreementTable load(RepositoryService aRepository, Project aProject,
+            AnnotationFeature aFeature, AgreementPool aPool)
+    {
+        File file = getFile(aRepository, aProject, aFeature);
+        synchronized (getLock(aFeature)) {
+            if (!file.exists()) {
+                return null;
+            }
+
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != FORMAT_VERSION) {
+                    return null;
+                }
+                List<String> usernames = new ArrayList<String>();
+                int userCount = in.readInt();
+                for (int i = 0; i < userCount; i++) {
+                    usernames.add(in.readUTF());
+                }
+                AgreementTable table = new AgreementTable(usernames, PairwiseAgreement.read(in,
+                        usernames, aPool));
+                int documentCount = in.readInt();
+                for (int d = 0; d < documentCount; d++) {
+                    long documentId = in.readLong();
+                    Set<String> documentRaters = new HashSet<String>();
+                    int raterCount = in.readInt();
+                    for (int i = 0; i < raterCount; i++) {
+                        documentRaters.add(usernames.get(in.readInt()));
+                    }
+                    table.raters.put(documentId, documentRaters);
+                }
+                return table;
+            }
+            catch (IOException e) {
+                LOG.warn("Ignoring unreadable agreement table [" + file + "]", e);
+                return null;
+            }
+            finally {
+                closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Store the table of a feature, replacing the stored one.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aProject
+     *            the project.
+     * @param aFeature
+     *            the feature.
+     */
+    public void save(RepositoryService aRepository, Project aProject, AnnotationFeature aFeature)
+    {
+        File file = getFile(aRepository, aProject, aFeature);
+        File tmp = null;
+        DataOutputStream out = null;
+        synchronized (getLock(aFeature)) {
+            try {
+                FileUtils.forceMkdir(file.getParentFile());
+                tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(usernames.size());
+                for (String username : usernames) {
+                    out.writeUTF(username);
+                }
+                agreement.write(out);
+                out.writeInt(raters.size());
+                for (Entry<Long, Set<String>> documentRaters : raters.entrySet()) {
+                    out.writeLong(documentRaters.getKey());
+                    out.writeInt(documentRaters.getValue().size());
+                    for (String username : documentRaters.getValue()) {
+                        out.writeInt(usernames.indexOf(username));
+                    }
+                }
+                out.close();
+                out = null;
+                FileUtils.deleteQuietly(file);
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Unable to rename [" + tmp + "] to [" + file + "]");
+                }
+            }
+            catch (IOException e) {
+                // The table is only an optimization - the agreement is computed from all
+                // documents if it is missing
+                LOG.warn("Unable to write agreement table [" + file + "]", e);
+                FileUtils.deleteQuietly(tmp);
+                FileUtils.deleteQuietly(file);
+            }
+            finally {
+                closeQuietly(out);
+            }
+        }
+    }
+
+    /**
+     * Delete the stored table of a feature.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aProject
+     *            the project.
+     * @param aFeature
+     *            the feature.
+     */
+    public static void delete(RepositoryService aRepository, Project aProject,
+            AnnotationFeature aFeature)
+    {
+        synchronized (getLock(aFeature)) {
+            FileUtils.deleteQuietly(getFile(aRepository, aProject, aFeature));
+        }
+    }
+
+    private static Object getLock(AnnotationFeature aFeature)
+    {
+        Object lock = LOCKS.get(aFeature.getId());
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = LOCKS.putIfAbsent(aFeature.getId(), newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    private static File getFile(RepositoryService aRepository, Project aProject,
+            AnnotationFeature aFeature)
+    {
+        File projectFolder = aRepository.getMetaInfFolder(aProject).getParentFile();
+        return new File(new File(projectFolder, FOLDER), aFeature.getId() + SUFFIX);
+    }
+}
@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Persistent (position, label) tuples of a finished annotation document, as used to compute the
+ * agreement (see {@link TwoPairedKappa#getItems}). There is one small file per layer and
+ * feature, stored next to the CAS of the user. The tuples are extracted when the user finishes the
+ * document, so the agreement can be computed without reading any CAS. They are deleted when the
+ * document is reopened.
+ * <p>
+ * Each file also records the version of the CAS it was extracted from. Tuples of a CAS which has
+ * changed since, e.g. because it was upgraded, are extracted again on access.
+ * <p>
+ * The positions are stored as packed keys. The label ids are local to the file and are mapped to
+ * the ids of the agreement computation when the tuples are loaded.
+ */
+public class AgreementTuples
+{
+    private static final Log LOG = LogFactory.getLog(AgreementTuples.class);
+
+    private static final String FOLDER = "agreement";
+    private static final String SUFFIX = ".tuples";
+    private static final int FORMAT_VERSION = 2;
+
+    private AgreementTuples()
+    {
+        // No instances
+    }
+
+    /**
+     * Extract and store the tuples of all layers and features for which agreement can be computed.
+     * The CAS is read only once.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aAnnotationService
+     *            the annotation service.
+     * @param aAnnotationDocument
+     *            the annotation document which has just been finished.
+     */
+    public static void extract(RepositoryService aRepository,
+            AnnotationService aAnnotationService, AnnotationDocument aAnnotationDocument)
+    {
+        long start = System.currentTimeMillis();
+        SourceDocument document = aAnnotationDocument.getDocument();
+        String username = aAnnotationDocument.getUser();
+        try {
+            String casVersion = getCasVersion(aRepository, document, username);
+            JCas jCas = readCas(aRepository, aAnnotationDocument);
+            TwoPairedKappa twoPairedKappa = new TwoPairedKappa();
+            for (AnnotationFeature feature : getAgreementFeatures(aAnnotationService,
+                    aAnnotationDocument)) {
+                String type = getTypeName(aAnnotationService, feature);
+                try {
+                    AgreementLabels labels = new AgreementLabels();
+                    write(getFile(aRepository, document, username, type, feature.getName()),
+                            casVersion, twoPairedKappa.getItems(jCas, type, feature.getName(),
+                                    labels), labels);
+                }
+                catch (IllegalArgumentException e) {
+                    // The type or feature is not part of the CAS
+                    LOG.debug("Unable to extract tuples of [" + type + "] [" + feature.getName()
+                            + "]", e);
+                }
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Extracted agreement tuples of document [" + document.getName()
+                        + "] user [" + username + "] in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+        catch (Exception e) {
+            // The tuples are only an optimization - they are extracted again on access
+            LOG.warn("Unable to extract agreement tuples of document [" + document.getName()
+                    + "] user [" + username + "]", e);
+        }
+    }
+
+    /**
+     * Get the UIMA type name under which the tuples of a feature are extracted and stored. This
+     * is the type name of the adapter of the layer, which differs from the layer name for chain
+     * layers.
+     *
+     * @param aAnnotationService
+     *            the annotation service.
+     * @param aFeature
+     *            the feature.
+     * @return the type name.
+     */
+    public static String getTypeName(AnnotationService aAnnotationService,
+            AnnotationFeature aFeature)
+    {
+        return TypeUtil.getAdapter(aAnnotationService, aFeature.getLayer())
+                .getAnnotationTypeName();
+    }
+
+    /**
+     * Get the tuples of a finished annotation document for the given layer and feature. If no
+     * valid tuples are stored, they are extracted from the CAS and stored.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aAnnotationDocument
+     *            the finished annotation document.
+     * @param aType
+     *            the UIMA type name of the layer, see
+     *            {@link #getTypeName(AnnotationService, AnnotationFeature)}.
+     * @param aFeature
+     *            the label feature.
+     * @param aLabels
+     *            the label ids of the agreement computation.
+     * @return the label ids by position key.
+     * @throws UIMAException
+     *             hum?
+     * @throws IOException
+     *             if the CAS cannot be read.
+     */
+    public static LongIntHashMap load(RepositoryService aRepository,
+            AnnotationDocument aAnnotationDocument, String aType, String aFeature,
+            AgreementLabels aLabels)
+        throws UIMAException, IOException
+    {
+        SourceDocument document = aAnnotationDocument.getDocument();
+        String username = aAnnotationDocument.getUser();
+        String casVersion = getCasVersion(aRepository, document, username);
+        File file = getFile(aRepository, document, username, aType, aFeature);
+
+        LongIntHashMap tuples = read(file, casVersion, aLabels);
+        if (tuples == null) {
+            JCas jCas = readCas(aRepository, aAnnotationDocument);
+            AgreementLabels labels = new AgreementLabels();
+            tuples = new TwoPairedKappa().getItems(jCas, aType, aFeature, labels);
+            write(file, casVersion, tuples, labels);
+            tuples = remap(tuples, labels, aLabels);
+        }
+        return tuples;
+    }
+
+    /**
+     * Delete the tuples of an annotation document, e.g. because it has been reopened.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user.
+     */
+    public static void invalidate(RepositoryService aRepository, SourceDocument aDocument,
+            String aUsername)
+    {
+        FileUtils.deleteQuietly(getFolder(aRepository, aDocument, aUsername));
+    }
+
+    private static List<AnnotationFeature> getAgreementFeatures(
+            AnnotationService aAnnotationService, AnnotationDocument aAnnotationDocument)
+    {
+        List<AnnotationFeature> features = new ArrayList<AnnotationFeature>();
+        for (AnnotationFeature feature : aAnnotationService
+                .listAnnotationFeature(aAnnotationDocument.getProject())) {
+            // Same as the features offered on the monitoring page
+            if (!feature.getLayer().getName().equals(Token.class.getName())
+                    && !feature.getLayer().getName().equals(WebAnnoConst.COREFERENCE_LAYER)) {
+                features.add(feature);
+            }
+        }
+        return features;
+    }
+
+    private static JCas readCas(RepositoryService aRepository,
+            AnnotationDocument aAnnotationDocument)
+        throws UIMAException, IOException
+    {
+        JCas jCas = aRepository.readAnnotationCas(aAnnotationDocument);
+        // The upgrade is only done in memory, the CAS of the user is not written
+        aRepository.upgradeCas(jCas.getCas(), aAnnotationDocument);
+        return jCas;
+    }
+
+    private static String getCasVersion(RepositoryService aRepository,
+            SourceDocument aDocument, String aUsername)
+    {
+        File casFile = aRepository.getCasFile(aDocument, aUsername);
+        return casFile.lastModified() + ":" + casFile.length();
+    }
+
+    private static File getFolder(RepositoryService aRepository, SourceDocument aDocument,
+            String aUsername)
+    {
+        return new File(new File(aRepository.getCasFile(aDocument, aUsername).getParentFile(),
+                FOLDER), aUsername);
+    }
+
+    private static File getFile(RepositoryService aRepository, SourceDocument aDocument,
+            String aUsername, String aType, String aFeature)
+    {
+        return new File(getFolder(aRepository, aDocument, aUsername), aType + "#" + aFeature
+                + SUFFIX);
+    }
+
+    private static LongIntHashMap remap(LongIntHashMap aTuples, AgreementLabels aFrom,
+            AgreementLabels aTo)
+    {
+        int[] ids = new int[aFrom.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = aTo.getId(aFrom.getLabel(i));
+        }
+        LongIntHashMap tuples = new LongIntHashMap(aTuples.size());
+        for (int slot = 0; slot < aTuples.capacity(); slot++) {
+            if (aTuples.isUsed(slot)) {
+                tuples.put(aTuples.keyAt(slot), ids[aTuples.valueAt(slot)]);
+            }
+        }
+        return tuples;
+    }
+
+    private static LongIntHashMap read(File aFile, String aCasVersion, AgreementLabels aLabels)
+    {
+        if (!aFile.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(aFile)));
+            if (in.readInt() != FORMAT_VERSION || !aCasVersion.equals(in.readUTF())) {
+                return null;
+            }
+            int[] ids = new int[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = aLabels.getId(in.readUTF());
+            }
+            int size = in.readInt();
+            LongIntHashMap tuples = new LongIntHashMap(size);
+            for (int i = 0; i < size; i++) {
+                long position = in.readLong();
+                tuples.put(position, ids[in.readInt()]);
+            }
+            return tuples;
+        }
+        catch (IOException e) {
+            LOG.warn("Ignoring unreadable agreement tuples [" + aFile + "]", e);
+            return null;
+        }
+        finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void write(File aFile, String aCasVersion, LongIntHashMap aTuples,
+            AgreementLabels aLabels)
+    {
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            FileUtils.forceMkdir(aFile.getParentFile());
+            tmp = File.createTempFile(aFile.getName(), ".tmp", aFile.getParentFile());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(aCasVersion);
+            out.writeInt(aLabels.size());
+            for (int i = 0; i < aLabels.size(); i++) {
+                out.writeUTF(aLabels.getLabel(i));
+            }
+            out.writeInt(aTuples.size());
+            for (int slot = 0; slot < aTuples.capacity(); slot++) {
+                if (aTuples.isUsed(slot)) {
+                    out.writeLong(aTuples.keyAt(slot));
+                    out.writeInt(aTuples.valueAt(slot));
+                }
+            }
+            out.close();
+            out = null;
+            FileUtils.deleteQuietly(aFile);
+            if (!tmp.renameTo(aFile)) {
+                throw new IOException("Unable to rename [" + tmp + "] to [" + aFile + "]");
+            }
+        }
+        catch (IOException e) {
+            // The tuples are only an optimization - they are extracted again if they are missing
+            LOG.warn("Unable to write agreement tuples [" + aFile + "]", e);
+            FileUtils.deleteQuietly(tmp);
+        }
+        finally {
+            closeQuietly(out);
+        }
+    }
+}
@@ -17,16 +17,33 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
+import javax.imageio.ImageIO;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.wicket.injection.Injector;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
 import org.apache.wicket.request.resource.DynamicImageResource;
-import org.jfree.chart.ChartUtilities;
-import org.jfree.chart.JFreeChart;
+import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.apache.wicket.util.time.Duration;
+import org.apache.wicket.util.time.Time;
+
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.ChartRenderService.ChartBuilder;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.ChartRenderService.RenderedChart;
 
 /**
  * A base class for the dynamically generated chart Images for percenatage and number of document
  * finished charts.
+ * <p>
+ * The images are rendered and cached by the {@link ChartRenderService}. They are served with an
+ * ETag and a Last-Modified header, so the browser only gets the image again after it has changed.
+ * While a chart is rendered, the previous image of the chart is served. A transparent placeholder
+ * which is not cached is served if there is none yet.
  *
  * @author Seid Muhie Yimam
  *
@@ -35,28 +52,122 @@ public class ChartImageResource
     extends DynamicImageResource
 {
     private static final long serialVersionUID = 1L;
-    private JFreeChart chart;
+    private static final Log LOG = LogFactory.getLog(ChartImageResource.class);
+
+    private static final int SC_NOT_MODIFIED = 304;
+
+    @SpringBean(name = "chartRenderService")
+    private ChartRenderService chartRenderService;
+
+    private String key;
+    private ChartBuilder builder;
     private int width;
     private int height;
 
-    public ChartImageResource(JFreeChart aChart, int aWidth, int aHeight)
+    /**
+     * @param aKey
+     *            the key of the chart, e.g. the project and the kind of chart.
+     * @param aBuilder
+     *            the builder of the chart.
+     * @param aWidth
+     *            the width of the image.
+     * @param aHeight
+     *            the height of the image.
+     */
+    public ChartImageResource(String aKey, ChartBuilder aBuilder, int aWidth, int aHeight)
     {
-        chart = aChart;
+        key = aKey;
+        builder = aBuilder;
         width = aWidth;
         height = aHeight;
+
+        Injector.get().inject(this);
+
+        // Start rendering while the page is still being built
+        chartRenderService.render(key, builder, width, height);
+    }
+
+    @Override
+    protected ResourceResponse newResourceResponse(Attributes aAttributes)
+    {
+        RenderedChart chart = chartRenderService.render(key, builder, width, height)
+                .getAvailable();
+        ResourceResponse response = new ResourceResponse();
+        if (!chart.isDone()) {
+            // Neither the chart nor a previous image of it is available yet
+            response.disableCaching();
+            setImage(response, getPlaceholder());
+            return response;
+        }
+
+        WebRequest request = (WebRequest) aAttributes.getRequest();
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        Time ifModifiedSince = request.getIfModifiedSinceHeader();
+        response.setLastModified(Time.millis(chart.getLastModified()));
+        if (ifNoneMatch != null ? ifNoneMatch.equals(chart.getEtag())
+                : ifModifiedSince != null
+                        && chart.getLastModified() <= ifModifiedSince.getMilliseconds()) {
+            response.setStatusCode(SC_NOT_MODIFIED);
+        }
+        else {
+            setImage(response, getData(chart));
+        }
+
+        // The browser keeps the image, but has to ask whether it is still current
+        response.setCacheDuration(Duration.seconds(1));
+        response.setCacheScope(WebResponse.CacheScope.PRIVATE);
+        response.getHeaders().setHeader("ETag", chart.getEtag());
+        return response;
     }
 
     @Override
     protected byte[] getImageData(Attributes aAttributes)
+    {
+        RenderedChart chart = chartRenderService.render(key, builder, width, height)
+                .getAvailable();
+        return chart.isDone() ? getData(chart) : getPlaceholder();
+    }
+
+    private void setImage(ResourceResponse aResponse, final byte[] aImage)
+    {
+        aResponse.setContentType("image/" + getFormat());
+        aResponse.setContentLength(aImage.length);
+        aResponse.setWriteCallback(new WriteCallback()
+        {
+            @Override
+            public void writeData(Attributes aAttributes)
+            {
+                aAttributes.getResponse().write(aImage);
+            }
+        });
+    }
+
+    private byte[] getData(RenderedChart aChart)
+    {
+        try {
+            return aChart.getData();
+        }
+        catch (IOException e) {
+            LOG.error("Unable to render chart [" + key + "]", e);
+            return new byte[0];
+        }
+    }
+
+    /**
+     * @return a transparent image of the size of the chart, so the page layout does not change
+     *         when the chart is shown.
+     */
+    private byte[] getPlaceholder()
     {
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ChartUtilities.writeChartAsPNG(bos, chart, width, height);
+            ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB),
+                    getFormat(), bos);
             return bos.toByteArray();
         }
         catch (IOException e) {
+            LOG.error("Unable to render placeholder of chart [" + key + "]", e);
             return new byte[0];
         }
     }
-
 }
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+
+/**
+ * Renders the monitoring charts to PNG on a small pool of background threads and keeps the
+ * rendered images. A chart is identified by a key, e.g. the project and the kind of chart, and a
+ * version which is derived from the data shown in the chart. The data changes when the state of a
+ * document changes, so a chart is only rendered again after a state transition. Until then, the
+ * page and every image request get the cached bytes and the chart object is not even built.
+ * <p>
+ * Rendering is started when the image resource is created, so it runs while the page is still
+ * being built and sent to the browser. The image request only waits briefly for it to complete
+ * (see {@link RenderedChart#getAvailable()}). If it takes longer, the previous image of the chart
+ * is served instead.
+ */
+public class ChartRenderService
+{
+    private static final Log LOG = LogFactory.getLog(ChartRenderService.class);
+
+    /**
+     * Maximum number of cached charts. There are only a few charts per project.
+     */
+    private static final int MAX_CHARTS = 256;
+
+    /**
+     * Milliseconds an image request waits for a chart which is still being rendered before the
+     * previous image of the chart is served.
+     */
+    private static final long WAIT_FOR_UPDATE = 200;
+
+    /**
+     * Milliseconds an image request waits for a chart which has no previous image.
+     */
+    private static final long WAIT_FOR_FIRST = 5000;
+
+    private int threads = 0;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<String, RenderedChart> charts = new LinkedHashMap<String, RenderedChart>(16,
+            0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RenderedChart> aEldest)
+        {
+            return size() > MAX_CHARTS;
+        }
+    };
+
+    public void init()
+    {
+        // Rendering a chart is short, so a single thread serves many users
+        int n = threads > 0 ? threads : 1;
+        executor = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable aRunnable)
+                    {
+                        Thread thread = new Thread(aRunnable, "monitoring-chart-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        LOG.info("Monitoring chart threads: " + n);
+    }
+
+    public void destroy()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Builds the chart object. It is only called if the chart is not cached yet.
+     */
+    public interface ChartBuilder
+        extends Serializable
+    {
+        JFreeChart build();
+
+        /**
+         * @return a version which changes whenever the data shown in the chart changes.
+         */
+        String getVersion();
+    }
+
+    /**
+     * Get the rendered chart for the given key, starting to render it in the background if there
+     * is none for the current version of the chart yet.
+     *
+     * @param aKey
+     *            the key of the chart.
+     * @param aBuilder
+     *            the builder of the chart.
+     * @param aWidth
+     *            the width of the image.
+     * @param aHeight
+     *            the height of the image.
+     * @return the rendered chart, which may still be rendering.
+     */
+    public RenderedChart render(String aKey, ChartBuilder aBuilder, int aWidth, int aHeight)
+    {
+        String etag = getEtag(aKey + "@" + aBuilder.getVersion() + "@" + aWidth + "x" + aHeight);
+        RenderedChart chart;
+        synchronized (charts) {
+            chart = charts.get(aKey);
+            // A chart which failed to render is tried again
+            if (chart != null && chart.etag.equals(etag) && !chart.isFailed()) {
+                return chart;
+            }
+            // The last rendered image is kept to be served while the new one is rendered
+            RenderedChart previous = null;
+            if (chart != null) {
+                previous = chart.isRendered() ? chart.withoutPrevious() : chart.previous;
+            }
+            chart = new RenderedChart(etag, new FutureTask<byte[]>(new RenderTask(aBuilder,
+                    aWidth, aHeight)), previous);
+            charts.put(aKey, chart);
+        }
+        executor.execute((FutureTask<byte[]>) chart.data);
+        return chart;
+    }
+
+    /**
+     * @return the quoted hex SHA-1 digest of the chart identity, so different versions of a chart
+     *         do not get the same ETag by chance.
+     */
+    private static String getEtag(String aIdentity)
+    {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(aIdentity.getBytes("UTF-8"));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder etag = new StringBuilder("\"");
+        for (byte b : digest) {
+            etag.append(Character.forDigit((b >> 4) & 0xF, 16));
+            etag.append(Character.forDigit(b & 0xF, 16));
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * Render a chart in the calling thread without caching it.
+     *
+     * @param aBuilder
+     *            the builder of the chart.
+     * @param aWidth
+     *            the width of the image.
+     * @param aHeight
+     *            the height of the image.
+     * @return the PNG image.
+     * @throws IOException
+     *             if the chart cannot be rendered.
+     */
+    private static byte[] renderNow(ChartBuilder aBuilder, int aWidth, int aHeight)
+        throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ChartUtilities.writeChartAsPNG(bos, aBuilder.build(), aWidth, aHeight);
+        return bos.toByteArray();
+    }
+
+    public void setThreads(int aThreads)
+    {
+        threads = aThreads;
+    }
+
+    /**
+     * A chart which has been rendered or is being rendered.
+     */
+    public static class RenderedChart
+    {
+        private final String etag;
+        private final long lastModified;
+        private final Future<byte[]> data;
+        // The last rendered image of the chart, while this one is rendered
+        private final RenderedChart previous;
+
+        RenderedChart(String aEtag, Future<byte[]> aData, RenderedChart aPrevious)
+        {
+            // HTTP dates only have a precision of seconds
+            this(aEtag, System.currentTimeMillis() / 1000 * 1000, aData, aPrevious);
+        }
+
+        private RenderedChart(String aEtag, long aLastModified, Future<byte[]> aData,
+                RenderedChart aPrevious)
+        {
+            etag = aEtag;
+            lastModified = aLastModified;
+            data = aData;
+            previous = aPrevious;
+        }
+
+        RenderedChart withoutPrevious()
+        {
+            return new RenderedChart(etag, lastModified, data, null);
+        }
+
+        public String getEtag()
+        {
+            return etag;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         * @return whether the rendering has completed, successfully or not.
+         */
+        public boolean isDone()
+        {
+            return data.isDone();
+        }
+
+        boolean isRendered()
+        {
+            return data.isDone() && !isFailed();
+        }
+
+        /**
+         * Get the chart to serve to an image request. This chart is served if it is rendered
+         * within a short time. Otherwise, or if rendering it failed, the previous image of the
+         * chart is served, so the request does not wait for the rendering. If there is no
+         * previous image, the request waits a little longer.
+         *
+         * @return this chart, which is not {@link #isDone() done} if it took too long, or the
+         *         previous image of the chart.
+         */
+        public RenderedChart getAvailable()
+        {
+            try {
+                data.get(previous != null ? WAIT_FOR_UPDATE : WAIT_FOR_FIRST,
+                        TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                // Reported by getData()
+            }
+            catch (TimeoutException e) {
+                // Still rendering
+            }
+            return isRendered() || previous == null ? this : previous;
+        }
+
+        boolean isFailed()
+        {
+            if (!data.isDone()) {
+                return false;
+            }
+            try {
+                data.get();
+                return false;
+            }
+            catch (Exception e) {
+                return true;
+            }
+        }
+
+        /**
+         * @return the PNG image, waiting for the rendering to complete if necessary.
+         * @throws IOException
+         *             if the chart cannot be rendered.
+         */
+        public byte[] getData()
+            throws IOException
+        {
+            try {
+                return data.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private static class RenderTask
+        implements Callable<byte[]>
+    {
+        private final ChartBuilder builder;
+        private final int width;
+        private final int height;
+
+        RenderTask(ChartBuilder aBuilder, int aWidth, int aHeight)
+        {
+            builder = aBuilder;
+            width = aWidth;
+            height = aHeight;
+        }
+
+        @Override
+        public byte[] call()
+            throws Exception
+        {
+            return renderNow(builder, width, height);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.extensions.markup.html.repeater.data.sort.SortOrder;
+import org.apache.wicket.extensions.markup.html.repeater.util.SortableDataProvider;
+import org.apache.wicket.injection.Injector;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.spring.injection.annot.SpringBean;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+
+/**
+ * Data provider for the user's annotation documents status table. The first row holds the last
+ * access of the users, followed by one row per document which is not a training document.
+ * <p>
+ * The provider itself only keeps the project and the users, so it stays small in the session
+ * however many documents there are. The documents are counted and the last access is read once
+ * per request, so changes since the last {@link MonitoringSnapshot} are shown correctly. Only the
+ * id, name and state of the documents of the current page are read, followed by the states of
+ * their annotation documents with a single query into a byte matrix with a row per document and
+ * a column per user. The documents can be sorted by {@link #SORT_NAME name}.
+ */
+public class DocumentStatusProvider
+    extends SortableDataProvider<DocumentStatusProvider.Row, Object>
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The sort property of the document column.
+     */
+    public static final String SORT_NAME = "name";
+
+    private static final byte NO_DOCUMENT = 0;
+
+    private static final String NO_ACCESS = "__";
+
+    @SpringBean(name = "documentRepository")
+    private RepositoryService repository;
+
+    private final Project project;
+    private final String[] usernames;
+
+    // Only kept for the current request
+    private transient Long documentCount;
+    private transient String[] lastAccess;
+
+    /**
+     * @param aProject
+     *            the project.
+     * @param aUsernames
+     *            the users shown in the columns.
+     */
+    public DocumentStatusProvider(Project aProject, List<String> aUsernames)
+    {
+        Injector.get().inject(this);
+        project = aProject;
+        usernames = aUsernames.toArray(new String[aUsernames.size()]);
+        setSort(SORT_NAME, SortOrder.ASCENDING);
+    }
+
+    @Override
+    public Iterator<Row> iterator(long aFirst, long aCount)
+    {
+        List<Row> rows = new ArrayList<Row>();
+        int first = (int) aFirst;
+        int last = (int) Math.min(aFirst + aCount, size());
+        if (first == 0 && last > 0) {
+            rows.add(new Row(getLastAccess()));
+            first++;
+        }
+        if (first >= last) {
+            return rows.iterator();
+        }
+
+        // Row 0 is the last access, row i the document i - 1
+        boolean ascending = getSort() == null || getSort().isAscending();
+        List<Object[]> documents = repository.listNonTrainingSourceDocumentStates(project,
+                ascending, first - 1, last - first);
+        List<Long> ids = new ArrayList<Long>();
+        for (Object[] document : documents) {
+            ids.add((Long) document[0]);
+        }
+        Map<Long, Map<String, AnnotationDocumentState>> states = repository
+                .getAnnotationDocumentStates(project, ids);
+
+        byte[] matrix = new byte[ids.size() * usernames.length];
+        for (int i = 0; i < documents.size(); i++) {
+            Object[] document = documents.get(i);
+            int offset = i * usernames.length;
+            Map<String, AnnotationDocumentState> documentStates = states.get(document[0]);
+            if (documentStates != null) {
+                for (int u = 0; u < usernames.length; u++) {
+                    AnnotationDocumentState state = documentStates.get(usernames[u]);
+                    matrix[offset + u] = state == null ? NO_DOCUMENT
+                            : (byte) (state.ordinal() + 1);
+                }
+            }
+            rows.add(new Row((String) document[1], (SourceDocumentState) document[2], matrix,
+                    offset));
+        }
+        return rows.iterator();
+    }
+
+    @Override
+    public long size()
+    {
+        if (project.getId() == 0) {
+            return 0;
+        }
+        if (documentCount == null) {
+            documentCount = repository.countNonTrainingSourceDocuments(project);
+        }
+        return documentCount + 1;
+    }
+
+    /**
+     * @return the last access to the project followed by the last access of each user.
+     */
+    private String[] getLastAccess()
+    {
+        if (lastAccess == null) {
+            SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+            lastAccess = new String[usernames.length + 1];
+            lastAccess[0] = repository.existsProjectTimeStamp(project) ? format
+                    .format(repository.getProjectTimeStamp(project)) : NO_ACCESS;
+            for (int u = 0; u < usernames.length; u++) {
+                lastAccess[u + 1] = repository.existsProjectTimeStamp(project, usernames[u])
+                        ? format.format(repository.getProjectTimeStamp(project, usernames[u]))
+                        : NO_ACCESS;
+            }
+        }
+        return lastAccess;
+    }
+
+    @Override
+    public IModel<Row> model(Row aObject)
+    {
+        return Model.of(aObject);
+    }
+
+    @Override
+    public void detach()
+    {
+        documentCount = null;
+        lastAccess = null;
+        super.detach();
+    }
+
+    /**
+     * A row of the table: either the last access of the users or the states of a document.
+     */
+    public static class Row
+        implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] lastAccess;
+        private final String documentName;
+        private final SourceDocumentState sourceDocumentState;
+        // The states of the whole page, shared by its rows
+        private final byte[] states;
+        private final int offset;
+
+        Row(String[] aLastAccess)
+        {
+            lastAccess = aLastAccess;
+            documentName = null;
+            sourceDocumentState = null;
+            states = null;
+            offset = 0;
+        }
+
+        Row(String aDocumentName, SourceDocumentState aSourceDocumentState, byte[] aStates,
+                int aOffset)
+        {
+            lastAccess = null;
+            documentName = aDocumentName;
+            sourceDocumentState = aSourceDocumentState;
+            states = aStates;
+            offset = aOffset;
+        }
+
+        public boolean isLastAccess()
+        {
+            return lastAccess != null;
+        }
+
+        /**
+         * @param aColumn
+         *            0 for the project, else the user plus one.
+         * @return the last access.
+         */
+        public String getLastAccess(int aColumn)
+        {
+            return lastAccess[aColumn];
+        }
+
+        public String getDocumentName()
+        {
+            return documentName;
+        }
+
+        public SourceDocumentState getSourceDocumentState()
+        {
+            return sourceDocumentState;
+        }
+
+        /**
+         * @param aUser
+         *            the user.
+         * @return the state of the annotation document of the user or {@code null} if there is
+         *         none.
+         */
+        public AnnotationDocumentState getAnnotationDocumentState(int aUser)
+        {
+            byte state = states[offset + aUser];
+            return state == NO_DOCUMENT ? null : AnnotationDocumentState.values()[state - 1];
+        }
+    }
+}
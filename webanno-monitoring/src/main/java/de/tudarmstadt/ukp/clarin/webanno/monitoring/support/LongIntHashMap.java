@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from {@code long} to non-negative {@code int} values without boxing.
+ * It holds the label ids of the agreement items of a user by packed position key (see
+ * {@link TwoPairedKappa#getItems}) and the counts of label pairs of a contingency table.
+ * <p>
+ * Slots are iterated with {@link #capacity()}, {@link #isUsed(int)}, {@link #keyAt(int)} and
+ * {@link #valueAt(int)}.
+ */
+public class LongIntHashMap
+{
+    private static final int NO_VALUE = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public LongIntHashMap()
+    {
+        this(16);
+    }
+
+    /**
+     * @param aExpectedSize
+     *            the number of entries the map can take without growing.
+     */
+    public LongIntHashMap(int aExpectedSize)
+    {
+        // Keep the load factor at or below 0.5
+        allocate(Integer.highestOneBit(Math.max(aExpectedSize, 4) * 2 - 1) << 1);
+    }
+
+    private void allocate(int aCapacity)
+    {
+        keys = new long[aCapacity];
+        values = new int[aCapacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = aCapacity - 1;
+    }
+
+    /**
+     * @param aKey
+     *            the key.
+     * @return the value or {@code -1} if there is no value for the key.
+     */
+    public int get(long aKey)
+    {
+        int slot = find(aKey);
+        return values[slot];
+    }
+
+    /**
+     * @param aKey
+     *            the key.
+     * @return whether there is a value for the key.
+     */
+    public boolean containsKey(long aKey)
+    {
+        return values[find(aKey)] != NO_VALUE;
+    }
+
+    /**
+     * Set the value of a key.
+     *
+     * @param aKey
+     *            the key.
+     * @param aValue
+     *            the value, must not be negative.
+     */
+    public void put(long aKey, int aValue)
+    {
+        if (aValue < 0) {
+            throw new IllegalArgumentException("Value must not be negative: " + aValue);
+        }
+        int slot = find(aKey);
+        if (values[slot] == NO_VALUE) {
+            keys[slot] = aKey;
+            size++;
+        }
+        values[slot] = aValue;
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Add to the value of a key, starting from 0 if there is none yet.
+     *
+     * @param aKey
+     *            the key.
+     * @param aDelta
+     *            the amount to add.
+     */
+    public void add(long aKey, int aDelta)
+    {
+        int value = get(aKey);
+        put(aKey, (value == NO_VALUE ? 0 : value) + aDelta);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int capacity()
+    {
+        return keys.length;
+    }
+
+    public boolean isUsed(int aSlot)
+    {
+        return values[aSlot] != NO_VALUE;
+    }
+
+    public long keyAt(int aSlot)
+    {
+        return keys[aSlot];
+    }
+
+    public int valueAt(int aSlot)
+    {
+        return values[aSlot];
+    }
+
+    private int find(long aKey)
+    {
+        int slot = hash(aKey) & mask;
+        while (values[slot] != NO_VALUE && keys[slot] != aKey) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_VALUE) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(long aKey)
+    {
+        long h = aKey * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+
+/**
+ * The monitoring statistics of a project at one point in time: the state of every annotation
+ * document, the progress of the users derived from it, and the agreement of the annotators for
+ * each feature. The states are held as one byte per document and user, the names of the users and
+ * documents are only stored once.
+ * <p>
+ * A snapshot is immutable. The states can be replaced by a newer snapshot which keeps the
+ * agreement (see {@link #withStates}), e.g. after the state of a document has been changed on the
+ * monitoring page.
+ */
+public class MonitoringSnapshot
+    implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final byte NO_DOCUMENT = 0;
+
+    private final long projectId;
+    private final long computedAt;
+
+    private final String[] usernames;
+    private final boolean[] annotators;
+    private final long[] documentIds;
+    private final String[] documentNames;
+    private final boolean[] trainingDocuments;
+
+    private final byte[] sourceDocumentStates;
+    // Row per document, column per user: 0 if there is no annotation document, else the ordinal
+    // of its state plus one
+    private final byte[] annotationDocumentStates;
+
+    private final Map<Long, Agreement> agreements;
+
+    /**
+     * @param aProjectId
+     *            the project.
+     * @param aComputedAt
+     *            the time at which the agreement has been computed.
+     * @param aUsernames
+     *            the users of the project.
+     * @param aAnnotators
+     *            whether each user is an annotator of the project.
+     * @param aDocumentIds
+     *            the documents of the project.
+     * @param aDocumentNames
+     *            the names of the documents.
+     * @param aTrainingDocuments
+     *            whether each document is a training document.
+     * @param aSourceDocumentStates
+     *            the state of each document.
+     * @param aAnnotationDocumentStates
+     *            the state of the annotation document of each document and user, {@code null} if
+     *            there is none.
+     * @param aAgreements
+     *            the agreement by feature id.
+     */
+    public MonitoringSnapshot(long aProjectId, long aComputedAt, List<String> aUsernames,
+            boolean[] aAnnotators, long[] aDocumentIds, List<String> aDocumentNames,
+            boolean[] aTrainingDocuments, SourceDocumentState[] aSourceDocumentStates,
+            AnnotationDocumentState[][] aAnnotationDocumentStates, Map<Long, Agreement> aAgreements)
+    {
+        projectId = aProjectId;
+        computedAt = aComputedAt;
+        usernames = aUsernames.toArray(new String[aUsernames.size()]);
+        annotators = aAnnotators;
+        documentIds = aDocumentIds;
+        documentNames = aDocumentNames.toArray(new String[aDocumentNames.size()]);
+        trainingDocuments = aTrainingDocuments;
+
+        sourceDocumentStates = new byte[documentNames.length];
+        annotationDocumentStates = new byte[documentNames.length * usernames.length];
+        for (int d = 0; d < documentNames.length; d++) {
+            sourceDocumentStates[d] = (byte) aSourceDocumentStates[d].ordinal();
+            for (int u = 0; u < usernames.length; u++) {
+                AnnotationDocumentState state = aAnnotationDocumentStates[d][u];
+                annotationDocumentStates[d * usernames.length + u] = state == null ? NO_DOCUMENT
+                        : (byte) (state.ordinal() + 1);
+            }
+        }
+        agreements = Collections.unmodifiableMap(new HashMap<Long, Agreement>(aAgreements));
+    }
+
+    private MonitoringSnapshot(MonitoringSnapshot aStates, long aComputedAt,
+            Map<Long, Agreement> aAgreements)
+    {
+        projectId = aStates.projectId;
+        computedAt = aComputedAt;
+        usernames = aStates.usernames;
+        annotators = aStates.annotators;
+        documentIds = aStates.documentIds;
+        documentNames = aStates.documentNames;
+        trainingDocuments = aStates.trainingDocuments;
+        sourceDocumentStates = aStates.sourceDocumentStates;
+        annotationDocumentStates = aStates.annotationDocumentStates;
+        agreements = aAgreements;
+    }
+
+    /**
+     * @param aStates
+     *            a newer snapshot of the document states.
+     * @return a snapshot with the document states of the given snapshot and the agreement of this
+     *         one.
+     */
+    public MonitoringSnapshot withStates(MonitoringSnapshot aStates)
+    {
+        return new MonitoringSnapshot(aStates, computedAt, agreements);
+    }
+
+    /**
+     * @param aFeatureId
+     *            the feature.
+     * @param aAgreement
+     *            the agreement of the feature.
+     * @return a snapshot which also has the agreement of the given feature.
+     */
+    public MonitoringSnapshot withAgreement(long aFeatureId, Agreement aAgreement)
+    {
+        Map<Long, Agreement> newAgreements = new HashMap<Long, Agreement>(agreements);
+        newAgreements.put(aFeatureId, aAgreement);
+        return new MonitoringSnapshot(this, computedAt,
+                Collections.unmodifiableMap(newAgreements));
+    }
+
+    public long getProjectId()
+    {
+        return projectId;
+    }
+
+    /**
+     * @return the time at which the agreement has been computed.
+     */
+    public long getComputedAt()
+    {
+        return computedAt;
+    }
+
+    public int getUserCount()
+    {
+        return usernames.length;
+    }
+
+    public String getUsername(int aUser)
+    {
+        return usernames[aUser];
+    }
+
+    public boolean isAnnotator(int aUser)
+    {
+        return annotators[aUser];
+    }
+
+    public int getDocumentCount()
+    {
+        return documentNames.length;
+    }
+
+    public long getDocumentId(int aDocument)
+    {
+        return documentIds[aDocument];
+    }
+
+    public String getDocumentName(int aDocument)
+    {
+        return documentNames[aDocument];
+    }
+
+    public boolean isTrainingDocument(int aDocument)
+    {
+        return trainingDocuments[aDocument];
+    }
+
+    public SourceDocumentState getSourceDocumentState(int aDocument)
+    {
+        return SourceDocumentState.values()[sourceDocumentStates[aDocument]];
+    }
+
+    /**
+     * @param aDocument
+     *            the document.
+     * @param aUser
+     *            the user.
+     * @return the state of the annotation document or {@code null} if there is none.
+     */
+    public AnnotationDocumentState getAnnotationDocumentState(int aDocument, int aUser)
+    {
+        byte state = annotationDocumentStates[aDocument * usernames.length + aUser];
+        return state == NO_DOCUMENT ? null : AnnotationDocumentState.values()[state - 1];
+    }
+
+    /**
+     * @return the number of finished documents by user.
+     */
+    public Map<String, Integer> getFinishedDocumentsPerUser()
+    {
+        Map<String, Integer> progress = new LinkedHashMap<String, Integer>();
+        for (int u = 0; u < usernames.length; u++) {
+            int finished = 0;
+            for (int d = 0; d < documentNames.length; d++) {
+                if (getAnnotationDocumentState(d, u) == AnnotationDocumentState.FINISHED) {
+                    finished++;
+                }
+            }
+            progress.put(usernames[u], finished);
+        }
+        return progress;
+    }
+
+    /**
+     * @return the percentage of finished documents by user. Training documents and documents the
+     *         user ignores are not counted.
+     */
+    public Map<String, Integer> getPercentageOfFinishedDocumentsPerUser()
+    {
+        Map<String, Integer> progress = new LinkedHashMap<String, Integer>();
+        for (int u = 0; u < usernames.length; u++) {
+            int finished = 0;
+            int ignored = 0;
+            int totalDocs = 0;
+            for (int d = 0; d < documentNames.length; d++) {
+                if (trainingDocuments[d]) {
+                    continue;
+                }
+                totalDocs++;
+                AnnotationDocumentState state = getAnnotationDocumentState(d, u);
+                if (state == AnnotationDocumentState.FINISHED) {
+                    finished++;
+                }
+                else if (state == AnnotationDocumentState.IGNORE) {
+                    ignored++;
+                }
+            }
+            progress.put(usernames[u],
+                    (int) Math.round((double) (finished * 100) / (totalDocs - ignored)));
+        }
+        return progress;
+    }
+
+    /**
+     * @param aFeatureId
+     *            the feature.
+     * @return the agreement of the annotators for the feature or {@code null} if it has not been
+     *         computed.
+     */
+    public Agreement getAgreement(long aFeatureId)
+    {
+        return agreements.get(aFeatureId);
+    }
+
+    /**
+     * The agreement of the annotators of a project for one feature.
+     */
+    public static class Agreement
+        implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] usernames;
+        private final double[][] pairwise;
+        private final double fleissKappa;
+        private final double krippendorffAlpha;
+        private final String[] failures;
+
+        public Agreement(List<String> aUsernames, PairwiseAgreement aAgreement)
+        {
+            this(aUsernames, aAgreement, Collections.<String> emptyList());
+        }
+
+        /**
+         * @param aUsernames
+         *            the annotators.
+         * @param aAgreement
+         *            the agreement.
+         * @param aFailures
+         *            the annotation documents whose annotations could not be loaded and which
+         *            are therefore missing from the agreement.
+         */
+        public Agreement(List<String> aUsernames, PairwiseAgreement aAgreement,
+                List<String> aFailures)
+        {
+            usernames = aUsernames.toArray(new String[aUsernames.size()]);
+            pairwise = aAgreement.getAgreement();
+            fleissKappa = aAgreement.getFleissKappa();
+            krippendorffAlpha = aAgreement.getKrippendorffAlpha();
+            failures = aFailures.toArray(new String[aFailures.size()]);
+        }
+
+        /**
+         * @return the annotators in the order of the rows and columns of
+         *         {@link #getPairwise()}.
+         */
+        public String[] getUsernames()
+        {
+            return usernames;
+        }
+
+        public double[][] getPairwise()
+        {
+            return pairwise;
+        }
+
+        public double getFleissKappa()
+        {
+            return fleissKappa;
+        }
+
+        public double getKrippendorffAlpha()
+        {
+            return krippendorffAlpha;
+        }
+
+        /**
+         * @return a message for each annotation document which is missing from the agreement
+         *         because its annotations could not be loaded.
+         */
+        public String[] getFailures()
+        {
+            return failures;
+        }
+
+        /**
+         * @return whether the annotations of all finished annotation documents are counted.
+         */
+        public boolean isComplete()
+        {
+            return failures.length == 0;
+        }
+    }
+}
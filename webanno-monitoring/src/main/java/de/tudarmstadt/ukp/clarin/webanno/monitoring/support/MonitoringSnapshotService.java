@@ -0,0 +1,525 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.MonitoringSnapshot.Agreement;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Computes a {@link MonitoringSnapshot} of every project in the background at a fixed interval,
+ * so the monitoring page does not need to query the state of every document or compute the
+ * agreement while the user waits. The page shows when the snapshot has been computed and can ask
+ * for a new one.
+ * <p>
+ * All snapshots are computed on a single low-priority daemon thread. A refresh which is requested
+ * while the same project is already being computed waits for that computation instead of starting
+ * another one.
+ * <p>
+ * The agreement of a feature is taken from its stored {@link AgreementTable} if that has been
+ * kept up to date with the documents finished since, so only an explicit refresh reads the
+ * annotations of all documents again.
+ */
+public class MonitoringSnapshotService
+{
+    private static final Log LOG = LogFactory.getLog(MonitoringSnapshotService.class);
+
+    /**
+     * Number of documents of which the states are read with one query.
+     */
+    private static final int STATES_CHUNK_SIZE = 1000;
+
+    @Resource(name = "documentRepository")
+    private RepositoryService repository;
+
+    @Resource(name = "annotationService")
+    private AnnotationService annotationService;
+
+    @Resource(name = "agreementPool")
+    private AgreementPool agreementPool;
+
+    private int interval = 0;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private final Map<Long, MonitoringSnapshot> snapshots = new HashMap<Long, MonitoringSnapshot>();
+
+    private final Map<Long, Future<MonitoringSnapshot>> running = new HashMap<Long, Future<MonitoringSnapshot>>();
+
+    public void init()
+    {
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread thread = new Thread(aRunnable, "monitoring-snapshot");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    refreshAll();
+                }
+            }, interval, interval, TimeUnit.MINUTES);
+            LOG.info("Monitoring snapshot interval: " + interval + " minutes");
+        }
+        else {
+            LOG.info("Monitoring snapshots are only computed on demand");
+        }
+    }
+
+    public void destroy()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the latest snapshot of a project, computing it if there is none yet.
+     *
+     * @param aProject
+     *            the project.
+     * @return the snapshot.
+     */
+    public MonitoringSnapshot getSnapshot(Project aProject)
+    {
+        synchronized (snapshots) {
+            MonitoringSnapshot snapshot = snapshots.get(aProject.getId());
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+        return refresh(aProject, false);
+    }
+
+    /**
+     * Compute a new snapshot of a project and wait for it. The agreement is computed from all
+     * documents and the stored agreement tables are replaced.
+     *
+     * @param aProject
+     *            the project.
+     * @return the new snapshot.
+     */
+    public MonitoringSnapshot refresh(Project aProject)
+    {
+        return refresh(aProject, true);
+    }
+
+    private MonitoringSnapshot refresh(Project aProject, boolean aRebuild)
+    {
+        Future<MonitoringSnapshot> future = submit(aProject, aRebuild);
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to compute the monitoring snapshot of project ["
+                    + aProject.getName() + "]", e.getCause());
+        }
+    }
+
+    /**
+     * Read the document states of a project again, e.g. after they have been changed on the
+     * monitoring page. The agreement is taken from the stored agreement tables which match the new
+     * states, the agreement of the latest snapshot is kept for the other features. This is done
+     * in the calling thread since it only needs a few queries and does not read any annotations.
+     *
+     * @param aProject
+     *            the project.
+     * @return the updated snapshot.
+     */
+    public MonitoringSnapshot refreshStates(Project aProject)
+    {
+        MonitoringSnapshot states = computeStates(aProject, System.currentTimeMillis(),
+                new HashMap<Long, Agreement>());
+        MonitoringSnapshot snapshot;
+        synchronized (snapshots) {
+            snapshot = snapshots.get(aProject.getId());
+            snapshot = snapshot != null ? snapshot.withStates(states) : states;
+        }
+        for (AnnotationFeature feature : annotationService.listAnnotationFeature(aProject)) {
+            if (isAgreementFeature(feature)) {
+                AgreementTable table = loadTable(snapshot, aProject, feature);
+                if (table != null) {
+                    snapshot = snapshot.withAgreement(feature.getId(), new Agreement(
+                            table.getUsernames(), table.getAgreement()));
+                }
+            }
+        }
+        synchronized (snapshots) {
+            snapshots.put(aProject.getId(), snapshot);
+            return snapshot;
+        }
+    }
+
+    /**
+     * Get the agreement of a feature from the latest snapshot. If the snapshot does not contain
+     * the feature yet, e.g. because it has been created since, the agreement is computed and
+     * added to the snapshot.
+     *
+     * @param aProject
+     *            the project.
+     * @param aFeature
+     *            the feature.
+     * @return the agreement.
+     */
+    public Agreement getAgreement(Project aProject, AnnotationFeature aFeature)
+    {
+        MonitoringSnapshot snapshot = getSnapshot(aProject);
+        Agreement agreement = snapshot.getAgreement(aFeature.getId());
+        if (agreement == null) {
+            agreement = computeAgreement(snapshot, aProject, aFeature, false);
+            synchronized (snapshots) {
+                MonitoringSnapshot latest = snapshots.get(aProject.getId());
+                snapshots.put(aProject.getId(), (latest != null ? latest : snapshot)
+                        .withAgreement(aFeature.getId(), agreement));
+            }
+        }
+        return agreement;
+    }
+
+    /**
+     * Compute the snapshots of all projects. This runs on the thread of the executor, so the
+     * snapshots are computed right here - submitting them to the executor and waiting for them
+     * would wait forever. Requests for a project which is being computed wait for it as usual.
+     */
+    private void refreshAll()
+    {
+        for (Project project : repository.listProjects()) {
+            FutureTask<MonitoringSnapshot> task = newTask(project, false);
+            synchronized (running) {
+                Future<MonitoringSnapshot> future = running.get(project.getId());
+                if (future != null && !future.isDone()) {
+                    continue;
+                }
+                running.put(project.getId(), task);
+            }
+            task.run();
+            try {
+                task.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException e) {
+                LOG.error("Unable to compute the monitoring snapshot of project ["
+                        + project.getName() + "]", e.getCause());
+            }
+        }
+    }
+
+    private Future<MonitoringSnapshot> submit(Project aProject, boolean aRebuild)
+    {
+        synchronized (running) {
+            Future<MonitoringSnapshot> future = running.get(aProject.getId());
+            if (future != null && !future.isDone()) {
+                return future;
+            }
+
+            FutureTask<MonitoringSnapshot> task = newTask(aProject, aRebuild);
+            executor.execute(task);
+            running.put(aProject.getId(), task);
+            return task;
+        }
+    }
+
+    /**
+     * @return a task which computes the snapshot of a project and makes it the latest one.
+     */
+    private FutureTask<MonitoringSnapshot> newTask(final Project aProject,
+            final boolean aRebuild)
+    {
+        return new FutureTask<MonitoringSnapshot>(new Callable<MonitoringSnapshot>()
+        {
+            @Override
+            public MonitoringSnapshot call()
+            {
+                long start = System.currentTimeMillis();
+                MonitoringSnapshot snapshot = compute(aProject, aRebuild);
+                synchronized (snapshots) {
+                    snapshots.put(aProject.getId(), snapshot);
+                }
+                LOG.info("Computed monitoring snapshot of project [" + aProject.getName()
+                        + "] in " + (System.currentTimeMillis() - start) + "ms");
+                return snapshot;
+            }
+        });
+    }
+
+    private MonitoringSnapshot compute(Project aProject, boolean aRebuild)
+    {
+        MonitoringSnapshot snapshot = computeStates(aProject, System.currentTimeMillis(),
+                new HashMap<Long, Agreement>());
+        for (AnnotationFeature feature : annotationService.listAnnotationFeature(aProject)) {
+            if (isAgreementFeature(feature)) {
+                snapshot = snapshot.withAgreement(feature.getId(),
+                        computeAgreement(snapshot, aProject, feature, aRebuild));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return whether the agreement can be computed for the feature, the same as the features
+     *         offered on the monitoring page.
+     */
+    public static boolean isAgreementFeature(AnnotationFeature aFeature)
+    {
+        return !aFeature.getLayer().getName().equals(Token.class.getName())
+                && !aFeature.getLayer().getName().equals(WebAnnoConst.COREFERENCE_LAYER);
+    }
+
+    private MonitoringSnapshot computeStates(Project aProject, long aComputedAt,
+            Map<Long, Agreement> aAgreements)
+    {
+        List<User> users = repository.listProjectUsersWithPermissions(aProject);
+        Set<String> annotatorNames = new HashSet<String>();
+        for (User user : repository.listProjectUsersWithPermissions(aProject,
+                PermissionLevel.USER)) {
+            annotatorNames.add(user.getUsername());
+        }
+
+        List<String> usernames = new ArrayList<String>();
+        boolean[] annotators = new boolean[users.size()];
+        Map<String, Integer> userIndex = new HashMap<String, Integer>();
+        for (User user : users) {
+            annotators[usernames.size()] = annotatorNames.contains(user.getUsername());
+            userIndex.put(user.getUsername(), usernames.size());
+            usernames.add(user.getUsername());
+        }
+
+        List<SourceDocument> documents = repository.listSourceDocuments(aProject);
+        long[] documentIds = new long[documents.size()];
+        List<String> documentNames = new ArrayList<String>();
+        boolean[] training = new boolean[documents.size()];
+        SourceDocumentState[] sourceDocumentStates = new SourceDocumentState[documents.size()];
+        AnnotationDocumentState[][] annotationDocumentStates = new AnnotationDocumentState[documents
+                .size()][users.size()];
+        for (SourceDocument document : documents) {
+            int d = documentNames.size();
+            documentIds[d] = document.getId();
+            documentNames.add(document.getName());
+            training[d] = document.isTrainingDocument();
+            sourceDocumentStates[d] = document.getState();
+        }
+
+        // Only the states are read, one query for a chunk of documents
+        for (int first = 0; first < documents.size(); first += STATES_CHUNK_SIZE) {
+            int last = Math.min(first + STATES_CHUNK_SIZE, documents.size());
+            List<Long> ids = new ArrayList<Long>();
+            for (int d = first; d < last; d++) {
+                ids.add(documentIds[d]);
+            }
+            Map<Long, Map<String, AnnotationDocumentState>> states = repository
+                    .getAnnotationDocumentStates(aProject, ids);
+            for (int d = first; d < last; d++) {
+                Map<String, AnnotationDocumentState> documentStates = states.get(documentIds[d]);
+                if (documentStates == null) {
+                    continue;
+                }
+                for (Entry<String, AnnotationDocumentState> state : documentStates.entrySet()) {
+                    Integer u = userIndex.get(state.getKey());
+                    if (u != null) {
+                        annotationDocumentStates[d][u] = state.getValue();
+                    }
+                }
+            }
+        }
+
+        return new MonitoringSnapshot(aProject.getId(), aComputedAt, usernames, annotators,
+                documentIds, documentNames, training, sourceDocumentStates,
+                annotationDocumentStates, aAgreements);
+    }
+
+    /**
+     * Compute the agreement of the annotators of a project for a feature. Unless a rebuild is
+     * requested, the stored {@link AgreementTable} is used if it matches the snapshot.
+     * <p>
+     * Otherwise the documents are visited one at a time. For each finished document, only the
+     * stored labels of the feature by annotation position are loaded (see
+     * {@link AgreementTuples}). The CAS is only read if they are not available, and it is
+     * released again before the next document is visited. The resulting table is stored, so it
+     * can be updated when the next document is finished. If the annotations of any user could
+     * not be loaded, the table is not stored and the failures are recorded in the agreement.
+     */
+    private Agreement computeAgreement(MonitoringSnapshot aSnapshot, Project aProject,
+            AnnotationFeature aFeature, boolean aRebuild)
+    {
+        if (!aRebuild) {
+            AgreementTable table = loadTable(aSnapshot, aProject, aFeature);
+            if (table != null) {
+                return new Agreement(table.getUsernames(), table.getAgreement());
+            }
+        }
+
+        String type = AgreementTuples.getTypeName(annotationService, aFeature);
+
+        List<String> usernames = getAnnotators(aSnapshot);
+        AgreementTable table = new AgreementTable(usernames, agreementPool);
+        PairwiseAgreement agreement = table.getAgreement();
+        List<String> failures = new ArrayList<String>();
+        for (int d = 0; d < aSnapshot.getDocumentCount(); d++) {
+            if (aSnapshot.isTrainingDocument(d)) {
+                continue;
+            }
+            Set<String> finished = getFinishedAnnotators(aSnapshot, d);
+            if (finished.isEmpty()) {
+                continue;
+            }
+
+            SourceDocument document = repository.getSourceDocument(aProject,
+                    aSnapshot.getDocumentName(d));
+            Map<String, LongIntHashMap> annotations = new HashMap<String, LongIntHashMap>();
+            for (AnnotationDocument annotationDocument : repository
+                    .listAnnotationDocuments(document)) {
+                String username = annotationDocument.getUser();
+                if (!finished.contains(username)) {
+                    continue;
+                }
+                try {
+                    annotations.put(username, AgreementTuples.load(repository,
+                            annotationDocument, type, aFeature.getName(), agreement.getLabels()));
+                }
+                catch (Exception e) {
+                    // The user is left out of the agreement on this document
+                    LOG.error("Unable to load the annotations of document ["
+                            + document.getName() + "] user [" + username + "]", e);
+                    failures.add("Unable to load the annotations of document ["
+                            + document.getName() + "] user [" + username + "]: "
+                            + ExceptionUtils.getRootCauseMessage(e));
+                }
+            }
+            table.addDocument(aSnapshot.getDocumentId(d), annotations);
+        }
+
+        // A table which misses raters would never match the snapshot, so it is not stored. The
+        // incomplete agreement is kept in the snapshot until the next snapshot tries again.
+        if (failures.isEmpty()) {
+            table.save(repository, aProject, aFeature);
+        }
+        else {
+            LOG.warn("Not storing the agreement of feature [" + aFeature.getName()
+                    + "] of project [" + aProject.getName() + "] - " + failures.size()
+                    + " annotation documents could not be loaded");
+        }
+        return new Agreement(usernames, agreement, failures);
+    }
+
+    /**
+     * Load the stored agreement table of a feature if it has been computed for the annotators of
+     * the snapshot and counts exactly the documents they finished.
+     *
+     * @return the table or {@code null} if there is no matching table.
+     */
+    private AgreementTable loadTable(MonitoringSnapshot aSnapshot, Project aProject,
+            AnnotationFeature aFeature)
+    {
+        AgreementTable table = AgreementTable.load(repository, aProject, aFeature,
+                agreementPool);
+        if (table == null || !table.getUsernames().equals(getAnnotators(aSnapshot))) {
+            return null;
+        }
+        int counted = 0;
+        for (int d = 0; d < aSnapshot.getDocumentCount(); d++) {
+            if (aSnapshot.isTrainingDocument(d)) {
+                continue;
+            }
+            Set<String> finished = getFinishedAnnotators(aSnapshot, d);
+            if (!finished.equals(table.getRaters(aSnapshot.getDocumentId(d)))) {
+                return null;
+            }
+            if (!finished.isEmpty()) {
+                counted++;
+            }
+        }
+        // Documents which have been deleted since are still counted
+        return counted == table.getDocumentIds().size() ? table : null;
+    }
+
+    private static List<String> getAnnotators(MonitoringSnapshot aSnapshot)
+    {
+        List<String> usernames = new ArrayList<String>();
+        for (int u = 0; u < aSnapshot.getUserCount(); u++) {
+            if (aSnapshot.isAnnotator(u)) {
+                usernames.add(aSnapshot.getUsername(u));
+            }
+        }
+        return usernames;
+    }
+
+    private static Set<String> getFinishedAnnotators(MonitoringSnapshot aSnapshot, int aDocument)
+    {
+        Set<String> finished = new HashSet<String>();
+        for (int u = 0; u < aSnapshot.getUserCount(); u++) {
+            if (aSnapshot.isAnnotator(u) && aSnapshot.getAnnotationDocumentState(aDocument,
+                    u) == AnnotationDocumentState.FINISHED) {
+                finished.add(aSnapshot.getUsername(u));
+            }
+        }
+        return finished;
+    }
+
+    public void setInterval(int aInterval)
+    {
+        interval = aInterval;
+    }
+}
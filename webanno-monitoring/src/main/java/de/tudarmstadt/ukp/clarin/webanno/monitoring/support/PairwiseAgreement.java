@@ -0,0 +1,485 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates the agreement of a set of users one document at a time. For each document, only the
+ * label ids of the users by annotation position are passed in, as obtained from
+ * {@link TwoPairedKappa#getItems} with the {@link #getLabels() labels} of this computation, so the
+ * CASes of a document can be released before the next document is read.
+ * <p>
+ * Each document is turned into one table of items by users in a single pass over the annotations
+ * of all users. All agreement measures are derived from this table:
+ * <ul>
+ * <li>the pairwise Cohen's kappa, i.e. the expected agreement is computed from the label
+ * distributions of the two users, the same as {@code TwoRaterKappaAgreement} of DKPro Statistics.
+ * For each pair of users, only the counts of the label id combinations are kept. The pairs are
+ * independent of each other and can be processed on an {@link AgreementPool}.</li>
+ * <li>Fleiss' kappa and Krippendorff's alpha (nominal) over all users. Only the number of users
+ * per label and item is needed for both, so they are accumulated while the table is built. An
+ * item is rated by the users who finished its document, so the number of raters may differ
+ * between items.</li>
+ * </ul>
+ * All counts are additive, so the contribution of a document can be taken back with
+ * {@link #removeDocument} when the set of users who finished it changes (see
+ * {@link AgreementTable}).
+ */
+public class PairwiseAgreement
+{
+    private final List<String> usernames;
+    private final AgreementPool pool;
+    private final AgreementLabels labels = new AgreementLabels();
+    // Number of documents each user finished
+    private final int[] finished;
+    private final Contingency[][] contingencies;
+
+    // Number of ratings per label id over all items with at least two raters
+    private long[] labelRatings = new long[0];
+    private long ratings = 0;
+    private int multiRaterItems = 0;
+    // Sum of the agreement of the items for Fleiss' kappa
+    private double itemAgreement = 0;
+    // Sum of the diagonal of the coincidence matrix for Krippendorff's alpha
+    private double coincidences = 0;
+
+    /**
+     * @param aUsernames
+     *            the users in the order of the rows and columns of the agreement matrix.
+     */
+    public PairwiseAgreement(List<String> aUsernames)
+    {
+        this(aUsernames, null);
+    }
+
+    /**
+     * @param aUsernames
+     *            the users in the order of the rows and columns of the agreement matrix.
+     * @param aPool
+     *            the pool on which the pairs of users are processed or {@code null} to process
+     *            them in the calling thread.
+     */
+    public PairwiseAgreement(List<String> aUsernames, AgreementPool aPool)
+    {
+        usernames = aUsernames;
+        pool = aPool;
+        finished = new int[aUsernames.size()];
+        contingencies = new Contingency[aUsernames.size()][aUsernames.size()];
+    }
+
+    /**
+     * @return the label ids to be used for the items passed to {@link #addDocument}.
+     */
+    public AgreementLabels getLabels()
+    {
+        return labels;
+    }
+
+    /**
+     * Add the annotations of the users who finished a document. Every pair of these users is
+     * compared on the union of their annotation positions, a position a user did not annotate
+     * counts as <b>EMPTY</b>.
+     *
+     * @param aAnnotationsByUser
+     *            the label ids by annotation position of each user who finished the document.
+     */
+    public void addDocument(Map<String, LongIntHashMap> aAnnotationsByUser)
+    {
+        update(aAnnotationsByUser, 1);
+    }
+
+    /**
+     * Take back the contribution of a document which has been added before.
+     *
+     * @param aAnnotationsByUser
+     *            the same annotations which have been passed to {@link #addDocument}.
+     */
+    public void removeDocument(Map<String, LongIntHashMap> aAnnotationsByUser)
+    {
+        update(aAnnotationsByUser, -1);
+    }
+
+    private void update(Map<String, LongIntHashMap> aAnnotationsByUser, final int aSign)
+    {
+        List<Integer> raters = new ArrayList<Integer>();
+        for (int i = 0; i < usernames.size(); i++) {
+            if (aAnnotationsByUser.get(usernames.get(i)) != null) {
+                raters.add(i);
+                finished[i] += aSign;
+            }
+        }
+
+        final int[][] table = buildTable(aAnnotationsByUser, raters);
+        addMultiRaterItems(table, raters, aSign);
+
+        List<int[]> pairs = new ArrayList<int[]>();
+        for (int i = 0; i < raters.size(); i++) {
+            for (int j = i + 1; j < raters.size(); j++) {
+                if (contingencies[raters.get(i)][raters.get(j)] == null) {
+                    contingencies[raters.get(i)][raters.get(j)] = new Contingency();
+                }
+                pairs.add(new int[] { raters.get(i), raters.get(j) });
+            }
+        }
+
+        // Each pair only updates its own contingency
+        AgreementPool.run(pool, pairs.toArray(new int[pairs.size()][]),
+                new AgreementPool.PairTask()
+                {
+                    @Override
+                    public void run(int aUser1, int aUser2)
+                    {
+                        contingencies[aUser1][aUser2].add(table[aUser1], table[aUser2], aSign);
+                    }
+                });
+    }
+
+    /**
+     * Build the table of the label ids of the users by item, the items being the union of the
+     * annotation positions of all users. A position a user did not annotate is {@code -1}.
+     *
+     * @return the row of labels of each user, {@code null} for users who did not finish the
+     *         document.
+     */
+    private int[][] buildTable(Map<String, LongIntHashMap> aAnnotationsByUser,
+            List<Integer> aRaters)
+    {
+        LongIntHashMap items = new LongIntHashMap();
+        for (int rater : aRaters) {
+            LongIntHashMap annotations = aAnnotationsByUser.get(usernames.get(rater));
+            for (int slot = 0; slot < annotations.capacity(); slot++) {
+                if (annotations.isUsed(slot) && !items.containsKey(annotations.keyAt(slot))) {
+                    items.put(annotations.keyAt(slot), items.size());
+                }
+            }
+        }
+
+        int[][] table = new int[usernames.size()][];
+        for (int rater : aRaters) {
+            int[] row = new int[items.size()];
+            Arrays.fill(row, -1);
+            LongIntHashMap annotations = aAnnotationsByUser.get(usernames.get(rater));
+            for (int slot = 0; slot < annotations.capacity(); slot++) {
+                if (annotations.isUsed(slot)) {
+                    row[items.get(annotations.keyAt(slot))] = annotations.valueAt(slot);
+                }
+            }
+            table[rater] = row;
+        }
+        return table;
+    }
+
+    /**
+     * Add the items of a document to Fleiss' kappa and Krippendorff's alpha, or remove them if
+     * the sign is negative. A position a user who finished the document did not annotate counts
+     * as <b>EMPTY</b>.
+     */
+    private void addMultiRaterItems(int[][] aTable, List<Integer> aRaters, int aSign)
+    {
+        int raterCount = aRaters.size();
+        if (raterCount < 2) {
+            return;
+        }
+
+        int labelCount = labels.size();
+        if (labelRatings.length < labelCount) {
+            labelRatings = Arrays.copyOf(labelRatings, labelCount);
+        }
+
+        int itemCount = aTable[aRaters.get(0)].length;
+        int[] counts = new int[labelCount];
+        int[] seen = new int[raterCount];
+        for (int item = 0; item < itemCount; item++) {
+            int seenCount = 0;
+            for (int rater : aRaters) {
+                int label = aTable[rater][item];
+                if (label == -1) {
+                    label = AgreementLabels.EMPTY_ID;
+                }
+                if (counts[label]++ == 0) {
+                    seen[seenCount++] = label;
+                }
+            }
+
+            long agreeingPairs = 0;
+            for (int s = 0; s < seenCount; s++) {
+                int label = seen[s];
+                agreeingPairs += (long) counts[label] * (counts[label] - 1);
+                labelRatings[label] += aSign * counts[label];
+                counts[label] = 0;
+            }
+            itemAgreement += aSign * (double) agreeingPairs
+                    / ((long) raterCount * (raterCount - 1));
+            coincidences += aSign * (double) agreeingPairs / (raterCount - 1);
+            ratings += aSign * raterCount;
+            multiRaterItems += aSign;
+        }
+    }
+
+    /**
+     * Compute the kappa of each pair of users. Only the upper triangle of the matrix is computed,
+     * the lower one is mirrored.
+     *
+     * @return the kappa of each pair of users, rounded to two decimals. A user agrees with
+     *         themselves if they finished at least one document. The agreement of users who have
+     *         no annotation positions in common documents is 0.
+     */
+    public double[][] getAgreement()
+    {
+        final int labelCount = labels.size();
+        final double[][] results = new double[usernames.size()][usernames.size()];
+        List<int[]> pairs = new ArrayList<int[]>();
+        for (int i = 0; i < usernames.size(); i++) {
+            if (finished[i] > 0) {
+                results[i][i] = 1.0;
+            }
+            for (int j = i + 1; j < usernames.size(); j++) {
+                if (contingencies[i][j] != null && contingencies[i][j].items > 0) {
+                    pairs.add(new int[] { i, j });
+                }
+            }
+        }
+
+        // Each pair only writes its own cells
+        AgreementPool.run(pool, pairs.toArray(new int[pairs.size()][]),
+                new AgreementPool.PairTask()
+                {
+                    @Override
+                    public void run(int aUser1, int aUser2)
+                    {
+                        double kappa = round(contingencies[aUser1][aUser2].getKappa(labelCount));
+                        results[aUser1][aUser2] = kappa;
+                        results[aUser2][aUser1] = kappa;
+                    }
+                });
+        return results;
+    }
+
+    /**
+     * Compute Fleiss' kappa over all users. The agreement of an item is the share of agreeing
+     * pairs among its raters, the expected agreement is computed from the label distribution over
+     * all ratings.
+     *
+     * @return Fleiss' kappa, rounded to two decimals, or {@link Double#NaN} if no item has been
+     *         rated by at least two users.
+     */
+    public double getFleissKappa()
+    {
+        if (multiRaterItems == 0) {
+            return Double.NaN;
+        }
+        double observed = itemAgreement / multiRaterItems;
+        double expected = 0;
+        for (long labelRating : labelRatings) {
+            double share = (double) labelRating / ratings;
+            expected += share * share;
+        }
+        return round((observed - expected) / (1.0 - expected));
+    }
+
+    /**
+     * Compute Krippendorff's alpha for nominal data over all users from the coincidences of the
+     * labels within the items.
+     *
+     * @return Krippendorff's alpha, rounded to two decimals, or {@link Double#NaN} if no item has
+     *         been rated by at least two users.
+     */
+    public double getKrippendorffAlpha()
+    {
+        if (multiRaterItems == 0) {
+            return Double.NaN;
+        }
+        double n = ratings;
+        double sameLabelPairs = 0;
+        for (long labelRating : labelRatings) {
+            sameLabelPairs += (double) labelRating * labelRating;
+        }
+        return round(1.0 - (n - 1) * (n - coincidences) / (n * n - sameLabelPairs));
+    }
+
+    /**
+     * Write the labels and all counts, see {@link #read}.
+     *
+     * @param aOut
+     *            the stream.
+     * @throws IOException
+     *             if the counts cannot be written.
+     */
+    void write(DataOutputStream aOut)
+        throws IOException
+    {
+        aOut.writeInt(labels.size());
+        for (int i = 0; i < labels.size(); i++) {
+            aOut.writeUTF(labels.getLabel(i));
+        }
+        for (int i = 0; i < usernames.size(); i++) {
+            aOut.writeInt(finished[i]);
+        }
+        for (int i = 0; i < usernames.size(); i++) {
+            for (int j = i + 1; j < usernames.size(); j++) {
+                Contingency contingency = contingencies[i][j];
+                if (contingency == null || contingency.items == 0) {
+                    aOut.writeInt(0);
+                    continue;
+                }
+                aOut.writeInt(contingency.items);
+                int entries = 0;
+                for (int slot = 0; slot < contingency.counts.capacity(); slot++) {
+                    if (contingency.counts.isUsed(slot) && contingency.counts.valueAt(slot) != 0) {
+                        entries++;
+                    }
+                }
+                aOut.writeInt(entries);
+                for (int slot = 0; slot < contingency.counts.capacity(); slot++) {
+                    if (contingency.counts.isUsed(slot) && contingency.counts.valueAt(slot) != 0) {
+                        aOut.writeLong(contingency.counts.keyAt(slot));
+                        aOut.writeInt(contingency.counts.valueAt(slot));
+                    }
+                }
+            }
+        }
+        aOut.writeInt(labelRatings.length);
+        for (long labelRating : labelRatings) {
+            aOut.writeLong(labelRating);
+        }
+        aOut.writeLong(ratings);
+        aOut.writeInt(multiRaterItems);
+        aOut.writeDouble(itemAgreement);
+        aOut.writeDouble(coincidences);
+    }
+
+    /**
+     * Read the counts written by {@link #write}.
+     *
+     * @param aIn
+     *            the stream.
+     * @param aUsernames
+     *            the users the counts have been written for.
+     * @param aPool
+     *            the pool on which the pairs of users are processed or {@code null}.
+     * @return the agreement.
+     * @throws IOException
+     *             if the counts cannot be read.
+     */
+    static PairwiseAgreement read(DataInputStream aIn, List<String> aUsernames,
+            AgreementPool aPool)
+        throws IOException
+    {
+        PairwiseAgreement agreement = new PairwiseAgreement(aUsernames, aPool);
+        int labelCount = aIn.readInt();
+        for (int i = 0; i < labelCount; i++) {
+            // The labels are assigned the same ids in the same order
+            agreement.labels.getId(aIn.readUTF());
+        }
+        for (int i = 0; i < aUsernames.size(); i++) {
+            agreement.finished[i] = aIn.readInt();
+        }
+        for (int i = 0; i < aUsernames.size(); i++) {
+            for (int j = i + 1; j < aUsernames.size(); j++) {
+                int items = aIn.readInt();
+                if (items == 0) {
+                    continue;
+                }
+                Contingency contingency = new Contingency();
+                contingency.items = items;
+                int entries = aIn.readInt();
+                for (int e = 0; e < entries; e++) {
+                    long key = aIn.readLong();
+                    contingency.counts.put(key, aIn.readInt());
+                }
+                agreement.contingencies[i][j] = contingency;
+            }
+        }
+        agreement.labelRatings = new long[aIn.readInt()];
+        for (int i = 0; i < agreement.labelRatings.length; i++) {
+            agreement.labelRatings[i] = aIn.readLong();
+        }
+        agreement.ratings = aIn.readLong();
+        agreement.multiRaterItems = aIn.readInt();
+        agreement.itemAgreement = aIn.readDouble();
+        agreement.coincidences = aIn.readDouble();
+        return agreement;
+    }
+
+    private static double round(double aValue)
+    {
+        return (double) Math.round(aValue * 100) / 100;
+    }
+
+    /**
+     * The number of items per combination of the label id of the first and the second user,
+     * keyed by both ids packed into a {@code long}.
+     */
+    private static class Contingency
+    {
+        private final LongIntHashMap counts = new LongIntHashMap();
+        private int items = 0;
+
+        void add(int[] aLabels1, int[] aLabels2, int aSign)
+        {
+            for (int item = 0; item < aLabels1.length; item++) {
+                // Only the positions annotated by at least one of the two users are compared
+                if (aLabels1[item] == -1 && aLabels2[item] == -1) {
+                    continue;
+                }
+                add(aLabels1[item] != -1 ? aLabels1[item] : AgreementLabels.EMPTY_ID,
+                        aLabels2[item] != -1 ? aLabels2[item] : AgreementLabels.EMPTY_ID, aSign);
+            }
+        }
+
+        private void add(int aLabel1, int aLabel2, int aSign)
+        {
+            counts.add(((long) aLabel1 << 32) | aLabel2, aSign);
+            items += aSign;
+        }
+
+        double getKappa(int aLabelCount)
+        {
+            int[] marginals1 = new int[aLabelCount];
+            int[] marginals2 = new int[aLabelCount];
+            long agreeing = 0;
+            for (int slot = 0; slot < counts.capacity(); slot++) {
+                if (counts.isUsed(slot)) {
+                    int label1 = (int) (counts.keyAt(slot) >>> 32);
+                    int label2 = (int) counts.keyAt(slot);
+                    int count = counts.valueAt(slot);
+                    marginals1[label1] += count;
+                    marginals2[label2] += count;
+                    if (label1 == label2) {
+                        agreeing += count;
+                    }
+                }
+            }
+
+            double observed = (double) agreeing / items;
+            double expected = 0;
+            for (int label = 0; label < aLabelCount; label++) {
+                expected += (double) marginals1[label] * marginals2[label];
+            }
+            expected /= (double) items * items;
+            return (observed - expected) / (1.0 - expected);
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -129,6 +130,132 @@ public class TwoPairedKappa
     public Map<String, Map<String, String>> updateUserAnnotations(User aUser,
             Map<String, Map<String, String>> aUserAnnotations, Long docId, String aType,
             String aLableFeatureName, JCas aJcas)
+    {
+        updateAnnotations(aUserAnnotations.get(aUser.getUsername()), docId, aType,
+                aLableFeatureName, aJcas);
+        // return the updated annotations
+        return aUserAnnotations;
+    }
+
+    /**
+     * Get the labels of a single user in a single document. Only these (position, label) pairs are
+     * needed to compute the agreement, so the CAS can be released afterwards.
+     *
+     * @param aJcas
+     *            the JCas of the user.
+     * @param docId
+     *            the document ID.
+     * @param aType
+     *            the UIMA type name
+     * @param aLableFeatureName
+     *            the feature of the UIMA annotation
+     * @return the labels by annotation position, <b>EMPTY</b> for annotations without a label.
+     */
+    public Map<String, String> getAnnotations(JCas aJcas, Long docId, String aType,
+            String aLableFeatureName)
+    {
+        Map<String, String> annotations = new HashMap<String, String>();
+        for (String annotationPosition : getAnnotationPositions(aJcas, docId, aType)) {
+            annotations.put(annotationPosition, EMPTY);
+        }
+        updateAnnotations(annotations, docId, aType, aLableFeatureName, aJcas);
+        return annotations;
+    }
+
+    /**
+     * Get the agreement items of a single user in a single document. This is the same as
+     * {@link #getAnnotations}, but the positions are packed into {@code long} keys (see
+     * {@link #getKey}) and the labels are replaced by their ids. The document is not part of the
+     * key because items are only compared within the same document.
+     *
+     * @param aJcas
+     *            the JCas of the user.
+     * @param aType
+     *            the UIMA type name
+     * @param aLableFeatureName
+     *            the feature of the UIMA annotation
+     * @param aLabels
+     *            the label ids of the agreement computation.
+     * @return the label ids by position key, {@link AgreementLabels#EMPTY_ID} for annotations
+     *         without a label.
+     */
+    public LongIntHashMap getItems(JCas aJcas, String aType, String aLableFeatureName,
+            AgreementLabels aLabels)
+    {
+        Type type = CasUtil.getType(aJcas.getCas(), aType);
+        LongIntHashMap items = new LongIntHashMap(aJcas.getAnnotationIndex(type).size());
+        KeyBuilder parentKey = new KeyBuilder();
+        KeyBuilder subKey = new KeyBuilder();
+
+        for (AnnotationFS fs : CasUtil.select(aJcas.getCas(), type)) {
+            Feature labelFeature = fs.getType().getFeatureByBaseName(aLableFeatureName);
+            boolean labeled = fs.getStringValue(labelFeature) != null;
+
+            parentKey.reset();
+            String parentValue = "";
+            Set<FeatureStructure> featureStructures = CasDiff.traverseFS(fs);
+            for (FeatureStructure subFS : featureStructures) {
+                Type subType = subFS.getType();
+                if (subType.getName().equals(Token.class.getName())) {
+                    continue;
+                }
+                if (subType.getName().equals(type.getName())) {
+                    parentKey.add(type, subFS);
+                    if (labeled) {
+                        parentValue = parentValue + getValue(type, subFS);
+                    }
+                    continue;
+                }
+                parentKey.add(subType, subFS);
+                subKey.reset();
+                subKey.add(subType, subFS);
+                if (labeled) {
+                    parentValue = parentValue + getValue(subType, subFS);
+                    items.put(subKey.getKey(), aLabels.getId(getValue(type, fs)));
+                }
+                else if (!items.containsKey(subKey.getKey())) {
+                    items.put(subKey.getKey(), AgreementLabels.EMPTY_ID);
+                }
+            }
+
+            // A label always replaces an EMPTY from another annotation at the same position
+            if (labeled) {
+                items.put(parentKey.getKey(), aLabels.getId(parentValue));
+            }
+            else if (!items.containsKey(parentKey.getKey())) {
+                items.put(parentKey.getKey(), AgreementLabels.EMPTY_ID);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Pack the integer feature values of a position into a key. A position with two non-negative
+     * values, i.e. the begin and end offsets of a plain span, is packed losslessly with the
+     * highest bit cleared. Any other position is hashed to 63 bits and gets the highest bit set.
+     *
+     * @param aValues
+     *            the integer feature values.
+     * @param aCount
+     *            the number of values used.
+     * @return the key.
+     */
+    static long getKey(int[] aValues, int aCount)
+    {
+        if (aCount == 2 && aValues[0] >= 0 && aValues[1] >= 0) {
+            return ((long) aValues[0] << 32) | aValues[1];
+        }
+
+        long h = 0x9E3779B97F4A7C15L * (aCount + 1);
+        for (int i = 0; i < aCount; i++) {
+            h = (h ^ aValues[i]) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        return h | Long.MIN_VALUE;
+    }
+
+    private void updateAnnotations(Map<String, String> aAnnotations, Long docId, String aType,
+            String aLableFeatureName, JCas aJcas)
     {
         Type type = CasUtil.getType(aJcas.getCas(), aType);
 
@@ -153,15 +280,12 @@ public class TwoPairedKappa
                     }
                     parenPosition = parenPosition + getPosition(subType, subFS);
                     parentValue = parentValue + getValue(subType, subFS);
-                    aUserAnnotations.get(aUser.getUsername()).put(
-                            docId + "" + getPosition(subType, subFS), getValue(type, fs));
+                    aAnnotations.put(docId + "" + getPosition(subType, subFS),
+                            getValue(type, fs));
                 }
-                aUserAnnotations.get(aUser.getUsername()).put(docId + "" + parenPosition,
-                        parentValue);
+                aAnnotations.put(docId + "" + parenPosition, parentValue);
             }
         }
-        // return the updated annotations
-        return aUserAnnotations;
     }
 
     /**
@@ -278,4 +402,35 @@ public class TwoPairedKappa
         }
         return result;
     }
+
+    /**
+     * Collects the integer feature values of a position, see {@link #getPosition}.
+     */
+    private static class KeyBuilder
+    {
+        private int[] values = new int[8];
+        private int count;
+
+        void reset()
+        {
+            count = 0;
+        }
+
+        void add(Type aType, FeatureStructure aFS)
+        {
+            for (Feature feature : aType.getFeatures()) {
+                if (feature.getRange().getName().equals("uima.cas.Integer")) {
+                    if (count == values.length) {
+                        values = Arrays.copyOf(values, count * 2);
+                    }
+                    values[count++] = aFS.getIntValue(feature);
+                }
+            }
+        }
+
+        long getKey()
+        {
+            return TwoPairedKappa.getKey(values, count);
+        }
+    }
 }
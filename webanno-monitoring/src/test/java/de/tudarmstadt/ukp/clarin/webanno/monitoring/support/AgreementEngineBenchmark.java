@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.scale;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementEngineTest.Engine;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementEngineTest.ItemsEngine;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementEngineTest.Scenario;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementEngineTest.StudyEngine;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.Report;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Benchmark of the agreement engines on the synthetic projects of {@link AgreementEngineTest}.
+ * The number of documents, annotators and labels are scaled one at a time.
+ * <p>
+ * For each engine, the throughput in annotations per second and the peak heap usage are logged
+ * and written to {@code target/agreement-engines.tsv}, so they can be compared across releases.
+ * The number of documents is scaled by {@link BenchmarkSupport#scale(int)} for longer runs. A
+ * new engine is measured by adding it to {@link #engines}. The benchmark is not part of the unit
+ * tests. Run it with {@code mvn test -Pbenchmark}.
+ */
+public class AgreementEngineBenchmark
+{
+    private static final Log LOG = LogFactory.getLog(AgreementEngineBenchmark.class);
+
+    private static final File REPORT = new File("target/agreement-engines.tsv");
+
+    private static final int ROUNDS = 3;
+
+    private static List<JCas> fixtures;
+    private static AgreementPool pool;
+    private static Engine[] engines;
+    private static Report report;
+
+    @BeforeClass
+    public static void setUp()
+        throws Exception
+    {
+        fixtures = AgreementEngineTest.loadFixtures();
+        pool = new AgreementPool();
+        pool.setParallelism(4);
+        pool.init();
+        engines = new Engine[] { new StudyEngine(), new ItemsEngine(null), new ItemsEngine(pool) };
+        report = new Report(REPORT, "layer", "documents", "annotators", "labels", "engine", "ms",
+                "annotations/s", "peak heap bytes");
+    }
+
+    @AfterClass
+    public static void tearDown()
+        throws Exception
+    {
+        pool.destroy();
+        report.write();
+    }
+
+    @Test
+    public void testDocuments()
+        throws Exception
+    {
+        for (int documents : new int[] { 10, 50, 200 }) {
+            benchmark(scale(documents), 4, 5);
+        }
+    }
+
+    @Test
+    public void testAnnotators()
+        throws Exception
+    {
+        for (int annotators : new int[] { 2, 5, 10 }) {
+            benchmark(scale(20), annotators, 5);
+        }
+    }
+
+    @Test
+    public void testLabels()
+        throws Exception
+    {
+        for (int labels : new int[] { 1, 10, 50 }) {
+            benchmark(scale(20), 4, labels);
+        }
+    }
+
+    private void benchmark(int aDocuments, int aAnnotators, int aLabels)
+        throws Exception
+    {
+        for (Scenario scenario : new Scenario[] {
+                new Scenario(fixtures, POS.class.getName(), "PosValue", aDocuments, aAnnotators,
+                        aLabels),
+                new Scenario(fixtures, Dependency.class.getName(), "DependencyType", aDocuments,
+                        aAnnotators, aLabels) }) {
+            for (Engine engine : engines) {
+                // The first rounds warm up the JIT, only the last one is reported
+                long time = 0;
+                long peak = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    System.gc();
+                    resetPeakHeap();
+                    long start = System.nanoTime();
+                    engine.compute(scenario);
+                    time = System.nanoTime() - start;
+                    peak = getPeakHeap();
+                }
+
+                long throughput = time > 0 ? scenario.annotations * 1000000000L / time : 0;
+                String layer = scenario.type.substring(scenario.type.lastIndexOf('.') + 1);
+                LOG.info(String.format("%s - %d documents, %d annotators, %d labels - %s: %d ms, "
+                        + "%d annotations/s, %d bytes peak heap", layer, aDocuments, aAnnotators,
+                        aLabels, engine.getName(), time / 1000000, throughput, peak));
+                report.add(layer, aDocuments, aAnnotators, aLabels, engine.getName(),
+                        time / 1000000, throughput, peak);
+            }
+        }
+    }
+
+    private static void resetPeakHeap()
+    {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeap()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                peak += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static org.apache.uima.fit.factory.CollectionReaderFactory.createCollectionReader;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.collection.CollectionReader;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.WebannoCustomTsvReader;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Checks that the agreement engines compute the same kappa on synthetic projects which are scaled
+ * up from the kappa fixtures of {@code TwoPairedKappaTest}. Each annotator uses one of the
+ * fixtures, so the annotators disagree on some POS tags and dependencies as they do in the
+ * fixtures. A document repeats the fixture sentence, and the labels of each repetition can be
+ * renamed to get more distinct labels. The engines are measured by
+ * {@link AgreementEngineBenchmark}.
+ */
+public class AgreementEngineTest
+{
+    private static final String[] FIXTURES = { "kappatest.tsv", "kappaspandiff.tsv",
+            "kappaarcdiff.tsv", "kappaspanarcdiff.tsv" };
+
+    /**
+     * Repetitions of the fixture sentence in a document.
+     */
+    private static final int SENTENCES = 20;
+
+    private static List<JCas> fixtures;
+    private static AgreementPool pool;
+
+    @BeforeClass
+    public static void setUp()
+        throws Exception
+    {
+        fixtures = loadFixtures();
+        pool = new AgreementPool();
+        pool.setParallelism(4);
+        pool.init();
+    }
+
+    @AfterClass
+    public static void tearDown()
+    {
+        pool.destroy();
+    }
+
+    @Test
+    public void testTwoAnnotators()
+        throws Exception
+    {
+        // With two annotators, all engines compute the same kappa
+        Scenario scenario = new Scenario(fixtures, POS.class.getName(), "PosValue", 3, 2, 5);
+        Engine[] engines = { new StudyEngine(), new ItemsEngine(null), new ItemsEngine(pool) };
+        double expected = Math.round(engines[0].compute(scenario)[0][1] * 100) / 100.0;
+        for (Engine engine : engines) {
+            assertEquals(engine.getName(), expected, engine.compute(scenario)[0][1], 0.0);
+        }
+    }
+
+    static List<JCas> loadFixtures()
+        throws Exception
+    {
+        List<JCas> jCases = new ArrayList<JCas>();
+        for (String fixture : FIXTURES) {
+            JCas jCas = JCasFactory.createJCas();
+            CollectionReader reader = createCollectionReader(WebannoCustomTsvReader.class,
+                    WebannoCustomTsvReader.PARAM_PATH,
+                    new File("src/test/resources/").getAbsolutePath(),
+                    WebannoCustomTsvReader.PARAM_PATTERNS, new String[] { "[+]" + fixture });
+            reader.getNext(jCas.getCas());
+            jCases.add(jCas);
+        }
+        return jCases;
+    }
+
+    /**
+     * Create the CAS of an annotator which repeats the fixture sentence. The labels of the
+     * repetition {@code k} get the suffix {@code k % aLabels}, so there are up to {@code aLabels}
+     * times as many distinct labels as in the fixture.
+     */
+    private static JCas replicate(JCas aFixture, int aSentences, int aLabels)
+        throws Exception
+    {
+        String text = aFixture.getDocumentText();
+        StringBuilder documentText = new StringBuilder();
+        for (int k = 0; k < aSentences; k++) {
+            documentText.append(text).append('\n');
+        }
+        JCas jCas = JCasFactory.createJCas();
+        jCas.setDocumentText(documentText.toString());
+
+        for (int k = 0; k < aSentences; k++) {
+            int shift = k * (text.length() + 1);
+            Map<Token, Token> tokens = new HashMap<Token, Token>();
+            for (Token token : select(aFixture, Token.class)) {
+                Token copy = new Token(jCas, token.getBegin() + shift, token.getEnd() + shift);
+                copy.addToIndexes();
+                tokens.put(token, copy);
+            }
+            for (POS pos : select(aFixture, POS.class)) {
+                POS copy = new POS(jCas, pos.getBegin() + shift, pos.getEnd() + shift);
+                copy.setPosValue(label(pos.getPosValue(), k, aLabels));
+                copy.addToIndexes();
+            }
+            for (Dependency dependency : select(aFixture, Dependency.class)) {
+                Dependency copy = new Dependency(jCas, dependency.getBegin() + shift,
+                        dependency.getEnd() + shift);
+                copy.setGovernor(tokens.get(dependency.getGovernor()));
+                copy.setDependent(tokens.get(dependency.getDependent()));
+                copy.setDependencyType(label(dependency.getDependencyType(), k, aLabels));
+                copy.addToIndexes();
+            }
+        }
+        return jCas;
+    }
+
+    private static String label(String aLabel, int aSentence, int aLabels)
+    {
+        return aLabel == null || aLabels <= 1 ? aLabel : aLabel + "-" + (aSentence % aLabels);
+    }
+
+    /**
+     * A synthetic project: every annotator has finished every document. The documents of an
+     * annotator share the same CAS, only their ids differ.
+     */
+    static class Scenario
+    {
+        final String type;
+        final String feature;
+        final List<User> users = new ArrayList<User>();
+        final List<String> usernames = new ArrayList<String>();
+        final List<SourceDocument> documents = new ArrayList<SourceDocument>();
+        final Map<User, JCas> jCases = new HashMap<User, JCas>();
+        long annotations;
+
+        Scenario(List<JCas> aFixtures, String aType, String aFeature, int aDocuments,
+                int aAnnotators, int aLabels)
+            throws Exception
+        {
+            type = aType;
+            feature = aFeature;
+            for (int a = 0; a < aAnnotators; a++) {
+                User user = new User();
+                user.setUsername("user" + a);
+                users.add(user);
+                usernames.add(user.getUsername());
+
+                JCas jCas = replicate(aFixtures.get(a % aFixtures.size()), SENTENCES, aLabels);
+                jCases.put(user, jCas);
+                annotations += (long) aDocuments
+                        * jCas.getAnnotationIndex(jCas.getTypeSystem().getType(aType)).size();
+            }
+            for (int d = 0; d < aDocuments; d++) {
+                SourceDocument document = new SourceDocument();
+                document.setId(d + 1);
+                documents.add(document);
+            }
+        }
+    }
+
+    interface Engine
+    {
+        String getName();
+
+        /**
+         * @return the pairwise agreement of the annotators of the scenario.
+         */
+        double[][] compute(Scenario aScenario);
+    }
+
+    /**
+     * The string based annotation study, {@link TwoPairedKappa#getStudy} and
+     * {@link TwoPairedKappa#getAgreement}.
+     */
+    static class StudyEngine
+        implements Engine
+    {
+        @Override
+        public String getName()
+        {
+            return "study";
+        }
+
+        @Override
+        public double[][] compute(Scenario aScenario)
+        {
+            TwoPairedKappa twoPairedKappa = new TwoPairedKappa();
+            Map<String, Map<String, String>> allUserAnnotations = new HashMap<String, Map<String, String>>();
+            for (SourceDocument document : aScenario.documents) {
+                for (int i = 0; i < aScenario.users.size(); i++) {
+                    for (int j = i + 1; j < aScenario.users.size(); j++) {
+                        twoPairedKappa.getStudy(aScenario.type, aScenario.feature,
+                                aScenario.users.get(i), aScenario.users.get(j),
+                                allUserAnnotations, document, aScenario.jCases);
+                    }
+                }
+            }
+
+            // The study is keyed by user name, order the matrix like the other engines
+            Map<String, Map<String, String>> ordered = new LinkedHashMap<String, Map<String, String>>();
+            for (String username : aScenario.usernames) {
+                ordered.put(username, allUserAnnotations.get(username));
+            }
+            return twoPairedKappa.getAgreement(ordered);
+        }
+    }
+
+    /**
+     * The agreement items of {@link TwoPairedKappa#getItems} counted by
+     * {@link PairwiseAgreement}, serially or on an {@link AgreementPool}.
+     */
+    static class ItemsEngine
+        implements Engine
+    {
+        private final AgreementPool pool;
+
+        /**
+         * @param aPool
+         *            the pool on which the pairs of users are processed or {@code null} to
+         *            process them serially.
+         */
+        ItemsEngine(AgreementPool aPool)
+        {
+            pool = aPool;
+        }
+
+        @Override
+        public String getName()
+        {
+            return pool != null ? "items-parallel" : "items";
+        }
+
+        @Override
+        public double[][] compute(Scenario aScenario)
+        {
+            TwoPairedKappa twoPairedKappa = new TwoPairedKappa();
+            PairwiseAgreement agreement = new PairwiseAgreement(aScenario.usernames, pool);
+            for (int d = 0; d < aScenario.documents.size(); d++) {
+                Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+                for (User user : aScenario.users) {
+                    document.put(user.getUsername(), twoPairedKappa.getItems(
+                            aScenario.jCases.get(user), aScenario.type, aScenario.feature,
+                            agreement.getLabels()));
+                }
+                agreement.addDocument(document);
+            }
+            return agreement.getAgreement();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementItemsTest.computeWithItems;
+import static de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementItemsTest.computeWithStrings;
+import static de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementItemsTest.createJCas;
+import static de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.allocatedBytes;
+import static de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.scale;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.Report;
+
+/**
+ * Measures the time and the memory allocated by the agreement items compared to the string based
+ * annotations, see {@link AgreementItemsTest}. The results are logged and written to
+ * {@code target/agreement-items.tsv}. The number of annotations is scaled by
+ * {@link BenchmarkSupport#scale(int)} for longer runs. The benchmark is not part of the unit
+ * tests. Run it with {@code mvn test -Pbenchmark}.
+ */
+public class AgreementItemsBenchmark
+{
+    private static final Log LOG = LogFactory.getLog(AgreementItemsBenchmark.class);
+
+    private static final File REPORT = new File("target/agreement-items.tsv");
+
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void testMemoryAndTime()
+        throws Exception
+    {
+        Report report = new Report(REPORT, "annotations", "implementation", "ms",
+                "allocated bytes");
+        for (int annotations : new int[] { 1000, 10000, 100000 }) {
+            int size = scale(annotations);
+            Random random = new Random(42);
+            JCas jCas1 = createJCas(size, random, null);
+            JCas jCas2 = createJCas(size, random, jCas1);
+
+            // The first rounds warm up the JIT, only the last one is reported
+            double strings = 0;
+            double items = 0;
+            long[] stringCost = null;
+            long[] itemCost = null;
+            for (int round = 0; round < ROUNDS; round++) {
+                long[] start = measure();
+                strings = computeWithStrings(jCas1, jCas2);
+                stringCost = since(start);
+
+                start = measure();
+                items = computeWithItems(jCas1, jCas2);
+                itemCost = since(start);
+            }
+            assertEquals(strings, items, 0.0);
+
+            LOG.info(String.format("%d annotations - strings: %d ms, %d bytes - items: %d ms, "
+                    + "%d bytes", size, stringCost[0], stringCost[1], itemCost[0], itemCost[1]));
+            report.add(size, "strings", stringCost[0], stringCost[1]);
+            report.add(size, "items", itemCost[0], itemCost[1]);
+        }
+        report.write();
+    }
+
+    /**
+     * @return the current time in milliseconds and the bytes allocated by the current thread so
+     *         far, or {@code -1} if the JVM does not measure them.
+     */
+    private static long[] measure()
+    {
+        return new long[] { System.nanoTime() / 1000000, allocatedBytes() };
+    }
+
+    private static long[] since(long[] aStart)
+    {
+        long[] now = measure();
+        return new long[] { now[0] - aStart[0], aStart[1] < 0 ? -1 : now[1] - aStart[1] };
+    }
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.statistics.agreement.AnnotationStudy;
+import de.tudarmstadt.ukp.dkpro.statistics.agreement.IAnnotationStudy;
+import de.tudarmstadt.ukp.dkpro.statistics.agreement.TwoRaterKappaAgreement;
+
+/**
+ * Compares the agreement items ({@link TwoPairedKappa#getItems}) with the string based
+ * annotations ({@link TwoPairedKappa#getAnnotations}) they replace. Both must yield the same
+ * kappa. The time and the memory allocated by both are measured by
+ * {@link AgreementItemsBenchmark}.
+ */
+public class AgreementItemsTest
+{
+    @Test
+    public void testKappa()
+    {
+        Random random = new Random(42);
+        for (int run = 0; run < 20; run++) {
+            int positions = 1 + random.nextInt(500);
+            int labelCount = 1 + random.nextInt(8);
+            PairwiseAgreement agreement = new PairwiseAgreement(Arrays.asList("user1", "user2"));
+            LongIntHashMap items1 = new LongIntHashMap();
+            LongIntHashMap items2 = new LongIntHashMap();
+            IAnnotationStudy study = new AnnotationStudy(2);
+            for (int p = 0; p < positions; p++) {
+                String label1 = "L" + random.nextInt(labelCount);
+                String label2 = random.nextInt(4) == 0 ? "L" + random.nextInt(labelCount)
+                        : label1;
+                items1.put(p, agreement.getLabels().getId(label1));
+                items2.put(p, agreement.getLabels().getId(label2));
+                study.addItem(label1, label2);
+            }
+            Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+            document.put("user1", items1);
+            document.put("user2", items2);
+            agreement.addDocument(document);
+
+            double expected = (double) Math.round(new TwoRaterKappaAgreement(study)
+                    .calculateAgreement() * 100) / 100;
+            assertEquals(expected, agreement.getAgreement()[0][1], 0.0);
+        }
+    }
+
+    @Test
+    public void testPackedKeys()
+    {
+        assertEquals((3L << 32) | 7, TwoPairedKappa.getKey(new int[] { 3, 7 }, 2));
+
+        // Other positions are hashed with the highest bit set, so they never clash with spans
+        Set<Long> keys = new HashSet<Long>();
+        for (int i = 0; i < 1000; i++) {
+            long key = TwoPairedKappa.getKey(new int[] { i, i + 3, i + 5, i + 9 }, 4);
+            assertEquals(Long.MIN_VALUE, key & Long.MIN_VALUE);
+            keys.add(key);
+        }
+        assertEquals(1000, keys.size());
+    }
+
+    @Test
+    public void testItemsEqualStrings()
+        throws Exception
+    {
+        Random random = new Random(42);
+        JCas jCas1 = createJCas(1000, random, null);
+        JCas jCas2 = createJCas(1000, random, jCas1);
+        assertEquals(computeWithStrings(jCas1, jCas2), computeWithItems(jCas1, jCas2), 0.0);
+    }
+
+    static double computeWithStrings(JCas aJCas1, JCas aJCas2)
+    {
+        TwoPairedKappa twoPairedKappa = new TwoPairedKappa();
+        Map<String, String> annotations1 = twoPairedKappa.getAnnotations(aJCas1, 0L,
+                POS.class.getName(), "PosValue");
+        Map<String, String> annotations2 = twoPairedKappa.getAnnotations(aJCas2, 0L,
+                POS.class.getName(), "PosValue");
+
+        IAnnotationStudy study = new AnnotationStudy(2);
+        Set<String> positions = new HashSet<String>(annotations1.keySet());
+        positions.addAll(annotations2.keySet());
+        for (String position : positions) {
+            String label1 = annotations1.get(position);
+            String label2 = annotations2.get(position);
+            study.addItem(label1 != null ? label1 : TwoPairedKappa.EMPTY,
+                    label2 != null ? label2 : TwoPairedKappa.EMPTY);
+        }
+        return (double) Math.round(new TwoRaterKappaAgreement(study).calculateAgreement() * 100)
+                / 100;
+    }
+
+    static double computeWithItems(JCas aJCas1, JCas aJCas2)
+    {
+        TwoPairedKappa twoPairedKappa = new TwoPairedKappa();
+        PairwiseAgreement agreement = new PairwiseAgreement(Arrays.asList("user1", "user2"));
+        Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+        document.put("user1", twoPairedKappa.getItems(aJCas1, POS.class.getName(), "PosValue",
+                agreement.getLabels()));
+        document.put("user2", twoPairedKappa.getItems(aJCas2, POS.class.getName(), "PosValue",
+                agreement.getLabels()));
+        agreement.addDocument(document);
+        return agreement.getAgreement()[0][1];
+    }
+
+    /**
+     * Create a document with one POS annotation per word. If another document is given, its
+     * annotations are copied and some of them are changed, left out or added.
+     */
+    static JCas createJCas(int aAnnotations, Random aRandom, JCas aOther)
+        throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < aAnnotations; i++) {
+            text.append("word ");
+        }
+        JCas jCas = JCasFactory.createJCas();
+        jCas.setDocumentText(text.toString());
+
+        List<POS> other = aOther != null ? new ArrayList<POS>(select(aOther, POS.class)) : null;
+        for (int i = 0; i < aAnnotations; i++) {
+            String label = "P" + aRandom.nextInt(12);
+            if (other != null && i < other.size()) {
+                double r = aRandom.nextDouble();
+                if (r < 0.05) {
+                    continue;
+                }
+                if (r >= 0.15) {
+                    label = other.get(i).getPosValue();
+                }
+            }
+            POS pos = new POS(jCas, i * 5, i * 5 + 4);
+            pos.setPosValue(label);
+            pos.addToIndexes();
+        }
+        return jCas;
+    }
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+
+/**
+ * Checks that the tuples extracted when a document is finished are found again when the agreement
+ * is computed, for a span layer as well as for a chain layer, whose UIMA type name differs from
+ * the layer name. The repository and the annotation service are replaced by proxies which count
+ * how often the CAS is read.
+ */
+public class AgreementTuplesTest
+{
+    private static final String CHAIN_LAYER = "webanno.custom.Entity";
+
+    private File folder;
+    private AnnotationFeature posFeature;
+    private AnnotationFeature chainFeature;
+    private AnnotationDocument annotationDocument;
+    private int casReads;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        folder = File.createTempFile("agreement", "");
+        FileUtils.forceDelete(folder);
+        FileUtils.forceMkdir(folder);
+
+        Project project = new Project();
+        posFeature = createFeature(POS.class.getName(), WebAnnoConst.SPAN_TYPE, "PosValue");
+        chainFeature = createFeature(CHAIN_LAYER, WebAnnoConst.CHAIN_TYPE, "referenceType");
+
+        SourceDocument document = new SourceDocument();
+        document.setName("document");
+        document.setProject(project);
+        annotationDocument = new AnnotationDocument();
+        annotationDocument.setDocument(document);
+        annotationDocument.setProject(project);
+        annotationDocument.setUser("user");
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileUtils.deleteQuietly(folder);
+    }
+
+    @Test
+    public void testChainLayerTypeName()
+    {
+        AnnotationService annotationService = createAnnotationService();
+        assertEquals(POS.class.getName(), AgreementTuples.getTypeName(annotationService,
+                posFeature));
+        assertEquals(CHAIN_LAYER + "Chain", AgreementTuples.getTypeName(annotationService,
+                chainFeature));
+    }
+
+    @Test
+    public void testExtractedTuplesAreLoaded()
+        throws Exception
+    {
+        AnnotationService annotationService = createAnnotationService();
+        RepositoryService repository = createRepository(createJCas());
+
+        AgreementTuples.extract(repository, annotationService, annotationDocument);
+        assertEquals(1, casReads);
+
+        // The tuples are read from the files written by the extraction, not from the CAS
+        for (AnnotationFeature feature : asList(posFeature, chainFeature)) {
+            LongIntHashMap tuples = AgreementTuples.load(repository, annotationDocument,
+                    AgreementTuples.getTypeName(annotationService, feature), feature.getName(),
+                    new AgreementLabels());
+            assertEquals(3, tuples.size());
+        }
+        assertEquals(1, casReads);
+
+        AgreementTuples.invalidate(repository, annotationDocument.getDocument(), "user");
+        AgreementTuples.load(repository, annotationDocument,
+                AgreementTuples.getTypeName(annotationService, chainFeature),
+                chainFeature.getName(), new AgreementLabels());
+        assertEquals(2, casReads);
+    }
+
+    private static AnnotationFeature createFeature(String aLayerName, String aLayerType,
+            String aFeatureName)
+    {
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setName(aLayerName);
+        layer.setType(aLayerType);
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setLayer(layer);
+        feature.setName(aFeatureName);
+        feature.setType(CAS.TYPE_NAME_STRING);
+        return feature;
+    }
+
+    /**
+     * Create a CAS with three POS tags and three entities. The chain type only has the label
+     * feature of the links, which is sufficient for the tuples.
+     */
+    private static JCas createJCas()
+        throws Exception
+    {
+        TypeSystemDescription chainTypes = new TypeSystemDescription_impl();
+        chainTypes.addType(CHAIN_LAYER + "Chain", "", CAS.TYPE_NAME_ANNOTATION).addFeature(
+                "referenceType", "", CAS.TYPE_NAME_STRING);
+        JCas jCas = JCasFactory.createJCas(CasCreationUtils.mergeTypeSystems(asList(
+                TypeSystemDescriptionFactory.createTypeSystemDescription(), chainTypes)));
+        jCas.setDocumentText("word word word ");
+
+        Type chainType = jCas.getTypeSystem().getType(CHAIN_LAYER + "Chain");
+        for (int i = 0; i < 3; i++) {
+            POS pos = new POS(jCas, i * 5, i * 5 + 4);
+            pos.setPosValue("P" + i);
+            pos.addToIndexes();
+
+            AnnotationFS chain = jCas.getCas().createAnnotation(chainType, i * 5, i * 5 + 4);
+            chain.setStringValue(chainType.getFeatureByBaseName("referenceType"), "R" + i);
+            jCas.getCas().addFsToIndexes(chain);
+        }
+        return jCas;
+    }
+
+    private AnnotationService createAnnotationService()
+    {
+        return (AnnotationService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { AnnotationService.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object aProxy, Method aMethod, Object[] aArgs)
+                    {
+                        if (aMethod.getName().equals("listAnnotationFeature")) {
+                            List<AnnotationFeature> features = new ArrayList<AnnotationFeature>();
+                            for (AnnotationFeature feature : asList(posFeature, chainFeature)) {
+                                if (aArgs[0] instanceof Project
+                                        || feature.getLayer().equals(aArgs[0])) {
+                                    features.add(feature);
+                                }
+                            }
+                            return features;
+                        }
+                        throw new UnsupportedOperationException(aMethod.getName());
+                    }
+                });
+    }
+
+    private RepositoryService createRepository(final JCas aJCas)
+        throws Exception
+    {
+        final File casFile = new File(folder, "user.ser");
+        FileUtils.writeStringToFile(casFile, "cas");
+        assertTrue(casFile.exists());
+        return (RepositoryService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RepositoryService.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object aProxy, Method aMethod, Object[] aArgs)
+                    {
+                        if (aMethod.getName().equals("getCasFile")) {
+                            return casFile;
+                        }
+                        if (aMethod.getName().equals("readAnnotationCas")) {
+                            casReads++;
+                            return aJCas;
+                        }
+                        if (aMethod.getName().equals("upgradeCas")) {
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(aMethod.getName());
+                    }
+                });
+    }
+}
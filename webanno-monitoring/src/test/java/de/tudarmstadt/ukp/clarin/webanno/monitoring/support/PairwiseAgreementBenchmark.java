@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.scale;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkSupport.Report;
+
+/**
+ * Measures the pairwise agreement computation with many annotators, serially and on an
+ * {@link AgreementPool}. The annotations are synthetic (position key, label id) tuples, as they
+ * would be loaded from the {@link AgreementTuples} of a project.
+ * <p>
+ * The timings are logged and written to {@code target/agreement-benchmark.tsv}. The number of
+ * documents is scaled by {@link BenchmarkSupport#scale(int)} for longer runs.
+ * The benchmark is not part of the unit tests. Run it with {@code mvn test -Pbenchmark}.
+ */
+public class PairwiseAgreementBenchmark
+{
+    private static final Log LOG = LogFactory.getLog(PairwiseAgreementBenchmark.class);
+
+    private static final File REPORT = new File("target/agreement-benchmark.tsv");
+
+    private static final int ROUNDS = 3;
+
+    private static final int LABELS = 10;
+
+    private static AgreementPool pool;
+    private static Report report;
+
+    @BeforeClass
+    public static void setUp()
+    {
+        pool = new AgreementPool();
+        pool.setParallelism(4);
+        pool.init();
+        report = new Report(REPORT, "annotators", "documents", "positions/document",
+                "serial ms", "parallel ms");
+    }
+
+    @AfterClass
+    public static void tearDown()
+        throws Exception
+    {
+        pool.destroy();
+        report.write();
+    }
+
+    @Test
+    public void testThirtyAnnotators()
+    {
+        benchmark(30, scale(20), 500);
+    }
+
+    @Test
+    public void testAnnotators()
+    {
+        for (int annotators : new int[] { 5, 10, 20 }) {
+            benchmark(annotators, scale(20), 500);
+        }
+    }
+
+    private void benchmark(int aAnnotators, int aDocuments, int aPositions)
+    {
+        List<String> users = users(aAnnotators);
+        List<Map<String, LongIntHashMap>> documents = generate(users, new AgreementLabels(),
+                aDocuments, aPositions, 0.1);
+
+        // The first rounds warm up the JIT, only the last one is reported
+        long serialTime = 0;
+        long parallelTime = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            double[][] serial = compute(users, documents, null);
+            serialTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            double[][] parallel = compute(users, documents, pool);
+            parallelTime = System.nanoTime() - start;
+
+            for (int i = 0; i < users.size(); i++) {
+                assertArrayEquals(serial[i], parallel[i], 0.0);
+            }
+        }
+
+        LOG.info(String.format("%d annotators, %d documents, %d positions/document - "
+                + "serial: %d ms, parallel: %d ms", aAnnotators, aDocuments, aPositions,
+                serialTime / 1000000, parallelTime / 1000000));
+        report.add(aAnnotators, aDocuments, aPositions, serialTime / 1000000,
+                parallelTime / 1000000);
+    }
+
+    private static double[][] compute(List<String> aUsers,
+            List<Map<String, LongIntHashMap>> aDocuments, AgreementPool aPool)
+    {
+        // The generated label ids are dense, so they can be interned again in the same order
+        PairwiseAgreement agreement = new PairwiseAgreement(aUsers, aPool);
+        for (int label = 0; label < LABELS; label++) {
+            agreement.getLabels().getId("L" + label);
+        }
+        for (Map<String, LongIntHashMap> document : aDocuments) {
+            agreement.addDocument(document);
+        }
+        return agreement.getAgreement();
+    }
+
+    private static List<String> users(int aAnnotators)
+    {
+        List<String> users = new ArrayList<String>();
+        for (int a = 0; a < aAnnotators; a++) {
+            users.add("user" + a);
+        }
+        return users;
+    }
+
+    /**
+     * All users annotate the same positions. Each user deviates from the common label with the
+     * given rate and leaves some positions empty.
+     */
+    private static List<Map<String, LongIntHashMap>> generate(List<String> aUsers,
+            AgreementLabels aLabels, int aDocuments, int aPositions, double aDisagreement)
+    {
+        int[] ids = new int[LABELS];
+        for (int label = 0; label < LABELS; label++) {
+            ids[label] = aLabels.getId("L" + label);
+        }
+
+        Random random = new Random(42);
+        List<Map<String, LongIntHashMap>> documents = new ArrayList<Map<String, LongIntHashMap>>();
+        for (int d = 0; d < aDocuments; d++) {
+            int[] labels = new int[aPositions];
+            for (int p = 0; p < aPositions; p++) {
+                labels[p] = ids[random.nextInt(LABELS)];
+            }
+
+            Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+            for (String user : aUsers) {
+                LongIntHashMap annotations = new LongIntHashMap(aPositions);
+                for (int p = 0; p < aPositions; p++) {
+                    double r = random.nextDouble();
+                    int label;
+                    if (r < aDisagreement / 2) {
+                        label = AgreementLabels.EMPTY_ID;
+                    }
+                    else if (r < aDisagreement) {
+                        label = ids[random.nextInt(LABELS)];
+                    }
+                    else {
+                        label = labels[p];
+                    }
+                    // Offsets of a span of three characters
+                    annotations.put(((long) p * 4 << 32) | (p * 4 + 3), label);
+                }
+                document.put(user, annotations);
+            }
+            documents.add(document);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.monitoring.support;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks the multi-rater coefficients of {@link PairwiseAgreement} against published examples,
+ * and that documents can be added and taken back in any order.
+ */
+public class PairwiseAgreementTest
+{
+    /**
+     * Fleiss (1971) as given on Wikipedia: 14 raters assign 10 items to 5 categories, the numbers
+     * are the raters per item and category.
+     */
+    private static final int[][] FLEISS = { { 0, 0, 0, 0, 14 }, { 0, 2, 6, 4, 2 },
+            { 0, 0, 3, 5, 6 }, { 0, 3, 9, 2, 0 }, { 2, 2, 8, 1, 1 }, { 7, 7, 0, 0, 0 },
+            { 3, 2, 6, 3, 0 }, { 2, 5, 3, 2, 2 }, { 6, 5, 2, 1, 0 }, { 0, 2, 2, 3, 7 } };
+
+    /**
+     * Krippendorff (2011), nominal reliability data of 4 observers and 12 units, 0 is a missing
+     * value.
+     */
+    private static final int[][] KRIPPENDORFF = { { 1, 2, 3, 3, 2, 1, 4, 1, 2, 0, 0, 0 },
+            { 1, 2, 3, 3, 2, 2, 4, 1, 2, 5, 0, 3 }, { 0, 3, 3, 3, 2, 3, 4, 2, 2, 5, 1, 0 },
+            { 1, 2, 3, 3, 2, 4, 4, 1, 2, 5, 1, 0 } };
+
+    @Test
+    public void testFleissKappa()
+    {
+        List<String> users = users(14);
+        PairwiseAgreement agreement = new PairwiseAgreement(users);
+        Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+        for (String user : users) {
+            document.put(user, new LongIntHashMap());
+        }
+        for (int item = 0; item < FLEISS.length; item++) {
+            int rater = 0;
+            for (int category = 0; category < FLEISS[item].length; category++) {
+                int label = agreement.getLabels().getId("C" + category);
+                for (int n = 0; n < FLEISS[item][category]; n++) {
+                    document.get(users.get(rater++)).put(item, label);
+                }
+            }
+        }
+        agreement.addDocument(document);
+
+        assertEquals(0.21, agreement.getFleissKappa(), 0.0);
+    }
+
+    @Test
+    public void testKrippendorffAlpha()
+    {
+        List<String> users = users(KRIPPENDORFF.length);
+        PairwiseAgreement agreement = new PairwiseAgreement(users);
+        // Each unit is a document of its own, finished only by the observers who rated it
+        for (int unit = 0; unit < KRIPPENDORFF[0].length; unit++) {
+            Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+            for (int observer = 0; observer < KRIPPENDORFF.length; observer++) {
+                int value = KRIPPENDORFF[observer][unit];
+                if (value != 0) {
+                    LongIntHashMap items = new LongIntHashMap();
+                    items.put(unit, agreement.getLabels().getId(String.valueOf(value)));
+                    document.put(users.get(observer), items);
+                }
+            }
+            agreement.addDocument(document);
+        }
+
+        assertEquals(0.74, agreement.getKrippendorffAlpha(), 0.0);
+    }
+
+    @Test
+    public void testSingleRater()
+    {
+        List<String> users = users(2);
+        PairwiseAgreement agreement = new PairwiseAgreement(users);
+        Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+        LongIntHashMap items = new LongIntHashMap();
+        items.put(1, agreement.getLabels().getId("L"));
+        document.put(users.get(0), items);
+        agreement.addDocument(document);
+
+        assertTrue(Double.isNaN(agreement.getFleissKappa()));
+        assertTrue(Double.isNaN(agreement.getKrippendorffAlpha()));
+        assertEquals(1.0, agreement.getAgreement()[0][0], 0.0);
+        assertEquals(0.0, agreement.getAgreement()[0][1], 0.0);
+    }
+
+    @Test
+    public void testRemoveDocument()
+        throws Exception
+    {
+        List<String> users = users(KRIPPENDORFF.length);
+        PairwiseAgreement agreement = new PairwiseAgreement(users);
+        addUnits(agreement, 0, KRIPPENDORFF[0].length);
+        double[][] expected = agreement.getAgreement();
+        double alpha = agreement.getKrippendorffAlpha();
+
+        // Count a document with other labels and take it back again
+        Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+        for (String user : users) {
+            LongIntHashMap items = new LongIntHashMap();
+            items.put(100, agreement.getLabels().getId(user));
+            document.put(user, items);
+        }
+        agreement.addDocument(document);
+        agreement.removeDocument(document);
+
+        // The counts survive being stored
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        agreement.write(out);
+        out.close();
+        PairwiseAgreement restored = PairwiseAgreement.read(new DataInputStream(
+                new ByteArrayInputStream(bos.toByteArray())), users, null);
+
+        assertEquals(alpha, restored.getKrippendorffAlpha(), 0.0);
+        assertEquals(agreement.getFleissKappa(), restored.getFleissKappa(), 0.0);
+        for (int i = 0; i < users.size(); i++) {
+            assertArrayEquals(expected[i], restored.getAgreement()[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testIncrementalEqualsFull()
+    {
+        List<String> users = users(KRIPPENDORFF.length);
+        PairwiseAgreement full = new PairwiseAgreement(users);
+        addUnits(full, 0, KRIPPENDORFF[0].length);
+
+        // The units are counted in a different order, which must not matter
+        PairwiseAgreement incremental = new PairwiseAgreement(users);
+        addUnits(incremental, 6, KRIPPENDORFF[0].length);
+        addUnits(incremental, 0, 6);
+
+        assertEquals(full.getKrippendorffAlpha(), incremental.getKrippendorffAlpha(), 0.0);
+        assertEquals(full.getFleissKappa(), incremental.getFleissKappa(), 0.0);
+        for (int i = 0; i < users.size(); i++) {
+            assertArrayEquals(full.getAgreement()[i], incremental.getAgreement()[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testSymmetricMatrix()
+    {
+        List<String> users = users(KRIPPENDORFF.length);
+        PairwiseAgreement agreement = new PairwiseAgreement(users);
+        addUnits(agreement, 0, KRIPPENDORFF[0].length);
+
+        double[][] results = agreement.getAgreement();
+        for (int i = 0; i < users.size(); i++) {
+            assertEquals(1.0, results[i][i], 0.0);
+            for (int j = 0; j < users.size(); j++) {
+                assertEquals(results[i][j], results[j][i], 0.0);
+            }
+        }
+    }
+
+    private static void addUnits(PairwiseAgreement aAgreement, int aFirst, int aLast)
+    {
+        for (int unit = aFirst; unit < aLast; unit++) {
+            Map<String, LongIntHashMap> document = new HashMap<String, LongIntHashMap>();
+            for (int observer = 0; observer < KRIPPENDORFF.length; observer++) {
+                int value = KRIPPENDORFF[observer][unit];
+                if (value != 0) {
+                    LongIntHashMap items = new LongIntHashMap();
+                    items.put(unit, aAgreement.getLabels().getId(String.valueOf(value)));
+                    document.put("user" + observer, items);
+                }
+            }
+            aAgreement.addDocument(document);
+        }
+    }
+
+    private static List<String> users(int aCount)
+    {
+        List<String> users = new ArrayList<String>();
+        for (int i = 0; i < aCount; i++) {
+            users.add("user" + i);
+        }
+        return users;
+    }
+}
@@ -82,6 +82,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.CollectionInformationCache;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
@@ -362,6 +363,7 @@ public class ProjectLayersPanel
                             error("Error Importing TagSet " + ExceptionUtils.getRootCauseMessage(e));
                         }
                     }
+                    CollectionInformationCache.invalidate(project);
                     featureDetailForm.setVisible(false);
                 }
 
@@ -873,6 +875,7 @@ public class ProjectLayersPanel
                         featureSelectionForm.setVisible(true);
 
                     }
+                    CollectionInformationCache.invalidate(project);
                 }
             });
 
@@ -1103,6 +1106,7 @@ public class ProjectLayersPanel
         }
 
         annotationService.createFeature(aFeature);
+        CollectionInformationCache.invalidate(aFeature.getProject());
         featureDetailForm.setVisible(false);
 
     }
@@ -62,6 +62,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.CollectionInformationCache;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
@@ -341,6 +342,7 @@ public class ProjectTagSetsPanel
                             }
                         }
                     }
+                    CollectionInformationCache.invalidate(project);
                     tagSetSelectionForm.setModelObject(new SelectionModel());
                     tagSelectionForm.setVisible(false);
                     tagDetailForm.setVisible(false);
@@ -423,6 +425,7 @@ public class ProjectTagSetsPanel
                             tagSet.setProject(selectedProjectModel.getObject());
                             try {
                                 annotationService.createTagSet(tagSet, user);
+                                CollectionInformationCache.invalidate(tagSet.getProject());
                                 tagSelectionForm.setVisible(true);
                                 tagDetailForm.setVisible(true);
                                 // annotationService.createType(tagSet.getFeature().getLayer(),
@@ -456,6 +459,7 @@ public class ProjectTagSetsPanel
                             }
                         }
                         annotationService.removeTagSet(tagSet);
+                        CollectionInformationCache.invalidate(tagSet.getProject());
                         TagSetDetailForm.this.setModelObject(null);
                         tagSelectionForm.setVisible(false);
                         tagDetailForm.setVisible(false);
@@ -623,6 +627,8 @@ public class ProjectTagSetsPanel
 
                             try {
                                 annotationService.createTag(tag, user);
+                                CollectionInformationCache.invalidate(tag.getTagSet()
+                                        .getProject());
                             }
                             catch (IOException e) {
                                 error("unable to create a log file while creating the Tag " + ":"
@@ -645,6 +651,7 @@ public class ProjectTagSetsPanel
                     if (tag.getId() != 0) {
                         tag.setTagSet(tagSetDetailForm.getModelObject());
                         annotationService.removeTag(tag);
+                        CollectionInformationCache.invalidate(tag.getTagSet().getProject());
                         tagDetailForm.setModelObject(new Tag());
                     }
                     else {
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Support for the benchmarks of all modules ({@code *Benchmark} classes, run with
+ * {@code mvn test -Pbenchmark}). The system property {@code webanno.benchmark.scale} multiplies
+ * the sizes of the benchmarks for longer runs, and the results of a benchmark are collected in a
+ * {@link Report} which is written to a tab separated file.
+ */
+public final class BenchmarkSupport
+{
+    private static final Log LOG = LogFactory.getLog(BenchmarkSupport.class);
+
+    /**
+     * The system property which multiplies the sizes of the benchmarks.
+     */
+    public static final String SCALE_PROPERTY = "webanno.benchmark.scale";
+
+    private BenchmarkSupport()
+    {
+        // No instances
+    }
+
+    /**
+     * @param aSize
+     *            the size of a benchmark, e.g. the number of documents.
+     * @return the size multiplied by the scale of the benchmark run.
+     */
+    public static int scale(int aSize)
+    {
+        return aSize * Integer.getInteger(SCALE_PROPERTY, 1);
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far or {@code -1} if the JVM does not
+     *         support measuring it.
+     */
+    public static long allocatedBytes()
+    {
+        // Only the HotSpot extension of the bean can measure it, which is looked up by name so the
+        // benchmarks also compile on other JVMs
+        try {
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            Object bean = ManagementFactory.getThreadMXBean();
+            if (!beanClass.isInstance(bean)) {
+                return -1;
+            }
+            Method method = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(bean, Thread.currentThread().getId());
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The results of a benchmark with one row per measurement, written as a tab separated file
+     * so they can be compared across releases.
+     */
+    public static class Report
+    {
+        private final File file;
+        private final StringBuilder rows = new StringBuilder();
+
+        /**
+         * @param aFile
+         *            the file the report is written to.
+         * @param aColumns
+         *            the names of the columns.
+         */
+        public Report(File aFile, String... aColumns)
+        {
+            file = aFile;
+            add((Object[]) aColumns);
+        }
+
+        /**
+         * Add a row.
+         *
+         * @param aValues
+         *            the values of the columns.
+         */
+        public void add(Object... aValues)
+        {
+            for (int i = 0; i < aValues.length; i++) {
+                if (i > 0) {
+                    rows.append('\t');
+                }
+                rows.append(aValues[i]);
+            }
+            rows.append('\n');
+        }
+
+        /**
+         * Write the report, replacing the report of an earlier run.
+         *
+         * @throws IOException
+         *             if the report cannot be written.
+         */
+        public void write()
+            throws IOException
+        {
+            FileUtils.writeStringToFile(file, rows.toString(), "UTF-8");
+            LOG.info("Benchmark report written to [" + file.getAbsolutePath() + "]");
+        }
+    }
+}
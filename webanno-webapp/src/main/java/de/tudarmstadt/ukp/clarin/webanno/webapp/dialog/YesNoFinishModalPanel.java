@@ -29,14 +29,18 @@ import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.spring.injection.annot.SpringBean;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationSession;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementTable;
+import de.tudarmstadt.ukp.clarin.webanno.monitoring.support.AgreementTuples;
 
 /**
  * A yes/NO dialog window to confirm if the user is meant to finish the annotation or not.
@@ -56,6 +60,9 @@ public class YesNoFinishModalPanel
     @SpringBean(name = "userRepository")
     private UserDao userRepository;
 
+    @SpringBean(name = "annotationService")
+    private AnnotationService annotationService;
+
     private YesNoButtonsForm yesNoButtonsForm;
 
     private BratAnnotatorModel bratAnnotatorModel;
@@ -108,6 +115,13 @@ public class YesNoFinishModalPanel
                         catch (IOException e) {
                             error("Unable to get the LOG file");
                         }
+                        CurationSession.invalidate(bratAnnotatorModel.getDocument());
+                        // The CAS does not change anymore, so the agreement tuples are
+                        // extracted now instead of on every agreement computation
+                        AgreementTuples.extract(repository, annotationService,
+                                annotationDocument);
+                        AgreementTable.update(repository, annotationService,
+                                annotationDocument.getDocument());
 
                     }
                     else {
@@ -17,14 +17,31 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.clarin.webanno.brat.page.curation;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import junit.framework.TestCase;
 
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
 import org.apache.uima.fit.factory.JCasBuilder;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationOption;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationSelection;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff;
+import de.tudarmstadt.ukp.dkpro.core.api.coref.type.CoreferenceChain;
+import de.tudarmstadt.ukp.dkpro.core.api.coref.type.CoreferenceLink;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
 
 public class TestCasDiff extends TestCase {
 
@@ -79,7 +96,135 @@ public class TestCasDiff extends TestCase {
     	// TODO 1 Token mehr
     }
 
-    @SuppressWarnings("unused")
+    public void testFingerprintDiffMatchesPairwiseDiff() throws Exception {
+        Map<String, JCas> casByUser = new LinkedHashMap<String, JCas>();
+        JCas jCas1 = JCasFactory.createJCas();
+        JCasBuilder builder1 = new JCasBuilder(jCas1);
+        getCas1(builder1, jCas1);
+        builder1.close();
+        casByUser.put("user1", jCas1);
+        JCas jCas2 = JCasFactory.createJCas();
+        JCasBuilder builder2 = new JCasBuilder(jCas2);
+        getCas2(builder2, jCas2);
+        builder2.close();
+        casByUser.put("user2", jCas2);
+
+        List<Type> entryTypes = new ArrayList<Type>();
+        entryTypes.add(CasUtil.getType(jCas1.getCas(), POS.class));
+        int end = jCas1.getDocumentText().length();
+
+        List<AnnotationOption> expected = CasDiff.doPairwiseDiff(entryTypes, casByUser, 0, end);
+        List<AnnotationOption> actual = CasDiff.doDiff(entryTypes, casByUser, 0, end);
+
+        assertEquals(normalize(expected), normalize(actual));
+        // "Hallo" differs, "Welt" and "!" agree
+        assertEquals(3, actual.size());
+    }
+
+    public void testFingerprintDiffMatchesPairwiseDiffOnSyntheticDocument() throws Exception {
+        int users = 3;
+        int tokens = 500;
+
+        Map<String, JCas> casByUser = new LinkedHashMap<String, JCas>();
+        for (int u = 0; u < users; u++) {
+            JCas jCas = JCasFactory.createJCas();
+            JCasBuilder builder = new JCasBuilder(jCas);
+            List<Token> tokenList = new ArrayList<Token>();
+            CoreferenceLink previousLink = null;
+            for (int i = 0; i < tokens; i++) {
+                Token token = builder.add("tok", Token.class);
+                builder.add(" ");
+                tokenList.add(token);
+                POS pos = new POS(jCas, token.getBegin(), token.getEnd());
+                // Every user disagrees on every tenth token
+                pos.setPosValue(i % 10 == 0 ? "P" + u : "N");
+                pos.addToIndexes();
+
+                if (i > 0) {
+                    // Relation layer: the governors of every seventh dependency differ
+                    Dependency dependency = new Dependency(jCas, token.getBegin(),
+                            token.getEnd());
+                    dependency.setGovernor(tokenList.get(i % 7 == 0 ? u : i - 1));
+                    dependency.setDependent(token);
+                    dependency.setDependencyType(i % 11 == 0 ? "D" + u : "dep");
+                    dependency.addToIndexes();
+                }
+
+                if (i % 20 == 0) {
+                    // Chain layer: one chain through every twentieth token. One link is labeled
+                    // differently by each user, so the links before it disagree as well.
+                    CoreferenceLink link = new CoreferenceLink(jCas, token.getBegin(),
+                            token.getEnd());
+                    link.setReferenceType(i == 300 ? "R" + u : "NAM");
+                    link.setReferenceRelation("coreference");
+                    link.addToIndexes();
+                    if (previousLink == null) {
+                        CoreferenceChain chain = new CoreferenceChain(jCas);
+                        chain.setFirst(link);
+                        chain.addToIndexes();
+                    }
+                    else {
+                        previousLink.setNext(link);
+                    }
+                    previousLink = link;
+                }
+            }
+            builder.close();
+            casByUser.put("user" + u, jCas);
+        }
+
+        JCas jCas0 = casByUser.get("user0");
+        int end = jCas0.getDocumentText().length();
+
+        List<Type> entryTypes = new ArrayList<Type>();
+        entryTypes.add(CasUtil.getType(jCas0.getCas(), POS.class));
+        entryTypes.add(CasUtil.getType(jCas0.getCas(), Dependency.class));
+        assertEquals(normalize(CasDiff.doPairwiseDiff(entryTypes, casByUser, 0, end)),
+                normalize(CasDiff.doDiff(entryTypes, casByUser, 0, end)));
+
+        // The pairwise diff also adds the following links of a chain to the option of a link, so
+        // only the selections are compared for the chain layer
+        List<Type> chainTypes = new ArrayList<Type>();
+        chainTypes.add(CasUtil.getType(jCas0.getCas(), CoreferenceLink.class));
+        List<AnnotationOption> actual = CasDiff.doDiff(chainTypes, casByUser, 0, end);
+        assertEquals(selections(CasDiff.doPairwiseDiff(chainTypes, casByUser, 0, end)),
+                selections(actual));
+        // The link at 300 and the 15 links before it disagree, the 9 links after it agree
+        assertEquals(tokens / 20, actual.size());
+        int agreeing = 0;
+        for (AnnotationOption option : actual) {
+            if (option.getAnnotationSelections().size() == 1) {
+                agreeing++;
+            }
+        }
+        assertEquals(tokens / 20 - 16, agreeing);
+    }
+
+    /**
+     * Reduce the options to the user/address assignments of their selections, ignoring order.
+     */
+    private Set<Set<Map<String, Integer>>> normalize(List<AnnotationOption> aOptions) {
+        Set<Set<Map<String, Integer>>> result = new HashSet<Set<Map<String, Integer>>>();
+        for (AnnotationOption option : aOptions) {
+            result.add(selections(Collections.singletonList(option)));
+        }
+        return result;
+    }
+
+    /**
+     * Reduce the options to the user/address assignments of all their selections, ignoring the
+     * options they belong to.
+     */
+    private Set<Map<String, Integer>> selections(List<AnnotationOption> aOptions) {
+        Set<Map<String, Integer>> selections = new HashSet<Map<String, Integer>>();
+        for (AnnotationOption option : aOptions) {
+            for (AnnotationSelection selection : option.getAnnotationSelections()) {
+                selections.add(selection.getAddressByUsername());
+            }
+        }
+        return selections;
+    }
+
     private void getCas1(JCasBuilder aBuilder, JCas aJCas) {
     	Token token1 = aBuilder.add("Hallo",Token.class);
     	POS pos1 = new POS(aJCas, token1.getBegin(), token1.getEnd());
@@ -98,7 +243,6 @@ public class TestCasDiff extends TestCase {
     	pos3.addToIndexes();
     }
 
-    @SuppressWarnings("unused")
     private void getCas2(JCasBuilder aBuilder, JCas aJCas) {
     	Token token1 = aBuilder.add("Hallo",Token.class);
     	POS pos1 = new POS(aJCas, token1.getBegin(), token1.getEnd());